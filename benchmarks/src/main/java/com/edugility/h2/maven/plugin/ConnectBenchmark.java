@@ -0,0 +1,121 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.sql.Connection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of opening and closing a JDBC {@link
+ * Connection} to a spawned H2 server through each kind of {@link
+ * Service}.
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectBenchmark extends ServerBenchmark {
+
+  /**
+   * The identifier of the {@link Service} to connect through.
+   */
+  @Param({"tcp", "pg"})
+  public String service;
+
+  /**
+   * The {@link SpawnH2Mojo} that spawned the trial's server.
+   */
+  private SpawnH2Mojo mojo;
+
+  /**
+   * The {@link Process} of the trial's server.
+   */
+  private Process process;
+
+  /**
+   * Spawns the trial's server, and creates its database by
+   * connecting to it once.
+   *
+   * @exception Exception if the server could not be spawned
+   */
+  @Setup(Level.Trial)
+  public void setUpServer() throws Exception {
+    this.mojo = this.newMojo(true);
+    this.process = spawn(this.mojo);
+    connect(this.mojo, "tcp").close();
+  }
+
+  /**
+   * Stops the trial's server.
+   *
+   * @exception Exception if the server could not be stopped
+   */
+  @TearDown(Level.Trial)
+  public void tearDownServer() throws Exception {
+    if (this.process != null) {
+      try {
+        stop(this.mojo, this.process);
+      } finally {
+        this.process = null;
+      }
+    }
+  }
+
+  /**
+   * Opens and closes a {@link Connection}.
+   *
+   * @exception Exception if the {@link Connection} could not be
+   * opened
+   */
+  @Benchmark
+  public void connect() throws Exception {
+    connect(this.mojo, this.service).close();
+  }
+
+}
@@ -0,0 +1,225 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of simple and batched statements executed
+ * against a spawned H2 server through each kind of {@link Service}.
+ *
+ * <p>The trial's database holds a single table of {@link #ROWS} rows.
+ * The simple benchmark looks rows up by primary key; the batched
+ * benchmark merges {@link #BATCH_SIZE} rows per batch and commits,
+ * overwriting existing rows so that the table does not grow.
+ * Throughput is reported in rows per second.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark extends ServerBenchmark {
+
+  /**
+   * The number of rows in the benchmark table.
+   */
+  static final int ROWS = 10000;
+
+  /**
+   * The number of rows in each batch.
+   */
+  static final int BATCH_SIZE = 100;
+
+  /**
+   * The identifier of the {@link Service} to connect through.
+   */
+  @Param({"tcp", "pg"})
+  public String service;
+
+  /**
+   * The {@link SpawnH2Mojo} that spawned the trial's server.
+   */
+  private SpawnH2Mojo mojo;
+
+  /**
+   * The {@link Process} of the trial's server.
+   */
+  private Process process;
+
+  /**
+   * The {@link Connection} the benchmarks use.
+   */
+  private Connection connection;
+
+  /**
+   * The statement looking a row up by primary key.
+   */
+  private PreparedStatement select;
+
+  /**
+   * The statement merging a row.
+   */
+  private PreparedStatement merge;
+
+  /**
+   * The primary key of the next row to look up or merge.
+   */
+  private int next;
+
+  /**
+   * Spawns the trial's server, fills the benchmark table and prepares
+   * the benchmark statements.
+   *
+   * @exception Exception if the server could not be spawned or
+   * prepared
+   */
+  @Setup(Level.Trial)
+  public void setUpServer() throws Exception {
+    this.mojo = this.newMojo(true);
+    this.process = spawn(this.mojo);
+    final Connection tcp = connect(this.mojo, "tcp");
+    try {
+      final Statement statement = tcp.createStatement();
+      statement.execute("CREATE TABLE ITEM(ID INT PRIMARY KEY, NAME VARCHAR(64))");
+      statement.execute(String.format("INSERT INTO ITEM SELECT X, 'item ' || X FROM SYSTEM_RANGE(0, %d)", ROWS - 1));
+      statement.close();
+    } finally {
+      tcp.close();
+    }
+    this.connection = connect(this.mojo, this.service);
+    this.select = this.connection.prepareStatement("SELECT NAME FROM ITEM WHERE ID = ?");
+    this.merge = this.connection.prepareStatement("MERGE INTO ITEM(ID, NAME) KEY(ID) VALUES (?, ?)");
+    this.next = 0;
+  }
+
+  /**
+   * Closes the benchmark {@link Connection} and stops the trial's
+   * server.
+   *
+   * @exception Exception if the server could not be stopped
+   */
+  @TearDown(Level.Trial)
+  public void tearDownServer() throws Exception {
+    try {
+      if (this.connection != null) {
+        this.connection.close();
+        this.connection = null;
+      }
+    } finally {
+      if (this.process != null) {
+        try {
+          stop(this.mojo, this.process);
+        } finally {
+          this.process = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Looks up one row by primary key.
+   *
+   * @param blackhole the {@link Blackhole} that consumes the result;
+   * must not be {@code null}
+   *
+   * @exception Exception if the statement failed
+   */
+  @Benchmark
+  public void simpleQuery(final Blackhole blackhole) throws Exception {
+    this.select.setInt(1, this.nextId());
+    final ResultSet resultSet = this.select.executeQuery();
+    while (resultSet.next()) {
+      blackhole.consume(resultSet.getString(1));
+    }
+    resultSet.close();
+  }
+
+  /**
+   * Merges {@link #BATCH_SIZE} rows in one batch and commits.
+   *
+   * @exception Exception if the batch failed
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void batchedMerge() throws Exception {
+    this.connection.setAutoCommit(false);
+    try {
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        final int id = this.nextId();
+        this.merge.setInt(1, id);
+        this.merge.setString(2, "merged " + id);
+        this.merge.addBatch();
+      }
+      this.merge.executeBatch();
+      this.connection.commit();
+    } finally {
+      this.connection.setAutoCommit(true);
+    }
+  }
+
+  /**
+   * Returns the primary key of the next row to look up or merge,
+   * cycling through the benchmark table.
+   *
+   * @return a primary key between {@code 0} and {@link #ROWS}, exclusive
+   */
+  private final int nextId() {
+    final int id = this.next;
+    this.next = (id + 1) % ROWS;
+    return id;
+  }
+
+}
@@ -0,0 +1,269 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The configuration shared by the benchmarks that spawn H2 servers
+ * the way the {@link SpawnH2Mojo spawn goal} does: the {@linkplain
+ * AbstractH2Mojo#getStorage() storage}, the {@linkplain
+ * AbstractH2Mojo#getJavaOptions() Java options} and whether
+ * {@linkplain AbstractH2Mojo#getClassDataSharing() class data
+ * sharing} is used.
+ *
+ * <p>Each trial works in a new temporary directory, which holds the
+ * servers' databases and state and the class data sharing archive,
+ * and which is deleted when the trial ends.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public abstract class ServerBenchmark {
+
+  /**
+   * The name of the database the benchmarks use.
+   */
+  static final String DATABASE = "bench";
+
+  /**
+   * The user and password the benchmarks use; the {@code pg} service
+   * does not accept an empty password.
+   */
+  static final String CREDENTIALS = "sa";
+
+  /**
+   * Where spawned servers keep their databases.
+   */
+  @Param({"disk", "nioMapped", "memFS"})
+  public String storage;
+
+  /**
+   * The Java options spawned servers run with, separated by spaces.
+   */
+  @Param({"", "-XX:TieredStopAtLevel=1 -XX:+UseSerialGC"})
+  public String javaOptions;
+
+  /**
+   * Whether spawned servers use a class data sharing archive.
+   */
+  @Param({"true", "false"})
+  public boolean classDataSharing;
+
+  /**
+   * The temporary directory of the current trial.
+   */
+  private File directory;
+
+  /**
+   * The number of mojos created so far in the current trial, used to
+   * give each one its own state directory.
+   */
+  private int mojos;
+
+  /**
+   * Creates the trial's temporary directory and, if so configured,
+   * prepares the class data sharing archive outside of any
+   * measurement.
+   *
+   * @exception Exception if the trial could not be set up
+   */
+  @Setup(Level.Trial)
+  public void setUpTrial() throws Exception {
+    this.directory = File.createTempFile("h2-maven-plugin-benchmark", "");
+    if (!this.directory.delete() || !this.directory.mkdir()) {
+      throw new IOException("Could not create " + this.directory);
+    }
+    this.mojos = 0;
+    this.newMojo(false);
+  }
+
+  /**
+   * Deletes the trial's temporary directory.
+   */
+  @TearDown(Level.Trial)
+  public void tearDownTrial() {
+    if (this.directory != null) {
+      SeedCache.delete(this.directory);
+      this.directory = null;
+    }
+  }
+
+  /**
+   * Returns a new {@link SpawnH2Mojo} configured for this trial, with
+   * a {@code tcp} service, and optionally a {@code pg} service, on
+   * automatically chosen ports, and its class data sharing archive
+   * prepared.
+   *
+   * @param pg whether to add a {@code pg} service
+   *
+   * @return a new {@link SpawnH2Mojo}; never {@code null}
+   *
+   * @exception Exception if the class data sharing archive could not
+   * be prepared
+   */
+  protected SpawnH2Mojo newMojo(final boolean pg) throws Exception {
+    final SpawnH2Mojo mojo = new SpawnH2Mojo();
+    mojo.setLog(new QuietLog());
+    final List<Service> services = new ArrayList<Service>();
+    services.add(new Service("tcp", 0, false));
+    if (pg) {
+      services.add(new Service("pg", 0, false));
+    }
+    mojo.setServices(services);
+    mojo.setDatabase(DATABASE);
+    mojo.setUser(CREDENTIALS);
+    mojo.setPassword(CREDENTIALS);
+    mojo.setStorage(this.storage);
+    if (!this.javaOptions.trim().isEmpty()) {
+      mojo.setJavaOptions(this.javaOptions.trim().split("\\s+"));
+    }
+    mojo.setReadiness("jdbc");
+    mojo.setBaseDirectory(new File(this.directory, "data"));
+    mojo.setStateDirectory(new File(this.directory, "state-" + this.mojos++));
+    mojo.setClassDataSharing(this.classDataSharing);
+    mojo.setClassDataSharingDirectory(new File(this.directory, "cds"));
+    mojo.prepareClassDataSharing();
+    return mojo;
+  }
+
+  /**
+   * Spawns a server using the supplied {@link SpawnH2Mojo} and waits
+   * for it to become ready.
+   *
+   * @param mojo the {@link SpawnH2Mojo}; must not be {@code null}
+   *
+   * @return the server's {@link Process}; never {@code null}
+   *
+   * @exception Exception if the server did not become ready
+   */
+  protected static Process spawn(final SpawnH2Mojo mojo) throws Exception {
+    final Process process = mojo.spawnServer();
+    try {
+      mojo.awaitReadiness(process);
+    } catch (final Exception kaboom) {
+      process.destroy();
+      throw kaboom;
+    }
+    return process;
+  }
+
+  /**
+   * Asks the server spawned by the supplied {@link SpawnH2Mojo} to
+   * shut down, and waits for its {@link Process} to exit.
+   *
+   * @param mojo the {@link SpawnH2Mojo}; must not be {@code null}
+   *
+   * @param process the server's {@link Process}; must not be {@code
+   * null}
+   *
+   * @exception Exception if the server could not be shut down
+   */
+  protected static void stop(final SpawnH2Mojo mojo, final Process process) throws Exception {
+    try {
+      mojo.shutdownServer();
+    } finally {
+      process.waitFor();
+    }
+  }
+
+  /**
+   * Opens a {@link Connection} to the benchmark database through the
+   * supplied {@link Service} of the server spawned by the supplied
+   * {@link SpawnH2Mojo}.
+   *
+   * @param mojo the {@link SpawnH2Mojo}; must not be {@code null}
+   *
+   * @param service the identifier of the service; either {@code tcp}
+   * or {@code pg}
+   *
+   * @return a new {@link Connection}; never {@code null}
+   *
+   * @exception SQLException if the connection could not be opened
+   */
+  protected static Connection connect(final SpawnH2Mojo mojo, final String service) throws SQLException {
+    final int port = mojo.getService(service).getPort();
+    final String url;
+    if ("pg".equals(service)) {
+      url = String.format("jdbc:postgresql://localhost:%d/%s", port, DATABASE);
+    } else {
+      url = String.format("jdbc:h2:tcp://localhost:%d/%s", port, DATABASE);
+    }
+    return DriverManager.getConnection(url, CREDENTIALS, CREDENTIALS);
+  }
+
+  /**
+   * A {@link SystemStreamLog} that reports only warnings and errors,
+   * so that the plugin's progress messages don't interleave with
+   * JMH's output.
+   *
+   * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+   *
+   * @since 1.1-SNAPSHOT
+   */
+  private static final class QuietLog extends SystemStreamLog {
+
+    /**
+     * Returns {@code false}.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public final boolean isDebugEnabled() {
+      return false;
+    }
+
+    /**
+     * Returns {@code false}.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public final boolean isInfoEnabled() {
+      return false;
+    }
+
+  }
+
+}
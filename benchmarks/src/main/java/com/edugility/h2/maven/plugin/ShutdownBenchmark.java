@@ -0,0 +1,112 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time from {@linkplain AbstractH2Mojo#shutdownServer()
+ * asking} a spawned H2 server to shut down until its process has
+ * exited.
+ *
+ * <p>A new server is spawned, outside of the measurement, before
+ * every invocation, so every invocation is measured on its own.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ShutdownBenchmark extends ServerBenchmark {
+
+  /**
+   * The {@link SpawnH2Mojo} that spawned the server of the current
+   * invocation.
+   */
+  private SpawnH2Mojo mojo;
+
+  /**
+   * The {@link Process} of the server of the current invocation;
+   * {@code null} once it has been stopped.
+   */
+  private Process process;
+
+  /**
+   * Spawns the server the next invocation stops, and waits for it to
+   * become ready.
+   *
+   * @exception Exception if the server did not become ready
+   */
+  @Setup(Level.Invocation)
+  public void setUpInvocation() throws Exception {
+    this.mojo = this.newMojo(false);
+    this.process = spawn(this.mojo);
+  }
+
+  /**
+   * Destroys the server of the last invocation if it could not be
+   * stopped.
+   */
+  @TearDown(Level.Invocation)
+  public void tearDownInvocation() {
+    if (this.process != null) {
+      this.process.destroy();
+      this.process = null;
+    }
+  }
+
+  /**
+   * Stops the server and waits for its process to exit.
+   *
+   * @exception Exception if the server could not be stopped
+   */
+  @Benchmark
+  public void shutdown() throws Exception {
+    stop(this.mojo, this.process);
+    this.process = null;
+  }
+
+}
@@ -0,0 +1,112 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time from {@linkplain AbstractH2Mojo#spawnServer()
+ * spawning} an H2 server until it answers a JDBC query.
+ *
+ * <p>Each invocation starts a whole Java virtual machine, so every
+ * invocation is measured on its own.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SpawnBenchmark extends ServerBenchmark {
+
+  /**
+   * The {@link SpawnH2Mojo} used by the current invocation.
+   */
+  private SpawnH2Mojo mojo;
+
+  /**
+   * The {@link Process} spawned by the current invocation; {@code
+   * null} if there is none.
+   */
+  private Process process;
+
+  /**
+   * Creates the {@link SpawnH2Mojo} for the next invocation.
+   *
+   * @exception Exception if the {@link SpawnH2Mojo} could not be
+   * created
+   */
+  @Setup(Level.Invocation)
+  public void setUpInvocation() throws Exception {
+    this.mojo = this.newMojo(false);
+  }
+
+  /**
+   * Stops the server spawned by the last invocation.
+   *
+   * @exception Exception if the server could not be stopped
+   */
+  @TearDown(Level.Invocation)
+  public void tearDownInvocation() throws Exception {
+    if (this.process != null) {
+      try {
+        stop(this.mojo, this.process);
+      } finally {
+        this.process = null;
+      }
+    }
+  }
+
+  /**
+   * Spawns a server and waits for it to become ready.
+   *
+   * @exception Exception if the server did not become ready
+   */
+  @Benchmark
+  public void timeToReady() throws Exception {
+    this.process = spawn(this.mojo);
+  }
+
+}
@@ -28,24 +28,53 @@
 package com.edugility.h2.maven.plugin;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 
+import java.lang.ProcessBuilder.Redirect;
+
+import java.lang.management.ManagementFactory;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.URISyntaxException;
 import java.net.URL;
 
 import java.security.CodeSource;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.ProtectionDomain;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.WeakHashMap;
 
 import org.apache.maven.plugin.AbstractMojo;
 
 import org.apache.maven.plugin.logging.Log;
 
+import org.apache.maven.project.MavenProject;
+
 import org.h2.server.TcpServer;
 
 import org.h2.tools.Server;
@@ -63,6 +92,91 @@ import org.h2.tools.Server;
  */
 public abstract class AbstractH2Mojo extends AbstractMojo {
 
+  /**
+   * The key under which {@linkplain #registerServer(Server)
+   * registered} {@link Server}s are stored in the {@linkplain
+   * #getPluginContext() plugin context}.
+   */
+  private static final String SERVERS_KEY = AbstractH2Mojo.class.getName() + ".servers";
+
+  /**
+   * The key under which the {@link Connection}s that keep {@linkplain
+   * #getQueryStatistics() query statistics} alive are stored in the
+   * {@linkplain #getPluginContext() plugin context}.
+   */
+  private static final String QUERY_STATISTICS_KEY = AbstractH2Mojo.class.getName() + ".queryStatistics";
+
+  /**
+   * The key under which the {@link Connection}s that keep statement
+   * tracing on for {@linkplain #getTraceAnalysis() trace analysis}
+   * are stored in the {@linkplain #getPluginContext() plugin
+   * context}.
+   */
+  private static final String TRACE_CONNECTIONS_KEY = AbstractH2Mojo.class.getName() + ".traceConnections";
+
+  /**
+   * The key under which the {@link TraceAnalyzer}s of servers spawned
+   * with {@linkplain #getTraceAnalysis() trace analysis} are stored
+   * in the {@linkplain #getPluginContext() plugin context}.
+   */
+  private static final String TRACE_ANALYZERS_KEY = AbstractH2Mojo.class.getName() + ".traceAnalyzers";
+
+  /**
+   * The key under which the {@link Connection}s that keep databases
+   * with a {@linkplain Checkpoint checkpoint} open are stored in the
+   * {@linkplain #getPluginContext() plugin context}.
+   */
+  private static final String CHECKPOINT_CONNECTIONS_KEY = AbstractH2Mojo.class.getName() + ".checkpointConnections";
+
+  /**
+   * The plugin context key under which the {@link JmxSampler}s of
+   * servers spawned in this build are shared with the {@link
+   * StopH2Mojo stop goal}.
+   */
+  private static final String JMX_SAMPLERS_KEY = AbstractH2Mojo.class.getName() + ".jmxSamplers";
+
+  /**
+   * The plugin context key under which the {@link ServerSizing}
+   * {@linkplain #sizeServers() chosen} for the servers of this build
+   * is shared with later goals.
+   */
+  private static final String SERVER_SIZING_KEY = AbstractH2Mojo.class.getName() + ".serverSizing";
+
+  /**
+   * The plugin context key under which the {@linkplain #getBuildId()
+   * identifier of this build} is shared between goals.
+   */
+  private static final String BUILD_ID_KEY = AbstractH2Mojo.class.getName() + ".buildId";
+
+  /**
+   * The number of lines of a spawned server's output that are kept,
+   * and {@linkplain #logServerOutput(Process) logged} if it fails.
+   */
+  private static final int OUTPUT_LINES = 100;
+
+  /**
+   * The {@link ServerOutput}s draining the output of the {@link
+   * Process}es {@linkplain #spawnServer(ServerInstance) spawned} by
+   * this mojo.  This field is never {@code null}.
+   */
+  private final Map<Process, ServerOutput> outputs = Collections.synchronizedMap(new WeakHashMap<Process, ServerOutput>());
+
+  /**
+   * The {@link System#nanoTime()} values at which the {@link
+   * Process}es {@linkplain #spawnServer(ServerInstance) spawned} by
+   * this mojo were started.  This field is never {@code null}.
+   */
+  private final Map<Process, Long> processStarts = Collections.synchronizedMap(new WeakHashMap<Process, Long>());
+
+  /**
+   * The ports of the JMX connectors of the servers {@linkplain
+   * #spawnServer(ServerInstance) spawned} by this mojo with
+   * {@linkplain #getJmxSampling() JMX sampling}, indexed by
+   * {@linkplain ServerInstance#getIndex() instance index}.  This field
+   * is never {@code null}.
+   */
+  private final Map<Integer, Integer> jmxPorts = Collections.synchronizedMap(new HashMap<Integer, Integer>());
+
   /**
    * The {@link Service}s to spawn.
    *
@@ -91,7 +205,8 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
 
   /**
    * The port to run the H2 TCP server on; {@code 9092} by default.
-   * See <a
+   * If {@code 0}, a free port is chosen when the server starts and
+   * {@linkplain #publishPorts() published}.  See <a
    * href="http://www.h2database.com/javadoc/org/h2/tools/Server.html#main_String...">the
    * documentation for the {@code Server} class</a> for more details.
    *
@@ -187,6 +302,357 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
    */
   private String[] javaOptions;  
 
+  /**
+   * How {@link SpawnH2Mojo} decides that a spawned server is ready:
+   * {@code none} (do not wait at all), {@code connect} (wait until
+   * every {@link Service} accepts connections) or {@code jdbc} (as
+   * {@code connect}, but additionally wait until the {@code tcp}
+   * {@link Service} executes {@code SELECT 1}).
+   *
+   * @parameter expression="${h2.readiness}" property="readiness" default-value="connect"
+   */
+  private String readiness;
+
+  /**
+   * Where spawned servers keep their databases: {@code disk} (files
+   * beneath the {@linkplain #getBaseDirectory() base directory}),
+   * {@code nioMapped} (the same files, memory-mapped), {@code memFS}
+   * or {@code memLZF} (on the Java heap, the latter compressed), or
+   * {@code nioMemFS} or {@code nioMemLZF} (in direct memory outside
+   * the Java heap, the latter compressed).  Databases kept in memory
+   * disappear when the server stops.
+   *
+   * @parameter expression="${h2.storage}" property="storage" default-value="disk"
+   */
+  private String storage;
+
+  /**
+   * The size in megabytes that databases kept in memory are expected
+   * to reach; used to size the memory of spawned servers when the
+   * {@linkplain #getStorage() storage} is not {@code disk}.
+   *
+   * @parameter expression="${h2.storageSize}" property="storageSize" default-value="256"
+   */
+  private long storageSize;
+
+  /**
+   * Whether the heap size, garbage collector and page cache size of
+   * spawned servers are {@linkplain ServerSizing chosen
+   * automatically} from the size of their data, the {@linkplain
+   * #getStorage() storage} and the machine's physical memory.
+   * {@linkplain #getJavaOptions() Java options} that set the heap size
+   * or garbage collector always win.
+   *
+   * @parameter expression="${h2.autoSizing}" property="autoSizing" default-value="false"
+   */
+  private boolean autoSizing;
+
+  /**
+   * The name of the {@linkplain PerformanceProfile performance
+   * profile}, which trades durability for speed or speed for
+   * durability: {@code default} (H2's own settings), {@code durable},
+   * {@code fast-test} or {@code bulk-load}.
+   *
+   * @parameter expression="${h2.performanceProfile}" property="performanceProfile" default-value="default"
+   */
+  private String performanceProfile;
+
+  /**
+   * Whether servers keep their database files in a directory on a
+   * RAM-backed file system instead of in the {@linkplain
+   * #getBaseDirectory() base directory}.  Existing database files are
+   * copied there before the server starts, and the directory is
+   * deleted when the server stops.
+   *
+   * @parameter expression="${h2.ramDisk}" property="ramDisk" default-value="false"
+   */
+  private boolean ramDisk;
+
+  /**
+   * The directory on a RAM-backed file system beneath which {@linkplain
+   * #getRamDisk() RAM disk} directories are created.
+   *
+   * @parameter expression="${h2.ramDiskDirectory}" property="ramDiskDirectory" default-value="/dev/shm"
+   */
+  private File ramDiskDirectory;
+
+  /**
+   * Whether the database files of a {@linkplain #getRamDisk() RAM
+   * disk} are copied back to the {@linkplain #getBaseDirectory() base
+   * directory} when the server stops.
+   *
+   * @parameter expression="${h2.ramDiskSyncBack}" property="ramDiskSyncBack" default-value="false"
+   */
+  private boolean ramDiskSyncBack;
+
+  /**
+   * The number of milliseconds to wait for a spawned server to become
+   * ready before giving up.
+   *
+   * @parameter expression="${h2.readinessTimeout}" property="readinessTimeout" default-value="30000"
+   */
+  private long readinessTimeout;
+
+  /**
+   * The number of milliseconds to wait for a spawned server to exit
+   * after being asked to shut down, before killing it.
+   *
+   * @parameter expression="${h2.shutdownTimeout}" property="shutdownTimeout" default-value="10000"
+   */
+  private long shutdownTimeout;
+
+  /**
+   * The directory holding the {@linkplain ServerState bookkeeping
+   * files} of spawned servers; by default, {@code h2-maven-plugin} in
+   * the project's build directory.
+   *
+   * @parameter expression="${h2.stateDirectory}" property="stateDirectory" default-value="${project.build.directory}/h2-maven-plugin"
+   */
+  private File stateDirectory;
+
+  /**
+   * The directory into which reports, such as the {@linkplain
+   * #getQueryStatistics() query statistics} report, are written; by
+   * default, {@code h2-reports} in the project's build directory.
+   *
+   * @parameter expression="${h2.reportDirectory}" property="reportDirectory" default-value="${project.build.directory}/h2-reports"
+   */
+  private File reportDirectory;
+
+  /**
+   * Whether servers collect statistics about the statements they
+   * execute against the {@linkplain #getDatabase() database}, which
+   * the {@link StopH2Mojo stop goal} of the same build reports.
+   *
+   * @parameter expression="${h2.queryStatistics}" property="queryStatistics" default-value="false"
+   */
+  private boolean queryStatistics;
+
+  /**
+   * The number of {@linkplain #getQueryStatistics() query statistics}
+   * entries, ranked by total execution time, that are logged when
+   * servers stop; the written report always contains every entry.
+   *
+   * @parameter expression="${h2.queryStatisticsTop}" property="queryStatisticsTop" default-value="10"
+   */
+  private int queryStatisticsTop = 10;
+
+  /**
+   * Whether spawned servers trace every statement they execute
+   * against the {@linkplain #getDatabase() database}, so that a
+   * {@link TraceAnalyzer} can aggregate the statements by fingerprint
+   * while the build runs; the {@link StopH2Mojo stop goal} of the
+   * same build reports the slowest and most frequent.
+   *
+   * @parameter expression="${h2.traceAnalysis}" property="traceAnalysis" default-value="false"
+   */
+  private boolean traceAnalysis;
+
+  /**
+   * The number of statement fingerprints, by total time and by
+   * frequency, that are logged when servers stop if {@linkplain
+   * #getTraceAnalysis() trace analysis} is on.
+   *
+   * @parameter expression="${h2.traceAnalysisTop}" property="traceAnalysisTop" default-value="10"
+   */
+  private int traceAnalysisTop = 10;
+
+  /**
+   * Whether spawned servers are started with a JMX connector that
+   * listens on the loopback interface only, so that a {@link
+   * JmxSampler} can record their H2 MBeans while the build runs; the
+   * {@link StopH2Mojo stop goal} of the same build logs a summary.
+   *
+   * @parameter expression="${h2.jmxSampling}" property="jmxSampling" default-value="false"
+   */
+  private boolean jmxSampling;
+
+  /**
+   * The number of milliseconds between {@linkplain #getJmxSampling()
+   * JMX samples}.
+   *
+   * @parameter expression="${h2.jmxSamplingInterval}" property="jmxSamplingInterval" default-value="1000"
+   */
+  private long jmxSamplingInterval = 1000L;
+
+  /**
+   * Whether a spawned server should be a <i>daemon</i> that outlives
+   * the build and is reused by later builds with the same
+   * {@linkplain #getFingerprint() configuration}.  In daemon mode,
+   * {@link StopH2Mojo} releases the server rather than stopping it.
+   *
+   * @parameter expression="${h2.daemon}" property="daemon"
+   */
+  private boolean daemon;
+
+  /**
+   * The number of seconds a {@linkplain #getDaemon() daemon} may sit
+   * idle, with no build using it, before it stops itself.
+   *
+   * @parameter expression="${h2.daemonIdleTimeout}" property="daemonIdleTimeout" default-value="1800"
+   */
+  private long daemonIdleTimeout;
+
+  /**
+   * The directory beneath which {@linkplain #getDaemon() daemons}
+   * keep their bookkeeping files; by default, {@code
+   * .h2-maven-plugin/daemons} in the user's home directory.
+   *
+   * @parameter expression="${h2.daemonDirectory}" property="daemonDirectory"
+   */
+  private File daemonDirectory;
+
+  /**
+   * Whether spawned servers use a class data sharing archive of the
+   * H2 classes, created by a training run the first time a server is
+   * spawned with a given Java installation, H2 jar and set of Java
+   * options.  Requires Java 13 or later; ignored otherwise.
+   *
+   * @parameter expression="${h2.classDataSharing}" property="classDataSharing" default-value="true"
+   */
+  private boolean classDataSharing;
+
+  /**
+   * The directory holding {@linkplain #getClassDataSharing() class
+   * data sharing} archives; by default, {@code .h2-maven-plugin/cds}
+   * in the user's home directory.
+   *
+   * @parameter expression="${h2.classDataSharingDirectory}" property="classDataSharingDirectory"
+   */
+  private File classDataSharingDirectory;
+
+  /**
+   * The class data sharing archive spawned servers use, once
+   * {@linkplain #prepareClassDataSharing() prepared}; {@code null}
+   * otherwise.
+   */
+  private File classDataSharingArchive;
+
+  /**
+   * The file to which {@linkplain #recordTiming(ServerInstance,
+   * String) lifecycle timing events} are appended as JSON lines; if
+   * {@code null}, no events are recorded.
+   *
+   * @parameter expression="${h2.timingFile}" property="timingFile"
+   */
+  private File timingFile;
+
+  /**
+   * The {@link TimingLog} this mojo records lifecycle timing events
+   * with, created when the first event is recorded; {@code null}
+   * before then, or if no {@linkplain #getTimingFile() timing file}
+   * is configured.
+   */
+  private TimingLog timingLog;
+
+  /**
+   * The name of the database, relative to the {@linkplain
+   * #getBaseDirectory() base directory}, that {@linkplain
+   * #getJdbcUrl() published JDBC URLs} refer to.
+   *
+   * @parameter expression="${h2.database}" property="database" default-value="test"
+   */
+  private String database;
+
+  /**
+   * The user name with which goals that load data connect to the
+   * {@linkplain #getDatabase() database}.
+   *
+   * @parameter expression="${h2.user}" property="user" default-value="sa"
+   */
+  private String user;
+
+  /**
+   * The password with which goals that load data connect to the
+   * {@linkplain #getDatabase() database}.
+   *
+   * @parameter expression="${h2.password}" property="password" default-value=""
+   */
+  private String password;
+
+  /**
+   * The character encoding of SQL scripts and data files.
+   *
+   * @parameter expression="${h2.encoding}" property="encoding" default-value="${project.build.sourceEncoding}"
+   */
+  private String encoding;
+
+  /**
+   * The number of concurrent connections goals that load data may
+   * use.
+   *
+   * @parameter expression="${h2.threads}" property="threads" default-value="4"
+   */
+  private int threads;
+
+  /**
+   * The maximum number of statements or rows goals that load data
+   * send to the server in a single JDBC batch.
+   *
+   * @parameter expression="${h2.batchSize}" property="batchSize" default-value="1000"
+   */
+  private int batchSize;
+
+  /**
+   * The name of the {@linkplain Checkpoint checkpoint} that the
+   * {@code checkpoint} goal saves and the {@code reset} goal
+   * restores.
+   *
+   * @parameter expression="${h2.checkpoint}" property="checkpoint" default-value="default"
+   */
+  private String checkpoint;
+
+  /**
+   * The Maven project, into whose properties the ports and JDBC URL
+   * of started servers are {@linkplain #publishPorts() published}.
+   *
+   * @parameter expression="${project}"
+   * @readonly
+   */
+  private MavenProject project;
+
+  /**
+   * The number of independent servers to start, for example to match
+   * the {@code forkCount} of Failsafe.  When greater than {@code 1},
+   * server <i>n</i> uses the subdirectory {@code instance-}<i>n</i>
+   * of the {@linkplain #getBaseDirectory() base directory}, and each
+   * fixed port is offset by <i>n</i>&nbsp;-&nbsp;1.
+   *
+   * @parameter expression="${h2.instances}" property="instances" default-value="1"
+   */
+  private int instances;
+
+  /**
+   * SQL scripts that create and populate the {@linkplain
+   * #getDatabase() database} before the server starts.  The database
+   * files they produce are cached, keyed by the contents of the
+   * scripts, the H2 jar and the database name, so that the scripts
+   * only run again when one of those changes.  Any existing copy of
+   * the database in the {@linkplain #getBaseDirectory() base
+   * directory} is replaced.
+   *
+   * @parameter
+   */
+  private File[] seedScripts;
+
+  /**
+   * The directory holding cached {@linkplain #getSeedScripts()
+   * seeded} databases; by default, {@code .h2-maven-plugin/seeds} in
+   * the user's home directory.
+   *
+   * @parameter expression="${h2.seedCacheDirectory}" property="seedCacheDirectory"
+   */
+  private File seedCacheDirectory;
+
+  /**
+   * The size in megabytes beyond which the least recently used
+   * {@linkplain #getSeedScripts() seeded} databases are evicted from
+   * the {@linkplain #getSeedCacheDirectory() cache}.
+   *
+   * @parameter expression="${h2.seedCacheSize}" property="seedCacheSize" default-value="1024"
+   */
+  private long seedCacheSize;
+
   /**
    * Creates a new {@link AbstractH2Mojo}.
    */
@@ -196,6 +662,22 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
     this.setServices(Collections.singletonList(tcpService));
     this.setPort(Service.getDefaultPort("tcp"));
     this.setShutdownPassword("h2-maven-plugin");
+    this.setReadiness("connect");
+    this.setReadinessTimeout(30000L);
+    this.setShutdownTimeout(10000L);
+    this.setDaemonIdleTimeout(1800L);
+    this.setClassDataSharing(true);
+    this.setDatabase("test");
+    this.setInstances(1);
+    this.setStorage("disk");
+    this.setStorageSize(256L);
+    this.setPerformanceProfile("default");
+    this.setRamDiskDirectory(new File("/dev/shm"));
+    this.setSeedCacheSize(1024L);
+    this.setThreads(4);
+    this.setBatchSize(ScriptRunner.DEFAULT_BATCH_SIZE);
+    this.setCheckpoint("default");
+    this.setDaemonDirectory(new File(new File(new File(System.getProperty("user.home")), ".h2-maven-plugin"), "daemons"));
     this.setJava(new File(new File(new File(System.getProperty("java.home")), "bin"), "java"));
   }
 
@@ -355,25 +837,2665 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
   }
 
   /**
-   * Returns the {@link File} representing the path to the H2 jar file
-   * that is on the classpath.  This method never returns {@code
-   * null}.
+   * Returns the name of the database, relative to the {@linkplain
+   * #getBaseDirectory() base directory}, that {@linkplain
+   * #getJdbcUrl() published JDBC URLs} refer to.  This method never
+   * returns {@code null}.
+   *
+   * @return the database name; never {@code null}
+   */
+  public String getDatabase() {
+    return this.database;
+  }
+
+  /**
+   * Sets the name of the database, relative to the {@linkplain
+   * #getBaseDirectory() base directory}, that {@linkplain
+   * #getJdbcUrl() published JDBC URLs} refer to.
+   *
+   * @param database the database name; if {@code null} or empty,
+   * {@code test} will be used instead
+   */
+  public void setDatabase(String database) {
+    if (database == null) {
+      database = "";
+    } else {
+      database = database.trim();
+    }
+    if (database.isEmpty()) {
+      database = "test";
+    }
+    this.database = database;
+  }
+
+  /**
+   * Returns the user name with which goals that load data connect to
+   * the {@linkplain #getDatabase() database}.  This method never
+   * returns {@code null}.
+   *
+   * @return the user name; never {@code null}
+   */
+  public String getUser() {
+    return this.user == null ? "sa" : this.user;
+  }
+
+  /**
+   * Sets the user name with which goals that load data connect to
+   * the {@linkplain #getDatabase() database}.
+   *
+   * @param user the user name; may be {@code null} in which case
+   * {@code sa} will be used instead
+   */
+  public void setUser(final String user) {
+    this.user = user;
+  }
+
+  /**
+   * Returns the password with which goals that load data connect to
+   * the {@linkplain #getDatabase() database}.  This method never
+   * returns {@code null}.
+   *
+   * @return the password; never {@code null}
+   */
+  public String getPassword() {
+    return this.password == null ? "" : this.password;
+  }
+
+  /**
+   * Sets the password with which goals that load data connect to the
+   * {@linkplain #getDatabase() database}.
+   *
+   * @param password the password; may be {@code null} in which case
+   * the empty password will be used instead
+   */
+  public void setPassword(final String password) {
+    this.password = password;
+  }
+
+  /**
+   * Returns the character encoding of SQL scripts and data files.
+   * This method never returns {@code null}.
+   *
+   * @return the name of a character encoding; never {@code null}
+   */
+  public String getEncoding() {
+    if (this.encoding == null || this.encoding.trim().isEmpty()) {
+      return "UTF-8";
+    }
+    return this.encoding;
+  }
+
+  /**
+   * Sets the character encoding of SQL scripts and data files.
+   *
+   * @param encoding the name of a character encoding; may be {@code
+   * null} in which case {@code UTF-8} will be used instead
+   */
+  public void setEncoding(final String encoding) {
+    this.encoding = encoding;
+  }
+
+  /**
+   * Returns the number of concurrent connections goals that load
+   * data may use.
+   *
+   * @return the number of connections; always {@code 1} or greater
+   */
+  public int getThreads() {
+    return this.threads;
+  }
+
+  /**
+   * Sets the number of concurrent connections goals that load data
+   * may use.
+   *
+   * @param threads the number of connections; will be constrained to
+   * be {@code 1} or greater
+   */
+  public void setThreads(final int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * Returns the maximum number of statements or rows goals that load
+   * data send to the server in a single JDBC batch.
+   *
+   * @return the batch size; always {@code 1} or greater
+   */
+  public int getBatchSize() {
+    return this.batchSize;
+  }
+
+  /**
+   * Sets the maximum number of statements or rows goals that load
+   * data send to the server in a single JDBC batch.
+   *
+   * @param batchSize the batch size; will be constrained to be
+   * {@code 1} or greater
+   */
+  public void setBatchSize(final int batchSize) {
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  /**
+   * Returns the name of the {@linkplain Checkpoint checkpoint} that
+   * the {@code checkpoint} goal saves and the {@code reset} goal
+   * restores.  This method never returns {@code null}.
+   *
+   * @return the name of the checkpoint; never {@code null}
+   */
+  public String getCheckpoint() {
+    return this.checkpoint;
+  }
+
+  /**
+   * Sets the name of the {@linkplain Checkpoint checkpoint} that the
+   * {@code checkpoint} goal saves and the {@code reset} goal
+   * restores.
+   *
+   * @param checkpoint the name of the checkpoint; if {@code null} or
+   * empty then {@code default} will be used instead
+   */
+  public void setCheckpoint(final String checkpoint) {
+    if (checkpoint == null || checkpoint.trim().isEmpty()) {
+      this.checkpoint = "default";
+    } else {
+      this.checkpoint = checkpoint.trim();
+    }
+  }
+
+  /**
+   * Returns the Maven project into whose properties ports and JDBC
+   * URLs are {@linkplain #publishPorts() published}.  This method
+   * may return {@code null}.
+   *
+   * @return the {@link MavenProject}, or {@code null}
+   */
+  public MavenProject getProject() {
+    return this.project;
+  }
+
+  /**
+   * Sets the Maven project into whose properties ports and JDBC URLs
+   * are {@linkplain #publishPorts() published}.
+   *
+   * @param project the {@link MavenProject}; may be {@code null}
+   */
+  public void setProject(final MavenProject project) {
+    this.project = project;
+  }
+
+  /**
+   * Returns the JDBC URL of the {@linkplain #getDatabase() database}
+   * served by the {@code tcp} {@link Service}, including the database
+   * settings of the {@linkplain #getPerformanceProfile() performance
+   * profile}, or {@code null} if there is no such {@link Service}.
+   *
+   * @return a JDBC URL, or {@code null}
+   */
+  public String getJdbcUrl() {
+    return this.getJdbcUrl(this.getDefaultInstance());
+  }
+
+  /**
+   * Returns the JDBC URL of the {@linkplain #getDatabase() database}
+   * served by the supplied {@link ServerInstance}'s {@code tcp}
+   * {@link Service}, including the database settings of the
+   * {@linkplain #getPerformanceProfile() performance profile} and, if
+   * the page cache is {@linkplain #getAutoSizing() sized
+   * automatically}, the chosen cache size, or {@code null} if there is
+   * no such {@link Service}.
+   *
+   * @param instance the {@link ServerInstance}; must not be {@code
+   * null}
+   *
+   * @return a JDBC URL, or {@code null}
+   */
+  protected String getJdbcUrl(final ServerInstance instance) {
+    final String jdbcUrl = instance.getJdbcUrl(this.getServerHost(), this.getDatabase());
+    if (jdbcUrl == null) {
+      return null;
+    }
+    final StringBuilder sb = new StringBuilder(jdbcUrl).append(PerformanceProfile.forName(this.getPerformanceProfile()).getUrlSuffix());
+    final ServerSizing sizing = this.getServerSizing();
+    if (sizing != null && sizing.isCacheChosen()) {
+      sb.append(";CACHE_SIZE=").append(sizing.getCacheKilobytes());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the number of independent servers to start.
+   *
+   * @return the number of independent servers to start; always
+   * {@code 1} or greater
+   *
+   * @see #getServerInstances()
+   */
+  public int getInstances() {
+    return this.instances;
+  }
+
+  /**
+   * Sets the number of independent servers to start.
+   *
+   * @param instances the number of independent servers to start;
+   * will be constrained to be {@code 1} or greater
+   *
+   * @see #getServerInstances()
+   */
+  public void setInstances(final int instances) {
+    this.instances = Math.max(1, instances);
+  }
+
+  /**
+   * Returns a new {@link List} of the {@link ServerInstance}s to
+   * start, as determined by the {@linkplain #getInstances() number of
+   * instances}.  This method never returns {@code null}.
+   *
+   * <p>If only one instance is to be started, the sole {@link
+   * ServerInstance} shares this mojo's {@linkplain #getServices()
+   * <tt>Service</tt>s} and {@linkplain #getBaseDirectory() base
+   * directory}.  Otherwise, instance <i>n</i> receives copies of this
+   * mojo's {@link Service}s whose fixed ports are offset by
+   * <i>n</i>&nbsp;-&nbsp;1, and the subdirectory {@code
+   * instance-}<i>n</i> of the base directory.</p>
+   *
+   * @return a non-{@code null}, non-empty {@link List} of {@link
+   * ServerInstance}s
+   */
+  public List<ServerInstance> getServerInstances() {
+    final int instances = this.getInstances();
+    if (instances <= 1) {
+      return Collections.singletonList(this.getDefaultInstance());
+    }
+    File baseDirectory = this.getBaseDirectory();
+    if (baseDirectory == null) {
+      baseDirectory = new File(System.getProperty("user.dir"));
+    }
+    final List<ServerInstance> returnValue = new ArrayList<ServerInstance>(instances);
+    for (int i = 1; i <= instances; i++) {
+      final List<Service> services = new ArrayList<Service>();
+      for (final Service service : this.getServices()) {
+        if (service != null) {
+          final int port = service.getPort();
+          services.add(new Service(service.getId(), port == 0 ? 0 : port + i - 1, service.getAllowOthers(), service.getSSL()));
+        }
+      }
+      returnValue.add(new ServerInstance(i, services, new File(baseDirectory, "instance-" + i)));
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the sole {@link ServerInstance} that shares this mojo's
+   * {@linkplain #getServices() <tt>Service</tt>s} and {@linkplain
+   * #getBaseDirectory() base directory}.
+   *
+   * @return a new, non-{@code null} {@link ServerInstance}
+   */
+  private final ServerInstance getDefaultInstance() {
+    return new ServerInstance(1, this.getServices(), this.getBaseDirectory());
+  }
+
+  /**
+   * Returns {@code true} if any {@linkplain #getServices()
+   * <tt>Service</tt>} has a port of {@code 0}, meaning that its port
+   * will be chosen when it starts.
+   *
+   * @return {@code true} if any port is to be chosen automatically
+   */
+  protected boolean hasAutomaticPorts() {
+    return hasAutomaticPorts(this.getServices());
+  }
+
+  /**
+   * Returns {@code true} if any of the supplied {@link Service}s has
+   * a port of {@code 0}.
+   *
+   * @param services the {@link Service}s to check; may be {@code
+   * null}
+   *
+   * @return {@code true} if any port is to be chosen automatically
+   */
+  private static final boolean hasAutomaticPorts(final List<Service> services) {
+    if (services != null) {
+      for (final Service service : services) {
+        if (service != null && service.getPort() == 0) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Records the actual port of the {@link Service} with the supplied
+   * {@linkplain Service#getId() identifier}, which was started with a
+   * port of {@code 0}.
+   *
+   * @param id the {@linkplain Service#getId() service identifier}
+   *
+   * @param port the port the {@link Service} actually bound
+   */
+  protected void setActualPort(final String id, final int port) {
+    this.setActualPort(this.getDefaultInstance(), id, port);
+  }
+
+  /**
+   * Records the actual port of the {@link Service} of the supplied
+   * {@link ServerInstance} with the supplied {@linkplain
+   * Service#getId() identifier}, which was started with a port of
+   * {@code 0}.
+   *
+   * @param instance the {@link ServerInstance}; must not be {@code
+   * null}
+   *
+   * @param id the {@linkplain Service#getId() service identifier}
+   *
+   * @param port the port the {@link Service} actually bound
+   */
+  protected void setActualPort(final ServerInstance instance, final String id, final int port) {
+    final Service service = instance.getService(id);
+    if (service != null) {
+      service.setPort(port);
+      this.syncPort();
+    }
+  }
+
+  /**
+   * Publishes the port of each {@linkplain #getServices()
+   * <tt>Service</tt>} as the {@linkplain #getProject() project}
+   * property {@code h2.}<i>id</i>{@code .port}, the {@linkplain
+   * #getJdbcUrl() JDBC URL} as the project property {@code
+   * h2.jdbc.url}, and the {@linkplain
+   * #getBaseDirectoryPath(ServerInstance) base directory path} as the
+   * project property {@code h2.baseDir}, so that later plugins in the
+   * build can refer to them as, for example,
+   * <code>${h2.tcp.port}</code>.
+   */
+  protected void publishPorts() {
+    this.publishPorts(Collections.singletonList(this.getDefaultInstance()));
+  }
+
+  /**
+   * Publishes the ports and JDBC URLs of the supplied {@link
+   * ServerInstance}s as {@linkplain #getProject() project}
+   * properties.
+   *
+   * <p>The first {@link ServerInstance} is published exactly as by
+   * the {@link #publishPorts()} method.  If there is more than one,
+   * then each {@link ServerInstance} is additionally published with
+   * its {@linkplain ServerInstance#getIndex() index} as a suffix (for
+   * example {@code h2.tcp.port.3} and {@code h2.jdbc.url.3}), the
+   * comma-separated list of all JDBC URLs is published as {@code
+   * h2.jdbc.urls}, and their number as {@code h2.instances}.</p>
+   *
+   * @param instances the {@link ServerInstance}s to publish; must not
+   * be {@code null}
+   */
+  protected void publishPorts(final List<ServerInstance> instances) {
+    final MavenProject project = this.getProject();
+    if (project == null || instances.isEmpty()) {
+      return;
+    }
+    final Properties properties = project.getProperties();
+    final boolean pool = instances.size() > 1;
+    final StringBuilder jdbcUrls = new StringBuilder();
+    for (final ServerInstance instance : instances) {
+      if (instance.getIndex() == 1) {
+        this.publishPorts(properties, instance, "");
+      }
+      if (pool) {
+        this.publishPorts(properties, instance, "." + instance.getIndex());
+        final String jdbcUrl = this.getJdbcUrl(instance);
+        if (jdbcUrl != null) {
+          if (jdbcUrls.length() > 0) {
+            jdbcUrls.append(",");
+          }
+          jdbcUrls.append(jdbcUrl);
+        }
+      }
+    }
+    if (pool) {
+      this.publish(properties, "h2.jdbc.urls", jdbcUrls.toString());
+      this.publish(properties, "h2.instances", String.valueOf(instances.size()));
+    }
+  }
+
+  /**
+   * Publishes the ports, JDBC URL and base directory path of the
+   * supplied {@link ServerInstance}, appending the supplied suffix to
+   * each property name.
+   *
+   * @param properties the {@link Properties} to publish to; must not
+   * be {@code null}
+   *
+   * @param instance the {@link ServerInstance} to publish; must not
+   * be {@code null}
+   *
+   * @param suffix the suffix; must not be {@code null}
+   */
+  private final void publishPorts(final Properties properties, final ServerInstance instance, final String suffix) {
+    for (final Service service : instance.getServices()) {
+      if (service != null) {
+        this.publish(properties, String.format("h2.%s.port%s", service.getId(), suffix), String.valueOf(service.getPort()));
+      }
+    }
+    final String jdbcUrl = this.getJdbcUrl(instance);
+    if (jdbcUrl != null) {
+      this.publish(properties, "h2.jdbc.url" + suffix, jdbcUrl);
+    }
+    final String baseDirectory = this.getBaseDirectoryPath(instance);
+    if (baseDirectory != null) {
+      this.publish(properties, "h2.baseDir" + suffix, baseDirectory);
+    }
+  }
+
+  /**
+   * Sets a property and logs it at debug level.
+   *
+   * @param properties the {@link Properties} to modify; must not be
+   * {@code null}
+   *
+   * @param name the property name; must not be {@code null}
+   *
+   * @param value the property value; must not be {@code null}
+   */
+  private final void publish(final Properties properties, final String name, final String value) {
+    properties.setProperty(name, value);
+    final Log log = this.getLog();
+    if (log != null && log.isDebugEnabled()) {
+      log.debug(String.format("%s = %s", name, value));
+    }
+  }
+
+  /**
+   * Replaces every port of {@code 0} with the port {@linkplain
+   * #publishPorts() published} by an earlier goal in the same build,
+   * if there is one.
+   */
+  protected void applyPublishedPorts() {
+    this.applyPublishedPorts(Collections.singletonList(this.getDefaultInstance()));
+  }
+
+  /**
+   * Replaces every port of {@code 0} in the supplied {@link
+   * ServerInstance}s with the port {@linkplain
+   * #publishPorts(List) published} by an earlier goal in the same
+   * build, if there is one.
+   *
+   * @param instances the {@link ServerInstance}s to update; must not
+   * be {@code null}
+   */
+  protected void applyPublishedPorts(final List<ServerInstance> instances) {
+    final MavenProject project = this.getProject();
+    if (project == null) {
+      return;
+    }
+    final Properties properties = project.getProperties();
+    final boolean pool = instances.size() > 1;
+    for (final ServerInstance instance : instances) {
+      for (final Service service : instance.getServices()) {
+        if (service != null && service.getPort() == 0) {
+          final String port = properties.getProperty(String.format(pool ? "h2.%s.port.%d" : "h2.%s.port", service.getId(), instance.getIndex()));
+          if (port != null) {
+            service.setPort(Integer.parseInt(port));
+          }
+        }
+      }
+    }
+    this.syncPort();
+  }
+
+  /**
+   * Brings the deprecated {@linkplain #getPort() port} property back
+   * in line with the port of the {@code tcp} {@link Service}, after
+   * the latter has been changed directly.
+   */
+  private final void syncPort() {
+    final Service tcp = this.getService("tcp");
+    if (tcp != null && tcp.getPort() != this.getPort()) {
+      this.setPort(tcp.getPort());
+    }
+  }
+
+  /**
+   * Returns the host on which spawned H2 servers may be reached.
+   * This is the {@linkplain #getShutdownHost() shutdown host} if one
+   * has been set, and {@code localhost} otherwise.  This method never
+   * returns {@code null}.
+   *
+   * @return the host on which spawned H2 servers may be reached;
+   * never {@code null}
+   */
+  protected String getServerHost() {
+    String host = this.getShutdownHost();
+    if (host == null) {
+      host = "";
+    } else {
+      host = host.trim();
+    }
+    if (host.isEmpty()) {
+      host = "localhost";
+    }
+    return host;
+  }
+
+  /**
+   * Returns how spawned servers are judged to be ready: one of {@code
+   * none}, {@code connect} or {@code jdbc}.  This method never
+   * returns {@code null}.
+   *
+   * @return the readiness mode; never {@code null}
+   *
+   * @see #awaitReadiness(Process)
+   */
+  public String getReadiness() {
+    return this.readiness;
+  }
+
+  /**
+   * Sets how spawned servers are judged to be ready.
+   *
+   * @param readiness one of {@code none}, {@code connect} or {@code
+   * jdbc}; if {@code null} or empty, {@code none} will be used
+   * instead
+   *
+   * @exception IllegalArgumentException if {@code readiness} is not
+   * one of the supported values
+   *
+   * @see #awaitReadiness(Process)
+   */
+  public void setReadiness(String readiness) {
+    if (readiness == null) {
+      readiness = "";
+    } else {
+      readiness = readiness.trim().toLowerCase();
+    }
+    if (readiness.isEmpty()) {
+      readiness = "none";
+    }
+    if (!"none".equals(readiness) && !"connect".equals(readiness) && !"jdbc".equals(readiness)) {
+      throw new IllegalArgumentException("readiness: " + readiness);
+    }
+    this.readiness = readiness;
+  }
+
+  /**
+   * Returns where spawned servers keep their databases.  This method
+   * never returns {@code null}.
+   *
+   * @return one of {@code disk}, {@code nioMapped}, {@code memFS},
+   * {@code memLZF}, {@code nioMemFS} or {@code nioMemLZF}
+   */
+  public String getStorage() {
+    return this.storage;
+  }
+
+  /**
+   * Sets where spawned servers keep their databases.
+   *
+   * @param storage one of {@code disk}, {@code nioMapped}, {@code
+   * memFS}, {@code memLZF}, {@code nioMemFS} or {@code nioMemLZF},
+   * ignoring case; if {@code null} or empty, {@code disk} will be
+   * used instead
+   *
+   * @exception IllegalArgumentException if {@code storage} is not one
+   * of the supported values
+   */
+  public void setStorage(String storage) {
+    if (storage == null) {
+      storage = "";
+    } else {
+      storage = storage.trim();
+    }
+    if (storage.isEmpty()) {
+      storage = "disk";
+    }
+    for (final String supported : new String[] { "disk", "nioMapped", "memFS", "memLZF", "nioMemFS", "nioMemLZF" }) {
+      if (supported.equalsIgnoreCase(storage)) {
+        this.storage = supported;
+        return;
+      }
+    }
+    throw new IllegalArgumentException("storage: " + storage);
+  }
+
+  /**
+   * Returns {@code true} if the {@linkplain #getStorage() storage}
+   * keeps databases in memory only.
+   *
+   * @return {@code true} if databases are kept in memory only
+   */
+  public boolean isStorageInMemory() {
+    final String storage = this.getStorage();
+    return !"disk".equals(storage) && !"nioMapped".equals(storage);
+  }
+
+  /**
+   * Returns the size in megabytes that databases kept in memory are
+   * expected to reach.
+   *
+   * @return the expected database size in megabytes
+   */
+  public long getStorageSize() {
+    return this.storageSize;
+  }
+
+  /**
+   * Sets the size in megabytes that databases kept in memory are
+   * expected to reach.
+   *
+   * @param storageSize the expected database size in megabytes; will
+   * be constrained to be {@code 1} or greater
+   */
+  public void setStorageSize(final long storageSize) {
+    this.storageSize = Math.max(1L, storageSize);
+  }
+
+  /**
+   * Returns whether the heap size, garbage collector and page cache
+   * size of spawned servers are chosen automatically.
+   *
+   * @return whether spawned servers are sized automatically
+   *
+   * @see #getServerSizing()
+   */
+  public boolean getAutoSizing() {
+    return this.autoSizing;
+  }
+
+  /**
+   * Sets whether the heap size, garbage collector and page cache size
+   * of spawned servers are chosen automatically.
+   *
+   * @param autoSizing whether spawned servers are sized automatically
+   *
+   * @see #getServerSizing()
+   */
+  public void setAutoSizing(final boolean autoSizing) {
+    this.autoSizing = autoSizing;
+  }
+
+  /**
+   * Returns the {@link ServerSizing} for spawned servers, or {@code
+   * null} if they are not {@linkplain #getAutoSizing() sized
+   * automatically}.
+   *
+   * <p>Once the servers of this build have been {@linkplain
+   * #sizeServers() sized}, that sizing is returned, so that every
+   * JDBC URL and every later goal agrees on it; until then a new
+   * {@link ServerSizing} is {@linkplain #computeServerSizing()
+   * computed} on each call.</p>
+   *
+   * @return a {@link ServerSizing}, or {@code null}
+   *
+   * @see #sizeServers()
+   */
+  protected ServerSizing getServerSizing() {
+    final Map<Object, Object> pluginContext = this.getSharedContext();
+    synchronized (pluginContext) {
+      final ServerSizing sizing = (ServerSizing)pluginContext.get(SERVER_SIZING_KEY);
+      if (sizing != null) {
+        return sizing;
+      }
+    }
+    return this.computeServerSizing();
+  }
+
+  /**
+   * {@linkplain #computeServerSizing() Computes} the {@link
+   * ServerSizing} for the servers of this build, once their databases
+   * have been seeded, and shares it in the {@linkplain
+   * #getPluginContext() plugin context} so that it is {@linkplain
+   * #getServerSizing() returned} from then on, by this goal and by
+   * later ones, rather than computed again from a base directory
+   * that may since have grown.
+   *
+   * @return the {@link ServerSizing}, or {@code null} if servers are
+   * not {@linkplain #getAutoSizing() sized automatically}
+   */
+  protected ServerSizing sizeServers() {
+    final ServerSizing sizing = this.computeServerSizing();
+    final Map<Object, Object> pluginContext = this.getSharedContext();
+    synchronized (pluginContext) {
+      if (sizing == null) {
+        pluginContext.remove(SERVER_SIZING_KEY);
+      } else {
+        pluginContext.put(SERVER_SIZING_KEY, sizing);
+      }
+    }
+    return sizing;
+  }
+
+  /**
+   * Returns a new {@link ServerSizing} for spawned servers, or {@code
+   * null} if they are not {@linkplain #getAutoSizing() sized
+   * automatically}.
+   *
+   * <p>The size of the data is the {@linkplain #getStorageSize()
+   * storage size} for databases kept in memory, and otherwise the
+   * size of the files beneath the {@linkplain #getBaseDirectory() base
+   * directory}, divided between the {@linkplain #getInstances()
+   * instances}.  A heap size set by any of the {@linkplain
+   * #getJavaOptions() Java options} that size the heap, or a cache size set by the {@linkplain
+   * #getPerformanceProfile() performance profile}, is taken as
+   * given, as is a garbage collector selected by the Java
+   * options.</p>
+   *
+   * @return a new {@link ServerSizing}, or {@code null}
+   */
+  protected ServerSizing computeServerSizing() {
+    if (!this.getAutoSizing()) {
+      return null;
+    }
+    final int instances = this.getInstances();
+    final long dataMegabytes;
+    if (this.isStorageInMemory()) {
+      dataMegabytes = this.getStorageSize();
+    } else {
+      final File baseDirectory = this.getBaseDirectory();
+      final long bytes = baseDirectory == null ? 0L : SeedCache.sizeOf(baseDirectory) / instances;
+      dataMegabytes = (bytes + 1024L * 1024L - 1L) / (1024L * 1024L);
+    }
+    final long physicalMegabytes = getPhysicalMemoryMegabytes();
+    String garbageCollectorOption = null;
+    final String[] javaOptions = this.getJavaOptions();
+    final long heapMegabytes = ServerSizing.getConfiguredHeapMegabytes(javaOptions, physicalMegabytes);
+    if (javaOptions != null) {
+      for (final String javaOption : javaOptions) {
+        if (javaOption != null && javaOption.trim().startsWith("-XX:+Use") && javaOption.trim().endsWith("GC")) {
+          garbageCollectorOption = javaOption.trim();
+        }
+      }
+    }
+    long cacheKilobytes = -1L;
+    final String cacheSize = PerformanceProfile.forName(this.getPerformanceProfile()).getDatabaseSettings().get("CACHE_SIZE");
+    if (cacheSize != null) {
+      cacheKilobytes = Long.parseLong(cacheSize);
+    }
+    return new ServerSizing(this.getStorage(), dataMegabytes, physicalMegabytes, instances, heapMegabytes, cacheKilobytes, garbageCollectorOption);
+  }
+
+  /**
+   * Returns the physical memory of this machine in megabytes, or
+   * {@code -1} if the platform does not report it.
+   *
+   * @return the physical memory in megabytes, or {@code -1}
+   */
+  private static final long getPhysicalMemoryMegabytes() {
+    try {
+      final Object bytes = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME), "TotalPhysicalMemorySize");
+      if (bytes instanceof Number) {
+        return ((Number)bytes).longValue() / (1024L * 1024L);
+      }
+    } catch (final JMException notReported) {
+      // fall through
+    }
+    return -1L;
+  }
+
+  /**
+   * Logs the {@linkplain #getServerSizing() sizing} of spawned
+   * servers, if they are sized automatically, so that the chosen
+   * values are visible in the build log.
+   */
+  protected void logServerSizing() {
+    final Log log = this.getLog();
+    if (log != null && log.isInfoEnabled()) {
+      final ServerSizing sizing = this.getServerSizing();
+      if (sizing != null) {
+        log.info("Server sizing: " + sizing);
+      }
+    }
+  }
+
+  /**
+   * Returns the Java options chosen by the {@linkplain
+   * #getServerSizing() sizing} of spawned servers, if they are sized
+   * automatically.  This method never returns {@code null}.
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of Java
+   * options
+   */
+  protected List<String> getServerSizingJavaOptions() {
+    final ServerSizing sizing = this.getServerSizing();
+    if (sizing == null) {
+      return new ArrayList<String>();
+    }
+    return sizing.getJavaOptions();
+  }
+
+  /**
+   * Returns the name of the {@linkplain PerformanceProfile performance
+   * profile}.  This method never returns {@code null}.
+   *
+   * @return one of {@code default}, {@code durable}, {@code
+   * fast-test} or {@code bulk-load}
+   */
+  public String getPerformanceProfile() {
+    return this.performanceProfile;
+  }
+
+  /**
+   * Sets the name of the {@linkplain PerformanceProfile performance
+   * profile}.
+   *
+   * @param performanceProfile one of {@code default}, {@code
+   * durable}, {@code fast-test} or {@code bulk-load}, ignoring case;
+   * if {@code null} or empty, {@code default} will be used instead
+   *
+   * @exception IllegalArgumentException if {@code performanceProfile}
+   * does not name a {@link PerformanceProfile}
+   */
+  public void setPerformanceProfile(final String performanceProfile) {
+    this.performanceProfile = PerformanceProfile.forName(performanceProfile).getName();
+  }
+
+  /**
+   * Logs the {@linkplain #getPerformanceProfile() performance
+   * profile} and the settings it applies, so that the trade-off it
+   * makes is visible in the build log.
+   */
+  protected void logPerformanceProfile() {
+    final Log log = this.getLog();
+    if (log != null && log.isInfoEnabled()) {
+      log.info("Performance profile: " + PerformanceProfile.forName(this.getPerformanceProfile()));
+    }
+  }
+
+  /**
+   * Returns the Java options of the {@linkplain
+   * #getPerformanceProfile() performance profile}, leaving out any
+   * system property the {@linkplain #getJavaOptions() configured Java
+   * options} already set.  This method never returns {@code null}.
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of Java
+   * options
+   */
+  protected List<String> getPerformanceProfileJavaOptions() {
+    final List<String> options = new ArrayList<String>();
+    final String[] javaOptions = this.getJavaOptions();
+    for (final String option : PerformanceProfile.forName(this.getPerformanceProfile()).getJavaOptions()) {
+      final String prefix = option.substring(0, option.indexOf('=') + 1);
+      boolean configured = false;
+      if (javaOptions != null) {
+        for (final String javaOption : javaOptions) {
+          if (javaOption != null && javaOption.trim().startsWith(prefix)) {
+            configured = true;
+            break;
+          }
+        }
+      }
+      if (!configured) {
+        options.add(option);
+      }
+    }
+    return options;
+  }
+
+  /**
+   * Returns whether servers keep their database files on a RAM-backed
+   * file system.
+   *
+   * @return whether servers keep their database files on a RAM-backed
+   * file system
+   */
+  public boolean getRamDisk() {
+    return this.ramDisk;
+  }
+
+  /**
+   * Sets whether servers keep their database files on a RAM-backed
+   * file system.
+   *
+   * @param ramDisk whether servers keep their database files on a
+   * RAM-backed file system
+   */
+  public void setRamDisk(final boolean ramDisk) {
+    this.ramDisk = ramDisk;
+  }
+
+  /**
+   * Returns the directory beneath which RAM disk directories are
+   * created.  This method may return {@code null}.
+   *
+   * @return the directory beneath which RAM disk directories are
+   * created, or {@code null}
+   */
+  public File getRamDiskDirectory() {
+    return this.ramDiskDirectory;
+  }
+
+  /**
+   * Sets the directory beneath which RAM disk directories are
+   * created.
+   *
+   * @param ramDiskDirectory the directory; may be {@code null}
+   */
+  public void setRamDiskDirectory(final File ramDiskDirectory) {
+    this.ramDiskDirectory = ramDiskDirectory;
+  }
+
+  /**
+   * Returns whether the database files of a RAM disk are copied back
+   * to the base directory when the server stops.
+   *
+   * @return whether the database files of a RAM disk are copied back
+   */
+  public boolean getRamDiskSyncBack() {
+    return this.ramDiskSyncBack;
+  }
+
+  /**
+   * Sets whether the database files of a RAM disk are copied back to
+   * the base directory when the server stops.
+   *
+   * @param ramDiskSyncBack whether the database files of a RAM disk
+   * are copied back
+   */
+  public void setRamDiskSyncBack(final boolean ramDiskSyncBack) {
+    this.ramDiskSyncBack = ramDiskSyncBack;
+  }
+
+  /**
+   * Returns the {@link RamDisk} that stands in for the base directory
+   * of the supplied {@link ServerInstance}, or {@code null} if
+   * {@linkplain #getRamDisk() RAM disks} are not in use.
+   *
+   * @param instance the {@link ServerInstance}; must not be {@code
+   * null}
+   *
+   * @return a {@link RamDisk}, or {@code null}
+   */
+  protected RamDisk getRamDisk(final ServerInstance instance) {
+    if (!this.getRamDisk()) {
+      return null;
+    }
+    File ramDiskDirectory = this.getRamDiskDirectory();
+    if (ramDiskDirectory == null) {
+      ramDiskDirectory = new File("/dev/shm");
+    }
+    File baseDirectory = instance.getBaseDirectory();
+    if (baseDirectory == null) {
+      baseDirectory = new File(System.getProperty("user.dir"));
+    }
+    return new RamDisk(ramDiskDirectory, baseDirectory);
+  }
+
+  /**
+   * {@linkplain RamDisk#stage() Stages} the {@linkplain
+   * #getRamDisk(ServerInstance) RAM disk} of each of the supplied
+   * {@link ServerInstance}s, which must not be running yet.  If
+   * {@linkplain #getRamDisk() RAM disks} are not in use, no action is
+   * taken.
+   *
+   * <p>This must happen after the base directories have been
+   * {@linkplain #seed(List) seeded}.</p>
+   *
+   * @param instances the {@link ServerInstance}s; must not be {@code
+   * null}
+   *
+   * @exception IOException if a RAM disk could not be staged
+   */
+  protected void stageRamDisks(final List<ServerInstance> instances) throws IOException {
+    if (!this.getRamDisk()) {
+      return;
+    }
+    if (this.isStorageInMemory()) {
+      throw new IOException(String.format("Databases kept in %s storage have no files to keep on a RAM disk", this.getStorage()));
+    }
+    final Log log = this.getLog();
+    for (final ServerInstance instance : instances) {
+      final long start = System.nanoTime();
+      final RamDisk ramDisk = this.getRamDisk(instance);
+      assert ramDisk != null;
+      ramDisk.stage();
+      if (log != null && log.isInfoEnabled()) {
+        log.info(String.format("H2 base directory %s staged in %s in %d ms", ramDisk.getBaseDirectory(), ramDisk.getDirectory(), (System.nanoTime() - start) / 1000000L));
+      }
+    }
+  }
+
+  /**
+   * Deletes the {@linkplain #getRamDisk(ServerInstance) RAM disk} of
+   * each of the supplied {@link ServerInstance}s without copying
+   * anything back, for example because its server failed to start.
+   * If {@linkplain #getRamDisk() RAM disks} are not in use, no action
+   * is taken.
+   *
+   * @param instances the {@link ServerInstance}s; must not be {@code
+   * null}
+   */
+  protected void discardRamDisks(final List<ServerInstance> instances) {
+    for (final ServerInstance instance : instances) {
+      final RamDisk ramDisk = this.getRamDisk(instance);
+      if (ramDisk != null) {
+        ramDisk.delete();
+      }
+    }
+  }
+
+  /**
+   * Returns the Java options that size the memory of spawned servers
+   * to suit the {@linkplain #getStorage() storage}, leaving out any
+   * option the {@linkplain #getJavaOptions() configured Java options}
+   * already set.  This method never returns {@code null}.
+   *
+   * <p>Databases on the Java heap need room for the data, for H2's
+   * page cache, and for garbage collection to work in; databases in
+   * direct memory need the direct memory limit raised instead.  When
+   * servers are {@linkplain #getAutoSizing() sized automatically},
+   * the heap is left to the {@linkplain #getServerSizing()
+   * sizing}.</p>
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of Java
+   * options
+   */
+  protected List<String> getStorageJavaOptions() {
+    final List<String> options = new ArrayList<String>();
+    final String storage = this.getStorage();
+    final long size = this.getStorageSize();
+    final String option;
+    final long megabytes;
+    if ("memFS".equals(storage) && !this.getAutoSizing()) {
+      option = "-Xmx";
+      megabytes = 2L * size + 128L;
+    } else if ("memLZF".equals(storage) && !this.getAutoSizing()) {
+      option = "-Xmx";
+      megabytes = size + 128L;
+    } else if ("nioMemFS".equals(storage) || "nioMemLZF".equals(storage)) {
+      option = "-XX:MaxDirectMemorySize=";
+      megabytes = size + 64L;
+    } else {
+      return options;
+    }
+    final String[] javaOptions = this.getJavaOptions();
+    if ("-Xmx".equals(option) && ServerSizing.getConfiguredHeapMegabytes(javaOptions, -1L) >= 0L) {
+      return options;
+    }
+    if (javaOptions != null) {
+      for (final String javaOption : javaOptions) {
+        if (javaOption != null && javaOption.trim().startsWith(option)) {
+          return options;
+        }
+      }
+    }
+    options.add(String.format("%s%dm", option, megabytes));
+    return options;
+  }
+
+  /**
+   * Returns the file to which lifecycle timing events are appended.
+   *
+   * @return the timing file, or {@code null} if no events are
+   * recorded
+   */
+  public File getTimingFile() {
+    return this.timingFile;
+  }
+
+  /**
+   * Sets the file to which lifecycle timing events are appended.
+   *
+   * @param timingFile the timing file; may be {@code null} in which
+   * case no events are recorded
+   */
+  public void setTimingFile(final File timingFile) {
+    this.timingFile = timingFile;
+  }
+
+  /**
+   * Records a lifecycle timing event that concerns this goal as a
+   * whole, if a {@linkplain #getTimingFile() timing file} is
+   * configured.  The first event recorded by a goal marks the moment
+   * from which the elapsed times of all of its events are measured,
+   * so every goal records a {@code started} event first.
+   *
+   * @param event the name of the event; must not be {@code null}
+   *
+   * @see #recordTiming(ServerInstance, String)
+   */
+  protected final void recordTiming(final String event) {
+    this.recordTiming(null, event);
+  }
+
+  /**
+   * Records a lifecycle timing event, such as {@code
+   * process-started} or {@code ready}, that concerns the supplied
+   * {@link ServerInstance}, if a {@linkplain #getTimingFile() timing
+   * file} is configured.  The event carries the {@link
+   * ServerInstance}'s {@linkplain ServerInstance#getServices()
+   * <tt>Service</tt>s} as they are at the time, or this mojo's
+   * configured {@linkplain #getServices() <tt>Service</tt>s} if the
+   * {@link ServerInstance} is {@code null}, and the Java options
+   * spawned servers run with.
+   *
+   * <p>Timings are a diagnostic aid, so a failure to record an event
+   * is logged as a warning and never fails the build.  This method is
+   * safe to call from several {@link Thread}s at once.</p>
+   *
+   * @param instance the {@link ServerInstance} the event concerns;
+   * may be {@code null}
+   *
+   * @param event the name of the event; must not be {@code null}
+   *
+   * @see TimingLog
+   */
+  protected final void recordTiming(final ServerInstance instance, final String event) {
+    final TimingLog timingLog;
+    synchronized (this) {
+      if (this.timingLog == null) {
+        final File timingFile = this.getTimingFile();
+        if (timingFile == null) {
+          return;
+        }
+        this.timingLog = new TimingLog(timingFile, getGoal(this.getClass()));
+      }
+      timingLog = this.timingLog;
+    }
+    final List<String> javaOptions = this.getEffectiveJavaOptions();
+    final File classDataSharingArchive = this.getClassDataSharingArchive();
+    if (classDataSharingArchive != null) {
+      javaOptions.add("-XX:SharedArchiveFile=" + classDataSharingArchive.getAbsolutePath());
+    }
+    try {
+      if (instance == null) {
+        timingLog.record(event, 0, this.getServices(), javaOptions);
+      } else {
+        timingLog.record(event, instance.getIndex(), instance.getServices(), javaOptions);
+      }
+    } catch (final IOException kaboom) {
+      final Log log = this.getLog();
+      if (log != null && log.isWarnEnabled()) {
+        log.warn(String.format("Could not record timing event %s in %s", event, timingLog.getFile()), kaboom);
+      }
+    }
+  }
+
+  /**
+   * Returns the file to which samples of performance metrics are
+   * appended: {@code metrics.jsonl} in the {@linkplain
+   * #getReportDirectory() report directory}.  This method never
+   * returns {@code null}.
+   *
+   * @return the metrics file; never {@code null}
+   *
+   * @see PerformanceMetrics
+   */
+  public File getMetricsFile() {
+    return new File(this.getReportDirectory(), "metrics.jsonl");
+  }
+
+  /**
+   * Returns an identifier unique to this build, shared by every goal
+   * of this plugin in it by way of the {@linkplain #getPluginContext()
+   * plugin context}.  {@linkplain #recordMetric(String, double)
+   * Recorded metrics} are tagged with it.  This method never returns
+   * {@code null}.
+   *
+   * @return the identifier of this build; never {@code null}
+   */
+  protected final String getBuildId() {
+    final Map<Object, Object> pluginContext = this.getSharedContext();
+    synchronized (pluginContext) {
+      String buildId = (String)pluginContext.get(BUILD_ID_KEY);
+      if (buildId == null) {
+        buildId = UUID.randomUUID().toString();
+        pluginContext.put(BUILD_ID_KEY, buildId);
+      }
+      return buildId;
+    }
+  }
+
+  /**
+   * Appends a sample of the named performance metric, tagged with the
+   * {@linkplain #getBuildId() identifier of this build}, to the
+   * {@linkplain #getMetricsFile() metrics file}, for the {@linkplain
+   * CheckPerformanceH2Mojo check-performance goal} to compare with a
+   * baseline.
+   *
+   * <p>Like timings, a failure to record a sample is logged as a
+   * warning and never fails the build.  This method is safe to call
+   * from several {@link Thread}s at once.</p>
+   *
+   * @param metric the name of the metric, such as {@code
+   * spawn.readyMillis}; must not be {@code null}
+   *
+   * @param value the value
+   */
+  protected final void recordMetric(final String metric, final double value) {
+    final PerformanceMetrics metrics = new PerformanceMetrics(this.getMetricsFile(), this.getBuildId());
+    try {
+      metrics.record(metric, value);
+    } catch (final IOException kaboom) {
+      final Log log = this.getLog();
+      if (log != null && log.isWarnEnabled()) {
+        log.warn(String.format("Could not record metric %s in %s", metric, metrics.getFile()), kaboom);
+      }
+    }
+  }
+
+  /**
+   * Returns the name of the goal implemented by the supplied mojo
+   * class, such as {@code bulk-load} for {@link BulkLoadH2Mojo}.
+   *
+   * @param mojoClass the mojo class; must not be {@code null}
+   *
+   * @return the goal's name; never {@code null}
+   */
+  static final String getGoal(final Class<?> mojoClass) {
+    String name = mojoClass.getSimpleName();
+    if (name.endsWith("H2Mojo")) {
+      name = name.substring(0, name.length() - "H2Mojo".length());
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < name.length(); i++) {
+      final char c = name.charAt(i);
+      if (Character.isUpperCase(c)) {
+        if (i > 0) {
+          sb.append('-');
+        }
+        sb.append(Character.toLowerCase(c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the {@linkplain #getJavaOptions() configured Java
+   * options} followed by the {@linkplain #getStorageJavaOptions()
+   * storage Java options}, the {@linkplain
+   * #getServerSizingJavaOptions() sizing Java options} and the
+   * {@linkplain #getPerformanceProfileJavaOptions() performance
+   * profile Java options}.  This method never returns {@code
+   * null}.
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of Java
+   * options
+   */
+  private final List<String> getEffectiveJavaOptions() {
+    final List<String> options = new ArrayList<String>();
+    final String[] javaOptions = this.getJavaOptions();
+    if (javaOptions != null) {
+      for (final String option : javaOptions) {
+        if (option != null && !option.trim().isEmpty()) {
+          options.add(option);
+        }
+      }
+    }
+    options.addAll(this.getStorageJavaOptions());
+    options.addAll(this.getServerSizingJavaOptions());
+    options.addAll(this.getPerformanceProfileJavaOptions());
+    return options;
+  }
+
+  /**
+   * Returns the value of the {@code -baseDir} option for the supplied
+   * {@link ServerInstance}: the absolute path of its base directory,
+   * or of the {@linkplain #getRamDisk(ServerInstance) RAM disk} that
+   * stands in for it, prefixed with the H2 file system that
+   * implements the {@linkplain #getStorage() storage}.  This method
+   * returns {@code null} only if the storage is {@code disk} and there
+   * is no base directory.
+   *
+   * @param instance the {@link ServerInstance}; must not be {@code
+   * null}
+   *
+   * @return the value of the {@code -baseDir} option, or {@code null}
+   */
+  protected String getBaseDirectoryPath(final ServerInstance instance) {
+    final RamDisk ramDisk = this.getRamDisk(instance);
+    File baseDirectory = ramDisk == null ? instance.getBaseDirectory() : ramDisk.getDirectory();
+    final String storage = this.getStorage();
+    if ("disk".equals(storage)) {
+      return baseDirectory == null ? null : baseDirectory.getAbsolutePath();
+    }
+    if (baseDirectory == null) {
+      baseDirectory = new File(System.getProperty("user.dir"));
+    }
+    return String.format("%s:%s", storage, baseDirectory.getAbsolutePath());
+  }
+
+  /**
+   * Returns the number of milliseconds to wait for a spawned server
+   * to become ready.
+   *
+   * @return the number of milliseconds to wait for a spawned server
+   * to become ready; always {@code 0} or greater
+   */
+  public long getReadinessTimeout() {
+    return this.readinessTimeout;
+  }
+
+  /**
+   * Sets the number of milliseconds to wait for a spawned server to
+   * become ready.
+   *
+   * @param readinessTimeout the new timeout; will be constrained to
+   * be {@code 0} or greater
+   */
+  public void setReadinessTimeout(final long readinessTimeout) {
+    this.readinessTimeout = Math.max(0L, readinessTimeout);
+  }
+
+  /**
+   * Returns the number of milliseconds to wait for a spawned server
+   * to exit after being asked to shut down.
+   *
+   * @return the number of milliseconds to wait for a spawned server
+   * to exit; always {@code 0} or greater
+   */
+  public long getShutdownTimeout() {
+    return this.shutdownTimeout;
+  }
+
+  /**
+   * Sets the number of milliseconds to wait for a spawned server to
+   * exit after being asked to shut down.
+   *
+   * @param shutdownTimeout the new timeout; will be constrained to be
+   * {@code 0} or greater
+   */
+  public void setShutdownTimeout(final long shutdownTimeout) {
+    this.shutdownTimeout = Math.max(0L, shutdownTimeout);
+  }
+
+  /**
+   * Returns the directory holding the bookkeeping files of spawned
+   * servers.  This method may return {@code null}.
+   *
+   * @return the state directory, or {@code null}
+   */
+  public File getStateDirectory() {
+    return this.stateDirectory;
+  }
+
+  /**
+   * Sets the directory holding the bookkeeping files of spawned
+   * servers.
+   *
+   * @param stateDirectory the state directory; may be {@code null}
+   */
+  public void setStateDirectory(final File stateDirectory) {
+    this.stateDirectory = stateDirectory;
+  }
+
+  /**
+   * Returns the directory into which reports are written.  This
+   * method never returns {@code null}.
+   *
+   * @return the report directory; never {@code null}
+   */
+  public File getReportDirectory() {
+    if (this.reportDirectory == null) {
+      return new File("target", "h2-reports").getAbsoluteFile();
+    }
+    return this.reportDirectory;
+  }
+
+  /**
+   * Sets the directory into which reports are written.
+   *
+   * @param reportDirectory the report directory; may be {@code null}
+   * in which case {@code target/h2-reports} will be used instead
+   */
+  public void setReportDirectory(final File reportDirectory) {
+    this.reportDirectory = reportDirectory;
+  }
+
+  /**
+   * Returns whether servers collect query statistics.
+   *
+   * @return whether servers collect query statistics
+   */
+  public boolean getQueryStatistics() {
+    return this.queryStatistics;
+  }
+
+  /**
+   * Sets whether servers collect query statistics.
+   *
+   * @param queryStatistics whether servers collect query statistics
+   */
+  public void setQueryStatistics(final boolean queryStatistics) {
+    this.queryStatistics = queryStatistics;
+  }
+
+  /**
+   * Returns the number of query statistics entries that are logged
+   * when servers stop.
+   *
+   * @return the number of entries logged; never negative
+   */
+  public int getQueryStatisticsTop() {
+    return Math.max(0, this.queryStatisticsTop);
+  }
+
+  /**
+   * Sets the number of query statistics entries that are logged when
+   * servers stop.
+   *
+   * @param queryStatisticsTop the number of entries logged
+   */
+  public void setQueryStatisticsTop(final int queryStatisticsTop) {
+    this.queryStatisticsTop = queryStatisticsTop;
+  }
+
+  /**
+   * Turns on the collection of query statistics in the {@linkplain
+   * #getDatabase() database} of each of the supplied {@link
+   * ServerInstance}s, which must be ready, if {@linkplain
+   * #getQueryStatistics() so configured}.
+   *
+   * <p>H2 discards a database's statistics when the database closes,
+   * which it does as soon as its last connection closes.  The {@link
+   * Connection} used to turn collection on is therefore kept open, in
+   * the {@linkplain #getPluginContext() plugin context}, until the
+   * statistics are {@linkplain #collectQueryStatistics() collected}.
+   * A {@link ServerInstance} without a {@code tcp} {@link Service}
+   * is skipped, and a failure to turn collection on, for example
+   * because the database does not exist and the server was started
+   * with {@code -ifExists}, is logged as a warning: statistics are a
+   * diagnostic aid and never fail the build.</p>
+   *
+   * <p>H2 1.3.176 times statements only while the database's trace
+   * level is {@code INFO}, so the trace level is raised first, using
+   * the {@linkplain #getQueryTimingStatement() query timing
+   * statement}, and is held by the same {@link Connection}.</p>
+   *
+   * @param instances the {@link ServerInstance}s; must not be {@code
+   * null}
+   */
+  protected void startQueryStatistics(final List<ServerInstance> instances) {
+    if (this.getQueryStatistics()) {
+      this.holdConnections(instances, QUERY_STATISTICS_KEY, "query statistics", this.getQueryTimingStatement(), "SET QUERY_STATISTICS TRUE");
+    }
+  }
+
+  /**
+   * Returns the statement that raises a database's trace level to
+   * {@code INFO}, so that H2 times the statements it records {@linkplain
+   * #startQueryStatistics(List) query statistics} for.  This method
+   * never returns {@code null}.
+   *
+   * <p>This implementation returns {@code SET TRACE_LEVEL_SYSTEM_OUT
+   * 2}: a spawned server's standard output is {@linkplain
+   * #getServerOutput(Process) drained} anyway.</p>
+   *
+   * @return the statement; never {@code null}
+   */
+  protected String getQueryTimingStatement() {
+    return "SET TRACE_LEVEL_SYSTEM_OUT 2";
+  }
+
+  /**
+   * Opens a {@link Connection} to the {@linkplain #getDatabase()
+   * database} of each of the supplied {@link ServerInstance}s,
+   * executes the supplied statement with it, and keeps it open in the
+   * {@link List} stored under the supplied key in the {@linkplain
+   * #getPluginContext() plugin context}.  A {@link ServerInstance}
+   * without a {@code tcp} {@link Service} is skipped, and a failure
+   * is logged as a warning.
+   *
+   * @param instances the {@link ServerInstance}s; must not be {@code
+   * null}
+   *
+   * @param key the plugin context key; must not be {@code null}
+   *
+   * @param description what the statements turn on, for the warning;
+   * must not be {@code null}
+   *
+   * @param statements the statements to execute, in order; must not
+   * be {@code null}
+   */
+  private final void holdConnections(final List<ServerInstance> instances, final String key, final String description, final String... statements) {
+    final Log log = this.getLog();
+    final List<Connection> connections = this.getSharedList(key);
+    for (final ServerInstance instance : instances) {
+      final String url = this.getJdbcUrl(instance);
+      if (url == null) {
+        continue;
+      }
+      Connection connection = null;
+      try {
+        connection = DriverManager.getConnection(url, this.getUser(), this.getPassword());
+        final Statement statement = connection.createStatement();
+        for (final String sql : statements) {
+          statement.execute(sql);
+        }
+        statement.close();
+        synchronized (connections) {
+          connections.add(connection);
+        }
+        connection = null;
+      } catch (final SQLException kaboom) {
+        if (log != null && log.isWarnEnabled()) {
+          log.warn(String.format("Could not turn on %s for %s", description, url), kaboom);
+        }
+      } finally {
+        if (connection != null) {
+          try {
+            connection.close();
+          } catch (final SQLException ignore) {
+            // ignore
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads and merges the query statistics of every database for
+   * which they were {@linkplain #startQueryStatistics(List) turned
+   * on} in this build, and closes the {@link Connection}s that kept
+   * them alive.
+   *
+   * @return the merged {@link QueryStatistics}, or {@code null} if
+   * none were turned on
+   *
+   * @exception SQLException if the statistics could not be read
+   */
+  protected QueryStatistics collectQueryStatistics() throws SQLException {
+    final List<Connection> copy = this.removeAll(QUERY_STATISTICS_KEY);
+    if (copy.isEmpty()) {
+      return null;
+    }
+    final QueryStatistics statistics = new QueryStatistics();
+    SQLException failure = null;
+    for (final Connection connection : copy) {
+      try {
+        statistics.merge(QueryStatistics.read(connection));
+      } catch (final SQLException kaboom) {
+        if (failure == null) {
+          failure = kaboom;
+        }
+      } finally {
+        try {
+          connection.close();
+        } catch (final SQLException ignore) {
+          // ignore
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return statistics;
+  }
+
+  /**
+   * Returns whether spawned servers trace the statements they
+   * execute for analysis.
+   *
+   * @return whether statements are traced for analysis
+   */
+  public boolean getTraceAnalysis() {
+    return this.traceAnalysis;
+  }
+
+  /**
+   * Sets whether spawned servers trace the statements they execute
+   * for analysis.
+   *
+   * @param traceAnalysis whether statements are traced for analysis
+   */
+  public void setTraceAnalysis(final boolean traceAnalysis) {
+    this.traceAnalysis = traceAnalysis;
+  }
+
+  /**
+   * Returns the number of statement fingerprints logged, and
+   * included in each table of the trace summary, when servers stop.
+   *
+   * @return the number of fingerprints; never negative
+   */
+  public int getTraceAnalysisTop() {
+    return Math.max(0, this.traceAnalysisTop);
+  }
+
+  /**
+   * Sets the number of statement fingerprints logged, and included
+   * in each table of the trace summary, when servers stop.
+   *
+   * @param traceAnalysisTop the number of fingerprints
+   */
+  public void setTraceAnalysisTop(final int traceAnalysisTop) {
+    this.traceAnalysisTop = traceAnalysisTop;
+  }
+
+  /**
+   * Returns whether spawned servers are sampled over JMX.
+   *
+   * @return whether spawned servers are sampled over JMX
+   */
+  public boolean getJmxSampling() {
+    return this.jmxSampling;
+  }
+
+  /**
+   * Sets whether spawned servers are sampled over JMX.
+   *
+   * @param jmxSampling whether spawned servers are sampled over JMX
+   */
+  public void setJmxSampling(final boolean jmxSampling) {
+    this.jmxSampling = jmxSampling;
+  }
+
+  /**
+   * Returns the number of milliseconds between JMX samples.
+   *
+   * @return the number of milliseconds between JMX samples
+   */
+  public long getJmxSamplingInterval() {
+    return this.jmxSamplingInterval;
+  }
+
+  /**
+   * Sets the number of milliseconds between JMX samples.
+   *
+   * @param jmxSamplingInterval the number of milliseconds between JMX
+   * samples; will be constrained to be at least {@code 10}
+   */
+  public void setJmxSamplingInterval(final long jmxSamplingInterval) {
+    this.jmxSamplingInterval = Math.max(10L, jmxSamplingInterval);
+  }
+
+  /**
+   * Returns the file to which the {@link JmxSampler} of the supplied
+   * {@link ServerInstance} appends its samples: {@code
+   * jmx-samples.jsonl} in the {@linkplain #getReportDirectory() report
+   * directory}, or, if there are several {@linkplain #getInstances()
+   * instances}, {@code jmx-samples-}<i>n</i>{@code .jsonl}.
+   *
+   * @param instance the {@link ServerInstance}; must not be {@code
+   * null}
+   *
+   * @return the file; never {@code null}
+   */
+  protected File getJmxSamplesFile(final ServerInstance instance) {
+    final String name = this.getInstances() > 1 ? String.format("jmx-samples-%d.jsonl", instance.getIndex()) : "jmx-samples.jsonl";
+    return new File(this.getReportDirectory(), name);
+  }
+
+  /**
+   * Starts a {@link JmxSampler} for each of the supplied {@link
+   * ServerInstance}s that was {@linkplain #spawnServer(ServerInstance)
+   * spawned} by this mojo with a JMX connector, if {@linkplain
+   * #getJmxSampling() so configured}.  The {@link JmxSampler}s run
+   * until the {@link StopH2Mojo stop goal} {@linkplain
+   * #stopJmxSampling() stops} them.  Like trace analysis, sampling is
+   * a diagnostic aid, so failures are logged as warnings.
+   *
+   * @param instances the {@link ServerInstance}s; must not be {@code
+   * null}
+   */
+  protected void startJmxSampling(final List<ServerInstance> instances) {
+    if (!this.getJmxSampling()) {
+      return;
+    }
+    final Log log = this.getLog();
+    final List<JmxSampler> samplers = this.getSharedList(JMX_SAMPLERS_KEY);
+    for (final ServerInstance instance : instances) {
+      final Integer port = this.jmxPorts.get(Integer.valueOf(instance.getIndex()));
+      final String url = this.getJdbcUrl(instance);
+      if (port == null || url == null) {
+        continue;
+      }
+      final File file = this.getJmxSamplesFile(instance);
+      file.delete();
+      try {
+        final JmxSampler sampler = new JmxSampler(port.intValue(), file, instance.getIndex(), this.getJmxSamplingInterval());
+        sampler.start(url, this.getUser(), this.getPassword());
+        synchronized (samplers) {
+          samplers.add(sampler);
+        }
+        if (log != null && log.isInfoEnabled()) {
+          log.info(String.format("Sampling the H2 MBeans of %s every %d ms into %s", url, this.getJmxSamplingInterval(), file));
+        }
+      } catch (final Exception kaboom) {
+        if (log != null && log.isWarnEnabled()) {
+          log.warn(String.format("Could not sample the H2 MBeans of %s", url), kaboom);
+        }
+      }
+    }
+  }
+
+  /**
+   * {@linkplain JmxSampler#stop() Stops} every {@link JmxSampler}
+   * {@linkplain #startJmxSampling(List) started} in this build, and
+   * returns them so that they can be summarized.
+   *
+   * @return a new, non-{@code null} {@link List} of {@link
+   * JmxSampler}s; empty if there were none
+   */
+  protected List<JmxSampler> stopJmxSampling() {
+    final List<JmxSampler> samplers = this.removeAll(JMX_SAMPLERS_KEY);
+    for (final JmxSampler sampler : samplers) {
+      sampler.stop();
+    }
+    return samplers;
+  }
+
+  /**
+   * Returns the Java options that start a JMX connector on the
+   * supplied port, listening on the loopback interface only and
+   * requiring neither authentication nor SSL.  This method never
+   * returns {@code null}.
+   *
+   * @param port the port
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of Java
+   * options
+   */
+  private static final List<String> getJmxJavaOptions(final int port) {
+    final List<String> options = new ArrayList<String>();
+    options.add("-Dcom.sun.management.jmxremote.port=" + port);
+    options.add("-Dcom.sun.management.jmxremote.rmi.port=" + port);
+    options.add("-Dcom.sun.management.jmxremote.host=127.0.0.1");
+    options.add("-Dcom.sun.management.jmxremote.local.only=true");
+    options.add("-Dcom.sun.management.jmxremote.authenticate=false");
+    options.add("-Dcom.sun.management.jmxremote.ssl=false");
+    options.add("-Djava.rmi.server.hostname=127.0.0.1");
+    return options;
+  }
+
+  /**
+   * Returns a port on the loopback interface that is free at the time
+   * of the call.
+   *
+   * @return a free port
+   *
+   * @exception IOException if no port could be found
+   */
+  private static final int getFreeLoopbackPort() throws IOException {
+    final ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    try {
+      return socket.getLocalPort();
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * Turns on statement tracing in the {@linkplain #getDatabase()
+   * database} of each of the supplied {@link ServerInstance}s, which
+   * must have been {@linkplain #spawnServer(ServerInstance) spawned}
+   * by this mojo and be ready, if {@linkplain #getTraceAnalysis() so
+   * configured}.
+   *
+   * <p>The database's {@code TRACE_LEVEL_SYSTEM_OUT} setting is
+   * raised to {@code INFO}, so that the server prints every statement
+   * and its execution time, and the {@link TraceAnalyzer} that was
+   * attached to the server's {@linkplain #getServerOutput(Process)
+   * output} when it was spawned aggregates them as they arrive.  Like
+   * {@linkplain #startQueryStatistics(List) query statistics}, the
+   * setting lasts only as long as the database is open, so the {@link
+   * Connection} used to change it is kept open until tracing is
+   * {@linkplain #stopTraceAnalysis() stopped}.  Failures are logged
+   * as warnings.</p>
+   *
+   * @param instances the {@link ServerInstance}s; must not be {@code
+   * null}
+   */
+  protected void startTraceAnalysis(final List<ServerInstance> instances) {
+    if (this.getTraceAnalysis()) {
+      this.holdConnections(instances, TRACE_CONNECTIONS_KEY, "statement tracing", "SET TRACE_LEVEL_SYSTEM_OUT 2");
+    }
+  }
+
+  /**
+   * Closes the {@link Connection}s that kept statement tracing on in
+   * the databases for which it was {@linkplain
+   * #startTraceAnalysis(List) turned on} in this build, and returns
+   * the {@link TraceAnalyzer}s of every server spawned with
+   * {@linkplain #getTraceAnalysis() trace analysis} in this build.
+   *
+   * <p>The {@link TraceAnalyzer}s go on aggregating whatever their
+   * servers print until the servers exit.</p>
+   *
+   * @return a new, non-{@code null} {@link List} of {@link
+   * TraceAnalyzer}s; empty if there were none
+   */
+  protected List<TraceAnalyzer> stopTraceAnalysis() {
+    for (final Connection connection : this.<Connection>removeAll(TRACE_CONNECTIONS_KEY)) {
+      try {
+        connection.close();
+      } catch (final SQLException ignore) {
+        // ignore
+      }
+    }
+    return this.removeAll(TRACE_ANALYZERS_KEY);
+  }
+
+  /**
+   * Keeps the supplied {@link Connection} open until {@link
+   * #releaseCheckpoints()} is called, so that the database it is
+   * connected to stays open and the {@linkplain Checkpoint checkpoint}
+   * saved with it can be restored without reloading every table.
+   *
+   * @param connection the {@link Connection}; must not be {@code
+   * null}
+   */
+  protected void holdCheckpoint(final Connection connection) {
+    if (connection == null) {
+      throw new IllegalArgumentException("connection", new NullPointerException("connection"));
+    }
+    final List<Connection> connections = this.getSharedList(CHECKPOINT_CONNECTIONS_KEY);
+    synchronized (connections) {
+      connections.add(connection);
+    }
+  }
+
+  /**
+   * Closes every {@link Connection} {@linkplain
+   * #holdCheckpoint(Connection) held} in this build.
+   */
+  protected void releaseCheckpoints() {
+    for (final Connection connection : this.<Connection>removeAll(CHECKPOINT_CONNECTIONS_KEY)) {
+      try {
+        connection.close();
+      } catch (final SQLException ignore) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Removes and returns every element of the shared {@link List}
+   * stored under the supplied key in this mojo's {@linkplain
+   * #getPluginContext() plugin context}.
+   *
+   * @param <T> the type of the {@link List}'s elements
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @return a new, non-{@code null} {@link List}
+   */
+  private final <T> List<T> removeAll(final String key) {
+    final List<T> list = this.getSharedList(key);
+    synchronized (list) {
+      final List<T> copy = new ArrayList<T>(list);
+      list.clear();
+      return copy;
+    }
+  }
+
+  /**
+   * Returns the {@link ServerState} of the server spawned for the
+   * supplied {@link ServerInstance}.  This method never returns
+   * {@code null}.
+   *
+   * @param instance the {@link ServerInstance}; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link ServerState}
+   */
+  protected ServerState getServerState(final ServerInstance instance) {
+    File stateDirectory = this.getStateDirectory();
+    if (stateDirectory == null) {
+      stateDirectory = new File("target", "h2-maven-plugin");
+    }
+    return new ServerState(stateDirectory.getAbsoluteFile(), instance.getIndex());
+  }
+
+  /**
+   * Returns the {@link File} representing the path to the H2 jar file
+   * that is on the classpath.  This method never returns {@code
+   * null}.
+   *
+   * @return the {@link File} representing the path to the H2 jar
+   * file; never {@code null}
+   */
+  public final File getH2() {
+    return getLocation(Server.class);
+  }
+
+  /**
+   * Returns the {@link File} representing the jar file or directory
+   * from which the supplied {@link Class} was loaded.  This method
+   * never returns {@code null}.
+   *
+   * @param c the {@link Class} to locate; must not be {@code null}
+   *
+   * @return the {@link File} from which the supplied {@link Class}
+   * was loaded; never {@code null}
+   */
+  private static final File getLocation(final Class<?> c) {
+    final ProtectionDomain pd = c.getProtectionDomain();
+    assert pd != null;
+    final CodeSource cs = pd.getCodeSource();
+    assert cs != null;
+    final URL location = cs.getLocation();
+    assert location != null;
+    try {
+      return new File(location.toURI());
+    } catch (final URISyntaxException wontHappen) {
+      throw (InternalError)new InternalError().initCause(wontHappen);
+    }
+  }
+
+  /**
+   * Returns {@code true} if spawned servers are daemons that outlive
+   * the build and are reused by later builds with the same
+   * {@linkplain #getFingerprint() configuration}.
+   *
+   * @return {@code true} if spawned servers are daemons
+   */
+  public boolean getDaemon() {
+    return this.daemon;
+  }
+
+  /**
+   * Sets whether spawned servers are daemons that outlive the build
+   * and are reused by later builds with the same {@linkplain
+   * #getFingerprint() configuration}.
+   *
+   * @param daemon whether spawned servers are daemons
+   */
+  public void setDaemon(final boolean daemon) {
+    this.daemon = daemon;
+  }
+
+  /**
+   * Returns the number of seconds a {@linkplain #getDaemon() daemon}
+   * may sit idle before it stops itself.
+   *
+   * @return the idle timeout in seconds; always {@code 0} or greater,
+   * where {@code 0} means that a daemon never stops itself
+   */
+  public long getDaemonIdleTimeout() {
+    return this.daemonIdleTimeout;
+  }
+
+  /**
+   * Sets the number of seconds a {@linkplain #getDaemon() daemon} may
+   * sit idle before it stops itself.
+   *
+   * @param daemonIdleTimeout the idle timeout in seconds; will be
+   * constrained to be {@code 0} or greater, where {@code 0} means
+   * that a daemon never stops itself
+   */
+  public void setDaemonIdleTimeout(final long daemonIdleTimeout) {
+    this.daemonIdleTimeout = Math.max(0L, daemonIdleTimeout);
+  }
+
+  /**
+   * Returns the directory beneath which {@linkplain #getDaemon()
+   * daemons} keep their bookkeeping files.  This method may return
+   * {@code null}.
+   *
+   * @return the daemon directory, or {@code null}
+   */
+  public File getDaemonDirectory() {
+    return this.daemonDirectory;
+  }
+
+  /**
+   * Sets the directory beneath which {@linkplain #getDaemon()
+   * daemons} keep their bookkeeping files.
+   *
+   * @param daemonDirectory the daemon directory; may be {@code null}
+   */
+  public void setDaemonDirectory(final File daemonDirectory) {
+    this.daemonDirectory = daemonDirectory;
+  }
+
+  /**
+   * Returns the {@link DaemonState} for the {@linkplain #getDaemon()
+   * daemon} listening on this mojo's {@linkplain #getPort() port}.
+   * This method never returns {@code null}.
+   *
+   * @return a non-{@code null} {@link DaemonState}
+   */
+  protected DaemonState getDaemonState() {
+    File daemonDirectory = this.getDaemonDirectory();
+    if (daemonDirectory == null) {
+      daemonDirectory = new File(new File(new File(System.getProperty("user.home")), ".h2-maven-plugin"), "daemons");
+    }
+    return new DaemonState(new File(daemonDirectory, String.valueOf(this.getPort())));
+  }
+
+  /**
+   * Returns whether spawned servers use a class data sharing archive.
+   *
+   * @return whether spawned servers use a class data sharing archive
+   */
+  public boolean getClassDataSharing() {
+    return this.classDataSharing;
+  }
+
+  /**
+   * Sets whether spawned servers use a class data sharing archive.
+   *
+   * @param classDataSharing whether spawned servers use a class data
+   * sharing archive
+   */
+  public void setClassDataSharing(final boolean classDataSharing) {
+    this.classDataSharing = classDataSharing;
+  }
+
+  /**
+   * Returns the directory holding class data sharing archives.  This
+   * method may return {@code null}.
+   *
+   * @return the directory holding class data sharing archives, or
+   * {@code null}
+   */
+  public File getClassDataSharingDirectory() {
+    return this.classDataSharingDirectory;
+  }
+
+  /**
+   * Sets the directory holding class data sharing archives.
+   *
+   * @param classDataSharingDirectory the directory; may be {@code
+   * null}
+   */
+  public void setClassDataSharingDirectory(final File classDataSharingDirectory) {
+    this.classDataSharingDirectory = classDataSharingDirectory;
+  }
+
+  /**
+   * Returns the class data sharing archive that spawned servers use,
+   * or {@code null} if {@linkplain #prepareClassDataSharing() none
+   * has been prepared}.
+   *
+   * @return the class data sharing archive, or {@code null}
+   */
+  public File getClassDataSharingArchive() {
+    return this.classDataSharingArchive;
+  }
+
+  /**
+   * Makes sure that a class data sharing archive for the {@linkplain
+   * #getJava() Java installation}, {@linkplain #getH2() H2 jar} and
+   * {@linkplain #getJavaOptions() Java options} in use exists,
+   * creating it with a training run if necessary, so that servers
+   * spawned afterwards {@linkplain #getServerSpawner(ServerInstance)
+   * use it}.
+   *
+   * <p>No archive is used if {@linkplain #getClassDataSharing() class
+   * data sharing} is disabled, the Java installation does not support
+   * dynamic archives, or the Java options already configure class
+   * data sharing.</p>
+   *
+   * @return the archive, or {@code null} if none is used
+   *
+   * @exception IOException if the training run failed
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting for the training run
+   */
+  protected File prepareClassDataSharing() throws IOException, InterruptedException {
+    this.classDataSharingArchive = null;
+    if (!this.getClassDataSharing()) {
+      return null;
+    }
+    final Log log = this.getLog();
+    final List<String> javaOptions = this.getEffectiveJavaOptions();
+    for (final String option : javaOptions) {
+      if (option.startsWith("-Xshare") || option.startsWith("-XX:SharedArchiveFile") || option.startsWith("-XX:ArchiveClassesAtExit")) {
+        return null;
+      }
+    }
+    File java = this.getJava();
+    if (java == null) {
+      java = new File(new File(new File(System.getProperty("java.home")), "bin"), "java");
+    }
+    final File release = new File(java.getAbsoluteFile().getParentFile().getParentFile(), "release");
+    if (getJavaMajorVersion(release) < 13) {
+      if (log != null && log.isDebugEnabled()) {
+        log.debug(String.format("%s does not support dynamic class data sharing archives", java));
+      }
+      return null;
+    }
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (final GeneralSecurityException wontHappen) {
+      throw (InternalError)new InternalError().initCause(wontHappen);
+    }
+    md.update(java.getAbsolutePath().getBytes("UTF-8"));
+    md.update((byte)0);
+    update(md, release);
+    md.update((byte)0);
+    update(md, this.getH2());
+    md.update((byte)0);
+    for (final String option : javaOptions) {
+      md.update(option.getBytes("UTF-8"));
+      md.update((byte)0);
+    }
+    File directory = this.getClassDataSharingDirectory();
+    if (directory == null) {
+      directory = new File(new File(new File(System.getProperty("user.home")), ".h2-maven-plugin"), "cds");
+    }
+    final File archive = new File(directory, toHexString(md.digest()) + ".jsa");
+    if (!archive.isFile()) {
+      this.trainClassDataSharing(java, javaOptions, archive);
+    }
+    this.classDataSharingArchive = archive;
+    return archive;
+  }
+
+  /**
+   * Creates the supplied class data sharing archive by spawning an H2
+   * TCP server that records the classes it loads, running a few
+   * statements against it, and shutting it down.  The archive is
+   * written under a temporary name and then renamed into place, so
+   * that concurrent builds never see a partial archive.
+   *
+   * @param java the {@code java} executable; must not be {@code null}
+   *
+   * @param javaOptions the Java options; must not be {@code null}
+   *
+   * @param archive the archive to create; must not be {@code null}
+   *
+   * @exception IOException if the training run failed
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting for the training run
+   */
+  private final void trainClassDataSharing(final File java, final List<String> javaOptions, final File archive) throws IOException, InterruptedException {
+    final long start = System.nanoTime();
+    final File directory = archive.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Could not create " + directory);
+    }
+    final File temporaryArchive = File.createTempFile(".cds", ".tmp", directory);
+    // The Java virtual machine refuses to overwrite it.
+    temporaryArchive.delete();
+    final String password = "h2-maven-plugin-training";
+    final List<String> args = new ArrayList<String>();
+    args.add(java.getAbsolutePath());
+    args.addAll(javaOptions);
+    args.add("-XX:ArchiveClassesAtExit=" + temporaryArchive.getAbsolutePath());
+    args.add("-cp");
+    args.add(this.getH2().getAbsolutePath());
+    args.add(Server.class.getName());
+    args.add("-tcp");
+    args.add("-tcpPort");
+    args.add("0");
+    args.add("-tcpPassword");
+    args.add(password);
+    final ProcessBuilder builder = new ProcessBuilder(args);
+    builder.redirectErrorStream(true);
+    final Process process = builder.start();
+    boolean renamed = false;
+    try {
+      final ServerOutput output = this.drain(process, Collections.singletonList(new Service("tcp", 0, false, false)), false);
+      output.getStatus().await(this.getReadinessTimeout());
+      final Integer port = output.getStatus().getPort("tcp");
+      if (port == null) {
+        throw new IOException("H2 training server did not report its port");
+      }
+      final Connection connection = DriverManager.getConnection(String.format("jdbc:h2:tcp://localhost:%d/mem:h2-maven-plugin-training", port), "sa", "");
+      try {
+        final Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE TRAINING(ID INT PRIMARY KEY, NAME VARCHAR(255))");
+        statement.execute("INSERT INTO TRAINING VALUES (1, 'a'), (2, 'b')");
+        statement.executeQuery("SELECT * FROM TRAINING WHERE ID = 1").close();
+        statement.close();
+      } finally {
+        connection.close();
+      }
+      TcpServer.shutdown(String.format("tcp://localhost:%d", port), password, false, false);
+      final long deadline = System.currentTimeMillis() + this.getReadinessTimeout();
+      while (isRunning(process)) {
+        if (System.currentTimeMillis() >= deadline) {
+          throw new IOException(String.format("H2 training server did not exit within %d ms", this.getReadinessTimeout()));
+        }
+        Thread.sleep(50L);
+      }
+      if (process.exitValue() != 0 || !temporaryArchive.isFile()) {
+        throw new IOException(String.format("H2 training server exited with exit code %d without writing %s", process.exitValue(), temporaryArchive));
+      }
+      // Only a complete archive may be installed: its name is never
+      // retrained.
+      renamed = temporaryArchive.renameTo(archive);
+    } catch (final SQLException kaboom) {
+      throw new IOException("H2 training server could not be used", kaboom);
+    } catch (final IOException throwMe) {
+      this.logServerOutput(process);
+      throw throwMe;
+    } finally {
+      process.destroy();
+      if (!renamed) {
+        temporaryArchive.delete();
+      }
+    }
+    final Log log = this.getLog();
+    if (log != null && log.isInfoEnabled()) {
+      log.info(String.format("Created class data sharing archive %s in %d ms", archive, (System.nanoTime() - start) / 1000000L));
+    }
+  }
+
+  /**
+   * Returns the major version of the Java installation described by
+   * the supplied {@code release} file, or {@code 0} if it cannot be
+   * determined.
+   *
+   * @param release the {@code release} file at the root of a Java
+   * installation; must not be {@code null}
+   *
+   * @return the major version, e.g. {@code 8} or {@code 17}, or
+   * {@code 0}
+   *
+   * @exception IOException if the file exists but could not be read
+   */
+  private static final int getJavaMajorVersion(final File release) throws IOException {
+    if (!release.isFile()) {
+      return 0;
+    }
+    final Properties properties = new Properties();
+    final InputStream stream = new FileInputStream(release);
+    try {
+      properties.load(stream);
+    } finally {
+      stream.close();
+    }
+    String version = properties.getProperty("JAVA_VERSION", "").replace("\"", "");
+    if (version.startsWith("1.")) {
+      version = version.substring(2);
+    }
+    final int end = version.indexOf('.');
+    try {
+      return Integer.parseInt(end < 0 ? version : version.substring(0, end));
+    } catch (final NumberFormatException unknown) {
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the name of the lease this build holds on a {@linkplain
+   * #getDaemon() daemon}.  The name is derived from the current
+   * working directory, so that the {@code spawn} and {@code stop}
+   * goals agree on it even when they run in separate Maven
+   * invocations.  This method never returns {@code null}.
+   *
+   * @return the lease name; never {@code null}
+   */
+  protected String getLeaseName() {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-1");
+      md.update(new File(System.getProperty("user.dir")).getAbsolutePath().getBytes("UTF-8"));
+      return toHexString(md.digest()).substring(0, 16);
+    } catch (final GeneralSecurityException wontHappen) {
+      throw (InternalError)new InternalError().initCause(wontHappen);
+    } catch (final UnsupportedEncodingException wontHappen) {
+      throw (InternalError)new InternalError().initCause(wontHappen);
+    }
+  }
+
+  /**
+   * Returns a hexadecimal digest of everything that determines the
+   * behavior of a spawned server: the {@linkplain
+   * #getServerArguments() server arguments}, the {@linkplain
+   * #getJava() Java executable}, the {@linkplain #getJavaOptions()
+   * Java options}, the contents of the {@linkplain #getH2() H2 jar}
+   * and the {@linkplain #getSeedKey() seed key}.  A {@linkplain
+   * #getDaemon() daemon} is reused only by
+   * builds whose fingerprint matches the one it was spawned with.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} hexadecimal digest
+   *
+   * @exception IOException if the H2 jar could not be read
+   */
+  public String getFingerprint() throws IOException {
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (final GeneralSecurityException wontHappen) {
+      throw (InternalError)new InternalError().initCause(wontHappen);
+    }
+    for (final String arg : this.getServerArguments()) {
+      md.update(String.valueOf(arg).getBytes("UTF-8"));
+      md.update((byte)0);
+    }
+    md.update((byte)0);
+    final File java = this.getJava();
+    if (java != null) {
+      md.update(java.getAbsolutePath().getBytes("UTF-8"));
+    }
+    md.update((byte)0);
+    for (final String option : this.getEffectiveJavaOptions()) {
+      md.update(option.getBytes("UTF-8"));
+      md.update((byte)0);
+    }
+    md.update((byte)0);
+    update(md, this.getH2());
+    md.update((byte)0);
+    // A daemon must be replaced if the database it was seeded with
+    // is out of date.
+    final String seedKey = this.getSeedKey();
+    if (seedKey != null) {
+      md.update(seedKey.getBytes("UTF-8"));
+    }
+    return toHexString(md.digest());
+  }
+
+  /**
+   * Feeds the contents of the supplied {@link File} to the supplied
+   * {@link MessageDigest}.
+   *
+   * @param md the {@link MessageDigest} to update; must not be {@code
+   * null}
+   *
+   * @param file the {@link File} to read; must not be {@code null}
+   *
+   * @exception IOException if the {@link File} could not be read
+   */
+  private static final void update(final MessageDigest md, final File file) throws IOException {
+    final InputStream stream = new FileInputStream(file);
+    try {
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = stream.read(buffer)) >= 0) {
+        md.update(buffer, 0, read);
+      }
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Returns the SQL scripts that create and populate the {@linkplain
+   * #getDatabase() database} before the server starts.  This method
+   * may return {@code null}.
+   *
+   * @return the seed scripts, or {@code null}
+   *
+   * @see #seed(List)
+   */
+  public File[] getSeedScripts() {
+    return this.seedScripts;
+  }
+
+  /**
+   * Sets the SQL scripts that create and populate the {@linkplain
+   * #getDatabase() database} before the server starts.
+   *
+   * @param seedScripts the seed scripts; may be {@code null}
+   *
+   * @see #seed(List)
+   */
+  public void setSeedScripts(final File... seedScripts) {
+    this.seedScripts = seedScripts;
+  }
+
+  /**
+   * Returns the directory holding cached {@linkplain
+   * #getSeedScripts() seeded} databases.  This method may return
+   * {@code null}.
+   *
+   * @return the seed cache directory, or {@code null}
+   */
+  public File getSeedCacheDirectory() {
+    return this.seedCacheDirectory;
+  }
+
+  /**
+   * Sets the directory holding cached {@linkplain #getSeedScripts()
+   * seeded} databases.
+   *
+   * @param seedCacheDirectory the seed cache directory; may be {@code
+   * null} in which case {@code .h2-maven-plugin/seeds} in the user's
+   * home directory will be used
+   */
+  public void setSeedCacheDirectory(final File seedCacheDirectory) {
+    this.seedCacheDirectory = seedCacheDirectory;
+  }
+
+  /**
+   * Returns the size in megabytes beyond which the least recently
+   * used {@linkplain #getSeedScripts() seeded} databases are evicted
+   * from the {@linkplain #getSeedCacheDirectory() cache}.
+   *
+   * @return the maximum cache size in megabytes
+   */
+  public long getSeedCacheSize() {
+    return this.seedCacheSize;
+  }
+
+  /**
+   * Sets the size in megabytes beyond which the least recently used
+   * {@linkplain #getSeedScripts() seeded} databases are evicted from
+   * the {@linkplain #getSeedCacheDirectory() cache}.
+   *
+   * @param seedCacheSize the maximum cache size in megabytes; will be
+   * constrained to be {@code 0} or greater
+   */
+  public void setSeedCacheSize(final long seedCacheSize) {
+    this.seedCacheSize = Math.max(0L, seedCacheSize);
+  }
+
+  /**
+   * Returns the key under which the database produced by the
+   * {@linkplain #getSeedScripts() seed scripts} is cached: a
+   * hexadecimal digest of the contents of the scripts, the contents
+   * of the {@linkplain #getH2() H2 jar}, the {@linkplain
+   * #getDatabase() database name}, the {@linkplain #getUser()
+   * credentials} the database is created with and the {@linkplain
+   * #getEncoding() encoding} of the scripts.  If there are no seed scripts,
+   * this method returns {@code null}.
+   *
+   * @return a hexadecimal digest, or {@code null}
+   *
+   * @exception IOException if a script or the H2 jar could not be
+   * read
+   */
+  public String getSeedKey() throws IOException {
+    final File[] seedScripts = this.getSeedScripts();
+    if (seedScripts == null || seedScripts.length <= 0) {
+      return null;
+    }
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (final GeneralSecurityException wontHappen) {
+      throw (InternalError)new InternalError().initCause(wontHappen);
+    }
+    for (final File script : seedScripts) {
+      if (script != null) {
+        update(md, script);
+        md.update((byte)0);
+      }
+    }
+    md.update((byte)0);
+    update(md, this.getH2());
+    md.update((byte)0);
+    md.update(String.valueOf(this.getDatabase()).getBytes("UTF-8"));
+    md.update((byte)0);
+    // The user who runs the scripts owns the database.
+    md.update(this.getUser().getBytes("UTF-8"));
+    md.update((byte)0);
+    md.update(this.getPassword().getBytes("UTF-8"));
+    md.update((byte)0);
+    md.update(this.getEncoding().getBytes("UTF-8"));
+    return toHexString(md.digest());
+  }
+
+  /**
+   * Returns the {@link SeedCache} holding {@linkplain
+   * #getSeedScripts() seeded} databases.  This method never returns
+   * {@code null}.
+   *
+   * @return a non-{@code null} {@link SeedCache}
+   */
+  protected SeedCache getSeedCache() {
+    File seedCacheDirectory = this.getSeedCacheDirectory();
+    if (seedCacheDirectory == null) {
+      seedCacheDirectory = new File(new File(new File(System.getProperty("user.home")), ".h2-maven-plugin"), "seeds");
+    }
+    return new SeedCache(seedCacheDirectory, this.getSeedCacheSize() * 1024L * 1024L);
+  }
+
+  /**
+   * Installs a freshly seeded copy of the {@linkplain #getDatabase()
+   * database} in the base directory of each of the supplied {@link
+   * ServerInstance}s, which must not be running yet.  If there are no
+   * {@linkplain #getSeedScripts() seed scripts}, no action is taken.
+   *
+   * <p>The database is taken from the {@linkplain #getSeedCache()
+   * seed cache} if possible.  Otherwise the seed scripts are run
+   * against a new database, inside the current Java virtual machine,
+   * and the result is added to the cache.</p>
+   *
+   * @param instances the {@link ServerInstance}s to seed; must not be
+   * {@code null}
+   *
+   * @exception IOException if the database files could not be read,
+   * cached or copied
+   *
+   * @exception SQLException if a seed script failed
+   */
+  protected void seed(final List<ServerInstance> instances) throws IOException, SQLException {
+    final String key = this.getSeedKey();
+    if (key == null) {
+      return;
+    }
+    if (this.isStorageInMemory()) {
+      throw new IOException(String.format("Databases kept in %s storage cannot be seeded from files; use disk or nioMapped storage, or the init goal", this.getStorage()));
+    }
+    final Log log = this.getLog();
+    final long start = System.nanoTime();
+    final SeedCache cache = this.getSeedCache();
+    File entry = cache.get(key);
+    final boolean hit = entry != null;
+    if (!hit) {
+      final File temporaryDirectory = cache.createTemporaryDirectory();
+      try {
+        this.runSeedScripts(temporaryDirectory);
+      } catch (final SQLException throwMe) {
+        SeedCache.delete(temporaryDirectory);
+        throw throwMe;
+      } catch (final IOException throwMe) {
+        SeedCache.delete(temporaryDirectory);
+        throw throwMe;
+      }
+      entry = cache.put(key, temporaryDirectory);
+    }
+    final File databaseFile = new File(this.getDatabase());
+    for (final ServerInstance instance : instances) {
+      File baseDirectory = instance.getBaseDirectory();
+      if (baseDirectory == null) {
+        baseDirectory = new File(System.getProperty("user.dir"));
+      }
+      final File parent = new File(baseDirectory, databaseFile.getPath()).getParentFile();
+      // Remove every trace of the previous copy of the database,
+      // including lock, trace and LOB files.
+      final File[] stale = parent.listFiles();
+      if (stale != null) {
+        for (final File file : stale) {
+          if (file.getName().startsWith(databaseFile.getName() + ".")) {
+            SeedCache.delete(file);
+          }
+        }
+      }
+      copyDirectory(entry, baseDirectory);
+      this.recordTiming(instance, "seeded");
+    }
+    if (log != null && log.isInfoEnabled()) {
+      log.info(String.format("H2 database %s seeded from %s in %d ms", this.getDatabase(), hit ? "cache" : "scripts", (System.nanoTime() - start) / 1000000L));
+    }
+  }
+
+  /**
+   * Runs the {@linkplain #getSeedScripts() seed scripts} against a
+   * new {@linkplain #getDatabase() database} in the supplied
+   * directory, and then closes the database.
+   *
+   * @param directory the directory in which to create the database;
+   * must not be {@code null}
+   *
+   * @exception IOException if a script could not be read
+   *
+   * @exception SQLException if a script failed
+   */
+  private final void runSeedScripts(final File directory) throws IOException, SQLException {
+    final String url = String.format("jdbc:h2:%s", new File(directory, this.getDatabase()).getAbsolutePath());
+    final Connection connection = DriverManager.getConnection(url, this.getUser(), this.getPassword());
+    try {
+      final ScriptRunner runner = new ScriptRunner(this.getBatchSize());
+      for (final File script : this.getSeedScripts()) {
+        if (script != null) {
+          final Reader reader = new InputStreamReader(new FileInputStream(script), this.getEncoding());
+          try {
+            runner.execute(connection, reader);
+          } finally {
+            reader.close();
+          }
+        }
+      }
+      final Statement statement = connection.createStatement();
+      try {
+        // Closing the database this way also leaves its files as
+        // small as possible for the many copies to come.
+        statement.execute("SHUTDOWN COMPACT");
+      } finally {
+        statement.close();
+      }
+    } finally {
+      connection.close();
+    }
+    final File[] files = directory.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        if (file.getName().endsWith(".trace.db")) {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies the contents of the supplied source directory into the
+   * supplied target directory, recursively.
+   *
+   * @param source the directory to copy; must not be {@code null}
+   *
+   * @param target the directory to copy into; must not be {@code
+   * null}; will be created if necessary
+   *
+   * @exception IOException if a file could not be copied
+   */
+  private static final void copyDirectory(final File source, final File target) throws IOException {
+    if (!target.isDirectory() && !target.mkdirs() && !target.isDirectory()) {
+      throw new IOException("Could not create " + target);
+    }
+    final File[] files = source.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        final File copy = new File(target, file.getName());
+        if (file.isDirectory()) {
+          copyDirectory(file, copy);
+        } else {
+          SeedCache.copy(file, copy);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a lowercase hexadecimal representation of the supplied
+   * bytes.
    *
-   * @return the {@link File} representing the path to the H2 jar
-   * file; never {@code null}
+   * @param bytes the bytes to represent; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link String}
    */
-  public final File getH2() {
-    final ProtectionDomain pd = Server.class.getProtectionDomain();
-    assert pd != null;
-    final CodeSource cs = pd.getCodeSource();
-    assert cs != null;
-    final URL location = cs.getLocation();
-    assert location != null;
-    try {
-      return new File(location.toURI());
-    } catch (final URISyntaxException wontHappen) {
-      throw (InternalError)new InternalError().initCause(wontHappen);
+  static final String toHexString(final byte[] bytes) {
+    final StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
     }
+    return sb.toString();
   }
 
   /**
@@ -616,31 +3738,181 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
    * Creates a new {@link Server} using H2's {@link
    * Server#createTcpServer(String[])}, {@link
    * Server#createPgServer(String[])} or {@link
-   * Server#createWebServer(String[])} method.  This method must never
-   * return {@code null}.
+   * Server#createWebServer(String[])} method, for the first of the
+   * {@linkplain #getServices() <tt>Service</tt>s} in that order.  This
+   * method must never return {@code null}.
    *
-   * <p><strong>Note:</strong> This method is experimental.</p>
+   * <p>The returned {@link Server} is intended to run inside the
+   * current Java virtual machine, so its threads are marked as daemon
+   * threads; a forgotten {@link Server} will therefore never prevent
+   * Maven from exiting.</p>
    *
    * @return a new {@link Server} as produced by the {@link
    * Server#createTcpServer(String[])} method; never {@code null}
    *
    * @exception SQLException if an error occurs
+   *
+   * @see StartH2Mojo
    */
   protected Server createServer() throws SQLException {
-    Server server = null;
-    final List<String> args = this.getServerArguments();
+    return this.createServer(this.getDefaultInstance());
+  }
+
+  /**
+   * Creates a new {@link Server} for the supplied {@link
+   * ServerInstance} in the same manner as the {@link #createServer()}
+   * method.  This method must never return {@code null}.
+   *
+   * @param instance the {@link ServerInstance} to create a {@link
+   * Server} for; must not be {@code null}
+   *
+   * @return a new {@link Server}; never {@code null}
+   *
+   * @exception SQLException if an error occurs
+   */
+  protected Server createServer(final ServerInstance instance) throws SQLException {
+    return this.createServers(instance).get(0);
+  }
+
+  /**
+   * Creates a new {@link Server} for each of the {@linkplain
+   * ServerInstance#getServices() <tt>Service</tt>s} of the supplied
+   * {@link ServerInstance}, in the order {@code tcp}, {@code pg},
+   * {@code web}, in the same manner as the {@link #createServer()}
+   * method.  Once started, the {@link Server}s share the H2 engine of
+   * the current Java virtual machine, and so open the same
+   * databases.  This method never returns {@code null}.
+   *
+   * @param instance the {@link ServerInstance} to create {@link
+   * Server}s for; must not be {@code null}
+   *
+   * @return a new, non-{@code null}, non-empty {@link List} of {@link
+   * Server}s
+   *
+   * @exception SQLException if an error occurs
+   */
+  protected List<Server> createServers(final ServerInstance instance) throws SQLException {
+    final List<String> args = this.getServerArguments(instance);
     if (args == null || args.isEmpty()) {
       throw new SQLException("Cannot create server; no arguments");
-    } else if (args.contains("-tcp")) {
-      server = Server.createTcpServer(args.toArray(new String[args.size()]));
-    } else if (args.contains("-pg")) {
-      server = Server.createPgServer(args.toArray(new String[args.size()]));
-    } else if (args.contains("-web")) {
-      server = Server.createWebServer(args.toArray(new String[args.size()]));
-    } else {
+    }
+    // Each kind of server ignores the options of the others.
+    args.add("-tcpDaemon");
+    args.add("-pgDaemon");
+    args.add("-webDaemon");
+    final String[] argArray = args.toArray(new String[args.size()]);
+    final List<Server> servers = new ArrayList<Server>(3);
+    if (args.contains("-tcp")) {
+      servers.add(Server.createTcpServer(argArray));
+    }
+    if (args.contains("-pg")) {
+      servers.add(Server.createPgServer(argArray));
+    }
+    if (args.contains("-web")) {
+      servers.add(Server.createWebServer(argArray));
+    }
+    if (servers.isEmpty()) {
       throw new SQLException("Unknown service");
     }
-    return server;
+    return servers;
+  }
+
+  /**
+   * Records the supplied {@link Server}, which must have been
+   * {@linkplain Server#start() started} inside the current Java
+   * virtual machine, so that a later {@link StopH2Mojo} execution in
+   * the same build can {@linkplain #stopServers() stop it} directly.
+   *
+   * <p>Servers are recorded in this mojo's {@linkplain
+   * #getPluginContext() plugin context}, which Maven shares among all
+   * executions of this plugin's goals for the current project.</p>
+   *
+   * @param server the {@link Server} to record; may be {@code null}
+   * in which case no action will be taken
+   */
+  protected void registerServer(final Server server) {
+    if (server != null) {
+      final List<Server> servers = this.getRegisteredServers();
+      synchronized (servers) {
+        servers.add(server);
+      }
+    }
+  }
+
+  /**
+   * {@linkplain Server#stop() Stops} all {@link Server}s that were
+   * previously {@linkplain #registerServer(Server) registered}, and
+   * forgets about them.
+   *
+   * @return the {@link List} of {@link Server}s that were stopped;
+   * never {@code null}
+   */
+  protected List<Server> stopServers() {
+    final List<Server> servers = this.getRegisteredServers();
+    final List<Server> stopped;
+    synchronized (servers) {
+      stopped = new ArrayList<Server>(servers);
+      servers.clear();
+    }
+    for (final Server server : stopped) {
+      server.stop();
+    }
+    return stopped;
+  }
+
+  /**
+   * Returns the live, mutable {@link List} of {@link Server}s
+   * {@linkplain #registerServer(Server) registered} in this mojo's
+   * {@linkplain #getPluginContext() plugin context}, creating it if
+   * necessary.  Access to the returned {@link List} must be
+   * synchronized on the {@link List} itself.
+   *
+   * @return a non-{@code null} {@link List} of {@link Server}s
+   */
+  private final List<Server> getRegisteredServers() {
+    return this.getSharedList(SERVERS_KEY);
+  }
+
+  /**
+   * Returns this mojo's {@linkplain #getPluginContext() plugin
+   * context}, creating it if necessary.  Access to the returned
+   * {@link Map} must be synchronized on the {@link Map} itself.
+   *
+   * @return a non-{@code null} {@link Map}
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private final Map<Object, Object> getSharedContext() {
+    Map pluginContext = this.getPluginContext();
+    if (pluginContext == null) {
+      pluginContext = new HashMap();
+      this.setPluginContext(pluginContext);
+    }
+    return (Map<Object, Object>)pluginContext;
+  }
+
+  /**
+   * Returns the live, mutable {@link List} stored under the supplied
+   * key in this mojo's {@linkplain #getPluginContext() plugin
+   * context}, creating it if necessary.  Access to the returned
+   * {@link List} must be synchronized on the {@link List} itself.
+   *
+   * @param <T> the type of the {@link List}'s elements
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link List}
+   */
+  @SuppressWarnings("unchecked")
+  private final <T> List<T> getSharedList(final String key) {
+    final Map<Object, Object> pluginContext = this.getSharedContext();
+    synchronized (pluginContext) {
+      List<T> list = (List<T>)pluginContext.get(key);
+      if (list == null) {
+        list = new ArrayList<T>();
+        pluginContext.put(key, list);
+      }
+      return list;
+    }
   }
 
   /**
@@ -658,7 +3930,22 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
    * @return a {@link ProcessBuilder}; never {@code null}
    */
   protected ProcessBuilder getServerSpawner() {
-    final List<String> args = this.getServerArguments();
+    return this.getServerSpawner(this.getDefaultInstance());
+  }
+
+  /**
+   * Returns a {@link ProcessBuilder} that can be used to spawn the
+   * supplied {@link ServerInstance}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param instance the {@link ServerInstance} to spawn; must not be
+   * {@code null}
+   *
+   * @return a {@link ProcessBuilder}; never {@code null}
+   */
+  protected ProcessBuilder getServerSpawner(final ServerInstance instance) {
+    final List<String> args = this.getServerArguments(instance);
     assert args != null;
 
     // A spawned server should never run as a daemon.
@@ -674,27 +3961,69 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
     }
     args.add(argumentIndex++, java.getAbsolutePath());
 
-    final String[] javaOptions = this.getJavaOptions();
-    if (javaOptions != null && javaOptions.length > 0) {
-      for (final String option : javaOptions) {
-        if (option != null && !option.trim().isEmpty()) {
+    for (final String option : this.getEffectiveJavaOptions()) {
+      args.add(argumentIndex++, option);
+    }
+    if (this.getJmxSampling() && !this.getDaemon()) {
+      try {
+        final int jmxPort = getFreeLoopbackPort();
+        for (final String option : getJmxJavaOptions(jmxPort)) {
           args.add(argumentIndex++, option);
         }
+        this.jmxPorts.put(Integer.valueOf(instance.getIndex()), Integer.valueOf(jmxPort));
+      } catch (final IOException kaboom) {
+        final Log log = this.getLog();
+        if (log != null && log.isWarnEnabled()) {
+          log.warn("Could not find a free port for JMX sampling", kaboom);
+        }
       }
     }
+    final File classDataSharingArchive = this.getClassDataSharingArchive();
+    if (classDataSharingArchive != null) {
+      // The archive was created with the H2 jar alone on the class
+      // path, which is a prefix of every class path used here.
+      args.add(argumentIndex++, "-XX:SharedArchiveFile=" + classDataSharingArchive.getAbsolutePath());
+    }
 
     args.add(argumentIndex++, "-cp");
     final File fileLocation = this.getH2();
     assert fileLocation != null;
-    args.add(argumentIndex++, fileLocation.getAbsolutePath());
-
-    args.add(argumentIndex++, Server.class.getName());
+    // Spawned servers run our own launcher.  Daemons stop once they
+    // have been idle for too long; other servers record their process
+    // identifier and hold locks that tell the stop goal, and RAM disk
+    // housekeeping, whether they are still running.
+    args.add(argumentIndex++, fileLocation.getAbsolutePath() + File.pathSeparator + getLocation(ServerLauncher.class).getAbsolutePath());
+    args.add(argumentIndex++, ServerLauncher.class.getName());
+    if (this.getDaemon()) {
+      args.add(argumentIndex++, "-idleTimeout");
+      args.add(argumentIndex++, String.valueOf(this.getDaemonIdleTimeout()));
+      args.add(argumentIndex++, "-leaseDirectory");
+      args.add(argumentIndex++, this.getDaemonState().getLeaseDirectory().getAbsolutePath());
+    } else {
+      final ServerState state = this.getServerState(instance);
+      args.add(argumentIndex++, "-lockFile");
+      args.add(argumentIndex++, state.getLockFile().getAbsolutePath());
+      args.add(argumentIndex++, "-pidFile");
+      args.add(argumentIndex++, state.getPidFile().getAbsolutePath());
+    }
+    final RamDisk ramDisk = this.getRamDisk(instance);
+    if (ramDisk != null) {
+      args.add(argumentIndex++, "-lockFile");
+      args.add(argumentIndex++, ramDisk.getLockFile().getAbsolutePath());
+    }
 
     final Log log = this.getLog();
     if (log != null && log.isDebugEnabled()) {
       log.debug("Process arguments: " + args);
     }
-    return new ProcessBuilder(args);
+    final ProcessBuilder builder = new ProcessBuilder(args);
+    builder.redirectErrorStream(true);
+    if (this.getDaemon()) {
+      // A daemon outlives the build, so nothing could drain its
+      // output; it goes to a file instead.
+      builder.redirectOutput(Redirect.appendTo(this.getDaemonState().getLogFile()));
+    }
+    return builder;
   }
 
   /**
@@ -710,7 +4039,381 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
    * ProcessBuilder#start()} failure
    */
   protected Process spawnServer() throws IOException {
-    return this.getServerSpawner().start();
+    return this.spawnServer(this.getDefaultInstance());
+  }
+
+  /**
+   * Returns a {@link Process} representing the supplied {@link
+   * ServerInstance}, which has been started.  The returned {@link
+   * Process} is guaranteed not to be {@code null}.
+   *
+   * <p>The {@link Process}'s output is drained on a background {@link
+   * Thread} by a {@link ServerOutput}, so that the server never blocks
+   * writing to it; callers must not read it themselves.</p>
+   *
+   * <p>Unless it is a {@linkplain #getDaemon() daemon}, the server
+   * keeps its {@linkplain #getServerState(ServerInstance) state} in
+   * the {@linkplain #getStateDirectory() state directory}.  If a
+   * server spawned earlier for the same {@link ServerInstance} is
+   * still running, it is given the {@linkplain #getShutdownTimeout()
+   * shutdown timeout} to exit first.</p>
+   *
+   * @param instance the {@link ServerInstance} to spawn; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link Process}
+   *
+   * @exception IOException if an error occurred during {@link
+   * Process} creation
+   */
+  protected Process spawnServer(final ServerInstance instance) throws IOException {
+    if (!this.getDaemon()) {
+      try {
+        this.getServerState(instance).prepare(this.getShutdownTimeout());
+      } catch (final InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        throw (IOException)new InterruptedIOException().initCause(interrupted);
+      }
+    }
+    final ProcessBuilder spawner = this.getServerSpawner(instance);
+    this.recordTiming(instance, "arguments-built");
+    final Process process = spawner.start();
+    this.processStarts.put(process, Long.valueOf(System.nanoTime()));
+    this.recordTiming(instance, "process-started");
+    this.drain(process, instance.getServices(), true);
+    return process;
+  }
+
+  /**
+   * Returns the number of milliseconds since the supplied {@link
+   * Process} was {@linkplain #spawnServer(ServerInstance) spawned} by
+   * this mojo, or {@code -1} if it was not.  Unlike a time taken
+   * before calling {@link #spawnServer(ServerInstance)}, this leaves
+   * out preparing the server's state and building its arguments.
+   *
+   * @param process the {@link Process}; may be {@code null}
+   *
+   * @return the number of milliseconds since {@code process} was
+   * started, or {@code -1}
+   */
+  protected final double getMillisSinceSpawned(final Process process) {
+    final Long start = process == null ? null : this.processStarts.get(process);
+    if (start == null) {
+      return -1.0;
+    }
+    return (System.nanoTime() - start.longValue()) / 1000000.0;
+  }
+
+  /**
+   * Starts draining the output of the supplied {@link Process} on a
+   * background {@link Thread}.
+   *
+   * @param process the {@link Process}; must not be {@code null}
+   *
+   * @param services the {@link Service}s the {@link Process} offers;
+   * must not be {@code null}
+   *
+   * @param analyze whether to register a {@link TraceAnalyzer} for
+   * the {@link Process} if {@linkplain #getTraceAnalysis() trace
+   * analysis} is on; {@code false} for processes, such as a class
+   * data sharing training run, that are not servers of this build
+   *
+   * @return the {@link ServerOutput} draining the output; never
+   * {@code null}
+   */
+  private final ServerOutput drain(final Process process, final List<Service> services, final boolean analyze) {
+    int count = 0;
+    for (final Service service : services) {
+      if (service != null) {
+        count++;
+      }
+    }
+    TraceAnalyzer trace = null;
+    if (analyze && this.getTraceAnalysis()) {
+      trace = new TraceAnalyzer();
+      final List<TraceAnalyzer> analyzers = this.getSharedList(TRACE_ANALYZERS_KEY);
+      synchronized (analyzers) {
+        analyzers.add(trace);
+      }
+    }
+    final ServerOutput output = new ServerOutput(process.getInputStream(), OUTPUT_LINES, count, trace);
+    this.outputs.put(process, output);
+    final Thread thread = new Thread(output, "h2-maven-plugin output drain");
+    thread.setDaemon(true);
+    thread.start();
+    return output;
+  }
+
+  /**
+   * Returns the {@link ServerOutput} draining the output of the
+   * supplied {@link Process}, or {@code null} if the {@link Process}
+   * was not {@linkplain #spawnServer(ServerInstance) spawned} by this
+   * mojo.
+   *
+   * @param process the {@link Process}; may be {@code null}
+   *
+   * @return a {@link ServerOutput}, or {@code null}
+   */
+  protected ServerOutput getServerOutput(final Process process) {
+    if (process == null) {
+      return null;
+    }
+    return this.outputs.get(process);
+  }
+
+  /**
+   * Logs, as errors, the most recent lines of output of the supplied
+   * {@link Process}, which has presumably failed.  If it was not
+   * {@linkplain #spawnServer(ServerInstance) spawned} by this mojo,
+   * or printed nothing, no action is taken.  The output of a
+   * {@linkplain #getDaemon() daemon} is not drained, so only the name
+   * of its log file is logged.
+   *
+   * @param process the {@link Process}; may be {@code null}
+   */
+  protected void logServerOutput(final Process process) {
+    final Log log = this.getLog();
+    if (log != null && this.getDaemon()) {
+      log.error(String.format("H2 daemon output is in %s", this.getDaemonState().getLogFile()));
+      return;
+    }
+    final ServerOutput output = this.getServerOutput(process);
+    if (log == null || output == null) {
+      return;
+    }
+    if (!isRunning(process)) {
+      // Let the drain catch up with the last lines of a process that
+      // has just exited.
+      try {
+        output.await(1000L);
+      } catch (final InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    final List<String> lines = output.getLines();
+    if (!lines.isEmpty()) {
+      log.error(String.format("Last %d lines of H2 server output:", lines.size()));
+      for (final String line : lines) {
+        log.error("  " + line);
+      }
+    }
+  }
+
+  /**
+   * Blocks until every {@linkplain #getServices() <tt>Service</tt>}
+   * offered by the supplied {@link Process} is ready, as determined
+   * by the {@linkplain #getReadiness() readiness mode}.
+   *
+   * <p>Readiness is polled with an exponential backoff.  If the
+   * supplied {@link Process} exits, or the {@linkplain
+   * #getReadinessTimeout() readiness timeout} elapses first, an
+   * {@link IOException} is thrown.</p>
+   *
+   * @param process the {@link Process} returned by the {@link
+   * #spawnServer()} method; must not be {@code null}
+   *
+   * @return the number of milliseconds this method spent waiting
+   *
+   * @exception IOException if the server did not become ready
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  protected long awaitReadiness(final Process process) throws IOException, InterruptedException {
+    final long returnValue = this.awaitReadiness(this.getDefaultInstance(), process);
+    this.syncPort();
+    return returnValue;
+  }
+
+  /**
+   * Blocks until every {@link Service} of the supplied {@link
+   * ServerInstance}, which is being run by the supplied {@link
+   * Process}, is ready, in the same manner as the {@link
+   * #awaitReadiness(Process)} method.  Ports requested as {@code 0}
+   * are replaced in the {@link ServerInstance}'s {@link Service}s by
+   * the ports actually bound.
+   *
+   * @param instance the {@link ServerInstance}; must not be {@code
+   * null}
+   *
+   * @param process the {@link Process} returned by the {@link
+   * #spawnServer(ServerInstance)} method; must not be {@code null}
+   *
+   * <p>If the server does not become ready, its most recent output
+   * is {@linkplain #logServerOutput(Process) logged}.  Otherwise,
+   * unless it is a {@linkplain #getDaemon() daemon}, its ports are
+   * recorded in its {@linkplain #getServerState(ServerInstance)
+   * state}.</p>
+   *
+   * @return the number of milliseconds this method spent waiting
+   *
+   * @exception IOException if the server did not become ready
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  protected long awaitReadiness(final ServerInstance instance, final Process process) throws IOException, InterruptedException {
+    if (instance == null) {
+      throw new IllegalArgumentException("instance", new NullPointerException("instance"));
+    }
+    if (process == null) {
+      throw new IllegalArgumentException("process", new NullPointerException("process"));
+    }
+    final long returnValue;
+    try {
+      returnValue = this.pollReadiness(instance, process);
+    } catch (final IOException kaboom) {
+      this.logServerOutput(process);
+      throw kaboom;
+    }
+    if (!this.getDaemon()) {
+      // Now that the ports are known, the stop goal of this or a later
+      // build can find the server.
+      this.getServerState(instance).setPorts(instance.getServices());
+    }
+    this.recordTiming(instance, "ready");
+    return returnValue;
+  }
+
+  /**
+   * Implements the {@link #awaitReadiness(ServerInstance, Process)}
+   * method.
+   *
+   * @param instance the {@link ServerInstance}; must not be {@code
+   * null}
+   *
+   * @param process the {@link Process}; must not be {@code null}
+   *
+   * @return the number of milliseconds this method spent waiting
+   *
+   * @exception IOException if the server did not become ready
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  private final long pollReadiness(final ServerInstance instance, final Process process) throws IOException, InterruptedException {
+    final long start = System.nanoTime();
+    final long timeout = this.getReadinessTimeout();
+    final long deadline = start + timeout * 1000000L;
+    final List<Service> services = instance.getServices();
+    if (hasAutomaticPorts(services)) {
+      this.awaitActualPorts(services, process, deadline);
+    }
+    final String readiness = this.getReadiness();
+    if ("none".equals(readiness)) {
+      return (System.nanoTime() - start) / 1000000L;
+    }
+    final boolean jdbc = "jdbc".equals(readiness);
+    final ServiceProbe probe = new ServiceProbe(this.getServerHost(), 1000);
+    final List<Service> pending = new LinkedList<Service>();
+    for (final Service service : services) {
+      if (service != null) {
+        pending.add(service);
+      }
+    }
+    final Log log = this.getLog();
+    long backoff = 10L;
+    while (!pending.isEmpty()) {
+      final Iterator<Service> iterator = pending.iterator();
+      while (iterator.hasNext()) {
+        final Service service = iterator.next();
+        if (jdbc ? probe.isAnsweringQueries(service) : probe.isAccepting(service)) {
+          iterator.remove();
+          if (log != null && log.isDebugEnabled()) {
+            log.debug(String.format("%s service on port %d is ready", service.getId(), service.getPort()));
+          }
+        }
+      }
+      if (pending.isEmpty()) {
+        break;
+      }
+      if (!isRunning(process)) {
+        throw new IOException(String.format("H2 server exited with exit code %d before becoming ready", process.exitValue()));
+      }
+      final long now = System.nanoTime();
+      if (now - deadline >= 0L) {
+        throw new IOException(String.format("H2 server did not become ready within %d ms; still waiting for %s", timeout, pending));
+      }
+      Thread.sleep(Math.min(backoff, Math.max(1L, (deadline - now) / 1000000L)));
+      backoff = Math.min(250L, backoff * 2L);
+    }
+    return (System.nanoTime() - start) / 1000000L;
+  }
+
+  /**
+   * Reads the ports actually bound by the supplied {@link Process}
+   * from its startup output, and records them in the supplied {@link
+   * Service}s in place of the ports requested as {@code 0}.
+   *
+   * @param candidates the {@link Service}s the {@link Process}
+   * offers; must not be {@code null}
+   *
+   * @param process the {@link Process} returned by the {@link
+   * #spawnServer()} method; must not be {@code null}
+   *
+   * @param deadline the {@link System#nanoTime()} value after which
+   * to give up
+   *
+   * @exception IOException if the ports could not be determined
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  private final void awaitActualPorts(final List<Service> candidates, final Process process, final long deadline) throws IOException, InterruptedException {
+    final List<Service> services = new ArrayList<Service>();
+    for (final Service service : candidates) {
+      if (service != null) {
+        services.add(service);
+      }
+    }
+    ServerOutput output = this.getServerOutput(process);
+    if (output == null) {
+      output = this.drain(process, services, true);
+    }
+    final ServerStatusReader reader = output.getStatus();
+    while (!reader.await(50L)) {
+      if (!isRunning(process)) {
+        reader.await(1000L);
+        break;
+      }
+      if (System.nanoTime() - deadline >= 0L) {
+        throw new IOException(String.format("H2 server did not report its ports within %d ms", this.getReadinessTimeout()));
+      }
+    }
+    if (reader.getFailure() != null) {
+      throw new IOException(reader.getFailure());
+    }
+    for (final Service service : services) {
+      if (service.getPort() == 0) {
+        final Integer port = reader.getPort(service.getId());
+        if (port == null) {
+          if (!isRunning(process)) {
+            throw new IOException(String.format("H2 server exited with exit code %d before becoming ready", process.exitValue()));
+          }
+          throw new IOException(String.format("H2 server did not report the port of its %s service", service.getId()));
+        }
+        service.setPort(port.intValue());
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Process} has not yet
+   * exited.
+   *
+   * @param process the {@link Process} to test; must not be {@code
+   * null}
+   *
+   * @return {@code true} if the supplied {@link Process} has not yet
+   * exited
+   */
+  static final boolean isRunning(final Process process) {
+    try {
+      process.exitValue();
+      return false;
+    } catch (final IllegalThreadStateException stillRunning) {
+      return true;
+    }
   }
 
   /**
@@ -719,20 +4422,26 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
    * @exception SQLException if the server could not be shut down
    */
   protected void shutdownServer() throws SQLException {
+    this.shutdownServer(this.getDefaultInstance());
+  }
+
+  /**
+   * Shuts down the supplied {@link ServerInstance}, spawned earlier
+   * by the {@link #spawnServer(ServerInstance)} method.
+   *
+   * @param instance the {@link ServerInstance} to shut down; must not
+   * be {@code null}
+   *
+   * @exception SQLException if the server could not be shut down
+   */
+  protected void shutdownServer(final ServerInstance instance) throws SQLException {
     String password = this.getShutdownPassword();
     if (password == null) {
       password = "";
     }
-    final int port = this.getPort();
-    String host = this.getShutdownHost();
-    if (host == null) {
-      host = "";
-    } else {
-      host = host.trim();
-    }
-    if (host.isEmpty()) {
-      host = "localhost";
-    }
+    final Service tcp = instance.getService("tcp");
+    final int port = tcp == null ? this.getPort() : tcp.getPort();
+    final String host = this.getServerHost();
     TcpServer.shutdown(String.format("tcp://%s:%d", host, port), password, this.getForceShutdown(), this.getShutdownAllServers());
   }
 
@@ -747,10 +4456,26 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
    * arguments for new H2 processes
    */
   protected List<String> getServerArguments() {
+    return this.getServerArguments(this.getDefaultInstance());
+  }
+
+  /**
+   * Returns a {@link List} of arguments suitable for feeding to a new
+   * H2 process that runs the supplied {@link ServerInstance}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param instance the {@link ServerInstance}; must not be {@code
+   * null}
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of
+   * arguments for new H2 processes
+   */
+  protected List<String> getServerArguments(final ServerInstance instance) {
 
     List<String> args = null;
 
-    final List<Service> services = this.getServices();
+    final List<Service> services = instance.getServices();
     int serviceCount = 0;
     if (services != null && !services.isEmpty()) {
       for (final Service service : services) {
@@ -768,7 +4493,7 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
           final int port = service.getPort();
           if (port >= 0) {
             args.add(new StringBuilder("-").append(id).append("Port").toString());
-            args.add(String.format("%d", Math.min(65535, Math.max(0, this.getPort()))));
+            args.add(String.format("%d", Math.min(65535, Math.max(0, port))));
           }
 
           final boolean allowOthers = service.getAllowOthers();
@@ -787,10 +4512,10 @@ public abstract class AbstractH2Mojo extends AbstractMojo {
     }
     if (args != null && serviceCount > 0) {
 
-      final File baseDirectory = this.getBaseDirectory();
+      final String baseDirectory = this.getBaseDirectoryPath(instance);
       if (baseDirectory != null) {
         args.add("-baseDir");
-        args.add(String.format("%s", baseDirectory.getAbsolutePath()));
+        args.add(baseDirectory);
       }
       
       if (this.getIfExists()) {
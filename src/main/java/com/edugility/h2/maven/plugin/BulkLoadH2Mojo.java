@@ -0,0 +1,622 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.IOException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * An {@link AbstractH2Mojo} that loads {@linkplain CsvFile CSV files}
+ * into the tables of a running H2 TCP server, such as one {@linkplain
+ * SpawnH2Mojo spawned} or {@linkplain StartH2Mojo started} earlier in
+ * the same build.
+ *
+ * <p>Each file is {@linkplain CsvReader read} in chunks by a single
+ * thread, which parses rows into a fixed number of reusable batches.
+ * Up to {@linkplain AbstractH2Mojo#getThreads() several} sessions
+ * insert full batches concurrently, each batch as one JDBC batch and
+ * one transaction.  Memory use is therefore bounded by the
+ * {@linkplain AbstractH2Mojo#getBatchSize() batch size} and the
+ * number of threads, not by the size of the file.</p>
+ *
+ * <p>Unless {@linkplain #getDeferIndexes() told otherwise}, indexes
+ * on a table that do not back a primary key or other constraint are
+ * dropped before the table is loaded, and recreated afterwards, which
+ * is much faster than maintaining them row by row.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @goal bulk-load
+ *
+ * @phase pre-integration-test
+ *
+ * @requiresProject false
+ *
+ * @threadSafe
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class BulkLoadH2Mojo extends AbstractH2Mojo {
+
+  /**
+   * The {@link CsvFile}s to load, in order.
+   *
+   * @parameter property="csvFiles"
+   */
+  private List<CsvFile> csvFiles;
+
+  /**
+   * Whether to drop indexes that do not back constraints before
+   * loading a table, and recreate them afterwards.
+   *
+   * @parameter expression="${h2.deferIndexes}" property="deferIndexes" default-value="true"
+   */
+  private boolean deferIndexes;
+
+  /**
+   * Creates a new {@link BulkLoadH2Mojo}.
+   */
+  public BulkLoadH2Mojo() {
+    super();
+    this.setCsvFiles(null);
+    this.setDeferIndexes(true);
+  }
+
+  /**
+   * Returns the {@link CsvFile}s to load.  This method never returns
+   * {@code null}.
+   *
+   * @return a non-{@code null} {@link List} of {@link CsvFile}s
+   */
+  public List<CsvFile> getCsvFiles() {
+    return this.csvFiles;
+  }
+
+  /**
+   * Sets the {@link CsvFile}s to load.
+   *
+   * @param csvFiles the {@link CsvFile}s to load; may be {@code null}
+   */
+  public void setCsvFiles(final List<CsvFile> csvFiles) {
+    if (csvFiles == null) {
+      this.csvFiles = Collections.emptyList();
+    } else {
+      this.csvFiles = csvFiles;
+    }
+  }
+
+  /**
+   * Returns whether indexes that do not back constraints are dropped
+   * before a table is loaded and recreated afterwards.
+   *
+   * @return whether index creation is deferred
+   */
+  public boolean getDeferIndexes() {
+    return this.deferIndexes;
+  }
+
+  /**
+   * Sets whether indexes that do not back constraints are dropped
+   * before a table is loaded and recreated afterwards.
+   *
+   * @param deferIndexes whether index creation is deferred
+   */
+  public void setDeferIndexes(final boolean deferIndexes) {
+    this.deferIndexes = deferIndexes;
+  }
+
+  /**
+   * Loads each {@linkplain #getCsvFiles() CSV file} into the
+   * {@linkplain AbstractH2Mojo#getDatabase() database} of each
+   * {@linkplain AbstractH2Mojo#getServerInstances()
+   * <tt>ServerInstance</tt>}, and reports the number of rows loaded
+   * per second.
+   *
+   * @exception MojoExecutionException if a file could not be loaded
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    this.recordTiming("started");
+    final Log log = this.getLog();
+    final List<CsvFile> csvFiles = this.getCsvFiles();
+    if (csvFiles.isEmpty()) {
+      if (log != null && log.isInfoEnabled()) {
+        log.info("No CSV files to load");
+      }
+      return;
+    }
+    final List<ServerInstance> instances = this.getServerInstances();
+    this.applyPublishedPorts(instances);
+    for (final ServerInstance instance : instances) {
+      final String url = this.getJdbcUrl(instance);
+      if (url == null) {
+        throw new MojoExecutionException("The bulk-load goal requires the tcp service.");
+      }
+      for (final CsvFile csvFile : csvFiles) {
+        if (csvFile != null) {
+          if (csvFile.getFile() == null || csvFile.getTable() == null) {
+            throw new MojoExecutionException("Every CSV file must have a file and a table.");
+          }
+          final long start = System.nanoTime();
+          final long rows;
+          try {
+            rows = this.load(url, csvFile);
+          } catch (final RuntimeException throwMe) {
+            throw throwMe;
+          } catch (final Exception kaboom) {
+            throw new MojoExecutionException(String.format("Could not load %s: %s", csvFile, kaboom.getMessage()), kaboom);
+          }
+          if (log != null && log.isInfoEnabled()) {
+            final long nanos = System.nanoTime() - start;
+            log.info(String.format("Loaded %s (%d rows) in %d ms; %d rows/s", csvFile, rows, nanos / 1000000L, InitH2Mojo.perSecond(rows, nanos)));
+          }
+        }
+      }
+      this.recordTiming(instance, "loaded");
+    }
+    this.recordTiming("finished");
+  }
+
+  /**
+   * Loads the supplied {@link CsvFile} into the database at the
+   * supplied JDBC URL.
+   *
+   * @param url the JDBC URL; must not be {@code null}
+   *
+   * @param csvFile the {@link CsvFile}; must not be {@code null}
+   *
+   * @return the number of rows loaded
+   *
+   * @exception Exception if the file could not be loaded
+   */
+  private final long load(final String url, final CsvFile csvFile) throws Exception {
+    final Log log = this.getLog();
+    final String table = csvFile.getTable();
+    final Connection connection = DriverManager.getConnection(url, this.getUser(), this.getPassword());
+    try {
+      final CsvReader reader = new CsvReader(csvFile.getFile(), this.getEncoding(), csvFile.getSeparator());
+      try {
+        final String[] columns = this.getColumns(connection, csvFile, reader);
+        final List<String> deferredIndexes;
+        if (this.getDeferIndexes()) {
+          deferredIndexes = dropIndexes(connection, table);
+          if (log != null && log.isDebugEnabled() && !deferredIndexes.isEmpty()) {
+            log.debug(String.format("Deferring %s", deferredIndexes));
+          }
+        } else {
+          deferredIndexes = Collections.emptyList();
+        }
+        try {
+          return this.load(url, reader, insertStatement(table, columns), columns.length);
+        } finally {
+          final Statement statement = connection.createStatement();
+          try {
+            for (final String sql : deferredIndexes) {
+              statement.execute(sql);
+            }
+          } finally {
+            statement.close();
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } finally {
+      connection.close();
+    }
+  }
+
+  /**
+   * Reads every row from the supplied {@link CsvReader} and inserts
+   * it using the supplied {@code INSERT} statement, over several
+   * concurrent sessions.
+   *
+   * @param url the JDBC URL; must not be {@code null}
+   *
+   * @param reader the {@link CsvReader}; must not be {@code null}
+   *
+   * @param insert the {@code INSERT} statement; must not be {@code
+   * null}
+   *
+   * @param columnCount the number of parameters of the {@code
+   * INSERT} statement
+   *
+   * @return the number of rows inserted
+   *
+   * @exception Exception if a row could not be read or inserted
+   */
+  private final long load(final String url, final CsvReader reader, final String insert, final int columnCount) throws Exception {
+    final int threads = this.getThreads();
+    final int batchSize = this.getBatchSize();
+    // Each session may be inserting one batch while the reader fills
+    // another two; that is all the memory this method will use.
+    final int batchCount = threads * 3;
+    final BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(batchCount);
+    final BlockingQueue<Batch> full = new ArrayBlockingQueue<Batch>(batchCount + threads);
+    for (int i = 0; i < batchCount; i++) {
+      free.add(new Batch(batchSize, columnCount));
+    }
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final List<Future<Long>> futures = new ArrayList<Future<Long>>(threads);
+    try {
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(new Inserter(url, insert, free, full, failure)));
+      }
+      try {
+        while (failure.get() == null) {
+          final Batch batch = free.take();
+          batch.size = 0;
+          while (batch.size < batchSize && reader.readRow(batch.rows[batch.size]) >= 0) {
+            batch.size++;
+          }
+          if (batch.size > 0) {
+            full.put(batch);
+          }
+          if (batch.size < batchSize) {
+            break;
+          }
+        }
+      } finally {
+        for (int i = 0; i < threads; i++) {
+          full.put(Batch.END);
+        }
+      }
+      long rows = 0L;
+      for (final Future<Long> future : futures) {
+        try {
+          rows += future.get().longValue();
+        } catch (final ExecutionException kaboom) {
+          final Throwable cause = kaboom.getCause();
+          if (cause instanceof Exception) {
+            throw (Exception)cause;
+          }
+          throw kaboom;
+        }
+      }
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+      return rows;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the columns the fields of each row of the supplied {@link
+   * CsvFile} are loaded into, reading the header row from the
+   * supplied {@link CsvReader} if there is one.
+   *
+   * @param connection a {@link Connection} to the database; must not
+   * be {@code null}
+   *
+   * @param csvFile the {@link CsvFile}; must not be {@code null}
+   *
+   * @param reader a {@link CsvReader} positioned at the start of the
+   * file; must not be {@code null}
+   *
+   * @return a non-{@code null}, non-empty array of column names
+   *
+   * @exception IOException if the header row could not be read
+   *
+   * @exception SQLException if the table's columns could not be
+   * determined
+   */
+  private final String[] getColumns(final Connection connection, final CsvFile csvFile, final CsvReader reader) throws IOException, SQLException {
+    String[] columns = csvFile.getColumns();
+    if (csvFile.getHeader()) {
+      // Wide enough for any sensible header.
+      final String[] header = new String[4096];
+      final int count = reader.readRow(header);
+      if (columns == null || columns.length <= 0) {
+        if (count <= 0) {
+          throw new IOException("The header row is missing");
+        }
+        columns = new String[count];
+        System.arraycopy(header, 0, columns, 0, count);
+      }
+    }
+    if (columns == null || columns.length <= 0) {
+      final Statement statement = connection.createStatement();
+      try {
+        final ResultSetMetaData metaData = statement.executeQuery(String.format("SELECT * FROM %s WHERE 1 = 0", csvFile.getTable())).getMetaData();
+        columns = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+          columns[i] = metaData.getColumnName(i + 1);
+        }
+      } finally {
+        statement.close();
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Returns an {@code INSERT} statement with one parameter for each
+   * of the supplied columns.
+   *
+   * @param table the table; must not be {@code null}
+   *
+   * @param columns the columns; must not be {@code null}
+   *
+   * @return a non-{@code null} {@code INSERT} statement
+   */
+  private static final String insertStatement(final String table, final String[] columns) {
+    final StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+    final StringBuilder parameters = new StringBuilder();
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        sql.append(", ");
+        parameters.append(", ");
+      }
+      sql.append(columns[i].trim());
+      parameters.append("?");
+    }
+    return sql.append(") VALUES (").append(parameters).append(")").toString();
+  }
+
+  /**
+   * Drops every index on the supplied table that does not back a
+   * primary key or other constraint, and returns the statements that
+   * recreate them.
+   *
+   * @param connection a {@link Connection} to the database; must not
+   * be {@code null}
+   *
+   * @param table the table, optionally qualified by its schema; must
+   * not be {@code null}
+   *
+   * @return a non-{@code null} {@link List} of {@code CREATE INDEX}
+   * statements
+   *
+   * @exception SQLException if the indexes could not be determined
+   * or dropped
+   */
+  static final List<String> dropIndexes(final Connection connection, final String table) throws SQLException {
+    final int dot = table.indexOf('.');
+    final String schema = dot < 0 ? "PUBLIC" : toMetaDataName(table.substring(0, dot));
+    final String name = toMetaDataName(dot < 0 ? table : table.substring(dot + 1));
+    final List<String> indexes = new ArrayList<String>();
+    final List<String> sql = new ArrayList<String>();
+    final PreparedStatement query = connection.prepareStatement("SELECT DISTINCT INDEX_NAME, SQL FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? AND PRIMARY_KEY = FALSE AND IS_GENERATED = FALSE AND CONSTRAINT_NAME IS NULL");
+    try {
+      query.setString(1, schema);
+      query.setString(2, name);
+      final ResultSet resultSet = query.executeQuery();
+      while (resultSet.next()) {
+        indexes.add(resultSet.getString(1));
+        sql.add(resultSet.getString(2));
+      }
+      resultSet.close();
+    } finally {
+      query.close();
+    }
+    final Statement statement = connection.createStatement();
+    try {
+      for (final String index : indexes) {
+        statement.execute(String.format("DROP INDEX \"%s\".\"%s\"", schema, index));
+      }
+    } finally {
+      statement.close();
+    }
+    return sql;
+  }
+
+  /**
+   * Returns the name under which H2 records the supplied identifier in
+   * its {@code INFORMATION_SCHEMA}: the identifier without its quotes
+   * if it is quoted, and in upper case otherwise.
+   *
+   * @param identifier the identifier; must not be {@code null}
+   *
+   * @return the name; never {@code null}
+   */
+  private static final String toMetaDataName(String identifier) {
+    identifier = identifier.trim();
+    if (identifier.length() >= 2 && identifier.startsWith("\"") && identifier.endsWith("\"")) {
+      return identifier.substring(1, identifier.length() - 1);
+    }
+    return identifier.toUpperCase();
+  }
+
+  /**
+   * A reusable buffer of rows.
+   *
+   * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+   *
+   * @since 1.1-SNAPSHOT
+   */
+  private static final class Batch {
+
+    /**
+     * The {@link Batch} that tells an {@link Inserter} there are no
+     * more rows.
+     */
+    private static final Batch END = new Batch(0, 0);
+
+    /**
+     * The rows; each is reused once the {@link Batch} has been
+     * inserted.
+     */
+    private final String[][] rows;
+
+    /**
+     * The number of {@link #rows} in use.
+     */
+    private int size;
+
+    /**
+     * Creates a new {@link Batch}.
+     *
+     * @param capacity the number of rows
+     *
+     * @param columnCount the number of fields in each row
+     */
+    private Batch(final int capacity, final int columnCount) {
+      super();
+      this.rows = new String[capacity][columnCount];
+    }
+
+  }
+
+  /**
+   * Inserts the {@link Batch}es it takes from a queue over its own
+   * session, and returns each to another queue once inserted.
+   *
+   * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+   *
+   * @since 1.1-SNAPSHOT
+   */
+  private final class Inserter implements Callable<Long> {
+
+    /**
+     * The JDBC URL.
+     */
+    private final String url;
+
+    /**
+     * The {@code INSERT} statement.
+     */
+    private final String insert;
+
+    /**
+     * The queue of emptied {@link Batch}es.
+     */
+    private final BlockingQueue<Batch> free;
+
+    /**
+     * The queue of {@link Batch}es waiting to be inserted.
+     */
+    private final BlockingQueue<Batch> full;
+
+    /**
+     * The first failure of any {@link Inserter}.
+     */
+    private final AtomicReference<Exception> failure;
+
+    /**
+     * Creates a new {@link Inserter}.
+     *
+     * @param url the JDBC URL
+     *
+     * @param insert the {@code INSERT} statement
+     *
+     * @param free the queue of emptied {@link Batch}es
+     *
+     * @param full the queue of {@link Batch}es waiting to be
+     * inserted
+     *
+     * @param failure the first failure of any {@link Inserter}
+     */
+    private Inserter(final String url, final String insert, final BlockingQueue<Batch> free, final BlockingQueue<Batch> full, final AtomicReference<Exception> failure) {
+      super();
+      this.url = url;
+      this.insert = insert;
+      this.free = free;
+      this.full = full;
+      this.failure = failure;
+    }
+
+    /**
+     * Inserts {@link Batch}es until told there are no more.  After a
+     * failure, remaining {@link Batch}es are returned without being
+     * inserted, so that the reader is never left waiting.
+     *
+     * @return the number of rows inserted
+     *
+     * @exception Exception if an error occurs
+     */
+    @Override
+    public final Long call() throws Exception {
+      long rows = 0L;
+      Connection connection = null;
+      PreparedStatement statement = null;
+      try {
+        Batch batch;
+        while ((batch = this.full.take()) != Batch.END) {
+          try {
+            if (this.failure.get() == null) {
+              if (connection == null) {
+                connection = DriverManager.getConnection(this.url, getUser(), getPassword());
+                connection.setAutoCommit(false);
+                statement = connection.prepareStatement(this.insert);
+              }
+              for (int i = 0; i < batch.size; i++) {
+                final String[] row = batch.rows[i];
+                for (int j = 0; j < row.length; j++) {
+                  statement.setString(j + 1, row[j]);
+                }
+                statement.addBatch();
+              }
+              statement.executeBatch();
+              connection.commit();
+              rows += batch.size;
+            }
+          } catch (final SQLException kaboom) {
+            this.failure.compareAndSet(null, kaboom);
+          } finally {
+            this.free.put(batch);
+          }
+        }
+      } finally {
+        if (connection != null) {
+          connection.close();
+        }
+      }
+      return Long.valueOf(rows);
+    }
+
+  }
+
+}
@@ -0,0 +1,352 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * An {@link AbstractH2Mojo} that compares the {@linkplain
+ * PerformanceMetrics performance metrics} recorded earlier, such as
+ * by the {@linkplain SpawnH2Mojo spawn} and {@linkplain LoadH2Mojo
+ * load} goals, with a baseline committed alongside the project, and
+ * fails the build if any of them has regressed by more than a
+ * {@linkplain #getRegressionTolerance() tolerance}.
+ *
+ * <p>Only the samples recorded by the most recent build are used, so
+ * samples left over from earlier builds never skew the check or the
+ * baseline.  Each metric is summarized by the mean of those samples
+ * and a 95% confidence interval for that mean.  A metric has
+ * regressed only if the whole interval is worse than the baseline by
+ * more than the tolerance, so noisy samples widen the interval and
+ * make the check more lenient rather than flaky; more samples, from
+ * several {@linkplain LoadH2Mojo#getLoadRuns() runs}, narrow it.</p>
+ *
+ * <p>The baseline is a properties file mapping each metric to its
+ * expected value.  If {@linkplain #getUpdateBaseline() asked to}, this
+ * goal writes the current means to it instead of checking them.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @goal check-performance
+ *
+ * @phase verify
+ *
+ * @requiresProject false
+ *
+ * @threadSafe
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class CheckPerformanceH2Mojo extends AbstractH2Mojo {
+
+  /**
+   * The baseline file.
+   *
+   * @parameter expression="${h2.baselineFile}" property="baselineFile" default-value="${basedir}/h2-performance-baseline.properties"
+   */
+  private File baselineFile;
+
+  /**
+   * The fraction, in percent, by which a metric may be worse than its
+   * baseline before the build fails.
+   *
+   * @parameter expression="${h2.regressionTolerance}" property="regressionTolerance" default-value="10"
+   */
+  private double regressionTolerance;
+
+  /**
+   * Whether to write the current metrics to the {@linkplain
+   * #baselineFile baseline file} instead of checking them.
+   *
+   * @parameter expression="${h2.updateBaseline}" property="updateBaseline" default-value="false"
+   */
+  private boolean updateBaseline;
+
+  /**
+   * Creates a new {@link CheckPerformanceH2Mojo}.
+   */
+  public CheckPerformanceH2Mojo() {
+    super();
+    this.setRegressionTolerance(10.0);
+  }
+
+  /**
+   * Returns the baseline file.  This method never returns {@code
+   * null}.
+   *
+   * @return the baseline file; never {@code null}
+   */
+  public File getBaselineFile() {
+    if (this.baselineFile == null) {
+      return new File("h2-performance-baseline.properties").getAbsoluteFile();
+    }
+    return this.baselineFile;
+  }
+
+  /**
+   * Sets the baseline file.
+   *
+   * @param baselineFile the baseline file; may be {@code null} in
+   * which case {@code h2-performance-baseline.properties} in the
+   * current directory will be used instead
+   */
+  public void setBaselineFile(final File baselineFile) {
+    this.baselineFile = baselineFile;
+  }
+
+  /**
+   * Returns the fraction, in percent, by which a metric may be worse
+   * than its baseline before the build fails.
+   *
+   * @return the tolerance in percent
+   */
+  public double getRegressionTolerance() {
+    return this.regressionTolerance;
+  }
+
+  /**
+   * Sets the fraction, in percent, by which a metric may be worse than
+   * its baseline before the build fails.
+   *
+   * @param regressionTolerance the tolerance in percent; will be
+   * constrained to be at least {@code 0}
+   */
+  public void setRegressionTolerance(final double regressionTolerance) {
+    this.regressionTolerance = Math.max(0.0, regressionTolerance);
+  }
+
+  /**
+   * Returns whether the current metrics are written to the
+   * {@linkplain #getBaselineFile() baseline file} instead of being
+   * checked.
+   *
+   * @return whether the baseline is updated
+   */
+  public boolean getUpdateBaseline() {
+    return this.updateBaseline;
+  }
+
+  /**
+   * Sets whether the current metrics are written to the {@linkplain
+   * #getBaselineFile() baseline file} instead of being checked.
+   *
+   * @param updateBaseline whether the baseline is updated
+   */
+  public void setUpdateBaseline(final boolean updateBaseline) {
+    this.updateBaseline = updateBaseline;
+  }
+
+  /**
+   * Reads the samples of the most recent build in the {@linkplain
+   * AbstractH2Mojo#getMetricsFile() metrics file} and either checks
+   * their means against the {@linkplain #getBaselineFile() baseline}
+   * or {@linkplain #getUpdateBaseline() updates} the baseline with
+   * them.
+   *
+   * <p>Metrics in the baseline with no samples, and metrics with
+   * samples but no baseline, are logged and otherwise ignored.</p>
+   *
+   * @exception MojoExecutionException if the metrics or the baseline
+   * could not be read or written
+   *
+   * @exception MojoFailureException if any metric has regressed by
+   * more than the {@linkplain #getRegressionTolerance() tolerance}
+   */
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    this.recordTiming("started");
+    final Log log = this.getLog();
+    final File metricsFile = this.getMetricsFile();
+    final Map<String, PerformanceMetrics.Summary> summaries;
+    try {
+      summaries = new PerformanceMetrics(metricsFile).read();
+    } catch (final IOException kaboom) {
+      throw new MojoExecutionException(String.format("Could not read %s", metricsFile), kaboom);
+    }
+    final File baselineFile = this.getBaselineFile();
+    if (this.getUpdateBaseline()) {
+      if (summaries.isEmpty()) {
+        throw new MojoExecutionException(String.format("There are no metrics in %s to write to %s", metricsFile, baselineFile));
+      }
+      try {
+        writeBaseline(baselineFile, summaries);
+      } catch (final IOException kaboom) {
+        throw new MojoExecutionException(String.format("Could not write %s", baselineFile), kaboom);
+      }
+      if (log != null && log.isInfoEnabled()) {
+        log.info(String.format("Wrote the performance baseline %s:", baselineFile));
+        for (final PerformanceMetrics.Summary summary : summaries.values()) {
+          log.info("  " + summary);
+        }
+      }
+      this.recordTiming("finished");
+      return;
+    }
+    if (!baselineFile.isFile()) {
+      if (log != null && log.isWarnEnabled()) {
+        log.warn(String.format("There is no performance baseline at %s; run with -Dh2.updateBaseline=true to write one", baselineFile));
+      }
+      this.recordTiming("finished");
+      return;
+    }
+    final Map<String, Double> baseline;
+    try {
+      baseline = readBaseline(baselineFile);
+    } catch (final IOException kaboom) {
+      throw new MojoExecutionException(String.format("Could not read %s", baselineFile), kaboom);
+    } catch (final NumberFormatException kaboom) {
+      throw new MojoExecutionException(String.format("Could not read %s: %s", baselineFile, kaboom.getMessage()), kaboom);
+    }
+    final double tolerance = this.getRegressionTolerance() / 100.0;
+    final List<String> regressions = new ArrayList<String>();
+    for (final Map.Entry<String, Double> entry : baseline.entrySet()) {
+      final String metric = entry.getKey();
+      final double expected = entry.getValue().doubleValue();
+      final PerformanceMetrics.Summary summary = summaries.get(metric);
+      if (summary == null) {
+        if (log != null && log.isWarnEnabled()) {
+          log.warn(String.format("No samples of %s to compare with its baseline", metric));
+        }
+        continue;
+      }
+      final boolean higherIsBetter = PerformanceMetrics.isHigherBetter(metric);
+      final double change = expected == 0.0 ? 0.0 : (summary.getMean() - expected) / expected * 100.0;
+      final String description = String.format(Locale.ROOT, "%s (baseline %.3f, %+.1f%%)", summary, expected, change);
+      final boolean regressed;
+      final boolean improved;
+      if (higherIsBetter) {
+        regressed = summary.getUpperBound() < expected * (1.0 - tolerance);
+        improved = summary.getLowerBound() > expected * (1.0 + tolerance);
+      } else {
+        regressed = summary.getLowerBound() > expected * (1.0 + tolerance);
+        improved = summary.getUpperBound() < expected * (1.0 - tolerance);
+      }
+      if (regressed) {
+        regressions.add(description);
+        if (log != null && log.isErrorEnabled()) {
+          log.error("Regressed: " + description);
+        }
+      } else if (log != null && log.isInfoEnabled()) {
+        log.info((improved ? "Improved: " : "Within tolerance: ") + description);
+      }
+      if (summary.getCount() < 2 && log != null && log.isWarnEnabled()) {
+        log.warn(String.format("Only one sample of %s; several runs are needed to allow for noise", metric));
+      }
+    }
+    if (log != null && log.isInfoEnabled()) {
+      for (final PerformanceMetrics.Summary summary : summaries.values()) {
+        if (!baseline.containsKey(summary.getMetric())) {
+          log.info(String.format("Not in the baseline: %s", summary));
+        }
+      }
+    }
+    this.recordTiming("finished");
+    if (!regressions.isEmpty()) {
+      throw new MojoFailureException(String.format(Locale.ROOT, "%d performance metrics regressed by more than %.1f%% from %s: %s", regressions.size(), this.getRegressionTolerance(), baselineFile, regressions));
+    }
+  }
+
+  /**
+   * Reads the supplied baseline file.
+   *
+   * @param file the baseline file; must not be {@code null}
+   *
+   * @return a new, non-{@code null} {@link Map} of expected values
+   * indexed by metric
+   *
+   * @exception IOException if the file could not be read
+   *
+   * @exception NumberFormatException if a value is not a number
+   */
+  static final Map<String, Double> readBaseline(final File file) throws IOException {
+    final Properties properties = new Properties();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      properties.load(reader);
+    } finally {
+      reader.close();
+    }
+    final Map<String, Double> baseline = new TreeMap<String, Double>();
+    for (final String metric : properties.stringPropertyNames()) {
+      baseline.put(metric, Double.valueOf(properties.getProperty(metric).trim()));
+    }
+    return baseline;
+  }
+
+  /**
+   * Writes the means of the supplied {@link
+   * PerformanceMetrics.Summary} instances to the supplied baseline
+   * file, sorted by metric so that the file diffs well.
+   *
+   * @param file the baseline file; must not be {@code null}
+   *
+   * @param summaries the {@link PerformanceMetrics.Summary} instances
+   * indexed by metric; must not be {@code null}
+   *
+   * @exception IOException if the file could not be written
+   */
+  static final void writeBaseline(final File file, final Map<String, PerformanceMetrics.Summary> summaries) throws IOException {
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Could not create " + parent);
+    }
+    final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      writer.println("# H2 performance baseline, written by h2:check-performance -Dh2.updateBaseline=true.");
+      writer.println("# Each value is the mean of the metric's samples; see metrics.jsonl.");
+      for (final PerformanceMetrics.Summary summary : new TreeMap<String, PerformanceMetrics.Summary>(summaries).values()) {
+        writer.println(String.format(Locale.ROOT, "%s=%.3f", summary.getMetric(), summary.getMean()));
+      }
+    } finally {
+      writer.close();
+    }
+    if (writer.checkError()) {
+      throw new IOException("Could not write " + file);
+    }
+  }
+
+}
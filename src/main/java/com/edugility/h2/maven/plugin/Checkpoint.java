@@ -0,0 +1,376 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A named copy of the contents of the tables and the values of the
+ * sequences of an H2 database, kept inside the database itself, that
+ * can be {@linkplain #restore(Connection) restored} without restarting
+ * the server.
+ *
+ * <p>Each table is copied, on the server, into a table in the {@value
+ * #SCHEMA} schema.  H2 tracks when each table's rows last changed
+ * (see the {@code LAST_MODIFICATION} column of {@code
+ * INFORMATION_SCHEMA.TABLES}), so restoring truncates and reloads
+ * only the tables that changed since the checkpoint was {@linkplain
+ * #save(Connection) saved} or last restored.  That information does
+ * not survive the database being closed, so if the database has been
+ * closed in the meantime every table is reloaded.</p>
+ *
+ * <p>Only table contents and sequence values are restored.  Tables
+ * created after the checkpoint are dropped, along with anything that
+ * depends on them; tables dropped or altered after the checkpoint
+ * cannot be restored.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class Checkpoint {
+
+  /**
+   * The schema holding checkpoints.
+   */
+  public static final String SCHEMA = "H2_MAVEN_PLUGIN";
+
+  /**
+   * The name of this {@link Checkpoint}.  This field is never {@code
+   * null}.
+   */
+  private final String name;
+
+  /**
+   * Creates a new {@link Checkpoint}.
+   *
+   * @param name the name of the checkpoint; must not be {@code null}
+   */
+  public Checkpoint(final String name) {
+    super();
+    if (name == null) {
+      throw new IllegalArgumentException("name", new NullPointerException("name"));
+    }
+    this.name = name;
+  }
+
+  /**
+   * Returns the name of this {@link Checkpoint}.  This method never
+   * returns {@code null}.
+   *
+   * @return the name; never {@code null}
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Copies the contents of every table and the value of every
+   * sequence of the database to which the supplied {@link Connection}
+   * is connected, replacing any checkpoint of the same name.
+   *
+   * @param connection the {@link Connection} to use; must not be
+   * {@code null}
+   *
+   * @return the number of tables copied
+   *
+   * @exception SQLException if the checkpoint could not be saved
+   */
+  public int save(final Connection connection) throws SQLException {
+    final Statement statement = connection.createStatement();
+    try {
+      statement.execute("CREATE SCHEMA IF NOT EXISTS " + SCHEMA);
+      statement.execute("CREATE TABLE IF NOT EXISTS " + SCHEMA + ".CHECKPOINT_TABLES(CHECKPOINT VARCHAR, TABLE_SCHEMA VARCHAR, TABLE_NAME VARCHAR, COPY_NAME VARCHAR, LAST_MODIFICATION BIGINT, PRIMARY KEY(CHECKPOINT, TABLE_SCHEMA, TABLE_NAME))");
+      statement.execute("CREATE TABLE IF NOT EXISTS " + SCHEMA + ".CHECKPOINT_SEQUENCES(CHECKPOINT VARCHAR, SEQUENCE_SCHEMA VARCHAR, SEQUENCE_NAME VARCHAR, CURRENT_VALUE BIGINT, INCREMENT BIGINT, PRIMARY KEY(CHECKPOINT, SEQUENCE_SCHEMA, SEQUENCE_NAME))");
+      // Rows of a NOT PERSISTENT table vanish when the database is
+      // closed, which is exactly when LAST_MODIFICATION values are
+      // reset.
+      statement.execute("CREATE MEMORY TABLE IF NOT EXISTS " + SCHEMA + ".OPEN_CHECKPOINTS(CHECKPOINT VARCHAR PRIMARY KEY) NOT PERSISTENT");
+      this.drop(connection);
+
+      final List<String[]> tables = new ArrayList<String[]>();
+      final ResultSet resultSet = statement.executeQuery("SELECT TABLE_SCHEMA, TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_TYPE = 'TABLE' AND TABLE_SCHEMA NOT IN ('INFORMATION_SCHEMA', '" + SCHEMA + "')");
+      while (resultSet.next()) {
+        tables.add(new String[] { resultSet.getString(1), resultSet.getString(2) });
+      }
+      resultSet.close();
+      final PreparedStatement insert = connection.prepareStatement("INSERT INTO " + SCHEMA + ".CHECKPOINT_TABLES VALUES (?, ?, ?, ?, ?)");
+      try {
+        for (final String[] table : tables) {
+          final String copyName = String.format("%s/%s.%s", this.name, table[0], table[1]);
+          statement.execute(String.format("CREATE TABLE %s.%s AS SELECT * FROM %s.%s", SCHEMA, quote(copyName), quote(table[0]), quote(table[1])));
+          insert.setString(1, this.name);
+          insert.setString(2, table[0]);
+          insert.setString(3, table[1]);
+          insert.setString(4, copyName);
+          insert.setLong(5, 0L);
+          insert.executeUpdate();
+        }
+      } finally {
+        insert.close();
+      }
+      this.recordLastModifications(connection);
+
+      statement.execute(String.format("INSERT INTO %s.CHECKPOINT_SEQUENCES SELECT '%s', SEQUENCE_SCHEMA, SEQUENCE_NAME, CURRENT_VALUE, INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_SCHEMA <> '%s'", SCHEMA, this.name.replace("'", "''"), SCHEMA));
+      this.markOpen(connection);
+      return tables.size();
+    } finally {
+      statement.close();
+    }
+  }
+
+  /**
+   * Restores the contents of every table, whose rows changed since
+   * this {@link Checkpoint} was saved or last restored, and the value
+   * of every sequence of the database to which the supplied {@link
+   * Connection} is connected, and drops every table created since
+   * this {@link Checkpoint} was saved.
+   *
+   * @param connection the {@link Connection} to use; must not be
+   * {@code null}
+   *
+   * @return a new {@link List} of the qualified names of the tables
+   * that were reloaded or dropped; never {@code null}
+   *
+   * @exception SQLException if there is no such checkpoint, or it
+   * could not be restored
+   */
+  public List<String> restore(final Connection connection) throws SQLException {
+    final Map<String, String[]> recorded = new LinkedHashMap<String, String[]>();
+    PreparedStatement query;
+    try {
+      query = connection.prepareStatement("SELECT T.TABLE_SCHEMA, T.TABLE_NAME, T.COPY_NAME, T.LAST_MODIFICATION, I.LAST_MODIFICATION, O.CHECKPOINT FROM " + SCHEMA + ".CHECKPOINT_TABLES T LEFT OUTER JOIN INFORMATION_SCHEMA.TABLES I ON I.TABLE_SCHEMA = T.TABLE_SCHEMA AND I.TABLE_NAME = T.TABLE_NAME LEFT OUTER JOIN " + SCHEMA + ".OPEN_CHECKPOINTS O ON O.CHECKPOINT = T.CHECKPOINT WHERE T.CHECKPOINT = ?");
+    } catch (final SQLException kaboom) {
+      throw new SQLException(String.format("There is no checkpoint named %s", this.name), kaboom);
+    }
+    final List<String[]> reload = new ArrayList<String[]>();
+    boolean found = false;
+    try {
+      query.setString(1, this.name);
+      final ResultSet resultSet = query.executeQuery();
+      while (resultSet.next()) {
+        found = true;
+        final String schema = resultSet.getString(1);
+        final String table = resultSet.getString(2);
+        final String copyName = resultSet.getString(3);
+        final long lastModification = resultSet.getLong(4);
+        final long currentModification = resultSet.getLong(5);
+        if (resultSet.wasNull()) {
+          resultSet.close();
+          throw new SQLException(String.format("The table %s.%s was dropped after the checkpoint %s was saved", schema, table, this.name));
+        }
+        final boolean open = resultSet.getString(6) != null;
+        if (!open || currentModification != lastModification) {
+          reload.add(new String[] { schema, table, copyName });
+        }
+      }
+      resultSet.close();
+    } finally {
+      query.close();
+    }
+    if (!found) {
+      throw new SQLException(String.format("There is no checkpoint named %s", this.name));
+    }
+
+    final List<String> reloaded = new ArrayList<String>(reload.size());
+    final Statement statement = connection.createStatement();
+    try {
+      for (final String[] table : this.getNewTables(connection)) {
+        statement.execute(String.format("DROP TABLE IF EXISTS %s.%s CASCADE", quote(table[0]), quote(table[1])));
+        reloaded.add(String.format("%s.%s", table[0], table[1]));
+      }
+      if (!reload.isEmpty()) {
+        // Tables are reloaded in no particular order, so foreign keys
+        // are not checked meanwhile.  TRUNCATE TABLE commits
+        // implicitly, so there is no transaction to roll back.
+        statement.execute("SET REFERENTIAL_INTEGRITY FALSE");
+        try {
+          for (final String[] table : reload) {
+            final String qualifiedName = String.format("%s.%s", quote(table[0]), quote(table[1]));
+            statement.execute("TRUNCATE TABLE " + qualifiedName);
+            statement.execute(String.format("INSERT INTO %s SELECT * FROM %s.%s", qualifiedName, SCHEMA, quote(table[2])));
+            reloaded.add(String.format("%s.%s", table[0], table[1]));
+          }
+        } finally {
+          statement.execute("SET REFERENTIAL_INTEGRITY TRUE");
+        }
+        this.recordLastModifications(connection);
+      }
+
+      final PreparedStatement sequences = connection.prepareStatement("SELECT C.SEQUENCE_SCHEMA, C.SEQUENCE_NAME, C.CURRENT_VALUE, C.INCREMENT FROM " + SCHEMA + ".CHECKPOINT_SEQUENCES C INNER JOIN INFORMATION_SCHEMA.SEQUENCES S ON S.SEQUENCE_SCHEMA = C.SEQUENCE_SCHEMA AND S.SEQUENCE_NAME = C.SEQUENCE_NAME WHERE C.CHECKPOINT = ? AND S.CURRENT_VALUE <> C.CURRENT_VALUE");
+      final List<String> restarts = new ArrayList<String>();
+      try {
+        sequences.setString(1, this.name);
+        final ResultSet resultSet = sequences.executeQuery();
+        while (resultSet.next()) {
+          restarts.add(String.format("ALTER SEQUENCE %s.%s RESTART WITH %d", quote(resultSet.getString(1)), quote(resultSet.getString(2)), resultSet.getLong(3) + resultSet.getLong(4)));
+        }
+        resultSet.close();
+      } finally {
+        sequences.close();
+      }
+      for (final String restart : restarts) {
+        statement.execute(restart);
+      }
+      this.markOpen(connection);
+    } finally {
+      statement.close();
+    }
+    return reloaded;
+  }
+
+  /**
+   * Returns the schema and name of every table that is not part of
+   * this {@link Checkpoint}, and so was created after it was saved.
+   * This method never returns {@code null}.
+   *
+   * @param connection the {@link Connection} to use; must not be
+   * {@code null}
+   *
+   * @return a new, non-{@code null} {@link List} of two-element
+   * arrays holding a schema and a table name
+   *
+   * @exception SQLException if the tables could not be listed
+   */
+  private final List<String[]> getNewTables(final Connection connection) throws SQLException {
+    final List<String[]> tables = new ArrayList<String[]>();
+    final PreparedStatement query = connection.prepareStatement("SELECT I.TABLE_SCHEMA, I.TABLE_NAME FROM INFORMATION_SCHEMA.TABLES I WHERE I.TABLE_TYPE = 'TABLE' AND I.TABLE_SCHEMA NOT IN ('INFORMATION_SCHEMA', '" + SCHEMA + "') AND NOT EXISTS (SELECT 1 FROM " + SCHEMA + ".CHECKPOINT_TABLES T WHERE T.CHECKPOINT = ? AND T.TABLE_SCHEMA = I.TABLE_SCHEMA AND T.TABLE_NAME = I.TABLE_NAME)");
+    try {
+      query.setString(1, this.name);
+      final ResultSet resultSet = query.executeQuery();
+      while (resultSet.next()) {
+        tables.add(new String[] { resultSet.getString(1), resultSet.getString(2) });
+      }
+      resultSet.close();
+    } finally {
+      query.close();
+    }
+    return tables;
+  }
+
+  /**
+   * Drops the copies and records of any checkpoint with this {@link
+   * Checkpoint}'s name.
+   *
+   * @param connection the {@link Connection} to use; must not be
+   * {@code null}
+   *
+   * @exception SQLException if the checkpoint could not be dropped
+   */
+  private final void drop(final Connection connection) throws SQLException {
+    final List<String> copyNames = new ArrayList<String>();
+    final PreparedStatement query = connection.prepareStatement("SELECT COPY_NAME FROM " + SCHEMA + ".CHECKPOINT_TABLES WHERE CHECKPOINT = ?");
+    try {
+      query.setString(1, this.name);
+      final ResultSet resultSet = query.executeQuery();
+      while (resultSet.next()) {
+        copyNames.add(resultSet.getString(1));
+      }
+      resultSet.close();
+    } finally {
+      query.close();
+    }
+    final Statement statement = connection.createStatement();
+    try {
+      for (final String copyName : copyNames) {
+        statement.execute(String.format("DROP TABLE IF EXISTS %s.%s", SCHEMA, quote(copyName)));
+      }
+    } finally {
+      statement.close();
+    }
+    for (final String table : new String[] { "CHECKPOINT_TABLES", "CHECKPOINT_SEQUENCES", "OPEN_CHECKPOINTS" }) {
+      final PreparedStatement delete = connection.prepareStatement(String.format("DELETE FROM %s.%s WHERE CHECKPOINT = ?", SCHEMA, table));
+      try {
+        delete.setString(1, this.name);
+        delete.executeUpdate();
+      } finally {
+        delete.close();
+      }
+    }
+  }
+
+  /**
+   * Records the current {@code LAST_MODIFICATION} value of each table
+   * of this {@link Checkpoint}.
+   *
+   * @param connection the {@link Connection} to use; must not be
+   * {@code null}
+   *
+   * @exception SQLException if the values could not be recorded
+   */
+  private final void recordLastModifications(final Connection connection) throws SQLException {
+    final PreparedStatement update = connection.prepareStatement("UPDATE " + SCHEMA + ".CHECKPOINT_TABLES T SET LAST_MODIFICATION = (SELECT I.LAST_MODIFICATION FROM INFORMATION_SCHEMA.TABLES I WHERE I.TABLE_SCHEMA = T.TABLE_SCHEMA AND I.TABLE_NAME = T.TABLE_NAME) WHERE CHECKPOINT = ?");
+    try {
+      update.setString(1, this.name);
+      update.executeUpdate();
+    } finally {
+      update.close();
+    }
+  }
+
+  /**
+   * Records that this {@link Checkpoint}'s {@code LAST_MODIFICATION}
+   * values were recorded while the database was open, and are
+   * therefore still meaningful until it is closed.
+   *
+   * @param connection the {@link Connection} to use; must not be
+   * {@code null}
+   *
+   * @exception SQLException if the record could not be made
+   */
+  private final void markOpen(final Connection connection) throws SQLException {
+    final PreparedStatement merge = connection.prepareStatement("MERGE INTO " + SCHEMA + ".OPEN_CHECKPOINTS VALUES (?)");
+    try {
+      merge.setString(1, this.name);
+      merge.executeUpdate();
+    } finally {
+      merge.close();
+    }
+  }
+
+  /**
+   * Returns the supplied identifier quoted for use in SQL.
+   *
+   * @param identifier the identifier; must not be {@code null}
+   *
+   * @return the quoted identifier; never {@code null}
+   */
+  static final String quote(final String identifier) {
+    return "\"" + identifier.replace("\"", "\"\"") + "\"";
+  }
+
+}
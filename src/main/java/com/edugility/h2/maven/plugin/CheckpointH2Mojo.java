@@ -0,0 +1,122 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * An {@link AbstractH2Mojo} that saves a named {@link Checkpoint} of
+ * the {@linkplain AbstractH2Mojo#getDatabase() database} of a running
+ * H2 TCP server, such as one {@linkplain SpawnH2Mojo spawned} or
+ * {@linkplain StartH2Mojo started} earlier in the same build, so that
+ * the {@linkplain ResetH2Mojo reset goal} can later restore it
+ * without restarting the server.
+ *
+ * <p>The connection used to save the checkpoint is kept open until
+ * the {@linkplain StopH2Mojo stop goal} runs in the same build, so
+ * that the database stays open and the reset goal can tell which
+ * tables changed.  Otherwise, if the database is closed in the
+ * meantime, every table is reloaded.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @goal checkpoint
+ *
+ * @phase pre-integration-test
+ *
+ * @requiresProject false
+ *
+ * @threadSafe
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class CheckpointH2Mojo extends AbstractH2Mojo {
+
+  /**
+   * Creates a new {@link CheckpointH2Mojo}.
+   */
+  public CheckpointH2Mojo() {
+    super();
+  }
+
+  /**
+   * Saves the {@linkplain AbstractH2Mojo#getCheckpoint() checkpoint}
+   * of the {@linkplain AbstractH2Mojo#getDatabase() database} of each
+   * {@linkplain AbstractH2Mojo#getServerInstances()
+   * <tt>ServerInstance</tt>}, and reports how long it took.
+   *
+   * @exception MojoExecutionException if the checkpoint could not be
+   * saved
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    this.recordTiming("started");
+    final Log log = this.getLog();
+    final Checkpoint checkpoint = new Checkpoint(this.getCheckpoint());
+    final List<ServerInstance> instances = this.getServerInstances();
+    this.applyPublishedPorts(instances);
+    for (final ServerInstance instance : instances) {
+      final String url = this.getJdbcUrl(instance);
+      if (url == null) {
+        throw new MojoExecutionException("The checkpoint goal requires the tcp service.");
+      }
+      final long start = System.nanoTime();
+      final int tables;
+      try {
+        final Connection connection = DriverManager.getConnection(url, this.getUser(), this.getPassword());
+        boolean saved = false;
+        try {
+          tables = checkpoint.save(connection);
+          saved = true;
+        } finally {
+          if (saved) {
+            this.holdCheckpoint(connection);
+          } else {
+            connection.close();
+          }
+        }
+      } catch (final SQLException kaboom) {
+        throw new MojoExecutionException(String.format("Could not save the checkpoint %s of %s: %s", checkpoint.getName(), url, kaboom.getMessage()), kaboom);
+      }
+      if (log != null && log.isInfoEnabled()) {
+        log.info(String.format("Saved the checkpoint %s of %s (%d tables) in %d ms", checkpoint.getName(), url, tables, (System.nanoTime() - start) / 1000000L));
+      }
+      this.recordTiming(instance, "checkpointed");
+    }
+    this.recordTiming("finished");
+  }
+
+}
@@ -0,0 +1,154 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * A CSV file loaded into a table by the {@link BulkLoadH2Mojo
+ * bulk-load goal}.
+ *
+ * <p>Fields are separated by the {@linkplain #getSeparator()
+ * separator} and may be enclosed in double quotes, inside which
+ * separators and line breaks are literal and a doubled quote stands
+ * for one quote.  An empty field that is not quoted is loaded as
+ * {@code NULL}.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public final class CsvFile implements Serializable {
+
+  /**
+   * The version of this class for serialization purposes.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The CSV file.
+   */
+  private File file;
+
+  /**
+   * The table to load, optionally qualified by its schema.
+   */
+  private String table;
+
+  /**
+   * The columns the fields of each row are loaded into, in order.
+   * If {@code null}, the columns are named by the {@linkplain
+   * #getHeader() header row}, or failing that are all the table's
+   * columns.
+   */
+  private String[] columns;
+
+  /**
+   * Whether the first row of the file names the columns.
+   */
+  private boolean header;
+
+  /**
+   * The character separating fields.
+   */
+  private char separator;
+
+  /**
+   * Creates a new {@link CsvFile}.
+   */
+  public CsvFile() {
+    super();
+    this.setHeader(true);
+    this.setSeparator(',');
+  }
+
+  /**
+   * Creates a new {@link CsvFile} with a header row.
+   *
+   * @param file the CSV file; must not be {@code null}
+   *
+   * @param table the table to load; must not be {@code null}
+   */
+  public CsvFile(final File file, final String table) {
+    this();
+    this.setFile(file);
+    this.setTable(table);
+  }
+
+  public File getFile() {
+    return this.file;
+  }
+
+  public void setFile(final File file) {
+    this.file = file;
+  }
+
+  public String getTable() {
+    return this.table;
+  }
+
+  public void setTable(final String table) {
+    this.table = table;
+  }
+
+  public String[] getColumns() {
+    return this.columns;
+  }
+
+  public void setColumns(final String... columns) {
+    this.columns = columns;
+  }
+
+  public boolean getHeader() {
+    return this.header;
+  }
+
+  public void setHeader(final boolean header) {
+    this.header = header;
+  }
+
+  public char getSeparator() {
+    return this.separator;
+  }
+
+  public void setSeparator(final char separator) {
+    this.separator = separator;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link CsvFile}.
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return new StringBuilder(String.valueOf(this.getFile())).append(" -> ").append(this.getTable()).toString();
+  }
+
+}
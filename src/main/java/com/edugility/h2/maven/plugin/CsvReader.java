@@ -0,0 +1,329 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads the rows of a {@link CsvFile} one at a time, through a fixed
+ * amount of memory no matter how large the file is.
+ *
+ * <p>The file is read in chunks through a {@link FileChannel} and
+ * decoded incrementally.  Each row is parsed into a caller-supplied
+ * array, so that arrays can be reused from row to row.</p>
+ *
+ * <p>Instances of this class are not safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class CsvReader {
+
+  /**
+   * The number of bytes read from the file at a time.
+   */
+  private static final int CHUNK_SIZE = 1 << 20;
+
+  /**
+   * The quote character.
+   */
+  private static final char QUOTE = '"';
+
+  /**
+   * The {@link FileChannel} being read.  This field is never {@code
+   * null}.
+   */
+  private final FileChannel channel;
+
+  /**
+   * The {@link CharsetDecoder} that decodes {@link #bytes} into
+   * {@link #chars}.  This field is never {@code null}.
+   */
+  private final CharsetDecoder decoder;
+
+  /**
+   * Bytes read from the {@link #channel} but not yet decoded.
+   */
+  private final ByteBuffer bytes;
+
+  /**
+   * Characters decoded but not yet parsed.
+   */
+  private final CharBuffer chars;
+
+  /**
+   * The field separator.
+   */
+  private final char separator;
+
+  /**
+   * Accumulates the characters of the current field.
+   */
+  private final StringBuilder field;
+
+  /**
+   * Whether the end of the {@link #channel} has been reached.
+   */
+  private boolean endOfInput;
+
+  /**
+   * Whether the {@link #decoder} has been flushed, after which no
+   * more characters will be produced.
+   */
+  private boolean flushed;
+
+  /**
+   * A character that was read ahead and must be returned by the next
+   * call to {@link #read()}, or {@code -2} if there is none.
+   */
+  private int pushedBack;
+
+  /**
+   * The one-based number of the line being read, for error messages.
+   */
+  private long line;
+
+  /**
+   * Creates a new {@link CsvReader}.
+   *
+   * @param file the file to read; must not be {@code null}
+   *
+   * @param encoding the name of the file's character encoding; must
+   * not be {@code null}
+   *
+   * @param separator the field separator
+   *
+   * @exception IOException if the file could not be opened
+   */
+  public CsvReader(final File file, final String encoding, final char separator) throws IOException {
+    super();
+    this.decoder = Charset.forName(encoding).newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+    this.channel = new FileInputStream(file).getChannel();
+    this.bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    this.chars = CharBuffer.allocate(CHUNK_SIZE);
+    this.chars.flip();
+    this.separator = separator;
+    this.field = new StringBuilder();
+    this.pushedBack = -2;
+    this.line = 1L;
+  }
+
+  /**
+   * Returns the one-based number of the line being read.
+   *
+   * @return the current line number
+   */
+  public long getLine() {
+    return this.line;
+  }
+
+  /**
+   * Reads the next row into the supplied array, setting any elements
+   * beyond the last field of the row to {@code null}.  Blank lines
+   * are skipped.
+   *
+   * @param row the array to fill; must not be {@code null}
+   *
+   * @return the number of fields in the row, or {@code -1} if there
+   * are no more rows
+   *
+   * @exception IOException if the file could not be read or decoded,
+   * or the row has more fields than the array has elements
+   */
+  public int readRow(final String[] row) throws IOException {
+    int fields;
+    do {
+      fields = this.readRowOrBlankLine(row);
+    } while (fields == 0);
+    return fields;
+  }
+
+  /**
+   * Reads the next row into the supplied array, as the {@link
+   * #readRow(String[])} method does, except that a blank line yields
+   * {@code 0}.
+   *
+   * @param row the array to fill; must not be {@code null}
+   *
+   * @return the number of fields in the row, {@code 0} for a blank
+   * line, or {@code -1} if there are no more rows
+   *
+   * @exception IOException if the file could not be read or decoded,
+   * or the row has more fields than the array has elements
+   */
+  private final int readRowOrBlankLine(final String[] row) throws IOException {
+    int c = this.read();
+    if (c < 0) {
+      return -1;
+    }
+    int fields = 0;
+    boolean quoted = false;
+    boolean inQuotes = false;
+    this.field.setLength(0);
+    while (true) {
+      if (inQuotes) {
+        if (c < 0) {
+          throw new IOException(String.format("Unterminated quoted field at line %d", this.line));
+        } else if (c == QUOTE) {
+          final int next = this.read();
+          if (next == QUOTE) {
+            this.field.append(QUOTE);
+          } else {
+            inQuotes = false;
+            this.pushedBack = next;
+          }
+        } else {
+          if (c == '\n') {
+            this.line++;
+          }
+          this.field.append((char)c);
+        }
+      } else if (c < 0 || c == '\n') {
+        if (c == '\n') {
+          this.line++;
+        }
+        if (fields == 0 && !quoted && this.field.length() == 0) {
+          // A blank line.
+          break;
+        }
+        this.store(row, fields++, quoted);
+        break;
+      } else if (c == '\r') {
+        // Part of a line break.
+      } else if (c == this.separator) {
+        this.store(row, fields++, quoted);
+        quoted = false;
+        this.field.setLength(0);
+      } else if (c == QUOTE && !quoted && this.field.length() == 0) {
+        quoted = true;
+        inQuotes = true;
+      } else {
+        this.field.append((char)c);
+      }
+      c = this.read();
+    }
+    for (int i = fields; i < row.length; i++) {
+      row[i] = null;
+    }
+    return fields;
+  }
+
+  /**
+   * Stores the current field in the supplied array.
+   *
+   * @param row the array; must not be {@code null}
+   *
+   * @param index the index of the field
+   *
+   * @param quoted whether the field was quoted; an empty field that
+   * was not quoted is stored as {@code null}
+   *
+   * @exception IOException if the array is too short
+   */
+  private final void store(final String[] row, final int index, final boolean quoted) throws IOException {
+    if (index >= row.length) {
+      throw new IOException(String.format("Line %d has more than %d fields", this.line, row.length));
+    }
+    row[index] = !quoted && this.field.length() == 0 ? null : this.field.toString();
+  }
+
+  /**
+   * Returns the next character, or {@code -1} at the end of the file.
+   *
+   * @return the next character, or {@code -1}
+   *
+   * @exception IOException if the file could not be read or decoded
+   */
+  private final int read() throws IOException {
+    if (this.pushedBack != -2) {
+      final int c = this.pushedBack;
+      this.pushedBack = -2;
+      return c;
+    }
+    if (!this.chars.hasRemaining() && !this.fill()) {
+      return -1;
+    }
+    return this.chars.get();
+  }
+
+  /**
+   * Refills {@link #chars} from the {@link #channel}.
+   *
+   * @return {@code true} if any characters are available
+   *
+   * @exception IOException if the file could not be read or decoded
+   */
+  private final boolean fill() throws IOException {
+    if (this.flushed) {
+      return false;
+    }
+    this.chars.clear();
+    while (this.chars.position() == 0) {
+      if (!this.endOfInput && this.channel.read(this.bytes) < 0) {
+        this.endOfInput = true;
+      }
+      this.bytes.flip();
+      final CoderResult result = this.decoder.decode(this.bytes, this.chars, this.endOfInput);
+      this.bytes.compact();
+      if (result.isError()) {
+        result.throwException();
+      }
+      if (this.endOfInput && this.bytes.position() == 0) {
+        this.decoder.flush(this.chars);
+        this.flushed = true;
+        break;
+      }
+    }
+    this.chars.flip();
+    return this.chars.hasRemaining();
+  }
+
+  /**
+   * Closes the file.
+   *
+   * @exception IOException if the file could not be closed
+   */
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+}
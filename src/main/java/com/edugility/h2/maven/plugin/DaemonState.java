@@ -0,0 +1,296 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import java.util.Properties;
+
+/**
+ * The on-disk bookkeeping for an H2 server {@linkplain
+ * AbstractH2Mojo#getDaemon() spawned as a daemon} that outlives the
+ * Maven build that spawned it.
+ *
+ * <p>Each daemon owns a directory containing:</p>
+ *
+ * <ul>
+ *
+ * <li>a {@code daemon.properties} file recording the
+ * {@linkplain AbstractH2Mojo#getFingerprint() fingerprint} of the
+ * configuration the daemon was spawned with;</li>
+ *
+ * <li>a {@code leases} directory holding one file per build that is
+ * currently using the daemon (see {@link ServerLauncher});</li>
+ *
+ * <li>a {@code lock} file used to serialize concurrent builds that
+ * attach to or spawn the daemon;</li>
+ *
+ * <li>a {@code server.log} file receiving the daemon's output, and
+ * a {@code server.log.1} file holding the output of its predecessor,
+ * if any.</li>
+ *
+ * </ul>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class DaemonState {
+
+  /**
+   * The name of the property holding the daemon's fingerprint.
+   */
+  private static final String FINGERPRINT = "fingerprint";
+
+  /**
+   * The directory owned by the daemon.  This field is never {@code
+   * null}.
+   */
+  private final File directory;
+
+  /**
+   * Creates a new {@link DaemonState}.
+   *
+   * @param directory the directory owned by the daemon; must not be
+   * {@code null}
+   */
+  public DaemonState(final File directory) {
+    super();
+    if (directory == null) {
+      throw new IllegalArgumentException("directory", new NullPointerException("directory"));
+    }
+    this.directory = directory;
+  }
+
+  /**
+   * Returns the directory owned by the daemon.  This method never
+   * returns {@code null}.
+   *
+   * @return the directory owned by the daemon; never {@code null}
+   */
+  public File getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Returns the directory holding lease files.  This method never
+   * returns {@code null}.
+   *
+   * @return the directory holding lease files; never {@code null}
+   */
+  public File getLeaseDirectory() {
+    return new File(this.getDirectory(), "leases");
+  }
+
+  /**
+   * Returns the file receiving the daemon's output.  This method
+   * never returns {@code null}.
+   *
+   * @return the file receiving the daemon's output; never {@code
+   * null}
+   */
+  public File getLogFile() {
+    return new File(this.getDirectory(), "server.log");
+  }
+
+  /**
+   * Renames the {@linkplain #getLogFile() log file} out of the way, so
+   * that a newly spawned daemon starts a fresh one; any older log
+   * file is replaced.
+   *
+   * @exception IOException if the log file could not be renamed
+   */
+  public void rotateLog() throws IOException {
+    final File logFile = this.getLogFile();
+    if (logFile.isFile()) {
+      final File previous = new File(this.getDirectory(), logFile.getName() + ".1");
+      if (previous.exists() && !previous.delete()) {
+        throw new IOException("Could not delete " + previous);
+      }
+      if (!logFile.renameTo(previous)) {
+        throw new IOException(String.format("Could not rename %s to %s", logFile, previous));
+      }
+    }
+  }
+
+  /**
+   * Acquires an exclusive lock on this {@link DaemonState}, creating
+   * its directory if necessary.  The caller must close the {@link
+   * FileLock#channel() channel} of the returned {@link FileLock} to
+   * release it.
+   *
+   * <p>A {@link FileLock} only excludes other processes; callers in
+   * the same Java virtual machine must additionally synchronize among
+   * themselves.</p>
+   *
+   * @return a non-{@code null} {@link FileLock}
+   *
+   * @exception IOException if the lock could not be acquired
+   */
+  public FileLock lock() throws IOException {
+    this.mkdirs(this.getDirectory());
+    final FileChannel channel = new RandomAccessFile(new File(this.getDirectory(), "lock"), "rw").getChannel();
+    boolean locked = false;
+    try {
+      final FileLock lock = channel.lock();
+      locked = true;
+      return lock;
+    } finally {
+      if (!locked) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the fingerprint recorded for the daemon, or {@code null}
+   * if there is none.
+   *
+   * @return the recorded fingerprint, or {@code null}
+   *
+   * @exception IOException if the fingerprint could not be read
+   */
+  public String getFingerprint() throws IOException {
+    final File file = new File(this.getDirectory(), "daemon.properties");
+    if (!file.isFile()) {
+      return null;
+    }
+    final Properties properties = new Properties();
+    final InputStream stream = new FileInputStream(file);
+    try {
+      properties.load(stream);
+    } finally {
+      stream.close();
+    }
+    return properties.getProperty(FINGERPRINT);
+  }
+
+  /**
+   * Records the fingerprint of the daemon.
+   *
+   * @param fingerprint the fingerprint; if {@code null} then any
+   * existing record is removed
+   *
+   * @exception IOException if the fingerprint could not be written
+   */
+  public void setFingerprint(final String fingerprint) throws IOException {
+    final File file = new File(this.getDirectory(), "daemon.properties");
+    if (fingerprint == null) {
+      if (file.exists() && !file.delete()) {
+        throw new IOException("Could not delete " + file);
+      }
+      return;
+    }
+    this.mkdirs(this.getDirectory());
+    final Properties properties = new Properties();
+    properties.setProperty(FINGERPRINT, fingerprint);
+    final OutputStream stream = new FileOutputStream(file);
+    try {
+      properties.store(stream, "H2 daemon spawned by the h2-maven-plugin");
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Acquires (or renews) the lease with the supplied name, which
+   * keeps the daemon from stopping for being idle.
+   *
+   * @param name the name of the lease; must not be {@code null}
+   *
+   * @exception IOException if the lease could not be acquired
+   */
+  public void acquireLease(final String name) throws IOException {
+    final File leaseDirectory = this.getLeaseDirectory();
+    this.mkdirs(leaseDirectory);
+    final File lease = new File(leaseDirectory, name);
+    if (!lease.createNewFile() && !lease.setLastModified(System.currentTimeMillis())) {
+      throw new IOException("Could not renew lease " + lease);
+    }
+  }
+
+  /**
+   * Returns the number of leases held on the daemon, other than the
+   * one with the supplied name.  Leases older than {@link
+   * ServerLauncher#MAXIMUM_LEASE_AGE} are considered abandoned and
+   * are not counted, just as the daemon itself disregards them.
+   *
+   * @param except the name of a lease not to count, usually that of
+   * the current build; may be {@code null}
+   *
+   * @return the number of live leases other than {@code except}
+   */
+  public int countLeases(final String except) {
+    final long now = System.currentTimeMillis();
+    final File[] leases = this.getLeaseDirectory().listFiles(new FileFilter() {
+        @Override
+        public final boolean accept(final File file) {
+          return file != null && file.isFile() && !file.getName().equals(except) && now - file.lastModified() < ServerLauncher.MAXIMUM_LEASE_AGE;
+        }
+      });
+    return leases == null ? 0 : leases.length;
+  }
+
+  /**
+   * Releases the lease with the supplied name.
+   *
+   * @param name the name of the lease; must not be {@code null}
+   *
+   * @return {@code true} if the lease was held and is now released;
+   * {@code false} if it was not held
+   */
+  public boolean releaseLease(final String name) {
+    return new File(this.getLeaseDirectory(), name).delete();
+  }
+
+  /**
+   * Creates the supplied directory and its parents if they do not
+   * already exist.
+   *
+   * @param directory the directory to create; must not be {@code
+   * null}
+   *
+   * @exception IOException if the directory could not be created
+   */
+  private final void mkdirs(final File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Could not create " + directory);
+    }
+  }
+
+}
@@ -0,0 +1,410 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.sql.Connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.apache.maven.plugin.logging.Log;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+/**
+ * An {@link AbstractH2Mojo} that runs SQL {@linkplain Script scripts}
+ * against a running H2 TCP server, such as one {@linkplain
+ * SpawnH2Mojo spawned} or {@linkplain StartH2Mojo started} earlier in
+ * the same build.
+ *
+ * <p>Each script is streamed rather than read into memory whole, and
+ * consecutive data manipulation statements are sent to the server in
+ * {@linkplain AbstractH2Mojo#getBatchSize() batches} (see {@link
+ * ScriptRunner}).  Scripts that do not {@linkplain
+ * Script#getDependsOn() depend} on each other run concurrently, over
+ * a pool of up to {@linkplain AbstractH2Mojo#getThreads() several}
+ * connections.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @goal init
+ *
+ * @phase pre-integration-test
+ *
+ * @requiresProject false
+ *
+ * @threadSafe
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class InitH2Mojo extends AbstractH2Mojo {
+
+  /**
+   * The {@link Script}s to run.
+   *
+   * @parameter property="scripts"
+   */
+  private List<Script> scripts;
+
+  /**
+   * Creates a new {@link InitH2Mojo}.
+   */
+  public InitH2Mojo() {
+    super();
+    this.setScripts(null);
+  }
+
+  /**
+   * Returns the {@link Script}s to run.  This method never returns
+   * {@code null}.
+   *
+   * @return a non-{@code null} {@link List} of {@link Script}s
+   */
+  public List<Script> getScripts() {
+    return this.scripts;
+  }
+
+  /**
+   * Sets the {@link Script}s to run.
+   *
+   * @param scripts the {@link Script}s to run; may be {@code null}
+   */
+  public void setScripts(final List<Script> scripts) {
+    if (scripts == null) {
+      this.scripts = Collections.emptyList();
+    } else {
+      this.scripts = scripts;
+    }
+  }
+
+  /**
+   * Runs the {@linkplain #getScripts() scripts} against the {@linkplain
+   * AbstractH2Mojo#getDatabase() database} of each {@linkplain
+   * AbstractH2Mojo#getServerInstances() <tt>ServerInstance</tt>}, and
+   * reports how long each took.
+   *
+   * @exception MojoExecutionException if a script could not be run,
+   * or the scripts' dependencies are missing or circular
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    this.recordTiming("started");
+    final Log log = this.getLog();
+    final List<Script> scripts = sort(this.getScripts());
+    if (scripts.isEmpty()) {
+      if (log != null && log.isInfoEnabled()) {
+        log.info("No scripts to run");
+      }
+      return;
+    }
+    final List<ServerInstance> instances = this.getServerInstances();
+    this.applyPublishedPorts(instances);
+    for (final ServerInstance instance : instances) {
+      final String url = this.getJdbcUrl(instance);
+      if (url == null) {
+        throw new MojoExecutionException("The init goal requires the tcp service.");
+      }
+      final long start = System.nanoTime();
+      final JdbcConnectionPool pool = JdbcConnectionPool.create(url, this.getUser(), this.getPassword());
+      final long statements;
+      try {
+        pool.setMaxConnections(this.getThreads());
+        statements = this.run(pool, scripts);
+      } finally {
+        pool.dispose();
+      }
+      if (log != null && log.isInfoEnabled()) {
+        final long nanos = System.nanoTime() - start;
+        log.info(String.format("Ran %d scripts (%d statements) against %s in %d ms; %d statements/s", scripts.size(), statements, url, nanos / 1000000L, perSecond(statements, nanos)));
+      }
+      this.recordTiming(instance, "scripts-run");
+    }
+    this.recordTiming("finished");
+  }
+
+  /**
+   * Runs the supplied {@link Script}s, each as soon as all the {@link
+   * Script}s it {@linkplain Script#getDependsOn() depends on} have
+   * completed, using connections from the supplied {@link
+   * JdbcConnectionPool}.
+   *
+   * @param pool the {@link JdbcConnectionPool} to use; must not be
+   * {@code null}
+   *
+   * @param scripts the {@link Script}s to run, as returned by the
+   * {@link #sort(List)} method; must not be {@code null}
+   *
+   * @return the total number of statements executed
+   *
+   * @exception MojoExecutionException if a script failed
+   */
+  private final long run(final JdbcConnectionPool pool, final List<Script> scripts) throws MojoExecutionException {
+    final Log log = this.getLog();
+    final Map<String, Integer> pendingDependencies = new HashMap<String, Integer>();
+    final Map<String, List<Script>> dependents = new HashMap<String, List<Script>>();
+    for (final Script script : scripts) {
+      final String[] dependsOn = script.getDependsOn();
+      pendingDependencies.put(script.getId(), Integer.valueOf(dependsOn == null ? 0 : dependsOn.length));
+      if (dependsOn != null) {
+        for (final String id : dependsOn) {
+          List<Script> list = dependents.get(id);
+          if (list == null) {
+            list = new ArrayList<Script>();
+            dependents.put(id, list);
+          }
+          list.add(script);
+        }
+      }
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.getThreads(), scripts.size()));
+    final CompletionService<ScriptResult> completionService = new ExecutorCompletionService<ScriptResult>(executor);
+    long statements = 0L;
+    try {
+      int submitted = 0;
+      for (final Script script : scripts) {
+        if (pendingDependencies.get(script.getId()).intValue() == 0) {
+          completionService.submit(this.newTask(pool, script));
+          submitted++;
+        }
+      }
+      for (int completed = 0; completed < submitted; completed++) {
+        final ScriptResult result;
+        try {
+          result = completionService.take().get();
+        } catch (final ExecutionException kaboom) {
+          final Throwable cause = kaboom.getCause();
+          if (cause instanceof MojoExecutionException) {
+            throw (MojoExecutionException)cause;
+          }
+          throw new MojoExecutionException("Could not run script.", cause);
+        }
+        statements += result.statements;
+        if (log != null && log.isInfoEnabled()) {
+          log.info(String.format("Ran %s (%d statements) in %d ms; %d statements/s", result.script.getFile(), result.statements, result.nanos / 1000000L, perSecond(result.statements, result.nanos)));
+        }
+        final List<Script> ready = dependents.get(result.script.getId());
+        if (ready != null) {
+          for (final Script script : ready) {
+            final int pending = pendingDependencies.get(script.getId()).intValue() - 1;
+            pendingDependencies.put(script.getId(), Integer.valueOf(pending));
+            if (pending == 0) {
+              completionService.submit(this.newTask(pool, script));
+              submitted++;
+            }
+          }
+        }
+      }
+    } catch (final InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while running scripts.", interrupted);
+    } finally {
+      executor.shutdownNow();
+    }
+    return statements;
+  }
+
+  /**
+   * Returns a new {@link Callable} that runs the supplied {@link
+   * Script} on a connection borrowed from the supplied {@link
+   * JdbcConnectionPool}.
+   *
+   * @param pool the {@link JdbcConnectionPool}; must not be {@code
+   * null}
+   *
+   * @param script the {@link Script}; must not be {@code null}
+   *
+   * @return a new {@link Callable}; never {@code null}
+   */
+  private final Callable<ScriptResult> newTask(final JdbcConnectionPool pool, final Script script) {
+    final ScriptRunner runner = new ScriptRunner(this.getBatchSize());
+    final String encoding = this.getEncoding();
+    return new Callable<ScriptResult>() {
+      @Override
+      public final ScriptResult call() throws Exception {
+        final long start = System.nanoTime();
+        final int statements;
+        final Connection connection = pool.getConnection();
+        try {
+          final Reader reader = new InputStreamReader(new FileInputStream(script.getFile()), encoding);
+          try {
+            statements = runner.execute(connection, reader);
+          } finally {
+            reader.close();
+          }
+        } catch (final Exception kaboom) {
+          throw new MojoExecutionException(String.format("Could not run %s: %s", script.getFile(), kaboom.getMessage()), kaboom);
+        } finally {
+          connection.close();
+        }
+        return new ScriptResult(script, statements, System.nanoTime() - start);
+      }
+    };
+  }
+
+  /**
+   * Validates the supplied {@link Script}s and returns them in an
+   * order in which each comes after all the {@link Script}s it
+   * {@linkplain Script#getDependsOn() depends on}.
+   *
+   * @param scripts the {@link Script}s; must not be {@code null}
+   *
+   * @return a new {@link List} of {@link Script}s; never {@code
+   * null}
+   *
+   * @exception MojoExecutionException if a {@link Script} has no
+   * file, two {@link Script}s share an {@linkplain Script#getId()
+   * identifier}, or a dependency is missing or circular
+   */
+  static final List<Script> sort(final List<Script> scripts) throws MojoExecutionException {
+    final Map<String, Script> byId = new LinkedHashMap<String, Script>();
+    for (final Script script : scripts) {
+      if (script != null) {
+        if (script.getFile() == null) {
+          throw new MojoExecutionException("Every script must have a file.");
+        }
+        if (byId.put(script.getId(), script) != null) {
+          throw new MojoExecutionException(String.format("More than one script has the id %s; please give them distinct ids.", script.getId()));
+        }
+      }
+    }
+    for (final Script script : byId.values()) {
+      final String[] dependsOn = script.getDependsOn();
+      if (dependsOn != null) {
+        for (final String id : dependsOn) {
+          if (!byId.containsKey(id)) {
+            throw new MojoExecutionException(String.format("Script %s depends on %s, which is not one of the scripts.", script.getId(), id));
+          }
+        }
+      }
+    }
+    final List<Script> sorted = new ArrayList<Script>(byId.size());
+    final List<Script> remaining = new LinkedList<Script>(byId.values());
+    final Map<String, Script> done = new HashMap<String, Script>();
+    while (!remaining.isEmpty()) {
+      boolean progress = false;
+      for (final Iterator<Script> iterator = remaining.iterator(); iterator.hasNext(); ) {
+        final Script script = iterator.next();
+        boolean ready = true;
+        final String[] dependsOn = script.getDependsOn();
+        if (dependsOn != null) {
+          for (final String id : dependsOn) {
+            if (!done.containsKey(id)) {
+              ready = false;
+              break;
+            }
+          }
+        }
+        if (ready) {
+          iterator.remove();
+          sorted.add(script);
+          done.put(script.getId(), script);
+          progress = true;
+        }
+      }
+      if (!progress) {
+        throw new MojoExecutionException(String.format("The scripts %s depend on each other in a cycle.", remaining));
+      }
+    }
+    return sorted;
+  }
+
+  /**
+   * Returns the supplied number of events per second.
+   *
+   * @param count the number of events
+   *
+   * @param nanos the number of nanoseconds they took
+   *
+   * @return the number of events per second
+   */
+  static final long perSecond(final long count, final long nanos) {
+    return nanos <= 0L ? count : count * 1000000000L / nanos;
+  }
+
+  /**
+   * The outcome of running a single {@link Script}.
+   *
+   * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+   *
+   * @since 1.1-SNAPSHOT
+   */
+  private static final class ScriptResult {
+
+    /**
+     * The {@link Script} that was run.
+     */
+    private final Script script;
+
+    /**
+     * The number of statements executed.
+     */
+    private final int statements;
+
+    /**
+     * The number of nanoseconds the {@link Script} took.
+     */
+    private final long nanos;
+
+    /**
+     * Creates a new {@link ScriptResult}.
+     *
+     * @param script the {@link Script} that was run
+     *
+     * @param statements the number of statements executed
+     *
+     * @param nanos the number of nanoseconds the {@link Script} took
+     */
+    private ScriptResult(final Script script, final int statements, final long nanos) {
+      super();
+      this.script = script;
+      this.statements = statements;
+      this.nanos = nanos;
+    }
+
+  }
+
+}
@@ -0,0 +1,477 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import javax.management.openmbean.CompositeData;
+
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * Periodically samples the H2 MBeans of a spawned server over JMX
+ * and appends the values to a file as JSON lines, one object per
+ * sample, while keeping a summary for the end of the build.
+ *
+ * <p>H2 registers the MBean of a database only when a connection to
+ * it asks for one, so a {@link JmxSampler} holds such a connection
+ * open while it runs; the session it opens is left out of the
+ * session count.  Each sample records its wall clock time in
+ * milliseconds since the epoch, the {@linkplain
+ * ServerInstance#getIndex() index} of the server, the page cache's
+ * current and maximum size in kilobytes, the number of file reads
+ * (that is, cache misses) and writes since the database was opened,
+ * the size of the database file in kilobytes, the number of open
+ * sessions and the number of bytes of heap in use.</p>
+ *
+ * <p>Sampling is a diagnostic aid: a sample that fails, for example
+ * because the server has stopped, ends sampling quietly.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class JmxSampler implements Runnable {
+
+  /**
+   * The URL of the JMX connector of the sampled server.  This field
+   * is never {@code null}.
+   */
+  private final JMXServiceURL serviceUrl;
+
+  /**
+   * The file samples are appended to.  This field is never {@code
+   * null}.
+   */
+  private final File file;
+
+  /**
+   * The index of the sampled server.
+   */
+  private final int instance;
+
+  /**
+   * The number of milliseconds between samples.
+   */
+  private final long interval;
+
+  /**
+   * The {@link Thread} taking samples, or {@code null} if sampling has
+   * not started or has stopped.
+   */
+  private Thread thread;
+
+  /**
+   * The {@link Connection} that keeps the database's MBean
+   * registered, or {@code null}.
+   */
+  private Connection connection;
+
+  /**
+   * The {@link JMXConnector} connected to the sampled server, or
+   * {@code null}.
+   */
+  private JMXConnector connector;
+
+  /**
+   * The {@link Writer} samples are written to, or {@code null}.
+   */
+  private Writer writer;
+
+  /**
+   * The number of samples taken.
+   */
+  private int samples;
+
+  /**
+   * The time of the first sample in milliseconds since the epoch.
+   */
+  private long firstTimestamp;
+
+  /**
+   * The time of the last sample in milliseconds since the epoch.
+   */
+  private long lastTimestamp;
+
+  /**
+   * The file read count of the first sample.
+   */
+  private long firstFileReadCount;
+
+  /**
+   * The file read count of the last sample.
+   */
+  private long lastFileReadCount;
+
+  /**
+   * The file write count of the first sample.
+   */
+  private long firstFileWriteCount;
+
+  /**
+   * The file write count of the last sample.
+   */
+  private long lastFileWriteCount;
+
+  /**
+   * The largest page cache size sampled, in kilobytes.
+   */
+  private long maximumCacheSize;
+
+  /**
+   * The maximum page cache size of the last sample, in kilobytes.
+   */
+  private long cacheSizeMax;
+
+  /**
+   * The largest number of open sessions sampled.
+   */
+  private long maximumSessions;
+
+  /**
+   * The largest number of bytes of heap in use sampled.
+   */
+  private long maximumHeapUsed;
+
+  /**
+   * Creates a new {@link JmxSampler}.
+   *
+   * @param port the port of the sampled server's JMX connector on
+   * the local host
+   *
+   * @param file the file samples are appended to; must not be {@code
+   * null}
+   *
+   * @param instance the index of the sampled server
+   *
+   * @param interval the number of milliseconds between samples; will
+   * be constrained to be at least {@code 10}
+   *
+   * @exception IOException if {@code port} is not a valid port
+   */
+  public JmxSampler(final int port, final File file, final int instance, final long interval) throws IOException {
+    super();
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file"));
+    }
+    this.serviceUrl = new JMXServiceURL(String.format("service:jmx:rmi:///jndi/rmi://127.0.0.1:%d/jmxrmi", port));
+    this.file = file;
+    this.instance = instance;
+    this.interval = Math.max(10L, interval);
+  }
+
+  /**
+   * Returns the file samples are appended to.  This method never
+   * returns {@code null}.
+   *
+   * @return the file; never {@code null}
+   */
+  public File getFile() {
+    return this.file;
+  }
+
+  /**
+   * Returns the number of samples taken so far.
+   *
+   * @return the number of samples taken
+   */
+  public synchronized int getSampleCount() {
+    return this.samples;
+  }
+
+  /**
+   * Connects to the database at the supplied JDBC URL so that its
+   * MBean is registered, connects to the server's JMX connector,
+   * takes the first sample and starts a daemon {@link Thread} that
+   * takes the rest.
+   *
+   * @param jdbcUrl the JDBC URL of the database to sample; must not
+   * be {@code null}
+   *
+   * @param user the user to connect as; may be {@code null}
+   *
+   * @param password the password to connect with; may be {@code
+   * null}
+   *
+   * @exception IOException if the JMX connector could not be reached
+   * or the file could not be written
+   *
+   * @exception SQLException if the database could not be connected to
+   *
+   * @exception JMException if the first sample could not be taken
+   */
+  public synchronized void start(final String jdbcUrl, final String user, final String password) throws IOException, SQLException, JMException {
+    if (jdbcUrl == null) {
+      throw new IllegalArgumentException("jdbcUrl", new NullPointerException("jdbcUrl"));
+    }
+    boolean success = false;
+    try {
+      this.connection = DriverManager.getConnection(jdbcUrl + ";JMX=TRUE", user, password);
+      this.connector = JMXConnectorFactory.connect(this.serviceUrl);
+      final File parent = this.file.getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+        throw new IOException("Could not create " + parent);
+      }
+      this.writer = new OutputStreamWriter(new FileOutputStream(this.file, true), "UTF-8");
+      this.sample();
+      success = true;
+    } finally {
+      if (!success) {
+        this.close();
+      }
+    }
+    this.thread = new Thread(this, "h2-jmx-sampler-" + this.instance);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Takes a sample every {@linkplain #JmxSampler(int, File, int,
+   * long) interval} until {@linkplain #stop() stopped} or until a
+   * sample fails.
+   */
+  @Override
+  public void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        Thread.sleep(this.interval);
+      } catch (final InterruptedException interrupted) {
+        return;
+      }
+      synchronized (this) {
+        if (this.thread != Thread.currentThread()) {
+          return;
+        }
+        if (!this.trySample()) {
+          // The server has most likely stopped.
+          this.thread = null;
+          this.close();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes a last sample, if the server can still be reached, and
+   * stops sampling.  This method does nothing if sampling has already
+   * stopped.
+   */
+  public void stop() {
+    final Thread thread;
+    synchronized (this) {
+      thread = this.thread;
+      this.thread = null;
+      if (thread != null) {
+        this.trySample();
+      }
+      this.close();
+    }
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * {@linkplain #sample() Takes one sample}, returning {@code false}
+   * instead of throwing an exception if it fails.
+   *
+   * @return {@code true} if the sample was taken
+   */
+  private final boolean trySample() {
+    try {
+      this.sample();
+      return true;
+    } catch (final IOException kaboom) {
+      return false;
+    } catch (final JMException kaboom) {
+      return false;
+    } catch (final RuntimeException kaboom) {
+      return false;
+    }
+  }
+
+  /**
+   * Takes one sample, appends it to the {@linkplain #getFile() file}
+   * and folds it into the summary.
+   *
+   * @exception IOException if the server could not be reached or the
+   * file could not be written
+   *
+   * @exception JMException if an MBean could not be read
+   */
+  private final void sample() throws IOException, JMException {
+    final MBeanServerConnection server = this.connector.getMBeanServerConnection();
+    long cacheSize = 0L;
+    long cacheSizeMax = 0L;
+    long fileReadCount = 0L;
+    long fileWriteCount = 0L;
+    long fileWriteCountTotal = 0L;
+    long fileSize = 0L;
+    long sessions = 0L;
+    final Set<ObjectName> names = server.queryNames(new ObjectName("org.h2:*"), null);
+    for (final ObjectName name : names) {
+      cacheSize += longAttribute(server, name, "CacheSize");
+      cacheSizeMax += longAttribute(server, name, "CacheSizeMax");
+      fileReadCount += longAttribute(server, name, "FileReadCount");
+      fileWriteCount += longAttribute(server, name, "FileWriteCount");
+      fileWriteCountTotal += longAttribute(server, name, "FileWriteCountTotal");
+      fileSize += longAttribute(server, name, "FileSize");
+      final Object list = server.invoke(name, "listSessions", null, null);
+      if (list != null) {
+        sessions += String.valueOf(list).split("session id:", -1).length - 1;
+      }
+    }
+    // Leave out this sampler's own session.
+    sessions = Math.max(0L, sessions - 1L);
+    final Object heap = server.getAttribute(new ObjectName("java.lang:type=Memory"), "HeapMemoryUsage");
+    final long heapUsed = heap instanceof CompositeData ? ((Number)((CompositeData)heap).get("used")).longValue() : 0L;
+    final long timestamp = System.currentTimeMillis();
+
+    final StringBuilder sb = new StringBuilder();
+    sb.append("{\"timestamp\": ").append(timestamp);
+    sb.append(", \"instance\": ").append(this.instance);
+    sb.append(", \"cacheSize\": ").append(cacheSize);
+    sb.append(", \"cacheSizeMax\": ").append(cacheSizeMax);
+    sb.append(", \"fileReadCount\": ").append(fileReadCount);
+    sb.append(", \"fileWriteCount\": ").append(fileWriteCount);
+    sb.append(", \"fileWriteCountTotal\": ").append(fileWriteCountTotal);
+    sb.append(", \"fileSize\": ").append(fileSize);
+    sb.append(", \"sessions\": ").append(sessions);
+    sb.append(", \"heapUsed\": ").append(heapUsed);
+    sb.append("}\n");
+    this.writer.write(sb.toString());
+    this.writer.flush();
+
+    if (this.samples == 0) {
+      this.firstTimestamp = timestamp;
+      this.firstFileReadCount = fileReadCount;
+      this.firstFileWriteCount = fileWriteCount;
+    }
+    this.samples++;
+    this.lastTimestamp = timestamp;
+    this.lastFileReadCount = fileReadCount;
+    this.lastFileWriteCount = fileWriteCount;
+    this.cacheSizeMax = cacheSizeMax;
+    this.maximumCacheSize = Math.max(this.maximumCacheSize, cacheSize);
+    this.maximumSessions = Math.max(this.maximumSessions, sessions);
+    this.maximumHeapUsed = Math.max(this.maximumHeapUsed, heapUsed);
+  }
+
+  /**
+   * Closes the {@link Writer}, the {@link JMXConnector} and the
+   * {@link Connection}, ignoring failures.
+   */
+  private final void close() {
+    if (this.writer != null) {
+      try {
+        this.writer.close();
+      } catch (final IOException ignore) {
+        // ignore
+      }
+      this.writer = null;
+    }
+    if (this.connector != null) {
+      try {
+        this.connector.close();
+      } catch (final IOException ignore) {
+        // ignore
+      }
+      this.connector = null;
+    }
+    if (this.connection != null) {
+      try {
+        this.connection.close();
+      } catch (final SQLException ignore) {
+        // ignore
+      }
+      this.connection = null;
+    }
+  }
+
+  /**
+   * Returns a one-line summary of the samples taken, suitable for a
+   * build log.
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public synchronized String toString() {
+    if (this.samples == 0) {
+      return "no samples";
+    }
+    return String.format("%d samples over %d s; cache up to %d of %d KB; %d file reads (cache misses); %d file writes; up to %d sessions; heap up to %d MB",
+                         this.samples,
+                         (this.lastTimestamp - this.firstTimestamp) / 1000L,
+                         this.maximumCacheSize,
+                         this.cacheSizeMax,
+                         this.lastFileReadCount - this.firstFileReadCount,
+                         this.lastFileWriteCount - this.firstFileWriteCount,
+                         this.maximumSessions,
+                         this.maximumHeapUsed / (1024L * 1024L));
+  }
+
+  /**
+   * Returns the value of the named numeric attribute of the named
+   * MBean.
+   *
+   * @param server the {@link MBeanServerConnection}; must not be
+   * {@code null}
+   *
+   * @param name the MBean's name; must not be {@code null}
+   *
+   * @param attribute the attribute's name; must not be {@code null}
+   *
+   * @return the value, or {@code 0} if it is not a number
+   *
+   * @exception IOException if the server could not be reached
+   *
+   * @exception JMException if the attribute could not be read
+   */
+  private static final long longAttribute(final MBeanServerConnection server, final ObjectName name, final String attribute) throws IOException, JMException {
+    final Object value = server.getAttribute(name, attribute);
+    return value instanceof Number ? ((Number)value).longValue() : 0L;
+  }
+
+}
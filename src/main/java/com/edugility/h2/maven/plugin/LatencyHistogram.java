@@ -0,0 +1,244 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free histogram of latencies in microseconds,
+ * from which percentiles can be read to within about three percent.
+ *
+ * <p>Latencies below {@code 32} microseconds have a bucket each.
+ * Above that, every power of two is divided into {@code 32} equal
+ * buckets, so a bucket is never wider than a thirty-second of its
+ * lower bound.  Recording a latency is a handful of arithmetic
+ * operations and one atomic increment, so any number of threads may
+ * record into the same {@link LatencyHistogram} without coordinating
+ * and without allocating.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class LatencyHistogram {
+
+  /**
+   * The base two logarithm of the number of buckets per power of two.
+   */
+  private static final int SUB_BUCKET_BITS = 5;
+
+  /**
+   * The number of buckets per power of two.
+   */
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * The base two logarithm of the largest latency in microseconds
+   * that is distinguished; longer latencies, of more than nine hours,
+   * share the last bucket.
+   */
+  private static final int MAXIMUM_EXPONENT = 35;
+
+  /**
+   * The number of buckets.
+   */
+  private static final int BUCKETS = SUB_BUCKETS + (MAXIMUM_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  /**
+   * The number of latencies recorded in each bucket.  This field is
+   * never {@code null}.
+   */
+  private final AtomicLongArray buckets;
+
+  /**
+   * The number of latencies recorded.  This field is never {@code
+   * null}.
+   */
+  private final AtomicLong count;
+
+  /**
+   * The sum of the latencies recorded, in microseconds.  This field
+   * is never {@code null}.
+   */
+  private final AtomicLong total;
+
+  /**
+   * The longest latency recorded, in microseconds.  This field is
+   * never {@code null}.
+   */
+  private final AtomicLong max;
+
+  /**
+   * Creates a new, empty {@link LatencyHistogram}.
+   */
+  public LatencyHistogram() {
+    super();
+    this.buckets = new AtomicLongArray(BUCKETS);
+    this.count = new AtomicLong();
+    this.total = new AtomicLong();
+    this.max = new AtomicLong();
+  }
+
+  /**
+   * Records one latency.
+   *
+   * @param micros the latency in microseconds; negative latencies are
+   * recorded as {@code 0}
+   */
+  public void record(long micros) {
+    micros = Math.max(0L, micros);
+    this.buckets.incrementAndGet(bucket(micros));
+    this.count.incrementAndGet();
+    this.total.addAndGet(micros);
+    long max = this.max.get();
+    while (micros > max && !this.max.compareAndSet(max, micros)) {
+      max = this.max.get();
+    }
+  }
+
+  /**
+   * Adds the latencies recorded by the supplied {@link
+   * LatencyHistogram} to this one.
+   *
+   * @param other the other {@link LatencyHistogram}; must not be
+   * {@code null}
+   */
+  public void add(final LatencyHistogram other) {
+    if (other == null) {
+      throw new IllegalArgumentException("other", new NullPointerException("other"));
+    }
+    for (int i = 0; i < BUCKETS; i++) {
+      final long n = other.buckets.get(i);
+      if (n != 0L) {
+        this.buckets.addAndGet(i, n);
+      }
+    }
+    this.count.addAndGet(other.count.get());
+    this.total.addAndGet(other.total.get());
+    final long otherMax = other.max.get();
+    long max = this.max.get();
+    while (otherMax > max && !this.max.compareAndSet(max, otherMax)) {
+      max = this.max.get();
+    }
+  }
+
+  /**
+   * Returns the number of latencies recorded.
+   *
+   * @return the number of latencies recorded
+   */
+  public long getCount() {
+    return this.count.get();
+  }
+
+  /**
+   * Returns the mean latency.
+   *
+   * @return the mean latency in microseconds, or {@code 0} if none
+   * was recorded
+   */
+  public double getMean() {
+    final long count = this.count.get();
+    return count == 0L ? 0.0 : (double)this.total.get() / (double)count;
+  }
+
+  /**
+   * Returns the longest latency recorded.
+   *
+   * @return the longest latency in microseconds
+   */
+  public long getMax() {
+    return this.max.get();
+  }
+
+  /**
+   * Returns an upper bound on the supplied percentile of the recorded
+   * latencies, never more than the {@linkplain #getMax() longest}.
+   *
+   * @param fraction the percentile as a fraction between {@code 0}
+   * and {@code 1}, such as {@code 0.999}
+   *
+   * @return the percentile in microseconds, or {@code 0} if no
+   * latency was recorded
+   */
+  public long getPercentile(final double fraction) {
+    final long count = this.count.get();
+    if (count == 0L) {
+      return 0L;
+    }
+    final long rank = Math.max(1L, (long)Math.ceil(fraction * count));
+    long seen = 0L;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(this.getMax(), upperBound(i));
+      }
+    }
+    return this.getMax();
+  }
+
+  /**
+   * Returns the bucket of the supplied latency.
+   *
+   * @param micros the latency in microseconds; must not be negative
+   *
+   * @return the bucket
+   */
+  static final int bucket(final long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int)micros;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > MAXIMUM_EXPONENT) {
+      return BUCKETS - 1;
+    }
+    final int subBucket = (int)(micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Returns the largest latency that falls into the supplied bucket.
+   *
+   * @param bucket the bucket
+   *
+   * @return the largest latency in microseconds
+   */
+  static final long upperBound(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    if (bucket >= BUCKETS - 1) {
+      return Long.MAX_VALUE;
+    }
+    final int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    final long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    return ((SUB_BUCKETS + subBucket + 1L) << shift) - 1L;
+  }
+
+}
@@ -0,0 +1,652 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import java.lang.reflect.InvocationTargetException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a weighted mix of {@link LoadStatement}s against one or more
+ * H2 databases from many simulated clients at once, recording the
+ * latency of every statement in a {@link LatencyHistogram}.
+ *
+ * <p>Each client has its own connection, opened, along with its
+ * prepared statements, before any client starts, so that connecting
+ * is not measured.  Clients then repeatedly pick a statement at
+ * random in proportion to its weight, bind its parameters, execute it
+ * and read any results, until the requested number of operations has
+ * been run or the requested time has passed.  Each client records
+ * into histograms of its own, which are merged once it finishes, so
+ * clients never contend with one another.</p>
+ *
+ * <p>Where the Java virtual machine supports them (Java 21 and later),
+ * every client runs in a virtual thread of its own, so thousands of
+ * clients cost little more than their connections.  Otherwise, each
+ * client gets a platform thread.  Note that on Java 21 through 23 a
+ * virtual thread blocked inside a {@code synchronized} block, as H2's
+ * client driver is while waiting for the server, cannot give up its
+ * carrier thread, so the number of clients actually waiting on the
+ * server at any moment is bounded by the number of processors.</p>
+ *
+ * <p>A {@link LoadGenerator} may run several times.  Its {@linkplain
+ * ParameterGenerator parameter generators} carry on from one run to
+ * the next, so that, for example, a {@code sequence} never repeats a
+ * value, while its results are {@linkplain #reset() reset} between
+ * runs.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class LoadGenerator {
+
+  /**
+   * The percentiles reported, as fractions.
+   */
+  static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+  /**
+   * The {@link LoadStatement}s to run.  This field is never {@code
+   * null}.
+   */
+  private final List<LoadStatement> statements;
+
+  /**
+   * The cumulative weights of the {@linkplain #statements
+   * statements}, used to pick one at random.  This field is never
+   * {@code null}.
+   */
+  private final long[] cumulativeWeights;
+
+  /**
+   * The {@link ParameterGenerator}s of each of the {@linkplain
+   * #statements statements}.  This field is never {@code null}.
+   */
+  private final ParameterGenerator[][] generators;
+
+  /**
+   * The number of simulated clients.
+   */
+  private final int concurrency;
+
+  /**
+   * Whether clients run in virtual threads.
+   */
+  private final boolean virtual;
+
+  /**
+   * The latencies of each of the {@linkplain #statements statements}.
+   * This field is never {@code null}.
+   */
+  private final LatencyHistogram[] histograms;
+
+  /**
+   * The number of times each of the {@linkplain #statements
+   * statements} failed.  This field is never {@code null}.
+   */
+  private final AtomicLongArray errors;
+
+  /**
+   * The first failure, if any.  This field is never {@code null}.
+   */
+  private final AtomicReference<SQLException> firstError;
+
+  /**
+   * The number of nanoseconds the clients ran for.
+   */
+  private long elapsedNanos;
+
+  /**
+   * Creates a new {@link LoadGenerator}.
+   *
+   * @param statements the {@link LoadStatement}s to run; must not be
+   * {@code null} or empty, and every {@link LoadStatement} must have
+   * SQL and a positive weight
+   *
+   * @param concurrency the number of simulated clients; will be
+   * constrained to be at least {@code 1}
+   *
+   * @param virtualThreads whether to run clients in virtual threads
+   * where the Java virtual machine supports them
+   *
+   * @exception IllegalArgumentException if {@code statements} is
+   * {@code null} or empty, or if a {@link LoadStatement} has no SQL,
+   * a weight less than {@code 1} or a parameter that does not
+   * describe a {@link ParameterGenerator}
+   */
+  public LoadGenerator(final List<LoadStatement> statements, final int concurrency, final boolean virtualThreads) {
+    super();
+    if (statements == null) {
+      throw new IllegalArgumentException("statements", new NullPointerException("statements"));
+    }
+    if (statements.isEmpty()) {
+      throw new IllegalArgumentException("statements.isEmpty()");
+    }
+    this.statements = new ArrayList<LoadStatement>(statements);
+    final int size = this.statements.size();
+    this.cumulativeWeights = new long[size];
+    this.generators = new ParameterGenerator[size][];
+    this.histograms = new LatencyHistogram[size];
+    long total = 0L;
+    for (int i = 0; i < size; i++) {
+      final LoadStatement statement = this.statements.get(i);
+      if (statement == null || statement.getSql() == null) {
+        throw new IllegalArgumentException("Every statement must have SQL");
+      }
+      if (statement.getWeight() < 1) {
+        throw new IllegalArgumentException("Every statement must have a weight of at least 1: " + statement);
+      }
+      total += statement.getWeight();
+      this.cumulativeWeights[i] = total;
+      this.generators[i] = statement.createGenerators();
+      this.histograms[i] = new LatencyHistogram();
+    }
+    this.concurrency = Math.max(1, concurrency);
+    this.virtual = virtualThreads && isVirtualThreadSupported();
+    this.errors = new AtomicLongArray(size);
+    this.firstError = new AtomicReference<SQLException>();
+  }
+
+  /**
+   * Returns the {@link LoadStatement}s this {@link LoadGenerator}
+   * runs.  This method never returns {@code null}.
+   *
+   * @return a non-{@code null} {@link List} of {@link LoadStatement}s
+   */
+  public List<LoadStatement> getStatements() {
+    return this.statements;
+  }
+
+  /**
+   * Returns the number of simulated clients.
+   *
+   * @return the number of simulated clients
+   */
+  public int getConcurrency() {
+    return this.concurrency;
+  }
+
+  /**
+   * Returns {@code true} if clients run in virtual threads.
+   *
+   * @return {@code true} if clients run in virtual threads
+   */
+  public boolean isVirtual() {
+    return this.virtual;
+  }
+
+  /**
+   * Discards the results of the previous run, so that this {@link
+   * LoadGenerator} can run again.  Its {@linkplain ParameterGenerator
+   * parameter generators} are left as they are.
+   */
+  public void reset() {
+    for (int i = 0; i < this.histograms.length; i++) {
+      this.histograms[i] = new LatencyHistogram();
+      this.errors.set(i, 0L);
+    }
+    this.firstError.set(null);
+    this.elapsedNanos = 0L;
+  }
+
+  /**
+   * Runs the load.  Clients are spread evenly over the supplied JDBC
+   * URLs.
+   *
+   * @param urls the JDBC URLs to connect to; must not be {@code null}
+   * or empty
+   *
+   * @param user the user to connect as; may be {@code null}
+   *
+   * @param password the password to connect with; may be {@code null}
+   *
+   * @param operations the total number of statements to run; if less
+   * than {@code 1}, clients run for {@code durationMillis}
+   * milliseconds instead
+   *
+   * @param durationMillis the number of milliseconds to run for, if
+   * {@code operations} is less than {@code 1}
+   *
+   * @exception SQLException if a client could not connect or prepare
+   * its statements
+   *
+   * @exception InterruptedException if the current thread was
+   * interrupted while waiting for clients
+   */
+  public void run(final List<String> urls, final String user, final String password, final long operations, final long durationMillis) throws SQLException, InterruptedException {
+    if (urls == null) {
+      throw new IllegalArgumentException("urls", new NullPointerException("urls"));
+    }
+    if (urls.isEmpty()) {
+      throw new IllegalArgumentException("urls.isEmpty()");
+    }
+    final CountDownLatch ready = new CountDownLatch(this.concurrency);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicLong remaining = new AtomicLong(operations);
+    final AtomicLong deadline = new AtomicLong();
+    final ExecutorService executor = this.newExecutor();
+    try {
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>(this.concurrency);
+      for (int i = 0; i < this.concurrency; i++) {
+        final String url = urls.get(i % urls.size());
+        futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public final Void call() throws SQLException, InterruptedException {
+              runClient(url, user, password, ready, start, operations > 0L ? remaining : null, deadline);
+              return null;
+            }
+          }));
+      }
+      ready.await();
+      final long startNanos = System.nanoTime();
+      deadline.set(startNanos + durationMillis * 1000000L);
+      start.countDown();
+      SQLException failure = null;
+      for (final Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (final ExecutionException kaboom) {
+          final Throwable cause = kaboom.getCause();
+          if (cause instanceof SQLException) {
+            if (failure == null) {
+              failure = (SQLException)cause;
+            }
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+          } else if (cause instanceof Error) {
+            throw (Error)cause;
+          } else {
+            throw new IllegalStateException(cause);
+          }
+        }
+      }
+      this.elapsedNanos = System.nanoTime() - startNanos;
+      if (failure != null) {
+        throw failure;
+      }
+    } finally {
+      start.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs one simulated client.
+   *
+   * @param url the JDBC URL to connect to; must not be {@code null}
+   *
+   * @param user the user to connect as; may be {@code null}
+   *
+   * @param password the password to connect with; may be {@code null}
+   *
+   * @param ready counted down once the client is connected, or has
+   * failed to connect; must not be {@code null}
+   *
+   * @param start awaited before running any statement; must not be
+   * {@code null}
+   *
+   * @param remaining the number of statements left to run among all
+   * clients, or {@code null} if clients run until the {@code
+   * deadline}
+   *
+   * @param deadline the {@link System#nanoTime()} at which clients
+   * stop, if {@code remaining} is {@code null}; must not be {@code
+   * null}
+   *
+   * @exception SQLException if the client could not connect or
+   * prepare its statements
+   *
+   * @exception InterruptedException if the client was interrupted
+   * while waiting to start
+   */
+  private final void runClient(final String url, final String user, final String password, final CountDownLatch ready, final CountDownLatch start, final AtomicLong remaining, final AtomicLong deadline) throws SQLException, InterruptedException {
+    final int size = this.statements.size();
+    final PreparedStatement[] preparedStatements = new PreparedStatement[size];
+    final LatencyHistogram[] histograms = new LatencyHistogram[size];
+    Connection connection = null;
+    try {
+      try {
+        connection = DriverManager.getConnection(url, user, password);
+        for (int i = 0; i < size; i++) {
+          preparedStatements[i] = connection.prepareStatement(this.statements.get(i).getSql());
+          histograms[i] = new LatencyHistogram();
+        }
+      } finally {
+        ready.countDown();
+      }
+      start.await();
+      final long totalWeight = this.cumulativeWeights[size - 1];
+      while (remaining == null ? System.nanoTime() - deadline.get() < 0L : remaining.getAndDecrement() > 0L) {
+        final long pick = ThreadLocalRandom.current().nextLong(totalWeight);
+        int i = 0;
+        while (this.cumulativeWeights[i] <= pick) {
+          i++;
+        }
+        final PreparedStatement statement = preparedStatements[i];
+        final ParameterGenerator[] generators = this.generators[i];
+        final long began = System.nanoTime();
+        try {
+          for (int p = 0; p < generators.length; p++) {
+            statement.setObject(p + 1, generators[p].next());
+          }
+          if (statement.execute()) {
+            final ResultSet resultSet = statement.getResultSet();
+            try {
+              while (resultSet.next()) {
+                // read every row, as a client would
+              }
+            } finally {
+              resultSet.close();
+            }
+          }
+        } catch (final SQLException kaboom) {
+          this.errors.incrementAndGet(i);
+          this.firstError.compareAndSet(null, kaboom);
+          continue;
+        }
+        histograms[i].record((System.nanoTime() - began) / 1000L);
+      }
+    } finally {
+      for (int i = 0; i < size; i++) {
+        if (histograms[i] != null) {
+          this.histograms[i].add(histograms[i]);
+        }
+      }
+      if (connection != null) {
+        try {
+          connection.close();
+        } catch (final SQLException ignore) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of nanoseconds the most recent {@linkplain
+   * #run(List, String, String, long, long) run} took.
+   *
+   * @return the elapsed time in nanoseconds
+   */
+  public long getElapsedNanos() {
+    return this.elapsedNanos;
+  }
+
+  /**
+   * Returns the latencies of the {@link LoadStatement} at the supplied
+   * index.
+   *
+   * @param index the index of the {@link LoadStatement} in the
+   * {@linkplain #getStatements() statements}
+   *
+   * @return a non-{@code null} {@link LatencyHistogram}
+   */
+  public LatencyHistogram getHistogram(final int index) {
+    return this.histograms[index];
+  }
+
+  /**
+   * Returns the latencies of every {@link LoadStatement} together.
+   *
+   * @return a new, non-{@code null} {@link LatencyHistogram}
+   */
+  public LatencyHistogram getHistogram() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (final LatencyHistogram h : this.histograms) {
+      histogram.add(h);
+    }
+    return histogram;
+  }
+
+  /**
+   * Returns the number of times the {@link LoadStatement} at the
+   * supplied index failed.
+   *
+   * @param index the index of the {@link LoadStatement} in the
+   * {@linkplain #getStatements() statements}
+   *
+   * @return the number of failures
+   */
+  public long getErrors(final int index) {
+    return this.errors.get(index);
+  }
+
+  /**
+   * Returns the number of times any {@link LoadStatement} failed.
+   *
+   * @return the number of failures
+   */
+  public long getErrors() {
+    long errors = 0L;
+    for (int i = 0; i < this.errors.length(); i++) {
+      errors += this.errors.get(i);
+    }
+    return errors;
+  }
+
+  /**
+   * Returns the first failure of a {@link LoadStatement}, if any.
+   *
+   * @return the first failure, or {@code null}
+   */
+  public SQLException getFirstError() {
+    return this.firstError.get();
+  }
+
+  /**
+   * Returns the number of successful statements per second, over the
+   * most recent {@linkplain #run(List, String, String, long, long)
+   * run}.
+   *
+   * @param histogram the {@link LatencyHistogram} whose statements
+   * should be counted; must not be {@code null}
+   *
+   * @return the number of statements per second
+   */
+  public double getThroughput(final LatencyHistogram histogram) {
+    return this.elapsedNanos <= 0L ? 0.0 : histogram.getCount() * 1.0e9 / this.elapsedNanos;
+  }
+
+  /**
+   * Returns a one-line summary of the supplied {@link
+   * LatencyHistogram}: its throughput and its {@linkplain
+   * #PERCENTILES percentile}, mean and maximum latencies in
+   * milliseconds.
+   *
+   * @param histogram the {@link LatencyHistogram}; must not be {@code
+   * null}
+   *
+   * @param errors the number of failures to report
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  public String summarize(final LatencyHistogram histogram, final long errors) {
+    final StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%d ops, %.1f ops/s, %d errors; ms:", histogram.getCount(), this.getThroughput(histogram), errors));
+    for (final double percentile : PERCENTILES) {
+      sb.append(String.format(Locale.ROOT, " p%s %.3f", label(percentile), histogram.getPercentile(percentile) / 1000.0));
+    }
+    sb.append(String.format(Locale.ROOT, " max %.3f mean %.3f", histogram.getMax() / 1000.0, histogram.getMean() / 1000.0));
+    return sb.toString();
+  }
+
+  /**
+   * Writes the results of the most recent {@linkplain #run(List,
+   * String, String, long, long) run} to the supplied file as JSON.
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @exception IOException if the file could not be written
+   */
+  public void writeJson(final File file) throws IOException {
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Could not create " + parent);
+    }
+    final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      writer.println("{");
+      writer.println(String.format(Locale.ROOT, "  \"concurrency\": %d,", this.concurrency));
+      writer.println(String.format(Locale.ROOT, "  \"virtualThreads\": %b,", this.virtual));
+      writer.println(String.format(Locale.ROOT, "  \"elapsedMillis\": %d,", this.elapsedNanos / 1000000L));
+      writer.println(String.format(Locale.ROOT, "  \"total\": %s,", this.toJson(this.getHistogram(), this.getErrors())));
+      writer.println("  \"statements\": [");
+      for (int i = 0; i < this.statements.size(); i++) {
+        final LoadStatement statement = this.statements.get(i);
+        writer.print(String.format(Locale.ROOT, "    {\"sql\": %s, \"weight\": %d, \"results\": %s}", QueryStatistics.toJson(statement.getSql()), statement.getWeight(), this.toJson(this.histograms[i], this.errors.get(i))));
+        writer.println(i + 1 < this.statements.size() ? "," : "");
+      }
+      writer.println("  ]");
+      writer.println("}");
+    } finally {
+      writer.close();
+    }
+    if (writer.checkError()) {
+      throw new IOException("Could not write " + file);
+    }
+  }
+
+  /**
+   * Returns the supplied {@link LatencyHistogram} as a JSON object.
+   *
+   * @param histogram the {@link LatencyHistogram}; must not be {@code
+   * null}
+   *
+   * @param errors the number of failures to include
+   *
+   * @return a non-{@code null} JSON object
+   */
+  private final String toJson(final LatencyHistogram histogram, final long errors) {
+    final StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "{\"operations\": %d, \"errors\": %d, \"opsPerSecond\": %.1f", histogram.getCount(), errors, this.getThroughput(histogram)));
+    for (final double percentile : PERCENTILES) {
+      sb.append(String.format(Locale.ROOT, ", \"%sMillis\": %.3f", key(percentile), histogram.getPercentile(percentile) / 1000.0));
+    }
+    sb.append(String.format(Locale.ROOT, ", \"maxMillis\": %.3f, \"meanMillis\": %.3f}", histogram.getMax() / 1000.0, histogram.getMean() / 1000.0));
+    return sb.toString();
+  }
+
+  /**
+   * Returns the supplied percentile as a label, such as {@code 99.9}
+   * for {@code 0.999}.
+   *
+   * @param percentile the percentile as a fraction
+   *
+   * @return a non-{@code null} label
+   */
+  private static final String label(final double percentile) {
+    final String label = String.format(Locale.ROOT, "%.1f", percentile * 100.0);
+    return label.endsWith(".0") ? label.substring(0, label.length() - 2) : label;
+  }
+
+  /**
+   * Returns the supplied percentile as an identifier, such as {@code
+   * p99_9} for {@code 0.999}, for use in JSON keys and metric names.
+   *
+   * @param percentile the percentile as a fraction
+   *
+   * @return a non-{@code null} identifier
+   */
+  static final String key(final double percentile) {
+    return "p" + label(percentile).replace('.', '_');
+  }
+
+  /**
+   * Returns a new {@link ExecutorService} with a thread for each
+   * client: a virtual thread if this {@link LoadGenerator} {@linkplain
+   * #isVirtual() uses them}, a daemon platform thread otherwise.
+   *
+   * @return a new, non-{@code null} {@link ExecutorService}
+   */
+  private final ExecutorService newExecutor() {
+    if (this.virtual) {
+      try {
+        return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (final NoSuchMethodException kaboom) {
+        throw new IllegalStateException(kaboom);
+      } catch (final IllegalAccessException kaboom) {
+        throw new IllegalStateException(kaboom);
+      } catch (final InvocationTargetException kaboom) {
+        throw new IllegalStateException(kaboom.getCause());
+      }
+    }
+    final AtomicInteger number = new AtomicInteger();
+    return Executors.newFixedThreadPool(this.concurrency, new ThreadFactory() {
+        @Override
+        public final Thread newThread(final Runnable runnable) {
+          final Thread thread = new Thread(runnable, "h2-load-" + number.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  }
+
+  /**
+   * Returns {@code true} if the current Java virtual machine supports
+   * virtual threads.  They are looked up reflectively so that this
+   * class still compiles and runs on earlier Java releases.
+   *
+   * @return {@code true} if virtual threads are supported
+   */
+  static final boolean isVirtualThreadSupported() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch (final NoSuchMethodException olderJava) {
+      return false;
+    }
+  }
+
+}
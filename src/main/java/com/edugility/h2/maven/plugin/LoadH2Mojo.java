@@ -0,0 +1,420 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * An {@link AbstractH2Mojo} that runs a weighted mix of {@linkplain
+ * LoadStatement SQL statements} from many simulated clients against
+ * a running H2 TCP server, such as one {@linkplain SpawnH2Mojo
+ * spawned} or {@linkplain StartH2Mojo started} earlier in the same
+ * build, and reports throughput and latency percentiles.
+ *
+ * <p>The load runs for a {@linkplain #getLoadDuration() fixed time}
+ * or a {@linkplain #getLoadOperations() fixed number of statements}
+ * at a {@linkplain #getConcurrency() fixed number of clients}, spread
+ * evenly over the {@linkplain AbstractH2Mojo#getServerInstances()
+ * server instances}; see {@link LoadGenerator} for the details.  The
+ * results are logged and written to {@code load.json} in the
+ * {@linkplain AbstractH2Mojo#getReportDirectory() report
+ * directory}.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @goal load
+ *
+ * @requiresProject false
+ *
+ * @threadSafe
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class LoadH2Mojo extends AbstractH2Mojo {
+
+  /**
+   * The {@link LoadStatement}s to run.
+   *
+   * @parameter property="statements"
+   */
+  private List<LoadStatement> statements;
+
+  /**
+   * The number of milliseconds to run for, unless a {@linkplain
+   * #loadOperations number of statements} is set.
+   *
+   * @parameter expression="${h2.loadDuration}" property="loadDuration" default-value="10000"
+   */
+  private long loadDuration;
+
+  /**
+   * The total number of statements to run; if less than {@code 1},
+   * the load runs for the {@linkplain #loadDuration duration}
+   * instead.
+   *
+   * @parameter expression="${h2.loadOperations}" property="loadOperations" default-value="0"
+   */
+  private long loadOperations;
+
+  /**
+   * The number of simulated clients, each with its own connection.
+   *
+   * @parameter expression="${h2.concurrency}" property="concurrency" default-value="64"
+   */
+  private int concurrency;
+
+  /**
+   * Whether to run each simulated client in a virtual thread, where
+   * the Java virtual machine supports them.
+   *
+   * @parameter expression="${h2.virtualThreads}" property="virtualThreads" default-value="true"
+   */
+  private boolean virtualThreads;
+
+  /**
+   * The number of times to run the load, each time recording its
+   * throughput and latency percentiles as {@linkplain
+   * AbstractH2Mojo#recordMetric(String, double) metrics}.
+   *
+   * @parameter expression="${h2.loadRuns}" property="loadRuns" default-value="1"
+   */
+  private int loadRuns;
+
+  /**
+   * The number of times to run the load, before the {@linkplain
+   * #loadRuns measured runs}, to warm up the server; their results
+   * are logged but not recorded.
+   *
+   * @parameter expression="${h2.loadWarmupRuns}" property="loadWarmupRuns" default-value="0"
+   */
+  private int loadWarmupRuns;
+
+  /**
+   * Creates a new {@link LoadH2Mojo}.
+   */
+  public LoadH2Mojo() {
+    super();
+    this.setStatements(null);
+    this.setLoadDuration(10000L);
+    this.setLoadOperations(0L);
+    this.setConcurrency(64);
+    this.setVirtualThreads(true);
+    this.setLoadRuns(1);
+    this.setLoadWarmupRuns(0);
+  }
+
+  /**
+   * Returns the {@link LoadStatement}s to run.  This method never
+   * returns {@code null}.
+   *
+   * @return a non-{@code null} {@link List} of {@link
+   * LoadStatement}s
+   */
+  public List<LoadStatement> getStatements() {
+    return this.statements;
+  }
+
+  /**
+   * Sets the {@link LoadStatement}s to run.
+   *
+   * @param statements the {@link LoadStatement}s to run; may be
+   * {@code null}
+   */
+  public void setStatements(final List<LoadStatement> statements) {
+    if (statements == null) {
+      this.statements = Collections.emptyList();
+    } else {
+      this.statements = statements;
+    }
+  }
+
+  /**
+   * Returns the number of milliseconds to run for, unless a
+   * {@linkplain #getLoadOperations() number of statements} is set.
+   *
+   * @return the duration in milliseconds
+   */
+  public long getLoadDuration() {
+    return this.loadDuration;
+  }
+
+  /**
+   * Sets the number of milliseconds to run for, unless a {@linkplain
+   * #getLoadOperations() number of statements} is set.
+   *
+   * @param loadDuration the duration in milliseconds; will be
+   * constrained to be at least {@code 1}
+   */
+  public void setLoadDuration(final long loadDuration) {
+    this.loadDuration = Math.max(1L, loadDuration);
+  }
+
+  /**
+   * Returns the total number of statements to run, or {@code 0} if
+   * the load runs for the {@linkplain #getLoadDuration() duration}
+   * instead.
+   *
+   * @return the number of statements to run
+   */
+  public long getLoadOperations() {
+    return this.loadOperations;
+  }
+
+  /**
+   * Sets the total number of statements to run.
+   *
+   * @param loadOperations the number of statements to run; if less
+   * than {@code 1}, the load runs for the {@linkplain
+   * #getLoadDuration() duration} instead
+   */
+  public void setLoadOperations(final long loadOperations) {
+    this.loadOperations = Math.max(0L, loadOperations);
+  }
+
+  /**
+   * Returns the number of simulated clients.
+   *
+   * @return the number of simulated clients
+   */
+  public int getConcurrency() {
+    return this.concurrency;
+  }
+
+  /**
+   * Sets the number of simulated clients.
+   *
+   * @param concurrency the number of simulated clients; will be
+   * constrained to be at least {@code 1}
+   */
+  public void setConcurrency(final int concurrency) {
+    this.concurrency = Math.max(1, concurrency);
+  }
+
+  /**
+   * Returns whether simulated clients run in virtual threads, where
+   * the Java virtual machine supports them.
+   *
+   * @return whether virtual threads are used
+   */
+  public boolean getVirtualThreads() {
+    return this.virtualThreads;
+  }
+
+  /**
+   * Sets whether simulated clients run in virtual threads, where the
+   * Java virtual machine supports them.
+   *
+   * @param virtualThreads whether virtual threads are used
+   */
+  public void setVirtualThreads(final boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+
+  /**
+   * Returns the number of measured runs of the load.
+   *
+   * @return the number of measured runs
+   */
+  public int getLoadRuns() {
+    return this.loadRuns;
+  }
+
+  /**
+   * Sets the number of measured runs of the load.
+   *
+   * @param loadRuns the number of measured runs; will be constrained
+   * to be at least {@code 1}
+   */
+  public void setLoadRuns(final int loadRuns) {
+    this.loadRuns = Math.max(1, loadRuns);
+  }
+
+  /**
+   * Returns the number of warm-up runs of the load.
+   *
+   * @return the number of warm-up runs
+   */
+  public int getLoadWarmupRuns() {
+    return this.loadWarmupRuns;
+  }
+
+  /**
+   * Sets the number of warm-up runs of the load.
+   *
+   * @param loadWarmupRuns the number of warm-up runs; will be
+   * constrained to be at least {@code 0}
+   */
+  public void setLoadWarmupRuns(final int loadWarmupRuns) {
+    this.loadWarmupRuns = Math.max(0, loadWarmupRuns);
+  }
+
+  /**
+   * Runs the {@linkplain #getStatements() statements} against the
+   * {@linkplain AbstractH2Mojo#getDatabase() database} of every
+   * {@linkplain AbstractH2Mojo#getServerInstances()
+   * <tt>ServerInstance</tt>}, and reports throughput and latency
+   * percentiles, overall and per statement.
+   *
+   * <p>After any {@linkplain #getLoadWarmupRuns() warm-up runs}, the
+   * load runs {@linkplain #getLoadRuns() once or more}.  Each measured
+   * run's fraction of failed statements is {@linkplain
+   * AbstractH2Mojo#recordMetric(String, double) recorded} as the
+   * {@code load.errorRate} metric, and, if any statement succeeded,
+   * its overall throughput and latency percentiles as the {@code
+   * load.opsPerSecond}, {@code load.p50Millis}, {@code
+   * load.p90Millis}, {@code load.p99Millis} and {@code
+   * load.p99_9Millis} metrics.</p>
+   *
+   * @exception MojoExecutionException if the statements are
+   * misconfigured or a client could not connect
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    this.recordTiming("started");
+    final Log log = this.getLog();
+    final List<LoadStatement> statements = this.getStatements();
+    if (statements.isEmpty()) {
+      if (log != null && log.isInfoEnabled()) {
+        log.info("No statements to run");
+      }
+      return;
+    }
+    final List<ServerInstance> instances = this.getServerInstances();
+    this.applyPublishedPorts(instances);
+    final List<String> urls = new ArrayList<String>(instances.size());
+    for (final ServerInstance instance : instances) {
+      final String url = this.getJdbcUrl(instance);
+      if (url == null) {
+        throw new MojoExecutionException("The load goal requires the tcp service.");
+      }
+      urls.add(url);
+    }
+    final LoadGenerator generator;
+    try {
+      generator = new LoadGenerator(statements, this.getConcurrency(), this.getVirtualThreads());
+    } catch (final IllegalArgumentException kaboom) {
+      throw new MojoExecutionException(kaboom.getMessage(), kaboom);
+    }
+    if (log != null && log.isInfoEnabled()) {
+      final long operations = this.getLoadOperations();
+      log.info(String.format("Running %s against %s with %d clients in %s threads", operations > 0L ? operations + " statements" : this.getLoadDuration() + " ms of statements", urls, generator.getConcurrency(), generator.isVirtual() ? "virtual" : "platform"));
+    }
+    final int warmupRuns = this.getLoadWarmupRuns();
+    final int runs = this.getLoadRuns();
+    for (int run = 1 - warmupRuns; run <= runs; run++) {
+      generator.reset();
+      try {
+        generator.run(urls, this.getUser(), this.getPassword(), this.getLoadOperations(), this.getLoadDuration());
+      } catch (final SQLException kaboom) {
+        throw new MojoExecutionException(String.format("Could not run the load: %s", kaboom.getMessage()), kaboom);
+      } catch (final InterruptedException kaboom) {
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException("Interrupted while running the load", kaboom);
+      }
+      if (run < 1) {
+        if (log != null && log.isInfoEnabled()) {
+          log.info(String.format("Warm-up run %d of %d: %s", run + warmupRuns, warmupRuns, generator.summarize(generator.getHistogram(), generator.getErrors())));
+        }
+      } else {
+        this.report(generator, runs > 1 ? run : 0);
+      }
+    }
+    this.recordTiming("finished");
+  }
+
+  /**
+   * Writes the results of the supplied {@link LoadGenerator}'s run to
+   * {@code load.json}, or, if there are several {@linkplain
+   * #getLoadRuns() runs}, to {@code load-}<i>n</i>{@code .json}, in
+   * the {@linkplain AbstractH2Mojo#getReportDirectory() report
+   * directory}, logs them, and records them as metrics.  A run in
+   * which no statement succeeded has no throughput or latencies to
+   * record, so only its error rate is recorded.
+   *
+   * @param generator the {@link LoadGenerator}; must not be {@code
+   * null}
+   *
+   * @param run the number of the run, or {@code 0} if there is only
+   * one
+   */
+  private final void report(final LoadGenerator generator, final int run) {
+    final Log log = this.getLog();
+    final File json = new File(this.getReportDirectory(), run > 0 ? String.format("load-%d.json", run) : "load.json");
+    try {
+      generator.writeJson(json);
+    } catch (final IOException kaboom) {
+      if (log != null && log.isWarnEnabled()) {
+        log.warn("Could not write the load report", kaboom);
+      }
+    }
+    final LatencyHistogram histogram = generator.getHistogram();
+    if (log != null && log.isInfoEnabled()) {
+      final String name = run > 0 ? String.format("Load run %d of %d", run, this.getLoadRuns()) : "Load";
+      log.info(String.format("%s (full report: %s): %s", name, json, generator.summarize(histogram, generator.getErrors())));
+      final List<LoadStatement> statements = generator.getStatements();
+      for (int i = 0; i < statements.size(); i++) {
+        log.info(String.format("%3d. %s: %s", i + 1, statements.get(i), generator.summarize(generator.getHistogram(i), generator.getErrors(i))));
+      }
+    }
+    final SQLException firstError = generator.getFirstError();
+    if (firstError != null && log != null && log.isWarnEnabled()) {
+      log.warn(String.format("%d statements failed; the first failure was: %s", generator.getErrors(), firstError.getMessage()));
+    }
+    final long errors = generator.getErrors();
+    final long operations = histogram.getCount() + errors;
+    if (operations <= 0L) {
+      if (log != null && log.isWarnEnabled()) {
+        log.warn("No statements ran; recording no metrics");
+      }
+      return;
+    }
+    this.recordMetric("load.errorRate", (double)errors / (double)operations);
+    if (histogram.getCount() <= 0L) {
+      if (log != null && log.isWarnEnabled()) {
+        log.warn("No statements succeeded; recording no throughput or latency metrics");
+      }
+      return;
+    }
+    this.recordMetric("load.opsPerSecond", generator.getThroughput(histogram));
+    for (final double percentile : LoadGenerator.PERCENTILES) {
+      this.recordMetric(String.format("load.%sMillis", LoadGenerator.key(percentile)), histogram.getPercentile(percentile) / 1000.0);
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.Serializable;
+
+import java.util.Arrays;
+
+/**
+ * A SQL statement in the mix run by the {@link LoadH2Mojo load
+ * goal}.
+ *
+ * <p>Each time a simulated client picks a statement, it picks one at
+ * random in proportion to its {@linkplain #getWeight() weight}.  The
+ * statement's {@code ?} placeholders are bound, in order, to values
+ * produced by its {@linkplain #getParameters() parameter
+ * generators}, each described by one of the following:</p>
+ *
+ * <dl>
+ *
+ * <dt>{@code int:}<i>min</i>{@code :}<i>max</i></dt>
+ *
+ * <dd>A random integer between <i>min</i> and <i>max</i>,
+ * inclusive.</dd>
+ *
+ * <dt>{@code sequence} or {@code sequence:}<i>start</i></dt>
+ *
+ * <dd>The next of a series of integers shared by all clients,
+ * starting at <i>start</i>, or {@code 1}.</dd>
+ *
+ * <dt>{@code string:}<i>length</i></dt>
+ *
+ * <dd>A random string of <i>length</i> letters and digits.</dd>
+ *
+ * <dt>{@code uuid}</dt>
+ *
+ * <dd>A random UUID, as a string.</dd>
+ *
+ * <dt>{@code choice:}<i>a</i>{@code |}<i>b</i>{@code |}...</dt>
+ *
+ * <dd>One of the listed strings, at random.</dd>
+ *
+ * </dl>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public final class LoadStatement implements Serializable {
+
+  /**
+   * The version of this class for serialization purposes.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The SQL statement, possibly with {@code ?} placeholders.
+   */
+  private String sql;
+
+  /**
+   * The relative frequency with which this statement is picked.
+   */
+  private int weight;
+
+  /**
+   * The descriptions of the generators of the values bound to the
+   * statement's placeholders, in order.
+   */
+  private String[] parameters;
+
+  /**
+   * Creates a new {@link LoadStatement} with a weight of {@code 1}.
+   */
+  public LoadStatement() {
+    super();
+    this.setWeight(1);
+  }
+
+  /**
+   * Creates a new {@link LoadStatement}.
+   *
+   * @param sql the SQL statement; must not be {@code null}
+   *
+   * @param weight the relative frequency with which the statement is
+   * picked
+   *
+   * @param parameters the descriptions of the parameter generators;
+   * may be {@code null}
+   */
+  public LoadStatement(final String sql, final int weight, final String... parameters) {
+    this();
+    this.setSql(sql);
+    this.setWeight(weight);
+    this.setParameters(parameters);
+  }
+
+  public String getSql() {
+    return this.sql;
+  }
+
+  public void setSql(final String sql) {
+    this.sql = sql;
+  }
+
+  public int getWeight() {
+    return this.weight;
+  }
+
+  public void setWeight(final int weight) {
+    this.weight = weight;
+  }
+
+  public String[] getParameters() {
+    return this.parameters;
+  }
+
+  public void setParameters(final String... parameters) {
+    this.parameters = parameters;
+  }
+
+  /**
+   * Returns a new {@link ParameterGenerator} for each of this {@link
+   * LoadStatement}'s {@linkplain #getParameters() parameters}.  This
+   * method never returns {@code null}.
+   *
+   * @return a new, non-{@code null} array of {@link
+   * ParameterGenerator}s
+   *
+   * @exception IllegalArgumentException if a parameter does not
+   * describe a generator
+   */
+  ParameterGenerator[] createGenerators() {
+    final String[] parameters = this.getParameters();
+    if (parameters == null) {
+      return new ParameterGenerator[0];
+    }
+    final ParameterGenerator[] generators = new ParameterGenerator[parameters.length];
+    for (int i = 0; i < parameters.length; i++) {
+      generators[i] = ParameterGenerator.parse(parameters[i]);
+    }
+    return generators;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * LoadStatement}.
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder(String.valueOf(this.getSql())).append(" (weight ").append(this.getWeight());
+    final String[] parameters = this.getParameters();
+    if (parameters != null && parameters.length > 0) {
+      sb.append("; ").append(Arrays.toString(parameters));
+    }
+    return sb.append(")").toString();
+  }
+
+}
@@ -0,0 +1,149 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.util.UUID;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Produces values for a placeholder of a {@link LoadStatement}; see
+ * the {@link LoadStatement} class documentation for the available
+ * kinds.  Every {@link ParameterGenerator} may be used by many
+ * threads at once.
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+abstract class ParameterGenerator {
+
+  /**
+   * The characters random strings are made of.
+   */
+  private static final String ALPHANUMERICS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+  /**
+   * Creates a new {@link ParameterGenerator}.
+   */
+  ParameterGenerator() {
+    super();
+  }
+
+  /**
+   * Returns the next value.
+   *
+   * @return the next value; never {@code null}
+   */
+  abstract Object next();
+
+  /**
+   * Returns a new {@link ParameterGenerator} as described by the
+   * supplied {@link String}.
+   *
+   * @param spec the description, such as {@code int:1:1000}; must not
+   * be {@code null}
+   *
+   * @return a new {@link ParameterGenerator}; never {@code null}
+   *
+   * @exception IllegalArgumentException if {@code spec} does not
+   * describe a {@link ParameterGenerator}
+   */
+  static ParameterGenerator parse(final String spec) {
+    if (spec == null) {
+      throw new IllegalArgumentException("spec", new NullPointerException("spec"));
+    }
+    final String[] parts = spec.trim().split(":", 2);
+    final String kind = parts[0];
+    final String arguments = parts.length > 1 ? parts[1] : null;
+    try {
+      if ("int".equals(kind) && arguments != null) {
+        final String[] bounds = arguments.split(":");
+        if (bounds.length != 2) {
+          throw new IllegalArgumentException("spec: " + spec);
+        }
+        final long min = Long.parseLong(bounds[0].trim());
+        final long max = Long.parseLong(bounds[1].trim());
+        if (max < min) {
+          throw new IllegalArgumentException("spec: " + spec);
+        }
+        return new ParameterGenerator() {
+          @Override
+          final Object next() {
+            return Long.valueOf(min + (long)(ThreadLocalRandom.current().nextDouble() * (max - min + 1L)));
+          }
+        };
+      } else if ("sequence".equals(kind)) {
+        final AtomicLong sequence = new AtomicLong(arguments == null ? 1L : Long.parseLong(arguments.trim()));
+        return new ParameterGenerator() {
+          @Override
+          final Object next() {
+            return Long.valueOf(sequence.getAndIncrement());
+          }
+        };
+      } else if ("string".equals(kind) && arguments != null) {
+        final int length = Integer.parseInt(arguments.trim());
+        if (length < 0) {
+          throw new IllegalArgumentException("spec: " + spec);
+        }
+        return new ParameterGenerator() {
+          @Override
+          final Object next() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+              chars[i] = ALPHANUMERICS.charAt(random.nextInt(ALPHANUMERICS.length()));
+            }
+            return new String(chars);
+          }
+        };
+      } else if ("uuid".equals(kind) && arguments == null) {
+        return new ParameterGenerator() {
+          @Override
+          final Object next() {
+            return UUID.randomUUID().toString();
+          }
+        };
+      } else if ("choice".equals(kind) && arguments != null) {
+        final String[] choices = arguments.split("\\|", -1);
+        return new ParameterGenerator() {
+          @Override
+          final Object next() {
+            return choices[ThreadLocalRandom.current().nextInt(choices.length)];
+          }
+        };
+      }
+    } catch (final NumberFormatException kaboom) {
+      throw new IllegalArgumentException("spec: " + spec, kaboom);
+    }
+    throw new IllegalArgumentException("spec: " + spec);
+  }
+
+}
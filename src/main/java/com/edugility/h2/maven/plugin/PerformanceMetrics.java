@@ -0,0 +1,363 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Appends samples of performance metrics, such as a spawned server's
+ * time to readiness or the throughput of a {@linkplain LoadH2Mojo
+ * load}, to a file as JSON lines, and summarizes them for the
+ * {@linkplain CheckPerformanceH2Mojo check-performance goal}.
+ *
+ * <p>Samples accumulate across goal executions and builds until the
+ * file is deleted, for example by {@code mvn clean}.  Each sample is
+ * tagged with the build that recorded it, and only the samples of the
+ * most recent build are {@linkplain #read() read}, so that a metric
+ * is {@linkplain Summary summarized} over the several runs of one
+ * build rather than mixed with stale samples from earlier ones.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class PerformanceMetrics {
+
+  /**
+   * Matches the metric and value of a sample written by the {@link
+   * #record(String, double)} method.
+   */
+  private static final Pattern SAMPLE = Pattern.compile("\\{\"metric\": \"([^\"]*)\", \"value\": ([-+0-9.Ee]+)(?:, \"build\": \"([^\"]*)\")?");
+
+  /**
+   * The two-sided 95% critical values of Student's t distribution
+   * for one to thirty degrees of freedom; beyond that, {@code 1.96}
+   * is close enough.
+   */
+  private static final double[] T95 = {
+    12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+    2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+    2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+  };
+
+  /**
+   * The file samples are appended to.  This field is never {@code
+   * null}.
+   */
+  private final File file;
+
+  /**
+   * The identifier of the build samples are tagged with.  This field
+   * may be {@code null}.
+   */
+  private final String build;
+
+  /**
+   * Creates a new {@link PerformanceMetrics} that records untagged
+   * samples.
+   *
+   * @param file the file samples are appended to; must not be {@code
+   * null}
+   */
+  public PerformanceMetrics(final File file) {
+    this(file, null);
+  }
+
+  /**
+   * Creates a new {@link PerformanceMetrics}.
+   *
+   * @param file the file samples are appended to; must not be {@code
+   * null}
+   *
+   * @param build the identifier of the build that samples are tagged
+   * with, unique to each build; may be {@code null}, and must not
+   * contain quotation marks
+   */
+  public PerformanceMetrics(final File file, final String build) {
+    super();
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file"));
+    }
+    if (build != null && (build.indexOf('"') >= 0 || build.indexOf('\\') >= 0)) {
+      throw new IllegalArgumentException("build: " + build);
+    }
+    this.file = file;
+    this.build = build;
+  }
+
+  /**
+   * Returns the file samples are appended to.  This method never
+   * returns {@code null}.
+   *
+   * @return the file; never {@code null}
+   */
+  public File getFile() {
+    return this.file;
+  }
+
+  /**
+   * Appends a sample to this {@link PerformanceMetrics}' {@linkplain
+   * #getFile() file}, creating it if necessary.
+   *
+   * @param metric the name of the metric, such as {@code
+   * load.opsPerSecond}; must not be {@code null} and must not contain
+   * quotation marks
+   *
+   * @param value the value
+   *
+   * @exception IOException if the sample could not be appended
+   */
+  public void record(final String metric, final double value) throws IOException {
+    if (metric == null) {
+      throw new IllegalArgumentException("metric", new NullPointerException("metric"));
+    }
+    if (metric.indexOf('"') >= 0 || metric.indexOf('\\') >= 0) {
+      throw new IllegalArgumentException("metric: " + metric);
+    }
+    final String tag = this.build == null ? "" : String.format(", \"build\": \"%s\"", this.build);
+    TimingLog.append(this.file, String.format(Locale.ROOT, "{\"metric\": \"%s\", \"value\": %.3f%s, \"timestamp\": %d}\n", metric, value, tag, System.currentTimeMillis()));
+  }
+
+  /**
+   * Reads the samples of the most recent build in this {@link
+   * PerformanceMetrics}' {@linkplain #getFile() file}, that is, those
+   * tagged like the last sample, and returns a {@link Summary} of
+   * each metric, in the order the metrics first appear.  Untagged
+   * samples are treated as belonging to one build of their own.  This
+   * method never returns {@code null}.
+   *
+   * @return a new, non-{@code null} {@link Map} of {@link Summary}
+   * instances indexed by metric; empty if the file does not exist
+   *
+   * @exception IOException if the file could not be read
+   */
+  public Map<String, Summary> read() throws IOException {
+    final Map<String, Summary> summaries = new LinkedHashMap<String, Summary>();
+    if (!this.file.isFile()) {
+      return summaries;
+    }
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), "UTF-8"));
+    try {
+      String build = null;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final Matcher matcher = SAMPLE.matcher(line);
+        if (matcher.lookingAt()) {
+          final String sampleBuild = matcher.group(3);
+          if (sampleBuild == null ? build != null : !sampleBuild.equals(build)) {
+            // A later build; its samples supersede those read so far.
+            summaries.clear();
+            build = sampleBuild;
+          }
+          final String metric = matcher.group(1);
+          Summary summary = summaries.get(metric);
+          if (summary == null) {
+            summary = new Summary(metric);
+            summaries.put(metric, summary);
+          }
+          summary.add(Double.parseDouble(matcher.group(2)));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return summaries;
+  }
+
+  /**
+   * Returns {@code true} if larger values of the named metric are
+   * better, as they are for throughputs, whose names end with {@code
+   * PerSecond}; smaller values of every other metric, such as a
+   * latency, are better.
+   *
+   * @param metric the name of the metric; must not be {@code null}
+   *
+   * @return {@code true} if larger values are better
+   */
+  public static boolean isHigherBetter(final String metric) {
+    return metric.endsWith("PerSecond");
+  }
+
+  /**
+   * The samples of one metric: their number, mean, standard
+   * deviation and 95% confidence interval for the mean.
+   *
+   * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+   *
+   * @since 1.1-SNAPSHOT
+   */
+  public static final class Summary {
+
+    /**
+     * The name of the metric.  This field is never {@code null}.
+     */
+    private final String metric;
+
+    /**
+     * The number of samples.
+     */
+    private int count;
+
+    /**
+     * The running mean of the samples.
+     */
+    private double mean;
+
+    /**
+     * The running sum of the squared differences of the samples from
+     * their mean.
+     */
+    private double squares;
+
+    /**
+     * Creates a new, empty {@link Summary}.
+     *
+     * @param metric the name of the metric; must not be {@code null}
+     */
+    public Summary(final String metric) {
+      super();
+      if (metric == null) {
+        throw new IllegalArgumentException("metric", new NullPointerException("metric"));
+      }
+      this.metric = metric;
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @param value the sample
+     */
+    public void add(final double value) {
+      // Welford's method, which stays accurate however many samples
+      // there are.
+      this.count++;
+      final double delta = value - this.mean;
+      this.mean += delta / this.count;
+      this.squares += delta * (value - this.mean);
+    }
+
+    /**
+     * Returns the name of the metric.  This method never returns
+     * {@code null}.
+     *
+     * @return the name of the metric; never {@code null}
+     */
+    public String getMetric() {
+      return this.metric;
+    }
+
+    /**
+     * Returns the number of samples.
+     *
+     * @return the number of samples
+     */
+    public int getCount() {
+      return this.count;
+    }
+
+    /**
+     * Returns the mean of the samples.
+     *
+     * @return the mean, or {@code 0} if there are no samples
+     */
+    public double getMean() {
+      return this.mean;
+    }
+
+    /**
+     * Returns the sample standard deviation.
+     *
+     * @return the standard deviation, or {@code 0} if there are fewer
+     * than two samples
+     */
+    public double getStandardDeviation() {
+      return this.count < 2 ? 0.0 : Math.sqrt(this.squares / (this.count - 1));
+    }
+
+    /**
+     * Returns half the width of the 95% confidence interval for the
+     * mean, using Student's t distribution, since there are usually
+     * only a handful of samples.
+     *
+     * @return half the width of the confidence interval, or {@code 0}
+     * if there are fewer than two samples
+     */
+    public double getConfidenceHalfWidth() {
+      if (this.count < 2) {
+        return 0.0;
+      }
+      final int degreesOfFreedom = this.count - 1;
+      final double t = degreesOfFreedom <= T95.length ? T95[degreesOfFreedom - 1] : 1.96;
+      return t * this.getStandardDeviation() / Math.sqrt(this.count);
+    }
+
+    /**
+     * Returns the lower bound of the 95% confidence interval for the
+     * mean.
+     *
+     * @return the lower bound
+     */
+    public double getLowerBound() {
+      return this.mean - this.getConfidenceHalfWidth();
+    }
+
+    /**
+     * Returns the upper bound of the 95% confidence interval for the
+     * mean.
+     *
+     * @return the upper bound
+     */
+    public double getUpperBound() {
+      return this.mean + this.getConfidenceHalfWidth();
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link
+     * Summary}.
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%s: %.3f +/- %.3f (n = %d)", this.metric, this.mean, this.getConfidenceHalfWidth(), this.count);
+    }
+
+  }
+
+}
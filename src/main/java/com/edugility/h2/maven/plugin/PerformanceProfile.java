@@ -0,0 +1,297 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A named group of H2 settings that trades durability for speed, or
+ * speed for durability, in a known and repeatable way.
+ *
+ * <p>A {@link PerformanceProfile} consists of {@linkplain
+ * #getDatabaseSettings() database settings}, which are appended to
+ * the JDBC URLs the plugin publishes and uses, and so take effect
+ * when a client connects, and of {@linkplain #getJavaOptions() Java
+ * options} for spawned servers.  The following profiles are
+ * available:</p>
+ *
+ * <dl>
+ *
+ * <dt>{@code default}</dt>
+ *
+ * <dd>Changes nothing; H2's own defaults apply.</dd>
+ *
+ * <dt>{@code durable}</dt>
+ *
+ * <dd>Writes and synchronizes the transaction log on every commit
+ * ({@code LOG=2}, {@code WRITE_DELAY=0}), so no committed transaction
+ * is lost even if the server is killed.</dd>
+ *
+ * <dt>{@code fast-test}</dt>
+ *
+ * <dd>Turns the transaction log off ({@code LOG=0}), enlarges the
+ * page cache to 64 MB ({@code CACHE_SIZE=65536}) and skips compacting
+ * the database when it is closed.  Rollback still works, but a
+ * database whose server is killed may be corrupt; suited to
+ * databases that are rebuilt for every build.</dd>
+ *
+ * <dt>{@code bulk-load}</dt>
+ *
+ * <dd>Like {@code fast-test}, but also turns the undo log ({@code
+ * UNDO_LOG=0}) and table locking ({@code LOCK_MODE=0}) off and
+ * enlarges the page cache to 128 MB.  Transactions can no longer be
+ * rolled back; suited only to loading data into a fresh
+ * database.</dd>
+ *
+ * </dl>
+ *
+ * <p>Setting {@code LOG} requires administrator rights, so the
+ * {@code durable}, {@code fast-test} and {@code bulk-load} profiles
+ * require that clients connect as an administrator, such as the
+ * user that created the database.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public final class PerformanceProfile {
+
+  /**
+   * The database settings a {@link PerformanceProfile} may contain;
+   * each is a setting that H2 accepts in a JDBC URL.
+   */
+  private static final List<String> SUPPORTED_SETTINGS = Collections.unmodifiableList(Arrays.asList("CACHE_SIZE", "LOCK_MODE", "LOG", "UNDO_LOG", "WRITE_DELAY"));
+
+  /**
+   * The available {@link PerformanceProfile}s, indexed by name.
+   */
+  private static final Map<String, PerformanceProfile> profiles = new LinkedHashMap<String, PerformanceProfile>();
+
+  static {
+    add(new PerformanceProfile("default"));
+    add(new PerformanceProfile("durable")
+        .setting("LOG", "2")
+        .setting("WRITE_DELAY", "0"));
+    add(new PerformanceProfile("fast-test")
+        .setting("LOG", "0")
+        .setting("CACHE_SIZE", "65536")
+        .javaOption("-Dh2.maxCompactTime=0"));
+    add(new PerformanceProfile("bulk-load")
+        .setting("LOG", "0")
+        .setting("UNDO_LOG", "0")
+        .setting("LOCK_MODE", "0")
+        .setting("CACHE_SIZE", "131072")
+        .javaOption("-Dh2.maxCompactTime=0"));
+  }
+
+  /**
+   * The name of this {@link PerformanceProfile}.  This field is never
+   * {@code null}.
+   */
+  private final String name;
+
+  /**
+   * The database settings of this {@link PerformanceProfile}, in the
+   * order in which they are applied.  This field is never {@code
+   * null}.
+   */
+  private final Map<String, String> databaseSettings;
+
+  /**
+   * The Java options of this {@link PerformanceProfile}.  This field
+   * is never {@code null}.
+   */
+  private final List<String> javaOptions;
+
+  /**
+   * Creates a new {@link PerformanceProfile} with no settings.
+   *
+   * @param name the name of the new {@link PerformanceProfile}; must
+   * not be {@code null}
+   */
+  private PerformanceProfile(final String name) {
+    super();
+    this.name = name;
+    this.databaseSettings = new LinkedHashMap<String, String>();
+    this.javaOptions = new ArrayList<String>();
+  }
+
+  /**
+   * Adds a database setting to this {@link PerformanceProfile}.
+   *
+   * @param key the setting's name; must be one of the {@linkplain
+   * #SUPPORTED_SETTINGS supported settings}
+   *
+   * @param value the setting's value; must not be {@code null}
+   *
+   * @return this {@link PerformanceProfile}
+   *
+   * @exception IllegalArgumentException if {@code key} is not a
+   * supported setting
+   */
+  private final PerformanceProfile setting(final String key, final String value) {
+    if (!SUPPORTED_SETTINGS.contains(key)) {
+      throw new IllegalArgumentException("key: " + key);
+    }
+    this.databaseSettings.put(key, value);
+    return this;
+  }
+
+  /**
+   * Adds a Java option to this {@link PerformanceProfile}.
+   *
+   * @param option the option; must not be {@code null}
+   *
+   * @return this {@link PerformanceProfile}
+   */
+  private final PerformanceProfile javaOption(final String option) {
+    this.javaOptions.add(option);
+    return this;
+  }
+
+  /**
+   * Makes the supplied {@link PerformanceProfile} available by name.
+   *
+   * @param profile the {@link PerformanceProfile}; must not be {@code
+   * null}
+   */
+  private static final void add(final PerformanceProfile profile) {
+    profiles.put(profile.getName(), profile);
+  }
+
+  /**
+   * Returns the name of this {@link PerformanceProfile}.  This method
+   * never returns {@code null}.
+   *
+   * @return the name; never {@code null}
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Returns the database settings of this {@link PerformanceProfile}
+   * as an unmodifiable {@link Map} of setting names to values, in the
+   * order in which they are applied.  This method never returns
+   * {@code null}.
+   *
+   * @return a non-{@code null}, unmodifiable {@link Map}
+   */
+  public Map<String, String> getDatabaseSettings() {
+    return Collections.unmodifiableMap(this.databaseSettings);
+  }
+
+  /**
+   * Returns the Java options that spawned servers are started with
+   * under this {@link PerformanceProfile}, as an unmodifiable {@link
+   * List}.  This method never returns {@code null}.
+   *
+   * @return a non-{@code null}, unmodifiable {@link List}
+   */
+  public List<String> getJavaOptions() {
+    return Collections.unmodifiableList(this.javaOptions);
+  }
+
+  /**
+   * Returns the {@linkplain #getDatabaseSettings() database settings}
+   * of this {@link PerformanceProfile} in the form in which they are
+   * appended to a JDBC URL, such as {@code ;LOG=0;CACHE_SIZE=65536},
+   * or an empty {@link String} if there are none.  This method never
+   * returns {@code null}.
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  public String getUrlSuffix() {
+    final StringBuilder sb = new StringBuilder();
+    for (final Map.Entry<String, String> entry : this.databaseSettings.entrySet()) {
+      sb.append(";").append(entry.getKey()).append("=").append(entry.getValue());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * PerformanceProfile}: its name, followed by its settings, if any.
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder(this.getName());
+    if (!this.databaseSettings.isEmpty() || !this.javaOptions.isEmpty()) {
+      sb.append(" (");
+      final String suffix = this.getUrlSuffix();
+      if (!suffix.isEmpty()) {
+        sb.append(suffix.substring(1));
+      }
+      for (final String option : this.javaOptions) {
+        if (sb.charAt(sb.length() - 1) != '(') {
+          sb.append(" ");
+        }
+        sb.append(option);
+      }
+      sb.append(")");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the {@link PerformanceProfile} with the supplied name,
+   * ignoring case.  This method never returns {@code null}.
+   *
+   * @param name the name; if {@code null} or empty, the {@code
+   * default} {@link PerformanceProfile} will be returned
+   *
+   * @return a non-{@code null} {@link PerformanceProfile}
+   *
+   * @exception IllegalArgumentException if there is no {@link
+   * PerformanceProfile} with the supplied name
+   */
+  public static PerformanceProfile forName(String name) {
+    if (name == null) {
+      name = "";
+    } else {
+      name = name.trim();
+    }
+    if (name.isEmpty()) {
+      name = "default";
+    }
+    for (final PerformanceProfile profile : profiles.values()) {
+      if (profile.getName().equalsIgnoreCase(name)) {
+        return profile;
+      }
+    }
+    throw new IllegalArgumentException(String.format("performanceProfile: %s; expected one of %s", name, profiles.keySet()));
+  }
+
+}
@@ -0,0 +1,477 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The statistics H2 collects about the statements a database executes
+ * while its {@code QUERY_STATISTICS} setting is on, read from the
+ * {@code INFORMATION_SCHEMA.QUERY_STATISTICS} table and ranked by the
+ * total time spent executing each statement.
+ *
+ * <p>Statistics read from several databases, such as those of a
+ * {@linkplain AbstractH2Mojo#getInstances() pool of servers}, may be
+ * {@linkplain #merge(QueryStatistics) merged}.</p>
+ *
+ * <p>H2 keeps statistics for at most 100 distinct statements per
+ * database.  Some H2 releases, including 1.3.176, time statements
+ * only while their trace level is {@code INFO} or higher, which
+ * {@link AbstractH2Mojo#startQueryStatistics(List)} arranges, and
+ * otherwise record nonsensical execution times; such times are
+ * discarded, leaving an {@link Entry} that is {@linkplain
+ * Entry#isTimed() untimed} and ranked by execution count
+ * instead.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class QueryStatistics {
+
+  /**
+   * An execution time, in milliseconds, beyond which H2 is assumed
+   * not to have timed a statement at all.  An untimed statement's
+   * execution time is measured from the epoch.
+   */
+  private static final long IMPLAUSIBLE_TIME = 365L * 24L * 60L * 60L * 1000L;
+
+  /**
+   * The {@link Entry} instances, indexed by statement.  This field is
+   * never {@code null}.
+   */
+  private final Map<String, Entry> entries;
+
+  /**
+   * Creates a new, empty {@link QueryStatistics}.
+   */
+  public QueryStatistics() {
+    super();
+    this.entries = new LinkedHashMap<String, Entry>();
+  }
+
+  /**
+   * Reads the statistics collected by the database the supplied
+   * {@link Connection} is connected to, leaving out the statements
+   * this plugin itself uses to manage them.
+   *
+   * @param connection the {@link Connection}; must not be {@code null}
+   *
+   * @return a new {@link QueryStatistics}; never {@code null}
+   *
+   * @exception SQLException if the statistics could not be read
+   */
+  public static QueryStatistics read(final Connection connection) throws SQLException {
+    final QueryStatistics statistics = new QueryStatistics();
+    final Statement statement = connection.createStatement();
+    try {
+      final ResultSet resultSet = statement.executeQuery("SELECT SQL_STATEMENT, EXECUTION_COUNT, MIN_EXECUTION_TIME, MAX_EXECUTION_TIME, CUMULATIVE_EXECUTION_TIME, CUMULATIVE_ROW_COUNT FROM INFORMATION_SCHEMA.QUERY_STATISTICS");
+      while (resultSet.next()) {
+        final String sql = resultSet.getString(1);
+        if (sql != null && !sql.startsWith("SET QUERY_STATISTICS") && sql.indexOf("INFORMATION_SCHEMA.QUERY_STATISTICS") < 0) {
+          final long maxTime = resultSet.getLong(4);
+          if (maxTime < IMPLAUSIBLE_TIME) {
+            statistics.add(new Entry(sql, resultSet.getInt(2), resultSet.getLong(3), maxTime, resultSet.getLong(5), resultSet.getLong(6)));
+          } else {
+            statistics.add(new Entry(sql, resultSet.getInt(2), -1L, -1L, -1L, resultSet.getLong(6)));
+          }
+        }
+      }
+      resultSet.close();
+    } finally {
+      statement.close();
+    }
+    return statistics;
+  }
+
+  /**
+   * Adds the supplied {@link Entry}, combining it with any {@link
+   * Entry} for the same statement.
+   *
+   * @param entry the {@link Entry}; must not be {@code null}
+   */
+  public void add(final Entry entry) {
+    final Entry existing = this.entries.get(entry.getSql());
+    this.entries.put(entry.getSql(), existing == null ? entry : existing.combine(entry));
+  }
+
+  /**
+   * Adds every {@link Entry} of the supplied {@link QueryStatistics}
+   * to this one.
+   *
+   * @param other the {@link QueryStatistics} to merge; may be {@code
+   * null}
+   */
+  public void merge(final QueryStatistics other) {
+    if (other != null) {
+      for (final Entry entry : other.entries.values()) {
+        this.add(entry);
+      }
+    }
+  }
+
+  /**
+   * Returns the {@link Entry} instances, ranked by total execution
+   * time, highest first, and then by execution count; {@linkplain
+   * Entry#isTimed() untimed} entries rank last.  This method never returns {@code null}.
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of {@link
+   * Entry} instances
+   */
+  public List<Entry> getEntries() {
+    final List<Entry> list = new ArrayList<Entry>(this.entries.values());
+    Collections.sort(list, new Comparator<Entry>() {
+        @Override
+        public final int compare(final Entry a, final Entry b) {
+          if (a.getTotalTime() != b.getTotalTime()) {
+            return a.getTotalTime() > b.getTotalTime() ? -1 : 1;
+          }
+          if (a.getCount() != b.getCount()) {
+            return a.getCount() > b.getCount() ? -1 : 1;
+          }
+          return a.getSql().compareTo(b.getSql());
+        }
+      });
+    return list;
+  }
+
+  /**
+   * Writes the {@linkplain #getEntries() ranked entries} to the
+   * supplied file as a JSON array of objects.
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @exception IOException if the file could not be written
+   */
+  public void writeJson(final File file) throws IOException {
+    final PrintWriter writer = open(file);
+    try {
+      writer.println("[");
+      final List<Entry> list = this.getEntries();
+      for (int i = 0; i < list.size(); i++) {
+        final Entry entry = list.get(i);
+        if (entry.isTimed()) {
+          writer.print(String.format(Locale.ROOT, "  {\"rank\": %d, \"sql\": %s, \"count\": %d, \"totalMillis\": %d, \"meanMillis\": %.3f, \"minMillis\": %d, \"maxMillis\": %d, \"rows\": %d}", i + 1, toJson(entry.getSql()), entry.getCount(), entry.getTotalTime(), entry.getMeanTime(), entry.getMinTime(), entry.getMaxTime(), entry.getRows()));
+        } else {
+          writer.print(String.format(Locale.ROOT, "  {\"rank\": %d, \"sql\": %s, \"count\": %d, \"totalMillis\": null, \"meanMillis\": null, \"minMillis\": null, \"maxMillis\": null, \"rows\": %d}", i + 1, toJson(entry.getSql()), entry.getCount(), entry.getRows()));
+        }
+        writer.println(i + 1 < list.size() ? "," : "");
+      }
+      writer.println("]");
+    } finally {
+      writer.close();
+    }
+    if (writer.checkError()) {
+      throw new IOException("Could not write " + file);
+    }
+  }
+
+  /**
+   * Writes the {@linkplain #getEntries() ranked entries} to the
+   * supplied file as a Markdown table.
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @exception IOException if the file could not be written
+   */
+  public void writeMarkdown(final File file) throws IOException {
+    final PrintWriter writer = open(file);
+    try {
+      writer.println("# H2 query statistics");
+      writer.println();
+      writer.println("| Rank | Total (ms) | Count | Mean (ms) | Max (ms) | Rows | SQL |");
+      writer.println("|---:|---:|---:|---:|---:|---:|---|");
+      int rank = 0;
+      for (final Entry entry : this.getEntries()) {
+        final String sql = entry.getSql().replaceAll("\\s+", " ").replace("|", "\\|");
+        if (entry.isTimed()) {
+          writer.println(String.format(Locale.ROOT, "| %d | %d | %d | %.3f | %d | %d | `%s` |", ++rank, entry.getTotalTime(), entry.getCount(), entry.getMeanTime(), entry.getMaxTime(), entry.getRows(), sql.replace("`", "'")));
+        } else {
+          writer.println(String.format(Locale.ROOT, "| %d | n/a | %d | n/a | n/a | %d | `%s` |", ++rank, entry.getCount(), entry.getRows(), sql.replace("`", "'")));
+        }
+      }
+    } finally {
+      writer.close();
+    }
+    if (writer.checkError()) {
+      throw new IOException("Could not write " + file);
+    }
+  }
+
+  /**
+   * Opens the supplied file for writing in UTF-8, creating its parent
+   * directory if necessary.
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @return a new {@link PrintWriter}; never {@code null}
+   *
+   * @exception IOException if the file could not be opened
+   */
+  private static final PrintWriter open(final File file) throws IOException {
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Could not create " + parent);
+    }
+    return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+  }
+
+  /**
+   * Returns the supplied {@link String} as a quoted JSON string.
+   *
+   * @param s the {@link String}; must not be {@code null}
+   *
+   * @return a non-{@code null} JSON string
+   */
+  static final String toJson(final String s) {
+    final StringBuilder sb = new StringBuilder(s.length() + 2);
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      switch (c) {
+      case '"':
+        sb.append("\\\"");
+        break;
+      case '\\':
+        sb.append("\\\\");
+        break;
+      case '\n':
+        sb.append("\\n");
+        break;
+      case '\r':
+        sb.append("\\r");
+        break;
+      case '\t':
+        sb.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          sb.append(String.format("\\u%04x", (int)c));
+        } else {
+          sb.append(c);
+        }
+        break;
+      }
+    }
+    sb.append('"');
+    return sb.toString();
+  }
+
+  /**
+   * The statistics of one statement.  Times are in milliseconds.
+   *
+   * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+   *
+   * @since 1.1-SNAPSHOT
+   */
+  public static final class Entry {
+
+    /**
+     * The statement.  This field is never {@code null}.
+     */
+    private final String sql;
+
+    /**
+     * The number of times the statement was executed.
+     */
+    private final int count;
+
+    /**
+     * The shortest execution time.
+     */
+    private final long minTime;
+
+    /**
+     * The longest execution time.
+     */
+    private final long maxTime;
+
+    /**
+     * The total execution time.
+     */
+    private final long totalTime;
+
+    /**
+     * The total number of rows returned or affected.
+     */
+    private final long rows;
+
+    /**
+     * Creates a new {@link Entry}.
+     *
+     * @param sql the statement; must not be {@code null}
+     *
+     * @param count the number of times the statement was executed
+     *
+     * @param minTime the shortest execution time
+     *
+     * @param maxTime the longest execution time
+     *
+     * @param totalTime the total execution time, or {@code -1} if
+     * the statement was not timed
+     *
+     * @param rows the total number of rows returned or affected
+     */
+    public Entry(final String sql, final int count, final long minTime, final long maxTime, final long totalTime, final long rows) {
+      super();
+      if (sql == null) {
+        throw new IllegalArgumentException("sql", new NullPointerException("sql"));
+      }
+      this.sql = sql;
+      this.count = count;
+      this.minTime = minTime;
+      this.maxTime = maxTime;
+      this.totalTime = totalTime;
+      this.rows = rows;
+    }
+
+    /**
+     * Returns the statement.  This method never returns {@code null}.
+     *
+     * @return the statement; never {@code null}
+     */
+    public String getSql() {
+      return this.sql;
+    }
+
+    /**
+     * Returns the number of times the statement was executed.
+     *
+     * @return the execution count
+     */
+    public int getCount() {
+      return this.count;
+    }
+
+    /**
+     * Returns the shortest execution time.
+     *
+     * @return the shortest execution time in milliseconds
+     */
+    public long getMinTime() {
+      return this.minTime;
+    }
+
+    /**
+     * Returns the longest execution time.
+     *
+     * @return the longest execution time in milliseconds
+     */
+    public long getMaxTime() {
+      return this.maxTime;
+    }
+
+    /**
+     * Returns the total execution time.
+     *
+     * @return the total execution time in milliseconds
+     */
+    public long getTotalTime() {
+      return this.totalTime;
+    }
+
+    /**
+     * Returns the mean execution time.
+     *
+     * @return the mean execution time in milliseconds
+     */
+    public double getMeanTime() {
+      if (!this.isTimed()) {
+        return -1.0;
+      }
+      return this.count == 0 ? 0.0 : (double)this.totalTime / (double)this.count;
+    }
+
+    /**
+     * Returns {@code true} if H2 timed the executions of this {@link
+     * Entry}'s statement.  The time-related methods of an untimed
+     * {@link Entry} return {@code -1}.
+     *
+     * @return {@code true} if this {@link Entry} is timed
+     */
+    public boolean isTimed() {
+      return this.totalTime >= 0L;
+    }
+
+    /**
+     * Returns the total number of rows returned or affected.
+     *
+     * @return the total number of rows
+     */
+    public long getRows() {
+      return this.rows;
+    }
+
+    /**
+     * Returns a new {@link Entry} combining this one with the
+     * supplied one, which must be for the same statement.
+     *
+     * @param other the other {@link Entry}; must not be {@code null}
+     *
+     * @return a new {@link Entry}; never {@code null}
+     */
+    Entry combine(final Entry other) {
+      if (!this.isTimed() || !other.isTimed()) {
+        return new Entry(this.sql, this.count + other.count, -1L, -1L, -1L, this.rows + other.rows);
+      }
+      return new Entry(this.sql, this.count + other.count, Math.min(this.minTime, other.minTime), Math.max(this.maxTime, other.maxTime), this.totalTime + other.totalTime, this.rows + other.rows);
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link Entry}.
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public String toString() {
+      if (!this.isTimed()) {
+        return String.format(Locale.ROOT, "%d x, %d rows, not timed: %s", this.count, this.rows, this.sql);
+      }
+      return String.format(Locale.ROOT, "%d ms total, %d x, %.3f ms mean, %d ms max, %d rows: %s", this.totalTime, this.count, this.getMeanTime(), this.maxTime, this.rows, this.sql);
+    }
+
+  }
+
+}
@@ -0,0 +1,474 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A directory on a RAM-backed file system, such as {@code /dev/shm}
+ * on Linux, that stands in for the {@linkplain
+ * AbstractH2Mojo#getBaseDirectory() base directory} of an H2 server
+ * while it runs.
+ *
+ * <p>The directory's name is derived from the absolute path of the
+ * base directory it stands in for, so that the goals that start and
+ * stop a server agree on it without sharing any other state.  While
+ * the server runs, the process hosting it holds an exclusive {@link
+ * FileLock} on the directory's lock file.  A directory whose lock is
+ * not held, and whose lock file has not been touched for {@link
+ * #ABANDONED_AGE} milliseconds, belongs to a server that is gone, and
+ * is {@linkplain #sweep(File) swept} away the next time any server is
+ * staged.  Directories {@linkplain #hold() held} by the current Java
+ * virtual machine are deleted when it exits, even if the build was
+ * aborted.</p>
+ *
+ * <p>Only H2 database files (those whose names end in {@code .db})
+ * are {@linkplain #stage() staged} into the directory and
+ * {@linkplain #syncBack() synchronized back} out of it.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class RamDisk {
+
+  /**
+   * The prefix of the names of directories this class creates.
+   */
+  private static final String PREFIX = "h2-maven-plugin-";
+
+  /**
+   * The name of the lock file inside each directory.
+   */
+  private static final String LOCK_FILE = ".lock";
+
+  /**
+   * The number of milliseconds after which an unlocked directory is
+   * considered abandoned; this covers the moment between a directory
+   * being staged and its server acquiring the lock.
+   */
+  static final long ABANDONED_AGE = 60L * 1000L;
+
+  /**
+   * The {@link FileLock}s held by this Java virtual machine, indexed
+   * by lock file.
+   */
+  private static final Map<File, FileLock> locks = new HashMap<File, FileLock>();
+
+  /**
+   * The shutdown hook that deletes the directories {@linkplain
+   * #hold() held} by this Java virtual machine; {@code null} until
+   * the first directory is held.
+   */
+  private static Thread cleaner;
+
+  /**
+   * The RAM-backed directory.  This field is never {@code null}.
+   */
+  private final File directory;
+
+  /**
+   * The base directory the RAM-backed directory stands in for.  This
+   * field is never {@code null}.
+   */
+  private final File baseDirectory;
+
+  /**
+   * Creates a new {@link RamDisk}.
+   *
+   * @param root the directory on a RAM-backed file system beneath
+   * which the directory will be created; must not be {@code null}
+   *
+   * @param baseDirectory the base directory the new directory stands
+   * in for; must not be {@code null}
+   */
+  public RamDisk(final File root, final File baseDirectory) {
+    super();
+    if (root == null) {
+      throw new IllegalArgumentException("root", new NullPointerException("root"));
+    }
+    if (baseDirectory == null) {
+      throw new IllegalArgumentException("baseDirectory", new NullPointerException("baseDirectory"));
+    }
+    this.baseDirectory = baseDirectory.getAbsoluteFile();
+    this.directory = new File(root, PREFIX + hash(this.baseDirectory.getPath()));
+  }
+
+  /**
+   * Returns the RAM-backed directory.  This method never returns
+   * {@code null}.
+   *
+   * @return the RAM-backed directory; never {@code null}
+   */
+  public File getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Returns the base directory the RAM-backed directory stands in
+   * for.  This method never returns {@code null}.
+   *
+   * @return the base directory; never {@code null}
+   */
+  public File getBaseDirectory() {
+    return this.baseDirectory;
+  }
+
+  /**
+   * Returns the file that the process hosting the server keeps
+   * locked.  This method never returns {@code null}.
+   *
+   * @return the lock file; never {@code null}
+   */
+  public File getLockFile() {
+    return new File(this.directory, LOCK_FILE);
+  }
+
+  /**
+   * {@linkplain #sweep(File) Sweeps away} abandoned directories, then
+   * creates the RAM-backed directory afresh and copies the database
+   * files of the base directory into it.
+   *
+   * @exception IOException if the directory is in use by a running
+   * server, or could not be created or filled
+   */
+  public void stage() throws IOException {
+    sweep(this.directory.getParentFile());
+    if (this.isInUse()) {
+      throw new IOException(String.format("%s is in use by a running H2 server", this.directory));
+    }
+    SeedCache.delete(this.directory);
+    if (!this.directory.mkdirs()) {
+      throw new IOException("Could not create " + this.directory);
+    }
+    // Marks the directory as freshly staged; see sweep(File).
+    if (!this.getLockFile().createNewFile()) {
+      throw new IOException("Could not create " + this.getLockFile());
+    }
+    copyDatabaseFiles(this.baseDirectory, this.directory);
+  }
+
+  /**
+   * Copies the database files of the RAM-backed directory back to
+   * the base directory.
+   *
+   * @exception IOException if a file could not be copied
+   */
+  public void syncBack() throws IOException {
+    copyDatabaseFiles(this.directory, this.baseDirectory);
+  }
+
+  /**
+   * Deletes the RAM-backed directory, releasing this Java virtual
+   * machine's lock on it if it holds one.
+   */
+  public void delete() {
+    this.release();
+    SeedCache.delete(this.directory);
+  }
+
+  /**
+   * Acquires this Java virtual machine's lock on the RAM-backed
+   * directory, for servers that run inside it.  The lock is held
+   * until {@link #release()} or {@link #delete()} is called; if the
+   * Java virtual machine exits first, the directory is deleted.
+   *
+   * @exception IOException if the lock could not be acquired
+   */
+  public void hold() throws IOException {
+    final File lockFile = this.getLockFile();
+    synchronized (locks) {
+      if (!locks.containsKey(lockFile)) {
+        final FileLock lock = tryLock(lockFile);
+        if (lock == null) {
+          throw new IOException(String.format("%s is in use by a running H2 server", this.directory));
+        }
+        locks.put(lockFile, lock);
+        if (cleaner == null) {
+          cleaner = new Thread("h2-maven-plugin RAM disk cleaner") {
+              @Override
+              public final void run() {
+                synchronized (locks) {
+                  for (final Entry<File, FileLock> entry : locks.entrySet()) {
+                    try {
+                      entry.getValue().channel().close();
+                    } catch (final IOException ignore) {
+                      // ignore
+                    }
+                    SeedCache.delete(entry.getKey().getParentFile());
+                  }
+                  locks.clear();
+                }
+              }
+            };
+          Runtime.getRuntime().addShutdownHook(cleaner);
+        }
+      }
+    }
+  }
+
+  /**
+   * Releases this Java virtual machine's lock on the RAM-backed
+   * directory, if it holds one.
+   */
+  public void release() {
+    final FileLock lock;
+    synchronized (locks) {
+      lock = locks.remove(this.getLockFile());
+    }
+    if (lock != null) {
+      try {
+        lock.channel().close();
+      } catch (final IOException ignore) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if another process, or this Java virtual
+   * machine, holds the lock on the RAM-backed directory.
+   *
+   * @return {@code true} if the directory is in use
+   *
+   * @exception IOException if the lock file could not be opened
+   */
+  public boolean isInUse() throws IOException {
+    final File lockFile = this.getLockFile();
+    synchronized (locks) {
+      if (locks.containsKey(lockFile)) {
+        return true;
+      }
+      if (!lockFile.isFile()) {
+        return false;
+      }
+      final FileLock lock = tryLock(lockFile);
+      if (lock == null) {
+        return true;
+      }
+      lock.channel().close();
+      return false;
+    }
+  }
+
+  /**
+   * Blocks until no process holds the lock on the RAM-backed
+   * directory, for example because the server that held it has
+   * exited.
+   *
+   * @param timeout the maximum number of milliseconds to wait
+   *
+   * @exception IOException if the lock is still held after the
+   * timeout
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  public void awaitRelease(final long timeout) throws IOException, InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeout;
+    while (this.isInUse()) {
+      if (System.currentTimeMillis() >= deadline) {
+        throw new IOException(String.format("%s was not released within %d ms", this.directory, timeout));
+      }
+      Thread.sleep(50L);
+    }
+  }
+
+  /**
+   * Deletes every directory created by this class beneath the
+   * supplied root whose lock is not held and whose lock file is older
+   * than {@link #ABANDONED_AGE}.
+   *
+   * @param root the root; may be {@code null} in which case no action
+   * is taken
+   */
+  public static void sweep(final File root) {
+    if (root == null) {
+      return;
+    }
+    final File[] directories = root.listFiles();
+    if (directories == null) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    for (final File directory : directories) {
+      if (directory.isDirectory() && directory.getName().startsWith(PREFIX)) {
+        final File lockFile = new File(directory, LOCK_FILE);
+        if (now - lockFile.lastModified() >= ABANDONED_AGE) {
+          synchronized (locks) {
+            if (!locks.containsKey(lockFile)) {
+              try {
+                final FileLock lock = tryLock(lockFile);
+                if (lock != null) {
+                  lock.channel().close();
+                  SeedCache.delete(directory);
+                }
+              } catch (final IOException ignore) {
+                // leave it for next time
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Tries to lock the supplied file without blocking.  The caller
+   * must close the {@link FileLock#channel() channel} of the returned
+   * {@link FileLock} to release it.
+   *
+   * @param lockFile the file to lock; must not be {@code null}
+   *
+   * @return a {@link FileLock}, or {@code null} if another process
+   * holds the lock
+   *
+   * @exception IOException if the file could not be opened
+   */
+  static final FileLock tryLock(final File lockFile) throws IOException {
+    final FileChannel channel = new RandomAccessFile(lockFile, "rw").getChannel();
+    FileLock lock = null;
+    try {
+      lock = channel.tryLock();
+    } catch (final OverlappingFileLockException heldHere) {
+      lock = null;
+    } finally {
+      if (lock == null) {
+        channel.close();
+      }
+    }
+    return lock;
+  }
+
+  /**
+   * Copies every file whose name ends in {@code .db} beneath the
+   * supplied source directory to the same relative path beneath the
+   * supplied target directory, along with the whole of any directory
+   * whose name ends in {@code .db}.
+   *
+   * @param source the source directory; must not be {@code null}
+   *
+   * @param target the target directory; must not be {@code null}
+   *
+   * @exception IOException if a file could not be copied
+   */
+  private static final void copyDatabaseFiles(final File source, final File target) throws IOException {
+    final File[] files = source.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (final File file : files) {
+      final File copy = new File(target, file.getName());
+      final boolean database = file.getName().endsWith(".db");
+      if (file.isDirectory()) {
+        if (database) {
+          copyDirectory(file, copy);
+        } else {
+          copyDatabaseFiles(file, copy);
+        }
+      } else if (database) {
+        mkdirs(target);
+        SeedCache.copy(file, copy);
+      }
+    }
+  }
+
+  /**
+   * Copies the supplied directory recursively.
+   *
+   * @param source the directory to copy; must not be {@code null}
+   *
+   * @param target the copy; must not be {@code null}
+   *
+   * @exception IOException if a file could not be copied
+   */
+  private static final void copyDirectory(final File source, final File target) throws IOException {
+    mkdirs(target);
+    final File[] files = source.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        final File copy = new File(target, file.getName());
+        if (file.isDirectory()) {
+          copyDirectory(file, copy);
+        } else {
+          SeedCache.copy(file, copy);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates the supplied directory and its parents if they do not
+   * already exist.
+   *
+   * @param directory the directory to create; must not be {@code
+   * null}
+   *
+   * @exception IOException if the directory could not be created
+   */
+  private static final void mkdirs(final File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Could not create " + directory);
+    }
+  }
+
+  /**
+   * Returns the first 16 hexadecimal digits of the SHA-1 digest of
+   * the supplied {@link String}.
+   *
+   * @param s the {@link String} to digest; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  private static final String hash(final String s) {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-1");
+      md.update(s.getBytes("UTF-8"));
+      return AbstractH2Mojo.toHexString(md.digest()).substring(0, 16);
+    } catch (final GeneralSecurityException wontHappen) {
+      throw (InternalError)new InternalError().initCause(wontHappen);
+    } catch (final UnsupportedEncodingException wontHappen) {
+      throw (InternalError)new InternalError().initCause(wontHappen);
+    }
+  }
+
+}
@@ -0,0 +1,113 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * An {@link AbstractH2Mojo} that restores a named {@link Checkpoint},
+ * saved by the {@linkplain CheckpointH2Mojo checkpoint goal}, of the
+ * {@linkplain AbstractH2Mojo#getDatabase() database} of a running H2
+ * TCP server in place, reloading only the tables whose contents
+ * changed.  The server, and everything it has cached, stays up.
+ *
+ * <p>This goal has no default phase; bind it between the executions
+ * that need a clean database, for example between two Failsafe
+ * executions.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @goal reset
+ *
+ * @requiresProject false
+ *
+ * @threadSafe
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class ResetH2Mojo extends AbstractH2Mojo {
+
+  /**
+   * Creates a new {@link ResetH2Mojo}.
+   */
+  public ResetH2Mojo() {
+    super();
+  }
+
+  /**
+   * Restores the {@linkplain AbstractH2Mojo#getCheckpoint()
+   * checkpoint} of the {@linkplain AbstractH2Mojo#getDatabase()
+   * database} of each {@linkplain AbstractH2Mojo#getServerInstances()
+   * <tt>ServerInstance</tt>}, and reports which tables were reloaded,
+   * or dropped for having been created after the checkpoint, and how
+   * long it took.
+   *
+   * @exception MojoExecutionException if there is no such checkpoint,
+   * or it could not be restored
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    this.recordTiming("started");
+    final Log log = this.getLog();
+    final Checkpoint checkpoint = new Checkpoint(this.getCheckpoint());
+    final List<ServerInstance> instances = this.getServerInstances();
+    this.applyPublishedPorts(instances);
+    for (final ServerInstance instance : instances) {
+      final String url = this.getJdbcUrl(instance);
+      if (url == null) {
+        throw new MojoExecutionException("The reset goal requires the tcp service.");
+      }
+      final long start = System.nanoTime();
+      final List<String> reloaded;
+      try {
+        final Connection connection = DriverManager.getConnection(url, this.getUser(), this.getPassword());
+        try {
+          reloaded = checkpoint.restore(connection);
+        } finally {
+          connection.close();
+        }
+      } catch (final SQLException kaboom) {
+        throw new MojoExecutionException(String.format("Could not restore the checkpoint %s of %s: %s", checkpoint.getName(), url, kaboom.getMessage()), kaboom);
+      }
+      if (log != null && log.isInfoEnabled()) {
+        log.info(String.format("Restored the checkpoint %s of %s in %d ms; reloaded or dropped %d tables %s", checkpoint.getName(), url, (System.nanoTime() - start) / 1000000L, reloaded.size(), reloaded));
+      }
+      this.recordTiming(instance, "reset");
+    }
+    this.recordTiming("finished");
+  }
+
+}
@@ -0,0 +1,138 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * An SQL script run by the {@link InitH2Mojo init goal}, together
+ * with the scripts it must run after.
+ *
+ * <p>Scripts that do not depend on each other, directly or
+ * indirectly, may run concurrently.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public final class Script implements Serializable {
+
+  /**
+   * The version of this class for serialization purposes.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The file holding the SQL statements to run.
+   */
+  private File file;
+
+  /**
+   * The identifier by which other {@link Script}s refer to this one;
+   * by default, the {@linkplain File#getName() name} of the
+   * {@linkplain #getFile() file}.
+   */
+  private String id;
+
+  /**
+   * The {@linkplain #getId() identifiers} of the {@link Script}s that
+   * must complete before this one starts.
+   */
+  private String[] dependsOn;
+
+  /**
+   * Creates a new {@link Script}.
+   */
+  public Script() {
+    super();
+  }
+
+  /**
+   * Creates a new {@link Script}.
+   *
+   * @param file the file holding the SQL statements to run; must not
+   * be {@code null}
+   *
+   * @param dependsOn the {@linkplain #getId() identifiers} of the
+   * {@link Script}s that must complete before this one starts; may be
+   * {@code null}
+   */
+  public Script(final File file, final String... dependsOn) {
+    super();
+    this.setFile(file);
+    this.setDependsOn(dependsOn);
+  }
+
+  public File getFile() {
+    return this.file;
+  }
+
+  public void setFile(final File file) {
+    this.file = file;
+  }
+
+  /**
+   * Returns the identifier by which other {@link Script}s refer to
+   * this one.  Unless one was set explicitly, this is the {@linkplain
+   * File#getName() name} of the {@linkplain #getFile() file}.
+   *
+   * @return the identifier, or {@code null} if neither an identifier
+   * nor a file has been set
+   */
+  public String getId() {
+    if (this.id == null && this.file != null) {
+      return this.file.getName();
+    }
+    return this.id;
+  }
+
+  public void setId(final String id) {
+    this.id = id;
+  }
+
+  public String[] getDependsOn() {
+    return this.dependsOn;
+  }
+
+  public void setDependsOn(final String... dependsOn) {
+    this.dependsOn = dependsOn;
+  }
+
+  /**
+   * Returns the {@linkplain #getId() identifier} of this {@link
+   * Script}.
+   *
+   * @return the identifier, or {@code "null"}
+   */
+  @Override
+  public String toString() {
+    return String.valueOf(this.getId());
+  }
+
+}
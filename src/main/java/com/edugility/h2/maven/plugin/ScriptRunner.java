@@ -0,0 +1,203 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.Reader;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.util.ScriptReader;
+
+/**
+ * Executes SQL scripts statement by statement, without reading them
+ * into memory whole, grouping consecutive data manipulation
+ * statements ({@code INSERT}, {@code UPDATE}, {@code DELETE} and
+ * {@code MERGE}) into JDBC batches.
+ *
+ * <p>Each script runs as a single transaction, committed when the
+ * script completes; note that H2 commits implicitly whenever a data
+ * definition statement is executed.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class ScriptRunner {
+
+  /**
+   * The default maximum number of statements in a batch.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  /**
+   * The maximum number of statements in a batch.
+   */
+  private final int batchSize;
+
+  /**
+   * Creates a new {@link ScriptRunner}.
+   *
+   * @param batchSize the maximum number of statements in a batch;
+   * will be constrained to be at least {@code 1}
+   */
+  public ScriptRunner(final int batchSize) {
+    super();
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  /**
+   * Returns the maximum number of statements in a batch.
+   *
+   * @return the maximum number of statements in a batch
+   */
+  public int getBatchSize() {
+    return this.batchSize;
+  }
+
+  /**
+   * Executes every statement read from the supplied {@link Reader}
+   * using the supplied {@link Connection}, and commits.  The {@link
+   * Reader} is not closed.
+   *
+   * @param connection the {@link Connection} to use; must not be
+   * {@code null}
+   *
+   * @param reader the {@link Reader} to read statements from; must
+   * not be {@code null}
+   *
+   * @return the number of statements executed
+   *
+   * @exception SQLException if a statement failed; its message
+   * includes the failing statement, or the first statement of the
+   * failing batch
+   */
+  public int execute(final Connection connection, final Reader reader) throws SQLException {
+    final boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    final Statement statement = connection.createStatement();
+    int count = 0;
+    int batched = 0;
+    String firstBatched = null;
+    String executing = null;
+    try {
+      final ScriptReader scriptReader = new ScriptReader(reader);
+      scriptReader.setSkipRemarks(true);
+      String sql;
+      while ((sql = scriptReader.readStatement()) != null) {
+        sql = sql.trim();
+        if (sql.isEmpty()) {
+          continue;
+        }
+        if (isBatchable(sql)) {
+          if (batched == 0) {
+            firstBatched = sql;
+          }
+          statement.addBatch(sql);
+          batched++;
+          if (batched >= this.batchSize) {
+            executing = firstBatched;
+            statement.executeBatch();
+            batched = 0;
+          }
+        } else {
+          if (batched > 0) {
+            executing = firstBatched;
+            statement.executeBatch();
+            batched = 0;
+          }
+          executing = sql;
+          statement.execute(sql);
+        }
+        count++;
+      }
+      if (batched > 0) {
+        executing = firstBatched;
+        statement.executeBatch();
+      }
+      connection.commit();
+    } catch (final SQLException kaboom) {
+      try {
+        connection.rollback();
+      } catch (final SQLException suppressed) {
+        // ignore; report the original problem
+      }
+      throw new SQLException(String.format("%s; statement: %s", kaboom.getMessage(), abbreviate(executing)), kaboom.getSQLState(), kaboom.getErrorCode(), kaboom);
+    } finally {
+      statement.close();
+      connection.setAutoCommit(autoCommit);
+    }
+    return count;
+  }
+
+  /**
+   * Returns {@code true} if the supplied statement is a data
+   * manipulation statement that may be executed as part of a batch.
+   *
+   * @param sql the statement, with leading whitespace and remarks
+   * removed; must not be {@code null}
+   *
+   * @return {@code true} if the statement may be batched
+   */
+  static final boolean isBatchable(final String sql) {
+    return startsWithKeyword(sql, "INSERT") || startsWithKeyword(sql, "UPDATE") || startsWithKeyword(sql, "DELETE") || startsWithKeyword(sql, "MERGE");
+  }
+
+  /**
+   * Returns {@code true} if the supplied statement begins with the
+   * supplied keyword, ignoring case.
+   *
+   * @param sql the statement; must not be {@code null}
+   *
+   * @param keyword the keyword, in upper case; must not be {@code
+   * null}
+   *
+   * @return {@code true} if the statement begins with the keyword
+   */
+  private static final boolean startsWithKeyword(final String sql, final String keyword) {
+    final int length = keyword.length();
+    return sql.regionMatches(true, 0, keyword, 0, length) && (sql.length() == length || !Character.isLetterOrDigit(sql.charAt(length)));
+  }
+
+  /**
+   * Shortens the supplied statement for inclusion in an error
+   * message.
+   *
+   * @param sql the statement; may be {@code null}
+   *
+   * @return the possibly shortened statement, or {@code null}
+   */
+  private static final String abbreviate(final String sql) {
+    if (sql == null || sql.length() <= 200) {
+      return sql;
+    }
+    return sql.substring(0, 200) + "...";
+  }
+
+}
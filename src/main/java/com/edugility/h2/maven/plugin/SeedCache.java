@@ -0,0 +1,284 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A local, content-addressed cache of {@linkplain
+ * AbstractH2Mojo#getSeedScripts() seeded} H2 database files.
+ *
+ * <p>Each entry is a directory, named for the key it was stored
+ * under, that holds the files of one database.  Entries are written
+ * to a temporary directory first and then renamed into place, so a
+ * reader never sees a partial entry, and concurrent builds storing
+ * the same key do no harm.  Reading an entry marks it as recently
+ * used; once the cache grows beyond its maximum size, the least
+ * recently used entries are deleted.</p>
+ *
+ * <p>Entries are always copied out of the cache, never linked: H2
+ * updates its database files in place, so a server writing to a
+ * hard-linked file would corrupt the cached copy.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class SeedCache {
+
+  /**
+   * The directory holding this {@link SeedCache}'s entries.  This
+   * field is never {@code null}.
+   */
+  private final File directory;
+
+  /**
+   * The size in bytes beyond which the least recently used entries
+   * are evicted.
+   */
+  private final long maximumSize;
+
+  /**
+   * Creates a new {@link SeedCache}.
+   *
+   * @param directory the directory holding the cache's entries; must
+   * not be {@code null}
+   *
+   * @param maximumSize the size in bytes beyond which the least
+   * recently used entries are evicted
+   */
+  public SeedCache(final File directory, final long maximumSize) {
+    super();
+    if (directory == null) {
+      throw new IllegalArgumentException("directory", new NullPointerException("directory"));
+    }
+    this.directory = directory;
+    this.maximumSize = Math.max(0L, maximumSize);
+  }
+
+  /**
+   * Returns the directory holding this {@link SeedCache}'s entries.
+   * This method never returns {@code null}.
+   *
+   * @return the directory; never {@code null}
+   */
+  public File getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Returns the directory of the entry stored under the supplied key,
+   * marking it as recently used, or {@code null} if there is no such
+   * entry.
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @return the entry's directory, or {@code null}
+   */
+  public File get(final String key) {
+    final File entry = new File(this.directory, key);
+    if (!entry.isDirectory()) {
+      return null;
+    }
+    entry.setLastModified(System.currentTimeMillis());
+    return entry;
+  }
+
+  /**
+   * Returns a new, empty temporary directory inside this {@link
+   * SeedCache}, in which a new entry may be prepared before it is
+   * {@linkplain #put(String, File) stored}.
+   *
+   * @return a new, empty directory; never {@code null}
+   *
+   * @exception IOException if the directory could not be created
+   */
+  public File createTemporaryDirectory() throws IOException {
+    if (!this.directory.isDirectory() && !this.directory.mkdirs() && !this.directory.isDirectory()) {
+      throw new IOException("Could not create " + this.directory);
+    }
+    final File temporaryDirectory = File.createTempFile(".seed", ".tmp", this.directory);
+    if (!temporaryDirectory.delete() || !temporaryDirectory.mkdir()) {
+      throw new IOException("Could not create " + temporaryDirectory);
+    }
+    return temporaryDirectory;
+  }
+
+  /**
+   * Stores the contents of the supplied directory, which must have
+   * been returned by the {@link #createTemporaryDirectory()} method,
+   * under the supplied key, and then evicts the least recently used
+   * entries if this {@link SeedCache} has grown too large.
+   *
+   * <p>If another build stored the same key in the meantime, its
+   * entry is kept and the supplied directory is deleted.</p>
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @param temporaryDirectory the directory holding the new entry's
+   * files; must not be {@code null}
+   *
+   * @return the entry's directory; never {@code null}
+   *
+   * @exception IOException if the entry could not be stored
+   */
+  public File put(final String key, final File temporaryDirectory) throws IOException {
+    final File entry = new File(this.directory, key);
+    if (!temporaryDirectory.renameTo(entry)) {
+      delete(temporaryDirectory);
+      if (!entry.isDirectory()) {
+        throw new IOException(String.format("Could not store %s as %s", temporaryDirectory, entry));
+      }
+    }
+    entry.setLastModified(System.currentTimeMillis());
+    this.evict(entry);
+    return entry;
+  }
+
+  /**
+   * Deletes the least recently used entries, other than the supplied
+   * one, until this {@link SeedCache} is no larger than its maximum
+   * size.
+   *
+   * @param keep the entry that must not be deleted; may be {@code
+   * null}
+   */
+  private final void evict(final File keep) {
+    final File[] entries = this.directory.listFiles();
+    if (entries == null) {
+      return;
+    }
+    long size = 0L;
+    for (final File entry : entries) {
+      size += sizeOf(entry);
+    }
+    if (size <= this.maximumSize) {
+      return;
+    }
+    // Oldest first.  The modification times are captured up front,
+    // since concurrent readers may change them while sorting.
+    final long[] lastModified = new long[entries.length];
+    final Integer[] order = new Integer[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      lastModified[i] = entries[i].lastModified();
+      order[i] = Integer.valueOf(i);
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public final int compare(final Integer a, final Integer b) {
+          final long difference = lastModified[a.intValue()] - lastModified[b.intValue()];
+          return difference < 0L ? -1 : difference > 0L ? 1 : 0;
+        }
+      });
+    for (final Integer i : order) {
+      if (size <= this.maximumSize) {
+        break;
+      }
+      final File entry = entries[i.intValue()];
+      if (!entry.equals(keep) && !entry.getName().startsWith(".")) {
+        final long entrySize = sizeOf(entry);
+        delete(entry);
+        size -= entrySize;
+      }
+    }
+  }
+
+  /**
+   * Copies the supplied file.
+   *
+   * @param source the file to copy; must not be {@code null}
+   *
+   * @param target the copy; must not be {@code null}; will be
+   * overwritten if it exists
+   *
+   * @exception IOException if the file could not be copied
+   */
+  static final void copy(final File source, final File target) throws IOException {
+    final FileChannel in = new FileInputStream(source).getChannel();
+    try {
+      final FileChannel out = new FileOutputStream(target).getChannel();
+      try {
+        // transferTo() lets the operating system copy the file
+        // without it passing through the Java heap.
+        final long size = in.size();
+        long position = 0L;
+        while (position < size) {
+          position += in.transferTo(position, size - position, out);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the total size of the supplied file or directory.
+   *
+   * @param file the file or directory; must not be {@code null}
+   *
+   * @return the total size in bytes
+   */
+  static final long sizeOf(final File file) {
+    final File[] children = file.listFiles();
+    if (children == null) {
+      return file.length();
+    }
+    long size = 0L;
+    for (final File child : children) {
+      size += sizeOf(child);
+    }
+    return size;
+  }
+
+  /**
+   * Deletes the supplied file or directory, and everything beneath
+   * it, on a best-effort basis.
+   *
+   * @param file the file or directory; must not be {@code null}
+   */
+  static final void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (final File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+}
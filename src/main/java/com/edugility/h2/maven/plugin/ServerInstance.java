@@ -0,0 +1,171 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One of possibly {@linkplain AbstractH2Mojo#getInstances() several}
+ * independent H2 servers started by a single goal execution, each
+ * with its own {@link Service}s (and hence ports) and its own base
+ * directory.
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @see AbstractH2Mojo#getServerInstances()
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class ServerInstance {
+
+  /**
+   * The one-based index of this {@link ServerInstance}.
+   */
+  private final int index;
+
+  /**
+   * The {@link Service}s this {@link ServerInstance} offers.  This
+   * field is never {@code null}.
+   */
+  private final List<Service> services;
+
+  /**
+   * The base directory of this {@link ServerInstance}.  This field
+   * may be {@code null}.
+   */
+  private final File baseDirectory;
+
+  /**
+   * Creates a new {@link ServerInstance}.
+   *
+   * @param index the one-based index of this {@link ServerInstance}
+   *
+   * @param services the {@link Service}s this {@link ServerInstance}
+   * offers; may be {@code null}
+   *
+   * @param baseDirectory the base directory of this {@link
+   * ServerInstance}; may be {@code null}
+   */
+  public ServerInstance(final int index, final List<Service> services, final File baseDirectory) {
+    super();
+    this.index = index;
+    if (services == null) {
+      this.services = Collections.emptyList();
+    } else {
+      this.services = services;
+    }
+    this.baseDirectory = baseDirectory;
+  }
+
+  /**
+   * Returns the one-based index of this {@link ServerInstance}.  When
+   * a pool of servers is matched to Surefire or Failsafe forks, this
+   * is the value of <code>${surefire.forkNumber}</code> in the fork
+   * that should use this {@link ServerInstance}.
+   *
+   * @return the one-based index of this {@link ServerInstance}
+   */
+  public int getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Returns the {@link Service}s this {@link ServerInstance} offers.
+   * This method never returns {@code null}.
+   *
+   * @return a non-{@code null} {@link List} of {@link Service}s
+   */
+  public List<Service> getServices() {
+    return this.services;
+  }
+
+  /**
+   * Returns the {@link Service} whose {@link Service#getId() id} is
+   * equal to the supplied {@link String}, or {@code null} if there is
+   * no such {@link Service}.
+   *
+   * @param id the {@link Service#getId() id} of the {@link Service}
+   * to return; may be {@code null}
+   *
+   * @return a {@link Service}, or {@code null}
+   */
+  public Service getService(final String id) {
+    for (final Service service : this.getServices()) {
+      if (service != null && id != null && id.equals(service.getId())) {
+        return service;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the base directory of this {@link ServerInstance}.  This
+   * method may return {@code null}.
+   *
+   * @return the base directory, or {@code null}
+   */
+  public File getBaseDirectory() {
+    return this.baseDirectory;
+  }
+
+  /**
+   * Returns the JDBC URL of the named database served by this {@link
+   * ServerInstance}'s {@code tcp} {@link Service}, or {@code null} if
+   * there is no such {@link Service}.
+   *
+   * @param host the host on which this {@link ServerInstance} may be
+   * reached; must not be {@code null}
+   *
+   * @param database the name of the database; must not be {@code
+   * null}
+   *
+   * @return a JDBC URL, or {@code null}
+   */
+  public String getJdbcUrl(final String host, final String database) {
+    final Service tcp = this.getService("tcp");
+    if (tcp == null) {
+      return null;
+    }
+    return String.format("jdbc:h2:%s://%s:%d/%s", tcp.getSSL() ? "ssl" : "tcp", host, tcp.getPort(), database);
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ServerInstance}.
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return new StringBuilder("#").append(this.getIndex()).append(" ").append(this.getServices()).toString();
+  }
+
+}
@@ -0,0 +1,252 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import java.lang.management.ManagementFactory;
+
+import java.nio.channels.FileLock;
+
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.h2.tools.Server;
+
+/**
+ * The main class of every {@linkplain
+ * AbstractH2Mojo#spawnServer(ServerInstance) spawned} H2 server.  It
+ * starts the requested H2 services exactly as {@link
+ * Server#main(String[])} would.  A server {@linkplain
+ * AbstractH2Mojo#getDaemon() spawned as a daemon} additionally
+ * watches a directory of <i>lease</i> files; once no lease has been
+ * held for the configured idle timeout, all services are stopped and
+ * the process exits.
+ *
+ * <p>This class accepts four options of its own, which must precede
+ * the options destined for {@link Server}:</p>
+ *
+ * <ul>
+ *
+ * <li>{@code -idleTimeout} <i>seconds</i>; if absent or not positive,
+ * the server never stops on its own</li>
+ *
+ * <li>{@code -leaseDirectory} <i>path</i>; the directory containing
+ * lease files</li>
+ *
+ * <li>{@code -lockFile} <i>path</i>; a file to hold an exclusive lock
+ * on for as long as the process runs, so that others can tell that
+ * it is still running, for example on its {@link RamDisk}; may be
+ * repeated</li>
+ *
+ * <li>{@code -pidFile} <i>path</i>; a file to write the process
+ * identifier to, so that a {@link ServerState} can find the
+ * process</li>
+ *
+ * </ul>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @see DaemonState
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public final class ServerLauncher implements Runnable {
+
+  /**
+   * The number of milliseconds after which a lease file is considered
+   * abandoned, e.g. by a build that was killed before it could
+   * release it.
+   */
+  static final long MAXIMUM_LEASE_AGE = 24L * 60L * 60L * 1000L;
+
+  /**
+   * The locks held on the {@code -lockFile}s; referenced here so that
+   * they are never garbage collected.
+   */
+  private static final List<FileLock> locks = new ArrayList<FileLock>();
+
+  /**
+   * The {@link Server} that started the H2 services.  This field is
+   * never {@code null}.
+   */
+  private final Server server;
+
+  /**
+   * The directory containing lease files.  This field may be {@code
+   * null}.
+   */
+  private final File leaseDirectory;
+
+  /**
+   * The number of milliseconds without any lease after which the
+   * {@linkplain #server server} is stopped.
+   */
+  private final long idleTimeout;
+
+  /**
+   * Creates a new {@link ServerLauncher}.
+   *
+   * @param server the started {@link Server}; must not be {@code
+   * null}
+   *
+   * @param leaseDirectory the directory containing lease files; may
+   * be {@code null}
+   *
+   * @param idleTimeout the number of milliseconds without any lease
+   * after which the supplied {@link Server} is stopped
+   */
+  private ServerLauncher(final Server server, final File leaseDirectory, final long idleTimeout) {
+    super();
+    this.server = server;
+    this.leaseDirectory = leaseDirectory;
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Watches the lease directory and {@linkplain Server#shutdown()
+   * shuts down} the server once it has been idle for long enough.
+   */
+  @Override
+  public void run() {
+    long lastActivity = System.currentTimeMillis();
+    final long interval = Math.max(100L, Math.min(1000L, this.idleTimeout / 10L));
+    while (true) {
+      try {
+        Thread.sleep(interval);
+      } catch (final InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      final long now = System.currentTimeMillis();
+      if (this.hasLeases(now)) {
+        lastActivity = now;
+      } else if (now - lastActivity >= this.idleTimeout) {
+        System.out.println(String.format("No leases for %d ms; shutting down", now - lastActivity));
+        this.server.shutdown();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the lease directory contains at least one
+   * lease file that has not been abandoned.
+   *
+   * @param now the current time in milliseconds
+   *
+   * @return {@code true} if a lease is held
+   */
+  private boolean hasLeases(final long now) {
+    if (this.leaseDirectory == null) {
+      return false;
+    }
+    final File[] leases = this.leaseDirectory.listFiles(new FileFilter() {
+        @Override
+        public final boolean accept(final File file) {
+          return file != null && file.isFile() && now - file.lastModified() < MAXIMUM_LEASE_AGE;
+        }
+      });
+    return leases != null && leases.length > 0;
+  }
+
+  /**
+   * Starts the H2 services described by the supplied arguments and,
+   * if an idle timeout was supplied, a background {@link Thread} that
+   * stops them once no leases remain.
+   *
+   * @param args the arguments; see the class documentation
+   *
+   * @exception IOException if the {@code -lockFile} could not be
+   * locked
+   *
+   * @exception SQLException if the services could not be started
+   */
+  public static void main(final String... args) throws IOException, SQLException {
+    long idleTimeout = 0L;
+    File leaseDirectory = null;
+    final List<File> lockFiles = new ArrayList<File>();
+    File pidFile = null;
+    int i = 0;
+    for (; args != null && i < args.length; i++) {
+      if ("-idleTimeout".equals(args[i]) && i + 1 < args.length) {
+        idleTimeout = Long.parseLong(args[++i]) * 1000L;
+      } else if ("-leaseDirectory".equals(args[i]) && i + 1 < args.length) {
+        leaseDirectory = new File(args[++i]);
+      } else if ("-lockFile".equals(args[i]) && i + 1 < args.length) {
+        lockFiles.add(new File(args[++i]));
+      } else if ("-pidFile".equals(args[i]) && i + 1 < args.length) {
+        pidFile = new File(args[++i]);
+      } else {
+        break;
+      }
+    }
+    final List<String> serverArgs;
+    if (args == null) {
+      serverArgs = new ArrayList<String>();
+    } else {
+      serverArgs = new ArrayList<String>(Arrays.asList(args).subList(i, args.length));
+    }
+    for (final File lockFile : lockFiles) {
+      final FileLock lock = RamDisk.tryLock(lockFile);
+      if (lock == null) {
+        throw new IOException(String.format("%s is locked by another process", lockFile));
+      }
+      locks.add(lock);
+    }
+    if (pidFile != null) {
+      // The name of the runtime is pid@host on every Java virtual
+      // machine that matters.
+      final String name = ManagementFactory.getRuntimeMXBean().getName();
+      final int at = name.indexOf('@');
+      if (at > 0) {
+        final Writer writer = new FileWriter(pidFile);
+        try {
+          writer.write(name.substring(0, at));
+        } finally {
+          writer.close();
+        }
+      }
+    }
+    final Server server = new Server();
+    server.runTool(serverArgs.toArray(new String[serverArgs.size()]));
+    if (idleTimeout > 0L) {
+      final Thread watchdog = new Thread(new ServerLauncher(server, leaseDirectory, idleTimeout), "h2-maven-plugin idle watchdog");
+      watchdog.setDaemon(true);
+      watchdog.start();
+    }
+  }
+
+}
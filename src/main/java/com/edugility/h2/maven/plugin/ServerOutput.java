@@ -0,0 +1,215 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Runnable} that drains the combined standard output and
+ * standard error of a spawned H2 server, so that the server never
+ * blocks writing to a full pipe, however much it prints.
+ *
+ * <p>The most recent lines are kept in a bounded buffer, from which
+ * they can be {@linkplain #getLines() retrieved}, for example to
+ * explain why the server failed to start.  Each line is also handed
+ * to a {@link ServerStatusReader} until it has seen all the status
+ * lines it expects, and, if there is one, to a {@link TraceAnalyzer};
+ * lines the {@link TraceAnalyzer} recognizes as trace output are not
+ * kept, so that they never crowd out the lines that matter.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @see AbstractH2Mojo#spawnServer(ServerInstance)
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class ServerOutput implements Runnable {
+
+  /**
+   * The stream to drain.  This field is never {@code null}.
+   */
+  private final InputStream stream;
+
+  /**
+   * The maximum number of lines to keep.
+   */
+  private final int capacity;
+
+  /**
+   * The most recent lines, oldest first.  Access is synchronized on
+   * this field.
+   */
+  private final LinkedList<String> lines;
+
+  /**
+   * The {@link ServerStatusReader} interpreting the server's status
+   * lines.  This field is never {@code null}.
+   */
+  private final ServerStatusReader status;
+
+  /**
+   * The {@link TraceAnalyzer} aggregating the server's traced
+   * statements; may be {@code null}.
+   */
+  private final TraceAnalyzer trace;
+
+  /**
+   * Released once the stream has ended.
+   */
+  private final CountDownLatch done;
+
+  /**
+   * Creates a new {@link ServerOutput}.
+   *
+   * @param stream the output of the spawned server; must not be
+   * {@code null}
+   *
+   * @param capacity the maximum number of lines to keep; will be
+   * constrained to be {@code 0} or greater
+   *
+   * @param services the number of services the server was asked to
+   * start
+   */
+  public ServerOutput(final InputStream stream, final int capacity, final int services) {
+    this(stream, capacity, services, null);
+  }
+
+  /**
+   * Creates a new {@link ServerOutput}.
+   *
+   * @param stream the output of the spawned server; must not be
+   * {@code null}
+   *
+   * @param capacity the maximum number of lines to keep; will be
+   * constrained to be {@code 0} or greater
+   *
+   * @param services the number of services the server was asked to
+   * start
+   *
+   * @param trace the {@link TraceAnalyzer} to hand each line to; may
+   * be {@code null}
+   */
+  public ServerOutput(final InputStream stream, final int capacity, final int services, final TraceAnalyzer trace) {
+    super();
+    if (stream == null) {
+      throw new IllegalArgumentException("stream", new NullPointerException("stream"));
+    }
+    this.stream = stream;
+    this.capacity = Math.max(0, capacity);
+    this.lines = new LinkedList<String>();
+    this.status = new ServerStatusReader(services);
+    this.trace = trace;
+    this.done = new CountDownLatch(1);
+  }
+
+  /**
+   * Returns the {@link ServerStatusReader} interpreting the server's
+   * status lines.  This method never returns {@code null}.
+   *
+   * @return the {@link ServerStatusReader}; never {@code null}
+   */
+  public ServerStatusReader getStatus() {
+    return this.status;
+  }
+
+  /**
+   * Returns a copy of the most recent lines, oldest first.  This
+   * method never returns {@code null}.
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of lines
+   */
+  public List<String> getLines() {
+    synchronized (this.lines) {
+      return new ArrayList<String>(this.lines);
+    }
+  }
+
+  /**
+   * Waits for the stream to end, for example after the server has
+   * exited, so that its last lines have been read.
+   *
+   * @param millis the maximum number of milliseconds to wait
+   *
+   * @return {@code true} if the stream has ended
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  public boolean await(final long millis) throws InterruptedException {
+    return this.done.await(millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Reads lines until the stream ends.
+   */
+  @Override
+  public void run() {
+    boolean statusWanted = true;
+    try {
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(this.stream));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (statusWanted) {
+          statusWanted = this.status.read(line);
+        }
+        if (this.trace != null && this.trace.read(line)) {
+          continue;
+        }
+        if (this.capacity > 0) {
+          synchronized (this.lines) {
+            if (this.lines.size() >= this.capacity) {
+              this.lines.removeFirst();
+            }
+            this.lines.addLast(line);
+          }
+        }
+      }
+    } catch (final IOException streamClosed) {
+      // The process went away; the caller will notice.
+    } finally {
+      this.status.close();
+      try {
+        this.stream.close();
+      } catch (final IOException ignore) {
+        // ignore
+      }
+      this.done.countDown();
+    }
+  }
+
+}
@@ -0,0 +1,454 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The heap size, garbage collector and H2 page cache size chosen for
+ * a spawned server from the size of its data, the way it stores that
+ * data, and the memory of the machine it runs on.
+ *
+ * <p>The page cache is made large enough to hold a database stored
+ * on disk, up to 1 GB; databases kept in memory keep H2's default
+ * 16 MB cache.  The heap must hold the cache, any database kept on
+ * the heap, and a fixed allowance for the server itself, with half
+ * as much again as room for garbage collection, rounded up to a
+ * multiple of 64 MB.  No server is given more than a quarter of the
+ * machine's physical memory, shared between all instances; if that
+ * is not enough, the cache is shrunk to fit.</p>
+ *
+ * <p>Small heaps are collected by the serial collector, which uses a
+ * single thread and so does not compete with the build for
+ * processors; heaps larger than 1 GB are collected by the parallel
+ * collector.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class ServerSizing {
+
+  /**
+   * The number of megabytes the server needs regardless of its data.
+   */
+  private static final long SERVER_MEGABYTES = 64L;
+
+  /**
+   * The size in megabytes of H2's default page cache.
+   */
+  private static final long DEFAULT_CACHE_MEGABYTES = 16L;
+
+  /**
+   * The largest page cache in megabytes that is chosen automatically.
+   */
+  private static final long MAXIMUM_CACHE_MEGABYTES = 1024L;
+
+  /**
+   * The largest heap in megabytes that is collected by the serial
+   * collector.
+   */
+  private static final long SERIAL_GC_MEGABYTES = 1024L;
+
+  /**
+   * The size in megabytes of the data.
+   */
+  private final long dataMegabytes;
+
+  /**
+   * The number of megabytes of physical memory available to each
+   * server.
+   */
+  private final long budgetMegabytes;
+
+  /**
+   * The chosen heap size in megabytes.
+   */
+  private final long heapMegabytes;
+
+  /**
+   * Whether the {@linkplain #heapMegabytes heap size} was configured
+   * rather than chosen.
+   */
+  private final boolean heapConfigured;
+
+  /**
+   * The configured Java option that selects the garbage collector, or
+   * {@code null} if the garbage collector is to be chosen.
+   */
+  private final String configuredGarbageCollectorOption;
+
+  /**
+   * The chosen page cache size in kilobytes.
+   */
+  private final long cacheKilobytes;
+
+  /**
+   * Whether the {@linkplain #cacheKilobytes page cache size} was
+   * configured rather than chosen.
+   */
+  private final boolean cacheConfigured;
+
+  /**
+   * Creates a new {@link ServerSizing}.
+   *
+   * @param storage the {@linkplain AbstractH2Mojo#getStorage()
+   * storage}; must not be {@code null}
+   *
+   * @param dataMegabytes the size in megabytes of each server's data
+   *
+   * @param physicalMegabytes the machine's physical memory in
+   * megabytes, or a negative number if it is not known
+   *
+   * @param instances the number of servers sharing the machine; will
+   * be constrained to be at least {@code 1}
+   *
+   * @param configuredHeapMegabytes the configured heap size in
+   * megabytes, or a negative number if the heap size is to be chosen
+   *
+   * @param configuredCacheKilobytes the configured page cache size in
+   * kilobytes, or a negative number if the page cache size is to be
+   * chosen
+   *
+   * @param configuredGarbageCollectorOption the configured Java
+   * option that selects the garbage collector, such as {@code
+   * -XX:+UseG1GC}, or {@code null} if the garbage collector is to be
+   * chosen
+   */
+  public ServerSizing(final String storage, final long dataMegabytes, final long physicalMegabytes, final int instances, final long configuredHeapMegabytes, final long configuredCacheKilobytes, final String configuredGarbageCollectorOption) {
+    super();
+    this.configuredGarbageCollectorOption = configuredGarbageCollectorOption;
+    this.dataMegabytes = Math.max(0L, dataMegabytes);
+    final long onHeap;
+    if ("memFS".equals(storage)) {
+      onHeap = 2L * this.dataMegabytes;
+    } else if ("memLZF".equals(storage)) {
+      onHeap = this.dataMegabytes;
+    } else {
+      onHeap = 0L;
+    }
+    long cacheMegabytes;
+    this.cacheConfigured = configuredCacheKilobytes >= 0L;
+    if (this.cacheConfigured) {
+      cacheMegabytes = configuredCacheKilobytes / 1024L;
+    } else if ("disk".equals(storage) || "nioMapped".equals(storage)) {
+      cacheMegabytes = Math.min(MAXIMUM_CACHE_MEGABYTES, Math.max(DEFAULT_CACHE_MEGABYTES, roundUp(this.dataMegabytes, DEFAULT_CACHE_MEGABYTES)));
+    } else {
+      cacheMegabytes = DEFAULT_CACHE_MEGABYTES;
+    }
+    if (physicalMegabytes < 0L) {
+      this.budgetMegabytes = -1L;
+    } else {
+      this.budgetMegabytes = Math.max(4L * SERVER_MEGABYTES, physicalMegabytes / 4L / Math.max(1, instances));
+    }
+    this.heapConfigured = configuredHeapMegabytes >= 0L;
+    if (this.heapConfigured) {
+      this.heapMegabytes = configuredHeapMegabytes;
+    } else {
+      final long wanted = roundUp(heapFor(onHeap, cacheMegabytes), SERVER_MEGABYTES);
+      this.heapMegabytes = this.budgetMegabytes < 0L ? wanted : Math.min(wanted, this.budgetMegabytes / SERVER_MEGABYTES * SERVER_MEGABYTES);
+    }
+    if (!this.cacheConfigured) {
+      // Shrink the cache until it fits the heap.
+      while (cacheMegabytes > DEFAULT_CACHE_MEGABYTES && heapFor(onHeap, cacheMegabytes) > this.heapMegabytes) {
+        cacheMegabytes -= DEFAULT_CACHE_MEGABYTES;
+      }
+    }
+    this.cacheKilobytes = this.cacheConfigured ? configuredCacheKilobytes : cacheMegabytes * 1024L;
+  }
+
+  /**
+   * Returns the size in megabytes of the data.
+   *
+   * @return the size in megabytes of the data
+   */
+  public long getDataMegabytes() {
+    return this.dataMegabytes;
+  }
+
+  /**
+   * Returns the number of megabytes of physical memory available to
+   * each server, or a negative number if the machine's physical
+   * memory is not known.
+   *
+   * @return the memory available to each server in megabytes
+   */
+  public long getBudgetMegabytes() {
+    return this.budgetMegabytes;
+  }
+
+  /**
+   * Returns the heap size in megabytes.
+   *
+   * @return the heap size in megabytes
+   */
+  public long getHeapMegabytes() {
+    return this.heapMegabytes;
+  }
+
+  /**
+   * Returns the page cache size in kilobytes, suitable for H2's
+   * {@code CACHE_SIZE} setting.
+   *
+   * @return the page cache size in kilobytes
+   */
+  public long getCacheKilobytes() {
+    return this.cacheKilobytes;
+  }
+
+  /**
+   * Returns {@code true} if the page cache size was chosen rather
+   * than configured, and so must be applied.
+   *
+   * @return {@code true} if the page cache size was chosen
+   */
+  public boolean isCacheChosen() {
+    return !this.cacheConfigured;
+  }
+
+  /**
+   * Returns the Java option that selects the garbage collector.  This
+   * method never returns {@code null}.
+   *
+   * @return a non-{@code null} Java option
+   */
+  public String getGarbageCollectorOption() {
+    if (this.configuredGarbageCollectorOption != null) {
+      return this.configuredGarbageCollectorOption;
+    }
+    return this.heapMegabytes <= SERIAL_GC_MEGABYTES ? "-XX:+UseSerialGC" : "-XX:+UseParallelGC";
+  }
+
+  /**
+   * Returns the chosen Java options: the heap size and the garbage
+   * collector, unless they were configured.  This method never
+   * returns {@code null}.
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of Java
+   * options
+   */
+  public List<String> getJavaOptions() {
+    final List<String> options = new ArrayList<String>();
+    if (!this.heapConfigured) {
+      options.add(String.format("-Xmx%dm", this.heapMegabytes));
+    }
+    if (this.configuredGarbageCollectorOption == null) {
+      options.add(this.getGarbageCollectorOption());
+    }
+    return options;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ServerSizing}, describing both its inputs and its choices.
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(this.dataMegabytes).append(" MB of data, ");
+    if (this.budgetMegabytes < 0L) {
+      sb.append("unknown memory");
+    } else {
+      sb.append(this.budgetMegabytes).append(" MB of memory per server");
+    }
+    sb.append(": heap ").append(this.heapMegabytes).append(" MB").append(this.heapConfigured ? " (configured)" : "");
+    sb.append(", ").append(this.getGarbageCollectorOption().replace("-XX:+Use", "")).append(this.configuredGarbageCollectorOption != null ? " (configured)" : "");
+    sb.append(", cache ").append(this.cacheKilobytes / 1024L).append(" MB").append(this.cacheConfigured ? " (configured)" : "");
+    return sb.toString();
+  }
+
+  /**
+   * Returns the heap size in megabytes needed for the supplied data
+   * and cache, including room for garbage collection.
+   *
+   * @param onHeapMegabytes the size in megabytes of data kept on the
+   * heap
+   *
+   * @param cacheMegabytes the size in megabytes of the page cache
+   *
+   * @return the heap size in megabytes
+   */
+  private static final long heapFor(final long onHeapMegabytes, final long cacheMegabytes) {
+    return (SERVER_MEGABYTES + onHeapMegabytes + cacheMegabytes) * 3L / 2L;
+  }
+
+  /**
+   * Rounds the supplied number up to a multiple of the supplied unit.
+   *
+   * @param n the number to round
+   *
+   * @param unit the unit; must be greater than {@code 0}
+   *
+   * @return the rounded number
+   */
+  private static final long roundUp(final long n, final long unit) {
+    return (n + unit - 1L) / unit * unit;
+  }
+
+  /**
+   * Returns the heap size in megabytes that the supplied Java options
+   * configure, or {@code -1} if they leave the heap size to be
+   * chosen.
+   *
+   * <p>Any option the JVM uses to size the heap counts: {@code -Xmx},
+   * {@code -Xms}, {@code -XX:MaxHeapSize=}, {@code
+   * -XX:InitialHeapSize=}, and the {@code -XX:MaxRAMPercentage=},
+   * {@code -XX:MinRAMPercentage=} and {@code -XX:InitialRAMPercentage=}
+   * options.  When no maximum is given directly, it is estimated from
+   * the {@code -XX:MaxRAMPercentage=} option, or the JVM's default of
+   * a quarter of physical memory; the result is never less than the
+   * initial heap size.  As with the JVM, a later option overrides an
+   * earlier one.</p>
+   *
+   * @param javaOptions the Java options; may be {@code null}
+   *
+   * @param physicalMegabytes the machine's physical memory in
+   * megabytes, or a negative number if it is not known
+   *
+   * @return the configured heap size in megabytes, or {@code -1}
+   */
+  public static long getConfiguredHeapMegabytes(final String[] javaOptions, final long physicalMegabytes) {
+    if (javaOptions == null) {
+      return -1L;
+    }
+    boolean configured = false;
+    long maximumMegabytes = -1L;
+    long initialMegabytes = -1L;
+    double maximumPercentage = -1.0;
+    for (String javaOption : javaOptions) {
+      if (javaOption == null) {
+        continue;
+      }
+      javaOption = javaOption.trim();
+      final long megabytes = parseHeapMegabytes(javaOption);
+      if (megabytes >= 0L) {
+        configured = true;
+        maximumMegabytes = megabytes;
+      } else if (javaOption.startsWith("-Xms")) {
+        configured = true;
+        initialMegabytes = parseSizeMegabytes(javaOption.substring(4));
+      } else if (javaOption.startsWith("-XX:InitialHeapSize=")) {
+        configured = true;
+        initialMegabytes = parseSizeMegabytes(javaOption.substring(20));
+      } else if (javaOption.startsWith("-XX:MaxRAMPercentage=")) {
+        configured = true;
+        try {
+          maximumPercentage = Double.parseDouble(javaOption.substring(21));
+        } catch (final NumberFormatException notAPercentage) {
+          maximumPercentage = -1.0;
+        }
+      } else if (javaOption.startsWith("-XX:MinRAMPercentage=") || javaOption.startsWith("-XX:InitialRAMPercentage=")) {
+        configured = true;
+      }
+    }
+    if (!configured) {
+      return -1L;
+    }
+    if (maximumMegabytes < 0L) {
+      if (physicalMegabytes < 0L) {
+        maximumMegabytes = 0L;
+      } else if (maximumPercentage >= 0.0) {
+        maximumMegabytes = (long)(physicalMegabytes * maximumPercentage / 100.0);
+      } else {
+        maximumMegabytes = physicalMegabytes / 4L;
+      }
+    }
+    return Math.max(maximumMegabytes, initialMegabytes);
+  }
+
+  /**
+   * Parses the supplied {@code -Xmx} or {@code -XX:MaxHeapSize=} Java
+   * option.
+   *
+   * @param option the option, such as {@code -Xmx512m}, {@code
+   * -Xmx2g} or {@code -XX:MaxHeapSize=1g}; may be {@code null}
+   *
+   * @return the heap size in megabytes, or {@code -1} if {@code
+   * option} is not a valid {@code -Xmx} or {@code -XX:MaxHeapSize=}
+   * option
+   */
+  public static long parseHeapMegabytes(String option) {
+    if (option == null) {
+      return -1L;
+    }
+    option = option.trim();
+    if (option.startsWith("-Xmx")) {
+      return parseSizeMegabytes(option.substring(4));
+    } else if (option.startsWith("-XX:MaxHeapSize=")) {
+      return parseSizeMegabytes(option.substring(16));
+    }
+    return -1L;
+  }
+
+  /**
+   * Parses the supplied memory size as the JVM does, as a number of
+   * bytes optionally followed by {@code k}, {@code m}, {@code g} or
+   * {@code t}.
+   *
+   * @param size the size, such as {@code 512m}; must not be {@code
+   * null}
+   *
+   * @return the size in megabytes, or {@code -1} if {@code size} is
+   * not a valid size
+   */
+  private static final long parseSizeMegabytes(String size) {
+    if (size.length() < 1) {
+      return -1L;
+    }
+    long multiplier = 1L;
+    long divisor = 1L;
+    switch (Character.toLowerCase(size.charAt(size.length() - 1))) {
+    case 'k':
+      divisor = 1024L;
+      break;
+    case 'm':
+      break;
+    case 'g':
+      multiplier = 1024L;
+      break;
+    case 't':
+      multiplier = 1024L * 1024L;
+      break;
+    default:
+      // A plain number of bytes.
+      divisor = 1024L * 1024L;
+      size = size + " ";
+      break;
+    }
+    size = size.substring(0, size.length() - 1);
+    try {
+      return Long.parseLong(size) * multiplier / divisor;
+    } catch (final NumberFormatException notASize) {
+      return -1L;
+    }
+  }
+
+}
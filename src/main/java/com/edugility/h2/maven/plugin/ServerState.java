@@ -0,0 +1,402 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import java.nio.channels.FileLock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The on-disk bookkeeping for an H2 server {@linkplain
+ * AbstractH2Mojo#spawnServer(ServerInstance) spawned} by one build
+ * and {@linkplain StopH2Mojo stopped} by the same or a later one.
+ *
+ * <p>Each spawned server has three files, named for the {@linkplain
+ * ServerInstance#getIndex() index} of its {@link ServerInstance}:</p>
+ *
+ * <ul>
+ *
+ * <li>{@code server-}<i>n</i>{@code .lock}, which the server holds an
+ * exclusive {@link FileLock} on for as long as it runs (see {@link
+ * ServerLauncher});</li>
+ *
+ * <li>{@code server-}<i>n</i>{@code .pid}, holding the server's
+ * process identifier, written by the server itself;</li>
+ *
+ * <li>{@code server-}<i>n</i>{@code .properties}, recording the ports
+ * its {@link Service}s bound once it was ready.</li>
+ *
+ * </ul>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class ServerState {
+
+  /**
+   * The directory holding the files.  This field is never {@code
+   * null}.
+   */
+  private final File directory;
+
+  /**
+   * The prefix of the names of the files.  This field is never {@code
+   * null}.
+   */
+  private final String name;
+
+  /**
+   * Creates a new {@link ServerState}.
+   *
+   * @param directory the directory holding the files; must not be
+   * {@code null}
+   *
+   * @param index the {@linkplain ServerInstance#getIndex() index} of
+   * the {@link ServerInstance} the server runs
+   */
+  public ServerState(final File directory, final int index) {
+    super();
+    if (directory == null) {
+      throw new IllegalArgumentException("directory", new NullPointerException("directory"));
+    }
+    this.directory = directory;
+    this.name = "server-" + index;
+  }
+
+  /**
+   * Returns the file the server holds a lock on while it runs.  This
+   * method never returns {@code null}.
+   *
+   * @return the lock file; never {@code null}
+   */
+  public File getLockFile() {
+    return new File(this.directory, this.name + ".lock");
+  }
+
+  /**
+   * Returns the file holding the server's process identifier.  This
+   * method never returns {@code null}.
+   *
+   * @return the process identifier file; never {@code null}
+   */
+  public File getPidFile() {
+    return new File(this.directory, this.name + ".pid");
+  }
+
+  /**
+   * Returns the file recording the ports of the server's {@link
+   * Service}s.  This method never returns {@code null}.
+   *
+   * @return the properties file; never {@code null}
+   */
+  public File getPropertiesFile() {
+    return new File(this.directory, this.name + ".properties");
+  }
+
+  /**
+   * Returns {@code true} if this {@link ServerState} describes a
+   * server that was spawned and became ready.
+   *
+   * @return {@code true} if the properties file exists
+   */
+  public boolean exists() {
+    return this.getPropertiesFile().isFile();
+  }
+
+  /**
+   * Makes this {@link ServerState} ready for a new server: creates
+   * its directory and removes the files of a previous server, first
+   * waiting for that server to exit if it is still running.
+   *
+   * @param timeout the maximum number of milliseconds to wait for a
+   * previous server to exit
+   *
+   * @exception IOException if a previous server is still running
+   * after the timeout, or the files could not be removed
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  public void prepare(final long timeout) throws IOException, InterruptedException {
+    if (!this.directory.isDirectory() && !this.directory.mkdirs() && !this.directory.isDirectory()) {
+      throw new IOException("Could not create " + this.directory);
+    }
+    if (!this.awaitExit(System.currentTimeMillis() + timeout)) {
+      throw new IOException(String.format("The H2 server spawned earlier (process %d) is still running; stop it first", this.getPid()));
+    }
+    this.delete();
+  }
+
+  /**
+   * Returns {@code true} if the server is still running, i.e. if some
+   * process holds the lock on the {@linkplain #getLockFile() lock
+   * file}.
+   *
+   * @return {@code true} if the server is still running
+   *
+   * @exception IOException if the lock file could not be opened
+   */
+  public boolean isRunning() throws IOException {
+    final File lockFile = this.getLockFile();
+    if (!lockFile.isFile()) {
+      return false;
+    }
+    final FileLock lock = RamDisk.tryLock(lockFile);
+    if (lock == null) {
+      return true;
+    }
+    lock.channel().close();
+    return false;
+  }
+
+  /**
+   * Blocks until the server is no longer {@linkplain #isRunning()
+   * running}, or until the supplied deadline passes.
+   *
+   * @param deadline the {@link System#currentTimeMillis()} value after
+   * which to give up
+   *
+   * @return {@code true} if the server is no longer running
+   *
+   * @exception IOException if the lock file could not be opened
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  public boolean awaitExit(final long deadline) throws IOException, InterruptedException {
+    while (this.isRunning()) {
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+      Thread.sleep(20L);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the server's process identifier, or {@code -1} if it is
+   * not known.
+   *
+   * @return the process identifier, or {@code -1}
+   *
+   * @exception IOException if the process identifier file could not
+   * be read
+   */
+  public long getPid() throws IOException {
+    final File pidFile = this.getPidFile();
+    if (!pidFile.isFile()) {
+      return -1L;
+    }
+    final BufferedReader reader = new BufferedReader(new FileReader(pidFile));
+    try {
+      final String line = reader.readLine();
+      return line == null ? -1L : Long.parseLong(line.trim());
+    } catch (final NumberFormatException garbage) {
+      return -1L;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Records the ports of the supplied {@link Service}s.
+   *
+   * @param services the {@link Service}s; must not be {@code null}
+   *
+   * @exception IOException if the properties file could not be
+   * written
+   */
+  public void setPorts(final List<Service> services) throws IOException {
+    final Properties properties = new Properties();
+    for (final Service service : services) {
+      if (service != null) {
+        properties.setProperty(service.getId() + ".port", String.valueOf(service.getPort()));
+      }
+    }
+    final OutputStream stream = new FileOutputStream(this.getPropertiesFile());
+    try {
+      properties.store(stream, "H2 server spawned by the h2-maven-plugin");
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Replaces the ports of the supplied {@link Service}s with the
+   * ports {@linkplain #setPorts(List) recorded} for them, if any.
+   *
+   * @param services the {@link Service}s; must not be {@code null}
+   *
+   * @exception IOException if the properties file could not be read
+   */
+  public void applyPorts(final List<Service> services) throws IOException {
+    if (!this.exists()) {
+      return;
+    }
+    final Properties properties = new Properties();
+    final InputStream stream = new FileInputStream(this.getPropertiesFile());
+    try {
+      properties.load(stream);
+    } finally {
+      stream.close();
+    }
+    for (final Service service : services) {
+      if (service != null) {
+        final String port = properties.getProperty(service.getId() + ".port");
+        if (port != null) {
+          service.setPort(Integer.parseInt(port));
+        }
+      }
+    }
+  }
+
+  /**
+   * Asks the operating system to terminate the server and every
+   * process descended from it.  A polite request lets the server's
+   * shutdown hooks close its databases; a forced one does not.  If
+   * the process identifier is not known, no action is taken.
+   *
+   * <p>On Windows, {@code taskkill /T} terminates the whole process
+   * tree.  Elsewhere, the tree is walked with {@code pgrep -P} before
+   * any process is signalled, so that no descendant is orphaned, and
+   * thereby hidden, by the death of its parent; every process found
+   * is then signalled at once.</p>
+   *
+   * @param force whether to kill the processes outright
+   *
+   * @exception IOException if the operating system could not be
+   * asked
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting for the operating system
+   */
+  public void kill(final boolean force) throws IOException, InterruptedException {
+    final long pid = this.getPid();
+    if (pid <= 0L) {
+      return;
+    }
+    final String signal = force ? "-KILL" : "-TERM";
+    if (System.getProperty("os.name", "").startsWith("Windows")) {
+      final List<String> command = new ArrayList<String>();
+      command.add("taskkill");
+      command.add("/PID");
+      command.add(String.valueOf(pid));
+      command.add("/T");
+      if (force) {
+        command.add("/F");
+      }
+      run(command);
+    } else {
+      final List<String> command = new ArrayList<String>();
+      command.add("kill");
+      command.add(signal);
+      command.add(String.valueOf(pid));
+      // Find the whole tree first, so that none of it is orphaned.
+      for (int i = 2; i < command.size(); i++) {
+        command.addAll(getChildren(command.get(i)));
+      }
+      run(command);
+    }
+  }
+
+  /**
+   * Returns the identifiers of the direct children of the process
+   * with the supplied identifier, as reported by {@code pgrep -P}.
+   * This method never returns {@code null}.
+   *
+   * @param pid the process identifier; must not be {@code null}
+   *
+   * @return a new, non-{@code null} {@link List} of process
+   * identifiers
+   *
+   * @exception IOException if {@code pgrep} could not be run
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting for {@code pgrep}
+   */
+  private static final List<String> getChildren(final String pid) throws IOException, InterruptedException {
+    final List<String> children = new ArrayList<String>();
+    final ProcessBuilder builder = new ProcessBuilder("pgrep", "-P", pid);
+    builder.redirectErrorStream(true);
+    final Process process = builder.start();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "US-ASCII"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.length() > 0 && Character.isDigit(line.charAt(0))) {
+          children.add(line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    process.waitFor();
+    return children;
+  }
+
+  /**
+   * Deletes the files of this {@link ServerState}.
+   */
+  public void delete() {
+    this.getPropertiesFile().delete();
+    this.getPidFile().delete();
+    this.getLockFile().delete();
+  }
+
+  /**
+   * Runs the supplied command to completion, discarding its output.
+   *
+   * @param command the command; must not be {@code null}
+   *
+   * @exception IOException if the command could not be run
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting for the command
+   */
+  private static final void run(final List<String> command) throws IOException, InterruptedException {
+    final ProcessBuilder builder = new ProcessBuilder(command);
+    builder.redirectErrorStream(true);
+    builder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(System.getProperty("os.name", "").startsWith("Windows") ? "NUL" : "/dev/null")));
+    builder.start().waitFor();
+  }
+
+}
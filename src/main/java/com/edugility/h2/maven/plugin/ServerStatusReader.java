@@ -0,0 +1,207 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.h2.tools.Server; // for javadoc only
+
+/**
+ * Interprets the status lines a spawned H2 {@link Server} prints to
+ * its standard output as each service starts, and records the port
+ * each service actually bound.  This is how ports requested as {@code
+ * 0} are discovered.  Lines are supplied by the {@link ServerOutput}
+ * that drains the server's output.
+ *
+ * <p>Reading stops as soon as the expected number of status lines has
+ * been seen, a service reports that it could not be started, or the
+ * output {@linkplain #close() ends}.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class ServerStatusReader {
+
+  /**
+   * The {@link Pattern} matching a line announcing a running service,
+   * e.g. {@code TCP server running at tcp://127.0.0.1:9092 (only
+   * local connections)}.
+   */
+  private static final Pattern RUNNING = Pattern.compile("^.* server running at ([a-z]+)://[^ ]*:(\\d+)");
+
+  /**
+   * The {@link Pattern} matching a line announcing a service that
+   * could not be started.
+   */
+  private static final Pattern FAILED = Pattern.compile("^The .* server could not be started.*");
+
+  /**
+   * The number of status lines to read before stopping.
+   */
+  private final int expected;
+
+  /**
+   * The ports read so far, indexed by {@linkplain Service#getId()
+   * service identifier}.  Access is synchronized on this field.
+   */
+  private final Map<String, Integer> ports;
+
+  /**
+   * Released once reading has stopped.
+   */
+  private final CountDownLatch done;
+
+  /**
+   * The failure line read, if any.
+   */
+  private volatile String failure;
+
+  /**
+   * Creates a new {@link ServerStatusReader}.
+   *
+   * @param expected the number of services the server was asked to
+   * start
+   */
+  public ServerStatusReader(final int expected) {
+    super();
+    this.expected = expected;
+    this.ports = new HashMap<String, Integer>();
+    this.done = new CountDownLatch(expected > 0 ? 1 : 0);
+  }
+
+  /**
+   * Interprets the supplied line of output, unless reading has
+   * already stopped.
+   *
+   * @param line the line; must not be {@code null}
+   *
+   * @return {@code true} if more lines are wanted; {@code false} once
+   * reading has stopped
+   */
+  public boolean read(final String line) {
+    if (this.done.getCount() == 0L) {
+      return false;
+    }
+    final Matcher matcher = RUNNING.matcher(line);
+    if (matcher.find()) {
+      synchronized (this.ports) {
+        this.ports.put(toServiceId(matcher.group(1)), Integer.valueOf(matcher.group(2)));
+      }
+      if (this.getPortCount() >= this.expected) {
+        this.done.countDown();
+      }
+    } else if (FAILED.matcher(line).matches()) {
+      this.failure = line;
+      this.done.countDown();
+    }
+    return this.done.getCount() > 0L;
+  }
+
+  /**
+   * Stops reading, because the output has ended.
+   */
+  public void close() {
+    this.done.countDown();
+  }
+
+  /**
+   * Waits for reading to stop.
+   *
+   * @param millis the maximum number of milliseconds to wait
+   *
+   * @return {@code true} if reading has stopped
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  public boolean await(final long millis) throws InterruptedException {
+    return this.done.await(millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the line announcing that a service could not be started,
+   * or {@code null} if there was no such line.
+   *
+   * @return the failure line, or {@code null}
+   */
+  public String getFailure() {
+    return this.failure;
+  }
+
+  /**
+   * Returns the port the {@link Service} with the supplied
+   * {@linkplain Service#getId() identifier} reported, or {@code null}
+   * if it has not reported one.
+   *
+   * @param id the {@linkplain Service#getId() service identifier}
+   *
+   * @return the reported port, or {@code null}
+   */
+  public Integer getPort(final String id) {
+    synchronized (this.ports) {
+      return this.ports.get(id);
+    }
+  }
+
+  /**
+   * Returns the number of services that have reported their ports.
+   *
+   * @return the number of services that have reported their ports
+   */
+  private final int getPortCount() {
+    synchronized (this.ports) {
+      return this.ports.size();
+    }
+  }
+
+  /**
+   * Converts the URL scheme H2 reports for a service into the
+   * corresponding {@linkplain Service#getId() service identifier}.
+   *
+   * @param scheme the scheme; must not be {@code null}
+   *
+   * @return the service identifier; never {@code null}
+   */
+  static final String toServiceId(final String scheme) {
+    if ("ssl".equals(scheme)) {
+      return "tcp";
+    } else if ("http".equals(scheme) || "https".equals(scheme)) {
+      return "web";
+    }
+    return scheme;
+  }
+
+}
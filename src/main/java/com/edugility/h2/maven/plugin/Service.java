@@ -163,6 +163,7 @@ public final class Service implements Serializable {
       this.setPort(port);
     }
     this.setAllowOthers(allowOthers);
+    this.setSSL(ssl);
   }
 
   /**
@@ -284,4 +285,15 @@ public final class Service implements Serializable {
     }
   }
 
+  /**
+   * Returns a {@link String} representation of this {@link Service}
+   * of the form <i>id</i>{@code :}<i>port</i>.
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return new StringBuilder(String.valueOf(this.getId())).append(":").append(this.getPort()).toString();
+  }
+
 }
\ No newline at end of file
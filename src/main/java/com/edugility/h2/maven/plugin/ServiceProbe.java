@@ -0,0 +1,242 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.IOException;
+
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Determines whether a {@link Service} is accepting connections.
+ *
+ * <p>A {@code tcp} or {@code pg} {@link Service} is considered ready
+ * when a TCP handshake with its {@linkplain Service#getPort() port}
+ * succeeds.  A {@code web} {@link Service} is considered ready when
+ * it answers an HTTP request.  A {@code tcp} {@link Service} may
+ * optionally be {@linkplain #isAnsweringQueries(Service) asked to run
+ * a real query}.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class ServiceProbe {
+
+  /**
+   * The H2 error code indicating that a database does not exist.
+   * Receiving it proves that the server is answering the JDBC
+   * protocol.  The constant is spelled out here because the class
+   * that declares it has moved between H2 releases.
+   */
+  private static final int DATABASE_NOT_FOUND = 90013;
+
+  /**
+   * The name of the in-memory database used by {@link
+   * #isAnsweringQueries(Service)}; using an in-memory database means
+   * no files are created beneath the server's base directory.
+   */
+  private static final String PROBE_DATABASE = "mem:h2-maven-plugin-probe";
+
+  /**
+   * The host to probe.  This field is never {@code null}.
+   */
+  private final String host;
+
+  /**
+   * The number of milliseconds to wait for any single connection
+   * attempt.
+   */
+  private final int connectTimeout;
+
+  /**
+   * Creates a new {@link ServiceProbe}.
+   *
+   * @param host the host to probe; if {@code null} or empty then
+   * {@code localhost} will be used instead
+   *
+   * @param connectTimeout the number of milliseconds to wait for any
+   * single connection attempt; will be constrained to be at least
+   * {@code 1}
+   */
+  public ServiceProbe(String host, final int connectTimeout) {
+    super();
+    if (host == null) {
+      host = "";
+    } else {
+      host = host.trim();
+    }
+    if (host.isEmpty()) {
+      host = "localhost";
+    }
+    this.host = host;
+    this.connectTimeout = Math.max(1, connectTimeout);
+  }
+
+  /**
+   * Returns the host this {@link ServiceProbe} probes.  This method
+   * never returns {@code null}.
+   *
+   * @return the host; never {@code null}
+   */
+  public String getHost() {
+    return this.host;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Service} is accepting
+   * connections.
+   *
+   * @param service the {@link Service} to probe; may be {@code null}
+   * in which case {@code false} will be returned
+   *
+   * @return {@code true} if the supplied {@link Service} is accepting
+   * connections; {@code false} otherwise
+   */
+  public boolean isAccepting(final Service service) {
+    if (service == null) {
+      return false;
+    }
+    if ("web".equals(service.getId()) && !service.getSSL()) {
+      return this.isAnsweringHttp(service.getPort());
+    }
+    return this.isAcceptingSockets(service.getPort());
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Service} is a {@code
+   * tcp} {@link Service} that successfully executes {@code SELECT 1}
+   * on behalf of a JDBC client.  For any other kind of {@link
+   * Service}, this method behaves exactly like the {@link
+   * #isAccepting(Service)} method.
+   *
+   * @param service the {@link Service} to probe; may be {@code null}
+   * in which case {@code false} will be returned
+   *
+   * @return {@code true} if the supplied {@link Service} answers
+   * queries; {@code false} otherwise
+   */
+  public boolean isAnsweringQueries(final Service service) {
+    if (service == null) {
+      return false;
+    }
+    if (!"tcp".equals(service.getId())) {
+      return this.isAccepting(service);
+    }
+    // Don't let the JDBC driver spend its own (much longer) timeout
+    // on a port that isn't open yet.
+    if (!this.isAcceptingSockets(service.getPort())) {
+      return false;
+    }
+    final String url = String.format("jdbc:h2:%s://%s:%d/%s", service.getSSL() ? "ssl" : "tcp", this.getHost(), service.getPort(), PROBE_DATABASE);
+    Connection connection = null;
+    try {
+      connection = DriverManager.getConnection(url, "sa", "");
+      final Statement statement = connection.createStatement();
+      final ResultSet resultSet = statement.executeQuery("SELECT 1");
+      final boolean returnValue = resultSet.next();
+      resultSet.close();
+      statement.close();
+      return returnValue;
+    } catch (final SQLException kaboom) {
+      // The server refusing to create the probe database (because of
+      // -ifExists) is still an answer from a running server.
+      return kaboom.getErrorCode() == DATABASE_NOT_FOUND;
+    } finally {
+      if (connection != null) {
+        try {
+          connection.close();
+        } catch (final SQLException ignore) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if a TCP handshake with the supplied port on
+   * this {@link ServiceProbe}'s {@linkplain #getHost() host}
+   * succeeds.
+   *
+   * @param port the port to connect to
+   *
+   * @return {@code true} if the connection succeeded; {@code false}
+   * otherwise
+   */
+  private boolean isAcceptingSockets(final int port) {
+    final Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(this.getHost(), port), this.connectTimeout);
+      return true;
+    } catch (final IOException notYet) {
+      return false;
+    } finally {
+      try {
+        socket.close();
+      } catch (final IOException ignore) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if an HTTP {@code GET} request directed at
+   * the supplied port on this {@link ServiceProbe}'s {@linkplain
+   * #getHost() host} receives any HTTP response at all.
+   *
+   * @param port the port to connect to
+   *
+   * @return {@code true} if an HTTP response was received; {@code
+   * false} otherwise
+   */
+  private boolean isAnsweringHttp(final int port) {
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection)new URL("http", this.getHost(), port, "/").openConnection();
+      connection.setConnectTimeout(this.connectTimeout);
+      connection.setReadTimeout(this.connectTimeout);
+      connection.setInstanceFollowRedirects(false);
+      return connection.getResponseCode() > 0;
+    } catch (final IOException notYet) {
+      return false;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+}
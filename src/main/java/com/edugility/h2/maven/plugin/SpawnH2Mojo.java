@@ -27,8 +27,23 @@
  */
 package com.edugility.h2.maven.plugin;
 
+import java.io.IOException;
+
+import java.nio.channels.FileLock;
+
 import java.sql.SQLException;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 
@@ -46,28 +61,379 @@ import org.apache.maven.plugin.logging.Log;
  *
  * @requiresProject false
  *
+ * @threadSafe
+ *
  * @since 1.0-SNAPSHOT
  */
 public class SpawnH2Mojo extends AbstractH2Mojo {
 
   /**
    * Spawns a new H2 TCP server by invoking the {@link
-   * AbstractH2Mojo#spawnServer()} method.
+   * AbstractH2Mojo#spawnServer()} method, and then waits for it to
+   * become ready by invoking the {@link
+   * AbstractH2Mojo#awaitReadiness(Process)} method.
+   *
+   * <p>In {@linkplain AbstractH2Mojo#getDaemon() daemon mode}, an
+   * already running daemon with a matching {@linkplain
+   * AbstractH2Mojo#getFingerprint() fingerprint} is reused
+   * instead.</p>
+   *
+   * <p>If more than one {@linkplain AbstractH2Mojo#getInstances()
+   * instance} is configured, all of them are spawned and awaited
+   * concurrently.</p>
+   *
+   * <p>The time each spawned server took to become ready, from the
+   * moment its process started, is {@linkplain
+   * AbstractH2Mojo#recordMetric(String, double) recorded} as the
+   * {@code spawn.readyMillis} metric.</p>
    *
    * @exception MojoExecutionException if there was any kind of error
    */
   @Override
   public void execute() throws MojoExecutionException {
+    this.recordTiming("started");
+    this.logPerformanceProfile();
+    if (this.getDaemon()) {
+      if (this.getInstances() > 1) {
+        throw new MojoExecutionException("Daemon mode supports only a single instance.");
+      }
+      if (this.getRamDisk()) {
+        throw new MojoExecutionException("Daemon mode does not support RAM disks, since a daemon outlives the build that stages its RAM disk.");
+      }
+      if (this.getTraceAnalysis() && this.getLog() != null) {
+        this.getLog().warn("Trace analysis is not available in daemon mode, since a daemon's output goes to its log file.");
+      }
+      if (this.getJmxSampling() && this.getLog() != null) {
+        this.getLog().warn("JMX sampling is not available in daemon mode, since a daemon outlives the build that would sample it.");
+      }
+      this.attachToDaemon();
+      return;
+    }
+    if (this.getInstances() > 1) {
+      this.spawnInstances();
+      return;
+    }
     final Log log = this.getLog();    
+    final List<ServerInstance> instances = this.getServerInstances();
+    this.prepareInstances(instances);
+    final long start = System.nanoTime();
+    Process process = null;
     try {
-      this.spawnServer();
+      process = this.spawnServer();
+      this.awaitReadiness(process);
     } catch (final RuntimeException throwMe) {
+      if (process != null) {
+        process.destroy();
+      }
+      this.discardRamDisks(instances);
       throw throwMe;
+    } catch (final InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      if (process != null) {
+        process.destroy();
+      }
+      this.discardRamDisks(instances);
+      throw new MojoExecutionException("Interrupted while waiting for the H2 server to become ready.", interrupted);
     } catch (final Exception kaboom) {
+      if (process != null) {
+        process.destroy();
+      }
+      this.discardRamDisks(instances);
       throw new MojoExecutionException("Could not spawn H2 server.", kaboom);
     }
+    if (!"none".equals(this.getReadiness())) {
+      this.recordMetric("spawn.readyMillis", this.getMillisSinceSpawned(process));
+    }
+    this.publishPorts();
+    this.startQueryStatistics(instances);
+    this.startTraceAnalysis(instances);
+    this.startJmxSampling(instances);
     if (log != null && log.isInfoEnabled()) {
-      log.info(String.format("H2 server spawned at tcp://localhost:%d", this.getPort()));
+      final Service tcp = this.getService("tcp");
+      final String where = this.getServices().size() == 1 && tcp != null ? String.format("tcp://localhost:%d", tcp.getPort()) : String.valueOf(this.getServices());
+      if ("none".equals(this.getReadiness())) {
+        log.info(String.format("H2 server spawned at %s", where));
+      } else {
+        log.info(String.format("H2 server spawned at %s and ready in %d ms %s", where, (System.nanoTime() - start) / 1000000L, this.describeClassDataSharing()));
+      }
+    }
+    this.recordTiming("finished");
+  }
+
+  /**
+   * {@linkplain AbstractH2Mojo#seed(List) Seeds} the databases of the
+   * supplied {@link ServerInstance}s, and then {@linkplain
+   * AbstractH2Mojo#stageRamDisks(List) stages} their RAM disks.
+   *
+   * @param instances the {@link ServerInstance}s to prepare; must not
+   * be {@code null}
+   *
+   * @exception MojoExecutionException if the databases could not be
+   * seeded or staged
+   */
+  private final void prepareInstances(final List<ServerInstance> instances) throws MojoExecutionException {
+    try {
+      this.seed(instances);
+    } catch (final RuntimeException throwMe) {
+      throw throwMe;
+    } catch (final Exception kaboom) {
+      throw new MojoExecutionException("Could not seed H2 database.", kaboom);
+    }
+    try {
+      this.stageRamDisks(instances);
+    } catch (final IOException kaboom) {
+      this.discardRamDisks(instances);
+      throw new MojoExecutionException("Could not stage H2 RAM disk.", kaboom);
+    }
+    this.prepareClassDataSharingQuietly();
+    this.sizeServers();
+    this.logServerSizing();
+  }
+
+  /**
+   * {@linkplain AbstractH2Mojo#prepareClassDataSharing() Prepares}
+   * the class data sharing archive, logging a warning instead of
+   * failing if it cannot be created; servers then simply start
+   * without it.
+   *
+   * @exception MojoExecutionException if the current {@link Thread}
+   * was interrupted
+   */
+  private final void prepareClassDataSharingQuietly() throws MojoExecutionException {
+    try {
+      this.prepareClassDataSharing();
+    } catch (final InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while creating a class data sharing archive.", interrupted);
+    } catch (final IOException kaboom) {
+      final Log log = this.getLog();
+      if (log != null) {
+        log.warn("Could not create a class data sharing archive; spawning without one", kaboom);
+      }
+    }
+  }
+
+  /**
+   * Returns a description of whether spawned servers use a class data
+   * sharing archive, for inclusion in log messages.
+   *
+   * @return a non-{@code null} description
+   */
+  private final String describeClassDataSharing() {
+    return this.getClassDataSharingArchive() == null ? "without class data sharing" : "with class data sharing";
+  }
+
+  /**
+   * Spawns every {@linkplain AbstractH2Mojo#getServerInstances()
+   * <tt>ServerInstance</tt>} concurrently, and waits for all of them
+   * to become ready.  If any of them fails, all of them are
+   * destroyed.
+   *
+   * @exception MojoExecutionException if there was any kind of error
+   */
+  private final void spawnInstances() throws MojoExecutionException {
+    final Log log = this.getLog();
+    final List<ServerInstance> instances = this.getServerInstances();
+    this.prepareInstances(instances);
+    final long start = System.nanoTime();
+    final List<Process> processes = new ArrayList<Process>();
+    final AtomicBoolean abandoned = new AtomicBoolean();
+    final List<Future<Long>> futures = new ArrayList<Future<Long>>(instances.size());
+    final ExecutorService executor = Executors.newFixedThreadPool(instances.size());
+    boolean success = false;
+    try {
+      for (final ServerInstance instance : instances) {
+        futures.add(executor.submit(new Callable<Long>() {
+            @Override
+            public final Long call() throws IOException, InterruptedException {
+              final Process process = spawnServer(instance);
+              synchronized (processes) {
+                if (abandoned.get()) {
+                  // Another instance already failed.
+                  process.destroy();
+                  throw new InterruptedException();
+                }
+                processes.add(process);
+              }
+              final long waited = awaitReadiness(instance, process);
+              if (!"none".equals(getReadiness())) {
+                recordMetric("spawn.readyMillis", getMillisSinceSpawned(process));
+              }
+              return Long.valueOf(waited);
+            }
+          }));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (final ExecutionException kaboom) {
+          throw new MojoExecutionException(String.format("Could not spawn H2 server %s.", instances.get(i)), kaboom.getCause());
+        }
+      }
+      success = true;
+    } catch (final InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while waiting for the H2 servers to become ready.", interrupted);
+    } finally {
+      if (!success) {
+        executor.shutdownNow();
+        synchronized (processes) {
+          abandoned.set(true);
+          for (final Process process : processes) {
+            process.destroy();
+          }
+        }
+        this.discardRamDisks(instances);
+      }
+      executor.shutdown();
+    }
+    this.publishPorts(instances);
+    this.startQueryStatistics(instances);
+    this.startTraceAnalysis(instances);
+    this.startJmxSampling(instances);
+    if (log != null && log.isInfoEnabled()) {
+      for (final ServerInstance instance : instances) {
+        log.info(String.format("H2 server %d of %d spawned at %s", instance.getIndex(), instances.size(), instance.getServices()));
+      }
+      log.info(String.format("%d H2 servers ready in %d ms %s", instances.size(), (System.nanoTime() - start) / 1000000L, this.describeClassDataSharing()));
+    }
+    this.recordTiming("finished");
+  }
+
+  /**
+   * Attaches to the {@linkplain AbstractH2Mojo#getDaemon() daemon}
+   * listening on the configured port if its {@linkplain
+   * AbstractH2Mojo#getFingerprint() fingerprint} matches this mojo's
+   * configuration, replacing it otherwise, and spawning a new one if
+   * there is none.  In all cases a lease on the daemon is acquired,
+   * which {@link StopH2Mojo} releases.  A daemon with a different
+   * fingerprint is replaced only if no other build holds a lease on
+   * it; otherwise this goal fails rather than stop a daemon another
+   * build is still using.  If this goal fails, it destroys any daemon
+   * it spawned and releases its lease.
+   *
+   * @exception MojoExecutionException if there was any kind of error
+   */
+  private final void attachToDaemon() throws MojoExecutionException {
+    final Log log = this.getLog();
+    final long start = System.nanoTime();
+    final Service tcp = this.getService("tcp");
+    if (tcp == null) {
+      throw new MojoExecutionException("Daemon mode requires the tcp service.");
+    }
+    if (this.hasAutomaticPorts()) {
+      throw new MojoExecutionException("Daemon mode requires fixed ports, so that later builds can find the daemon.");
+    }
+    final DaemonState state = this.getDaemonState();
+    final String leaseName = this.getLeaseName();
+    final ServiceProbe probe = new ServiceProbe(this.getServerHost(), 1000);
+    boolean attached = false;
+    boolean leased = false;
+    boolean success = false;
+    Process process = null;
+    // FileLocks exclude other processes; the monitor excludes other
+    // threads in this one.
+    synchronized (DaemonState.class) {
+      try {
+        final FileLock lock = state.lock();
+        try {
+          final String fingerprint = this.getFingerprint();
+          if (probe.isAccepting(tcp)) {
+            final String recordedFingerprint = state.getFingerprint();
+            if (fingerprint.equals(recordedFingerprint)) {
+              attached = true;
+            } else if (recordedFingerprint == null) {
+              throw new MojoExecutionException(String.format("Port %d is in use by a server that was not spawned as a daemon by this plugin.", tcp.getPort()));
+            } else {
+              final int leases = state.countLeases(leaseName);
+              if (leases > 0) {
+                throw new MojoExecutionException(String.format("Port %d is held by a differently-configured H2 daemon in use by %d other build%s; stop %s or configure a different port.", tcp.getPort(), leases, leases == 1 ? "" : "s", leases == 1 ? "it" : "them"));
+              }
+              if (log != null && log.isInfoEnabled()) {
+                log.info(String.format("H2 daemon at tcp://localhost:%d has a different configuration; replacing it", tcp.getPort()));
+              }
+              state.setFingerprint(null);
+              this.shutdownServer();
+              this.awaitPortRelease(probe, tcp);
+            }
+          }
+          state.acquireLease(leaseName);
+          leased = true;
+          if (attached) {
+            this.recordTiming("attached");
+          } else {
+            this.seed(this.getServerInstances());
+            state.rotateLog();
+            this.prepareClassDataSharingQuietly();
+            this.sizeServers();
+            this.logServerSizing();
+            process = this.spawnServer();
+            this.awaitReadiness(process);
+            state.setFingerprint(fingerprint);
+            // Nobody will write to the daemon from now on; its output
+            // goes to its log file.
+            process.getOutputStream().close();
+          }
+        } finally {
+          lock.channel().close();
+        }
+        success = true;
+      } catch (final RuntimeException throwMe) {
+        throw throwMe;
+      } catch (final MojoExecutionException throwMe) {
+        throw throwMe;
+      } catch (final InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException("Interrupted while waiting for the H2 daemon.", interrupted);
+      } catch (final Exception kaboom) {
+        throw new MojoExecutionException("Could not spawn H2 daemon.", kaboom);
+      } finally {
+        if (!success) {
+          // Leave neither a half-started daemon nor a lease that would
+          // keep a daemon alive for a build that is not using it.
+          if (process != null) {
+            process.destroy();
+          }
+          if (leased) {
+            state.releaseLease(leaseName);
+          }
+        }
+      }
+    }
+    this.publishPorts();
+    if (log != null && log.isInfoEnabled()) {
+      if (attached) {
+        log.info(String.format("Attached to H2 daemon at tcp://localhost:%d in %d ms", tcp.getPort(), (System.nanoTime() - start) / 1000000L));
+      } else {
+        log.info(String.format("H2 daemon spawned at tcp://localhost:%d and ready in %d ms %s; it will stop after %d seconds without a build using it", tcp.getPort(), (System.nanoTime() - start) / 1000000L, this.describeClassDataSharing(), this.getDaemonIdleTimeout()));
+      }
+    }
+    this.recordTiming("finished");
+  }
+
+  /**
+   * Blocks until the supplied {@link Service} no longer accepts
+   * connections, or until the {@linkplain
+   * AbstractH2Mojo#getReadinessTimeout() readiness timeout} elapses.
+   *
+   * @param probe the {@link ServiceProbe} to use; must not be {@code
+   * null}
+   *
+   * @param service the {@link Service} to wait for; must not be
+   * {@code null}
+   *
+   * @exception IOException if the timeout elapsed
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  private final void awaitPortRelease(final ServiceProbe probe, final Service service) throws IOException, InterruptedException {
+    final long deadline = System.currentTimeMillis() + this.getReadinessTimeout();
+    while (probe.isAccepting(service)) {
+      if (System.currentTimeMillis() >= deadline) {
+        throw new IOException(String.format("Port %d was not released within %d ms", service.getPort(), this.getReadinessTimeout()));
+      }
+      Thread.sleep(50L);
     }
   }
 
@@ -0,0 +1,150 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.IOException;
+
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.apache.maven.plugin.logging.Log;
+
+import org.h2.tools.Server;
+
+/**
+ * An {@link AbstractH2Mojo} that {@linkplain
+ * AbstractH2Mojo#createServer() creates} and starts an H2 server
+ * inside the current Java virtual machine, instead of spawning a new
+ * one.  This avoids the cost of starting and warming up a separate
+ * Java virtual machine.
+ *
+ * <p>The server is {@linkplain AbstractH2Mojo#registerServer(Server)
+ * registered} so that the {@link StopH2Mojo stop goal} can stop it
+ * directly.  Because the server runs on daemon threads, it will not
+ * outlive the Maven build.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @goal start
+ *
+ * @phase pre-integration-test
+ *
+ * @requiresProject false
+ *
+ * @threadSafe
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class StartH2Mojo extends AbstractH2Mojo {
+
+  /**
+   * Creates and starts new H2 servers inside the current Java
+   * virtual machine by invoking the {@link
+   * AbstractH2Mojo#createServers(ServerInstance)} method, once for
+   * each of its {@linkplain AbstractH2Mojo#getServerInstances()
+   * <tt>ServerInstance</tt>s}, and starting every {@link Server} it
+   * returns.
+   *
+   * @exception MojoExecutionException if there was any kind of error
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    this.recordTiming("started");
+    this.logPerformanceProfile();
+    final Log log = this.getLog();
+    if (this.getTraceAnalysis() && log != null) {
+      log.warn("Trace analysis is only available for spawned servers, since servers started in-process trace to the build's own output.");
+    }
+    if (this.getJmxSampling() && log != null) {
+      log.warn("JMX sampling is only available for spawned servers; servers started in-process share the build's own JVM.");
+    }
+    final List<ServerInstance> instances = this.getServerInstances();
+    try {
+      this.seed(instances);
+    } catch (final RuntimeException throwMe) {
+      throw throwMe;
+    } catch (final Exception kaboom) {
+      throw new MojoExecutionException("Could not seed H2 database.", kaboom);
+    }
+    try {
+      this.stageRamDisks(instances);
+      for (final ServerInstance instance : instances) {
+        final RamDisk ramDisk = this.getRamDisk(instance);
+        if (ramDisk != null) {
+          ramDisk.hold();
+        }
+      }
+    } catch (final IOException kaboom) {
+      this.discardRamDisks(instances);
+      throw new MojoExecutionException("Could not stage H2 RAM disk.", kaboom);
+    }
+    this.sizeServers();
+    for (final ServerInstance instance : instances) {
+      final long start = System.nanoTime();
+      final List<String> urls = new ArrayList<String>();
+      try {
+        for (final Server server : this.createServers(instance)) {
+          server.start();
+          this.registerServer(server);
+          final String url = server.getURL();
+          final int colon = url.indexOf("://");
+          if (colon > 0) {
+            this.setActualPort(instance, ServerStatusReader.toServiceId(url.substring(0, colon)), server.getPort());
+          }
+          urls.add(url);
+        }
+      } catch (final SQLException kaboom) {
+        throw new MojoExecutionException("Could not start H2 server.", kaboom);
+      }
+      this.recordTiming(instance, "ready");
+      if (log != null && log.isInfoEnabled()) {
+        log.info(String.format("H2 server started in-process at %s in %d ms", urls.size() == 1 ? urls.get(0) : urls, (System.nanoTime() - start) / 1000000L));
+      }
+    }
+    this.publishPorts(instances);
+    this.startQueryStatistics(instances);
+    this.recordTiming("finished");
+  }
+
+  /**
+   * Returns {@code SET TRACE_LEVEL_FILE 2}: an in-process server's
+   * standard output is Maven's console, so statements are traced to
+   * the database's {@code .trace.db} file instead.
+   *
+   * @return the statement; never {@code null}
+   */
+  @Override
+  protected String getQueryTimingStatement() {
+    return "SET TRACE_LEVEL_FILE 2";
+  }
+
+}
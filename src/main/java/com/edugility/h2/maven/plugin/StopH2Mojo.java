@@ -27,16 +27,38 @@
  */
 package com.edugility.h2.maven.plugin;
 
+import java.io.File;
+import java.io.IOException;
+
 import java.sql.SQLException;
 
+import java.util.List;
+
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 
 import org.apache.maven.plugin.logging.Log;
 
+import org.h2.tools.Server;
+
 /**
  * An {@link AbstractH2Mojo} that stops a running H2 TCP server.
  *
+ * <p>Servers {@linkplain StartH2Mojo started in-process} earlier in
+ * the same build are stopped directly.  In {@linkplain
+ * AbstractH2Mojo#getDaemon() daemon mode}, this build's lease on the
+ * daemon is released instead, leaving the daemon running for the
+ * next build.  Otherwise, each spawned server is asked to shut down,
+ * through its TCP service if it has one, and is waited for until its
+ * process has exited; a server that has not exited within the
+ * {@linkplain AbstractH2Mojo#getShutdownTimeout() shutdown timeout}
+ * is killed, along with any processes it started.</p>
+ *
+ * <p>Once a server has stopped, its {@linkplain
+ * AbstractH2Mojo#getRamDisk() RAM disk}, if any, is {@linkplain
+ * AbstractH2Mojo#getRamDiskSyncBack() synchronized back} if so
+ * configured, and deleted.</p>
+ *
  * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
  *
  * @goal stop
@@ -45,26 +67,344 @@ import org.apache.maven.plugin.logging.Log;
  *
  * @requiresProject false
  *
+ * @threadSafe
+ *
  * @since 1.0-SNAPSHOT
  */
 public class StopH2Mojo extends AbstractH2Mojo {
 
   /**
-   * Stops a running H2 TCP server by invoking the {@link
+   * Stops any servers started in-process by invoking the {@link
+   * AbstractH2Mojo#stopServers()} method; if there were none, stops a
+   * running H2 TCP server by invoking the {@link
    * AbstractH2Mojo#shutdownServer()} method.
    *
    * @exception MojoExecutionException if an error occurs
    */
   @Override
   public void execute() throws MojoExecutionException {
+    this.recordTiming("started");
+    final Log log = this.getLog();
+    // Statistics must be read while the servers are still running.
+    this.reportQueryStatistics();
+    this.reportJmxSampling(this.stopJmxSampling());
+    final List<TraceAnalyzer> analyzers = this.stopTraceAnalysis();
+    this.releaseCheckpoints();
+    final List<Server> stopped = this.stopServers();
+    if (!stopped.isEmpty()) {
+      if (log != null && log.isInfoEnabled()) {
+        for (final Server server : stopped) {
+          log.info(String.format("H2 server at %s stopped", server.getURL()));
+        }
+      }
+      this.recordTiming("stopped");
+      this.releaseRamDisks(this.getServerInstances());
+      this.recordTiming("finished");
+      return;
+    }
+    final List<ServerInstance> instances = this.getServerInstances();
+    this.applyPublishedPorts(instances);
+    if (this.getDaemon()) {
+      final boolean released = this.getDaemonState().releaseLease(this.getLeaseName());
+      if (log != null && log.isInfoEnabled()) {
+        final Service tcp = instances.get(0).getService("tcp");
+        final int port = tcp == null ? 0 : tcp.getPort();
+        if (released) {
+          log.info(String.format("H2 daemon at tcp://localhost:%d released; it will stop once it has been idle for its idle timeout", port));
+        } else {
+          log.info(String.format("This build held no lease on the H2 daemon at tcp://localhost:%d", port));
+        }
+      }
+      this.recordTiming("released");
+      this.recordTiming("finished");
+      return;
+    }
+    Exception failure = null;
+    int stoppedCount = 0;
+    for (final ServerInstance instance : instances) {
+      try {
+        if (this.stopInstance(instance)) {
+          stoppedCount++;
+        }
+      } catch (final InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException("Interrupted while waiting for the H2 server to exit.", interrupted);
+      } catch (final MojoExecutionException throwMe) {
+        throw throwMe;
+      } catch (final Exception kaboom) {
+        // Keep going, so that one dead server doesn't leave the
+        // others running.
+        if (failure == null) {
+          failure = kaboom;
+        }
+        if (log != null) {
+          log.warn(String.format("Could not shutdown H2 server %s", instance), kaboom);
+        }
+      }
+    }
+    this.reportTraceAnalysis(analyzers);
+    if (failure != null) {
+      throw new MojoExecutionException("Could not shutdown TCP server. Please check to see if the process is still running.", failure);
+    }
+    this.releaseRamDisks(instances);
+    if (log != null && log.isInfoEnabled() && instances.size() > 1) {
+      log.info(String.format("%d of %d H2 servers stopped", stoppedCount, instances.size()));
+    }
+    this.recordTiming("finished");
+  }
+
+  /**
+   * Stops the server spawned for the supplied {@link ServerInstance}
+   * and waits for its process to exit, killing it if it does not exit
+   * within the {@linkplain AbstractH2Mojo#getShutdownTimeout()
+   * shutdown timeout}.
+   *
+   * <p>If the server left no {@linkplain
+   * AbstractH2Mojo#getServerState(ServerInstance) state} behind, for
+   * example because it was spawned by an earlier version of this
+   * plugin, a shutdown request is sent to its TCP service and this
+   * method returns without waiting.</p>
+   *
+   * @param instance the {@link ServerInstance}; must not be {@code
+   * null}
+   *
+   * @return {@code true} if a server was stopped; {@code false} if it
+   * was no longer running
+   *
+   * @exception MojoExecutionException if the server cannot be found
+   *
+   * @exception IOException if the server could not be killed
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   *
+   * @exception SQLException if a shutdown request could not be sent
+   * to a server without state
+   */
+  private final boolean stopInstance(final ServerInstance instance) throws MojoExecutionException, IOException, InterruptedException, SQLException {
+    final Log log = this.getLog();
+    final long start = System.nanoTime();
+    final ServerState state = this.getServerState(instance);
+    final Service tcp = instance.getService("tcp");
+    if (!state.exists()) {
+      final Service shutdownService = tcp == null ? this.getService("tcp") : tcp;
+      if (shutdownService == null || shutdownService.getPort() == 0) {
+        throw new MojoExecutionException("Cannot determine the port of the TCP server to shut down; no port was published earlier in this build.");
+      }
+      this.shutdownServer(instance);
+      this.recordTiming(instance, "shutdown-requested");
+      if (log != null && log.isInfoEnabled()) {
+        log.info(String.format("H2 server %s asked to shut down", instance));
+      }
+      return true;
+    }
+    state.applyPorts(instance.getServices());
+    if (!state.isRunning()) {
+      state.delete();
+      if (log != null && log.isInfoEnabled()) {
+        log.info(String.format("H2 server %s was not running", instance));
+      }
+      return false;
+    }
+    final long timeout = this.getShutdownTimeout();
+    if (tcp == null) {
+      state.kill(false);
+    } else {
+      try {
+        this.shutdownServer(instance);
+      } catch (final SQLException kaboom) {
+        if (log != null) {
+          log.warn(String.format("H2 server %s refused to shut down; terminating it", instance), kaboom);
+        }
+        state.kill(false);
+      }
+    }
+    this.recordTiming(instance, "shutdown-requested");
+    boolean killed = false;
+    if (!state.awaitExit(System.currentTimeMillis() + timeout)) {
+      if (log != null) {
+        log.warn(String.format("H2 server %s (process %d) did not exit within %d ms; killing it", instance, state.getPid(), timeout));
+      }
+      state.kill(true);
+      killed = true;
+      if (!state.awaitExit(System.currentTimeMillis() + timeout)) {
+        throw new IOException(String.format("H2 server %s (process %d) could not be killed", instance, state.getPid()));
+      }
+      // A killed server could not remove its database lock file, and
+      // the next server would otherwise wait for it to go stale.
+      if (!this.isStorageInMemory()) {
+        final RamDisk ramDisk = this.getRamDisk(instance);
+        File baseDirectory = ramDisk == null ? instance.getBaseDirectory() : ramDisk.getDirectory();
+        if (baseDirectory == null) {
+          baseDirectory = new File(System.getProperty("user.dir"));
+        }
+        new File(baseDirectory, this.getDatabase() + ".lock.db").delete();
+      }
+    }
+    state.delete();
+    this.recordTiming(instance, killed ? "killed" : "exited");
+    if (log != null && log.isInfoEnabled()) {
+      log.info(String.format("H2 server %s %s in %d ms", instance, killed ? "killed" : "stopped", (System.nanoTime() - start) / 1000000L));
+    }
+    return true;
+  }
+
+  /**
+   * Waits for the servers of the supplied {@link ServerInstance}s to
+   * let go of their {@linkplain AbstractH2Mojo#getRamDisk(ServerInstance)
+   * RAM disks}, {@linkplain RamDisk#syncBack() synchronizes them back}
+   * if so configured, and deletes them.  If {@linkplain
+   * AbstractH2Mojo#getRamDisk() RAM disks} are not in use, no action
+   * is taken.
+   *
+   * <p>A RAM disk that could not be synchronized back is left in
+   * place, so that its files may still be rescued.</p>
+   *
+   * @param instances the {@link ServerInstance}s; must not be {@code
+   * null}
+   *
+   * @exception MojoExecutionException if a server did not let go of
+   * its RAM disk in time, or a RAM disk could not be synchronized
+   * back
+   */
+  private final void releaseRamDisks(final List<ServerInstance> instances) throws MojoExecutionException {
+    final Log log = this.getLog();
+    for (final ServerInstance instance : instances) {
+      final RamDisk ramDisk = this.getRamDisk(instance);
+      if (ramDisk != null) {
+        // Servers started in-process are held by this Java virtual
+        // machine.
+        ramDisk.release();
+        try {
+          ramDisk.awaitRelease(this.getReadinessTimeout());
+          if (this.getRamDiskSyncBack()) {
+            final long start = System.nanoTime();
+            ramDisk.syncBack();
+            if (log != null && log.isInfoEnabled()) {
+              log.info(String.format("H2 RAM disk %s synchronized back to %s in %d ms", ramDisk.getDirectory(), ramDisk.getBaseDirectory(), (System.nanoTime() - start) / 1000000L));
+            }
+          }
+        } catch (final InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw new MojoExecutionException(String.format("Interrupted while waiting for the H2 server to release %s.", ramDisk.getDirectory()), interrupted);
+        } catch (final IOException kaboom) {
+          throw new MojoExecutionException(String.format("Could not synchronize H2 RAM disk %s back to %s.", ramDisk.getDirectory(), ramDisk.getBaseDirectory()), kaboom);
+        }
+        ramDisk.delete();
+      }
+    }
+  }
+
+  /**
+   * {@linkplain AbstractH2Mojo#collectQueryStatistics() Collects} the
+   * query statistics of the servers started earlier in this build, if
+   * {@linkplain AbstractH2Mojo#getQueryStatistics() so configured},
+   * writes them, ranked by total execution time, to {@code
+   * query-statistics.json} and {@code query-statistics.md} in the
+   * {@linkplain AbstractH2Mojo#getReportDirectory() report directory},
+   * and logs the {@linkplain AbstractH2Mojo#getQueryStatisticsTop()
+   * top entries}.
+   *
+   * <p>Statistics are a diagnostic aid, so any failure is logged as a
+   * warning rather than preventing the servers from stopping.</p>
+   */
+  private final void reportQueryStatistics() {
+    final Log log = this.getLog();
     try {
-      this.shutdownServer();
+      final QueryStatistics statistics = this.collectQueryStatistics();
+      if (statistics == null) {
+        return;
+      }
+      final File directory = this.getReportDirectory();
+      if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+        throw new IOException("Could not create " + directory);
+      }
+      final File json = new File(directory, "query-statistics.json");
+      final File markdown = new File(directory, "query-statistics.md");
+      statistics.writeJson(json);
+      statistics.writeMarkdown(markdown);
+      if (log != null && log.isInfoEnabled()) {
+        final List<QueryStatistics.Entry> entries = statistics.getEntries();
+        final int top = Math.min(entries.size(), this.getQueryStatisticsTop());
+        log.info(String.format("Top %d of %d H2 statements (full report: %s):", top, entries.size(), markdown));
+        for (int i = 0; i < top; i++) {
+          log.info(String.format("%3d. %s", i + 1, entries.get(i)));
+        }
+      }
     } catch (final SQLException kaboom) {
-      throw new MojoExecutionException("Could not shutdown TCP server. Please check to see if the process is still running.", kaboom);
+      if (log != null && log.isWarnEnabled()) {
+        log.warn("Could not read H2 query statistics", kaboom);
+      }
+    } catch (final IOException kaboom) {
+      if (log != null && log.isWarnEnabled()) {
+        log.warn("Could not write H2 query statistics report", kaboom);
+      }
     }
+  }
+
+  /**
+   * Logs a summary of each of the supplied {@link JmxSampler}s; the
+   * full series of samples stays in their files.
+   *
+   * @param samplers the {@link JmxSampler}s; must not be {@code null}
+   */
+  private final void reportJmxSampling(final List<JmxSampler> samplers) {
     final Log log = this.getLog();
     if (log != null && log.isInfoEnabled()) {
-      log.info("H2 server stopped");
+      for (final JmxSampler sampler : samplers) {
+        log.info(String.format("H2 JMX samples (full series: %s): %s", sampler.getFile(), sampler));
+      }
+    }
+  }
+
+  /**
+   * Merges the supplied {@link TraceAnalyzer}s, if there are any,
+   * writes every statement fingerprint they saw to {@code
+   * trace-summary.json}, and the {@linkplain
+   * AbstractH2Mojo#getTraceAnalysisTop() top} fingerprints by total
+   * time and by frequency to {@code trace-summary.md}, in the
+   * {@linkplain AbstractH2Mojo#getReportDirectory() report
+   * directory}, and logs the latter.
+   *
+   * <p>Like query statistics, trace analysis is a diagnostic aid, so
+   * any failure is logged as a warning.</p>
+   *
+   * @param analyzers the {@link TraceAnalyzer}s; must not be {@code
+   * null}
+   */
+  private final void reportTraceAnalysis(final List<TraceAnalyzer> analyzers) {
+    if (analyzers.isEmpty()) {
+      return;
+    }
+    final Log log = this.getLog();
+    final TraceAnalyzer trace = new TraceAnalyzer();
+    for (final TraceAnalyzer analyzer : analyzers) {
+      trace.merge(analyzer);
+    }
+    final int top = this.getTraceAnalysisTop();
+    final File directory = this.getReportDirectory();
+    final File markdown = new File(directory, "trace-summary.md");
+    try {
+      trace.writeJson(new File(directory, "trace-summary.json"));
+      trace.writeMarkdown(markdown, top);
+    } catch (final IOException kaboom) {
+      if (log != null && log.isWarnEnabled()) {
+        log.warn("Could not write H2 trace summary", kaboom);
+      }
+      return;
+    }
+    if (log != null && log.isInfoEnabled()) {
+      final List<TraceAnalyzer.Fingerprint> slowest = trace.getFingerprints();
+      log.info(String.format("%d H2 statements traced in %d fingerprints (full summary: %s)", trace.getStatementCount(), slowest.size(), markdown));
+      log.info("Slowest by total time:");
+      for (int i = 0; i < Math.min(top, slowest.size()); i++) {
+        log.info(String.format("%3d. %s", i + 1, slowest.get(i)));
+      }
+      log.info("Most frequent:");
+      final List<TraceAnalyzer.Fingerprint> frequent = trace.getMostFrequent(top);
+      for (int i = 0; i < frequent.size(); i++) {
+        log.info(String.format("%3d. %s", i + 1, frequent.get(i)));
+      }
     }
   }
 
@@ -0,0 +1,215 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Appends timestamped lifecycle events, such as a server's process
+ * starting or its first accepted connection, to a file as JSON lines,
+ * one object per event, for consumption by build dashboards.
+ *
+ * <p>Every event carries the identifier of the goal execution that
+ * recorded it, the goal's name, the event's name, the {@linkplain
+ * ServerInstance#getIndex() index} of the server it concerns, if
+ * any, its wall clock time in milliseconds since the epoch, the
+ * milliseconds elapsed since the goal began, and the effective
+ * {@link Service}s and Java options.  Each event is appended as soon
+ * as it is recorded, under an exclusive file lock, so concurrent
+ * builds may share the file and a failing goal leaves every event
+ * up to its failure behind.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class TimingLog {
+
+  /**
+   * The file events are appended to.  This field is never {@code
+   * null}.
+   */
+  private final File file;
+
+  /**
+   * The name of the goal recording events.  This field is never
+   * {@code null}.
+   */
+  private final String goal;
+
+  /**
+   * The identifier of the goal execution recording events.  This
+   * field is never {@code null}.
+   */
+  private final String run;
+
+  /**
+   * The value of {@link System#nanoTime()} when this {@link
+   * TimingLog} was created.
+   */
+  private final long start;
+
+  /**
+   * Creates a new {@link TimingLog}.  Elapsed times are measured from
+   * the moment this constructor is called.
+   *
+   * @param file the file events are appended to; must not be {@code
+   * null}
+   *
+   * @param goal the name of the goal recording events; must not be
+   * {@code null}
+   */
+  public TimingLog(final File file, final String goal) {
+    super();
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file"));
+    }
+    if (goal == null) {
+      throw new IllegalArgumentException("goal", new NullPointerException("goal"));
+    }
+    this.file = file;
+    this.goal = goal;
+    this.run = UUID.randomUUID().toString();
+    this.start = System.nanoTime();
+  }
+
+  /**
+   * Returns the file events are appended to.  This method never
+   * returns {@code null}.
+   *
+   * @return the file; never {@code null}
+   */
+  public File getFile() {
+    return this.file;
+  }
+
+  /**
+   * Appends an event to this {@link TimingLog}'s {@linkplain
+   * #getFile() file}, creating it if necessary.
+   *
+   * @param event the name of the event; must not be {@code null}
+   *
+   * @param instance the {@linkplain ServerInstance#getIndex() index}
+   * of the server the event concerns, or {@code 0} if it concerns the
+   * goal as a whole
+   *
+   * @param services the effective {@link Service}s; may be {@code
+   * null}
+   *
+   * @param javaOptions the effective Java options; may be {@code
+   * null}
+   *
+   * @exception IOException if the event could not be appended
+   */
+  public void record(final String event, final int instance, final List<Service> services, final List<String> javaOptions) throws IOException {
+    if (event == null) {
+      throw new IllegalArgumentException("event", new NullPointerException("event"));
+    }
+    final long elapsed = System.nanoTime() - this.start;
+    final StringBuilder sb = new StringBuilder();
+    sb.append("{\"run\": ").append(QueryStatistics.toJson(this.run));
+    sb.append(", \"goal\": ").append(QueryStatistics.toJson(this.goal));
+    sb.append(", \"event\": ").append(QueryStatistics.toJson(event));
+    if (instance > 0) {
+      sb.append(", \"instance\": ").append(instance);
+    }
+    sb.append(", \"timestamp\": ").append(System.currentTimeMillis());
+    sb.append(", \"elapsedMillis\": ").append(String.format(Locale.ROOT, "%.3f", elapsed / 1000000.0));
+    sb.append(", \"services\": [");
+    if (services != null) {
+      boolean first = true;
+      for (final Service service : services) {
+        if (service != null) {
+          if (!first) {
+            sb.append(", ");
+          }
+          first = false;
+          sb.append("{\"id\": ").append(QueryStatistics.toJson(String.valueOf(service.getId())));
+          sb.append(", \"port\": ").append(service.getPort());
+          sb.append(", \"ssl\": ").append(service.getSSL()).append('}');
+        }
+      }
+    }
+    sb.append("], \"javaOptions\": [");
+    if (javaOptions != null) {
+      for (int i = 0; i < javaOptions.size(); i++) {
+        if (i > 0) {
+          sb.append(", ");
+        }
+        sb.append(QueryStatistics.toJson(javaOptions.get(i)));
+      }
+    }
+    sb.append("]}\n");
+    append(this.file, sb.toString());
+  }
+
+  /**
+   * Appends the supplied text to the supplied file under an exclusive
+   * lock, creating the file if necessary.  Appends from different
+   * threads of the same Java virtual machine are serialized, since
+   * they may not hold overlapping {@link FileLock}s at once.
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @param text the text; must not be {@code null}
+   *
+   * @exception IOException if the text could not be appended
+   */
+  static final synchronized void append(final File file, final String text) throws IOException {
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Could not create " + parent);
+    }
+    final FileChannel channel = new FileOutputStream(file, true).getChannel();
+    try {
+      final FileLock lock = channel.lock();
+      try {
+        final ByteBuffer buffer = ByteBuffer.wrap(text.getBytes("UTF-8"));
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      } finally {
+        lock.release();
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+}
@@ -0,0 +1,728 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.h2.util.StringUtils;
+
+/**
+ * Aggregates the statements an H2 server traces, as it traces them,
+ * by fingerprint: the statement with its literals replaced by {@code
+ * ?}, so that, for example, {@code SELECT * FROM T WHERE ID = 1} and
+ * {@code SELECT * FROM T WHERE ID = 2} are counted together.
+ *
+ * <p>Lines are {@linkplain #read(String) read} one at a time, and
+ * only aggregates are kept: each {@link Fingerprint} holds counts,
+ * times and a fixed-size histogram of execution times.  Once {@link
+ * #getMaxFingerprints()} distinct fingerprints have been seen, further
+ * ones are counted together as {@link #OTHER}, so memory use stays
+ * constant however long the server runs.</p>
+ *
+ * <p>H2 traces a statement, with its execution time in milliseconds
+ * if it took at least one, as a line of the form <code>/&#42;SQL l:20
+ * #:1 t:12&#42;/SELECT ...;</code> while the database's {@code
+ * TRACE_LEVEL_SYSTEM_OUT} or {@code TRACE_LEVEL_FILE} setting is
+ * {@code 2} or higher.</p>
+ *
+ * <p>This class is safe for use by multiple {@link Thread}s.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class TraceAnalyzer {
+
+  /**
+   * The default maximum number of distinct fingerprints kept.
+   */
+  public static final int DEFAULT_MAX_FINGERPRINTS = 1000;
+
+  /**
+   * The fingerprint under which statements are counted once the
+   * maximum number of distinct fingerprints has been reached.
+   */
+  public static final String OTHER = "(other statements)";
+
+  /**
+   * The number of buckets in each {@link Fingerprint}'s histogram.
+   * Bucket {@code 0} counts executions that took less than a
+   * millisecond; bucket <i>i</i> counts those that took at least
+   * 2<sup><i>i</i>-1</sup> and less than 2<sup><i>i</i></sup>
+   * milliseconds; the last bucket counts everything longer.
+   */
+  public static final int BUCKETS = 24;
+
+  /**
+   * The maximum length of a fingerprint; longer ones are truncated.
+   */
+  private static final int MAX_FINGERPRINT_LENGTH = 2000;
+
+  /**
+   * Matches the first line of every message H2 traces, which starts
+   * with a time stamp and the name of the tracing module.
+   */
+  private static final Pattern TRACE_LINE = Pattern.compile("^\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d \\S+: .*");
+
+  /**
+   * Matches a list of two or more placeholders.
+   */
+  private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(?:, \\?)+");
+
+  /**
+   * Matches two or more consecutive parenthesized lists of
+   * placeholders, such as the rows of a multi-row {@code INSERT}.
+   */
+  private static final Pattern ROW_LIST = Pattern.compile("(\\(\\?(?:, \\.\\.\\.)?\\))(?:, \\(\\?(?:, \\.\\.\\.)?\\))+");
+
+  /**
+   * The maximum number of distinct fingerprints kept.
+   */
+  private final int maxFingerprints;
+
+  /**
+   * The {@link Fingerprint}s, indexed by their text.  This field is
+   * never {@code null}.
+   */
+  private final Map<String, Fingerprint> fingerprints;
+
+  /**
+   * Creates a new {@link TraceAnalyzer} that keeps at most {@link
+   * #DEFAULT_MAX_FINGERPRINTS} distinct fingerprints.
+   */
+  public TraceAnalyzer() {
+    this(DEFAULT_MAX_FINGERPRINTS);
+  }
+
+  /**
+   * Creates a new {@link TraceAnalyzer}.
+   *
+   * @param maxFingerprints the maximum number of distinct
+   * fingerprints kept; will be constrained to be at least {@code 1}
+   */
+  public TraceAnalyzer(final int maxFingerprints) {
+    super();
+    this.maxFingerprints = Math.max(1, maxFingerprints);
+    this.fingerprints = new HashMap<String, Fingerprint>();
+  }
+
+  /**
+   * Returns the maximum number of distinct fingerprints this {@link
+   * TraceAnalyzer} keeps.
+   *
+   * @return the maximum number of distinct fingerprints
+   */
+  public int getMaxFingerprints() {
+    return this.maxFingerprints;
+  }
+
+  /**
+   * Reads one line of a server's output, recording the statement it
+   * traces, if any.
+   *
+   * @param line the line; may be {@code null} in which case {@code
+   * false} will be returned
+   *
+   * @return {@code true} if the line was produced by H2's tracing,
+   * and so need not be kept by the caller; {@code false} otherwise
+   */
+  public boolean read(final String line) {
+    if (line == null) {
+      return false;
+    }
+    if (!line.startsWith("/*SQL")) {
+      return TRACE_LINE.matcher(line).matches();
+    }
+    final int end = line.indexOf("*/");
+    if (end < 0) {
+      return false;
+    }
+    String sql;
+    try {
+      sql = StringUtils.javaDecode(line.substring(end + 2));
+    } catch (final RuntimeException malformed) {
+      sql = line.substring(end + 2);
+    }
+    long time = 0L;
+    final String[] tokens = line.substring("/*SQL".length(), end).trim().split("[ :]+");
+    for (int i = 0; i + 1 < tokens.length; i += 2) {
+      try {
+        if ("l".equals(tokens[i])) {
+          // The statement's parameters follow it.
+          final int length = Integer.parseInt(tokens[i + 1]);
+          if (length <= sql.length()) {
+            sql = sql.substring(0, length);
+          }
+        } else if ("t".equals(tokens[i])) {
+          time = Long.parseLong(tokens[i + 1]);
+        }
+      } catch (final NumberFormatException ignore) {
+        // ignore
+      }
+    }
+    this.add(sql, time);
+    return true;
+  }
+
+  /**
+   * Records one execution of the supplied statement.
+   *
+   * @param sql the statement; must not be {@code null}
+   *
+   * @param time the execution time in milliseconds
+   */
+  public void add(final String sql, final long time) {
+    final String text = fingerprint(sql);
+    synchronized (this.fingerprints) {
+      Fingerprint fingerprint = this.fingerprints.get(text);
+      if (fingerprint == null) {
+        if (this.fingerprints.size() >= this.maxFingerprints - 1 && !OTHER.equals(text)) {
+          fingerprint = this.get(OTHER);
+        } else {
+          fingerprint = this.get(text);
+        }
+      }
+      fingerprint.add(time);
+    }
+  }
+
+  /**
+   * Adds every {@link Fingerprint} of the supplied {@link
+   * TraceAnalyzer} to this one.
+   *
+   * @param other the {@link TraceAnalyzer} to merge; may be {@code
+   * null}
+   */
+  public void merge(final TraceAnalyzer other) {
+    if (other == null || other == this) {
+      return;
+    }
+    for (final Fingerprint fingerprint : other.getFingerprints()) {
+      synchronized (this.fingerprints) {
+        Fingerprint mine = this.fingerprints.get(fingerprint.getText());
+        if (mine == null) {
+          mine = this.get(this.fingerprints.size() >= this.maxFingerprints - 1 ? OTHER : fingerprint.getText());
+        }
+        mine.add(fingerprint);
+      }
+    }
+  }
+
+  /**
+   * Returns the {@link Fingerprint} with the supplied text, creating
+   * it if necessary.  Must be called while holding the monitor of the
+   * {@link #fingerprints} map.
+   *
+   * @param text the text; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Fingerprint}
+   */
+  private final Fingerprint get(final String text) {
+    Fingerprint fingerprint = this.fingerprints.get(text);
+    if (fingerprint == null) {
+      fingerprint = new Fingerprint(text);
+      this.fingerprints.put(text, fingerprint);
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Returns copies of the {@link Fingerprint}s seen so far, ranked by
+   * total execution time, highest first, and then by count.  This
+   * method never returns {@code null}.
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of {@link
+   * Fingerprint}s
+   */
+  public List<Fingerprint> getFingerprints() {
+    final List<Fingerprint> list = new ArrayList<Fingerprint>();
+    synchronized (this.fingerprints) {
+      for (final Fingerprint fingerprint : this.fingerprints.values()) {
+        final Fingerprint copy = new Fingerprint(fingerprint.getText());
+        copy.add(fingerprint);
+        list.add(copy);
+      }
+    }
+    Collections.sort(list, new Comparator<Fingerprint>() {
+        @Override
+        public final int compare(final Fingerprint a, final Fingerprint b) {
+          if (a.getTotalTime() != b.getTotalTime()) {
+            return a.getTotalTime() > b.getTotalTime() ? -1 : 1;
+          }
+          if (a.getCount() != b.getCount()) {
+            return a.getCount() > b.getCount() ? -1 : 1;
+          }
+          return a.getText().compareTo(b.getText());
+        }
+      });
+    return list;
+  }
+
+  /**
+   * Returns copies of the supplied number of {@link Fingerprint}s
+   * that were executed most often, most frequent first.  This method
+   * never returns {@code null}.
+   *
+   * @param count the maximum number of {@link Fingerprint}s to return
+   *
+   * @return a new, mutable, non-{@code null} {@link List} of {@link
+   * Fingerprint}s
+   */
+  public List<Fingerprint> getMostFrequent(final int count) {
+    final List<Fingerprint> list = this.getFingerprints();
+    Collections.sort(list, new Comparator<Fingerprint>() {
+        @Override
+        public final int compare(final Fingerprint a, final Fingerprint b) {
+          if (a.getCount() != b.getCount()) {
+            return a.getCount() > b.getCount() ? -1 : 1;
+          }
+          return a.getText().compareTo(b.getText());
+        }
+      });
+    return new ArrayList<Fingerprint>(list.subList(0, Math.max(0, Math.min(count, list.size()))));
+  }
+
+  /**
+   * Returns the total number of statements recorded.
+   *
+   * @return the number of statements
+   */
+  public long getStatementCount() {
+    long count = 0L;
+    synchronized (this.fingerprints) {
+      for (final Fingerprint fingerprint : this.fingerprints.values()) {
+        count += fingerprint.getCount();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Writes every {@link Fingerprint}, {@linkplain #getFingerprints()
+   * ranked} by total execution time, to the supplied file as a JSON
+   * object, along with the number of statements recorded.
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @exception IOException if the file could not be written
+   */
+  public void writeJson(final File file) throws IOException {
+    final List<Fingerprint> list = this.getFingerprints();
+    long statements = 0L;
+    long totalTime = 0L;
+    for (final Fingerprint fingerprint : list) {
+      statements += fingerprint.getCount();
+      totalTime += fingerprint.getTotalTime();
+    }
+    final PrintWriter writer = open(file);
+    try {
+      writer.println(String.format(Locale.ROOT, "{\"statements\": %d, \"totalMillis\": %d, \"histogramBuckets\": \"0: <1 ms; i: [2^(i-1), 2^i) ms\", \"fingerprints\": [", statements, totalTime));
+      for (int i = 0; i < list.size(); i++) {
+        final Fingerprint fingerprint = list.get(i);
+        final StringBuilder histogram = new StringBuilder();
+        final long[] buckets = fingerprint.getHistogram();
+        for (int j = 0; j < buckets.length; j++) {
+          if (j > 0) {
+            histogram.append(", ");
+          }
+          histogram.append(buckets[j]);
+        }
+        writer.print(String.format(Locale.ROOT, "  {\"rank\": %d, \"fingerprint\": %s, \"count\": %d, \"totalMillis\": %d, \"meanMillis\": %.3f, \"maxMillis\": %d, \"p50Millis\": %d, \"p95Millis\": %d, \"p99Millis\": %d, \"histogram\": [%s]}", i + 1, QueryStatistics.toJson(fingerprint.getText()), fingerprint.getCount(), fingerprint.getTotalTime(), fingerprint.getMeanTime(), fingerprint.getMaxTime(), fingerprint.getPercentile(0.50), fingerprint.getPercentile(0.95), fingerprint.getPercentile(0.99), histogram));
+        writer.println(i + 1 < list.size() ? "," : "");
+      }
+      writer.println("]}");
+    } finally {
+      writer.close();
+    }
+    if (writer.checkError()) {
+      throw new IOException("Could not write " + file);
+    }
+  }
+
+  /**
+   * Writes the supplied number of slowest and of most frequent {@link
+   * Fingerprint}s to the supplied file as two Markdown tables.
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @param top the number of {@link Fingerprint}s in each table
+   *
+   * @exception IOException if the file could not be written
+   */
+  public void writeMarkdown(final File file, final int top) throws IOException {
+    final List<Fingerprint> slowest = this.getFingerprints();
+    final PrintWriter writer = open(file);
+    try {
+      writer.println("# H2 trace summary");
+      writer.println();
+      writer.println(String.format(Locale.ROOT, "%d statements, %d distinct fingerprints.", this.getStatementCount(), slowest.size()));
+      writer.println();
+      writer.println("## Slowest statements (by total time)");
+      writer.println();
+      writeTable(writer, slowest.subList(0, Math.max(0, Math.min(top, slowest.size()))));
+      writer.println();
+      writer.println("## Most frequent statements");
+      writer.println();
+      writeTable(writer, this.getMostFrequent(top));
+    } finally {
+      writer.close();
+    }
+    if (writer.checkError()) {
+      throw new IOException("Could not write " + file);
+    }
+  }
+
+  /**
+   * Writes the supplied {@link Fingerprint}s as a Markdown table.
+   *
+   * @param writer the {@link PrintWriter} to write to; must not be
+   * {@code null}
+   *
+   * @param list the {@link Fingerprint}s; must not be {@code null}
+   */
+  private static final void writeTable(final PrintWriter writer, final List<Fingerprint> list) {
+    writer.println("| Rank | Total (ms) | Count | Mean (ms) | p95 (ms) | Max (ms) | Fingerprint |");
+    writer.println("|---:|---:|---:|---:|---:|---:|---|");
+    int rank = 0;
+    for (final Fingerprint fingerprint : list) {
+      final String text = fingerprint.getText().replace("|", "\\|").replace("`", "'");
+      writer.println(String.format(Locale.ROOT, "| %d | %d | %d | %.3f | %d | %d | `%s` |", ++rank, fingerprint.getTotalTime(), fingerprint.getCount(), fingerprint.getMeanTime(), fingerprint.getPercentile(0.95), fingerprint.getMaxTime(), text));
+    }
+  }
+
+  /**
+   * Opens the supplied file for writing in UTF-8, creating its parent
+   * directory if necessary.
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @return a new {@link PrintWriter}; never {@code null}
+   *
+   * @exception IOException if the file could not be opened
+   */
+  private static final PrintWriter open(final File file) throws IOException {
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Could not create " + parent);
+    }
+    return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+  }
+
+  /**
+   * Returns the fingerprint of the supplied statement: the statement
+   * with its string, numeric and hexadecimal literals replaced by
+   * {@code ?}, lists of placeholders shortened to {@code ?, ...},
+   * runs of whitespace collapsed to a single space, and everything
+   * outside of quoted identifiers in upper case.
+   *
+   * @param sql the statement; must not be {@code null}
+   *
+   * @return the fingerprint; never {@code null}
+   */
+  static final String fingerprint(final String sql) {
+    final int length = sql.length();
+    final StringBuilder sb = new StringBuilder(Math.min(length, MAX_FINGERPRINT_LENGTH));
+    int i = 0;
+    while (i < length && sb.length() < MAX_FINGERPRINT_LENGTH) {
+      final char c = sql.charAt(i);
+      final char previous = sb.length() == 0 ? ' ' : sb.charAt(sb.length() - 1);
+      if (c == '\'') {
+        // A string literal, possibly with doubled quotes inside.
+        i++;
+        while (i < length) {
+          if (sql.charAt(i) == '\'') {
+            if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+              i += 2;
+              continue;
+            }
+            break;
+          }
+          i++;
+        }
+        i++;
+        if ((previous == 'X' || previous == 'N') && (sb.length() < 2 || !isIdentifierPart(sb.charAt(sb.length() - 2)))) {
+          // A hexadecimal or national character literal.
+          sb.setLength(sb.length() - 1);
+        }
+        sb.append('?');
+      } else if (c == '"') {
+        // A quoted identifier, kept as is.
+        final int end = sql.indexOf('"', i + 1);
+        final int next = end < 0 ? length : end + 1;
+        sb.append(sql, i, next);
+        i = next;
+      } else if (Character.isDigit(c) && !isIdentifierPart(previous)) {
+        // A numeric literal, possibly with a fraction and exponent.
+        i++;
+        while (i < length) {
+          final char d = sql.charAt(i);
+          if (Character.isDigit(d) || d == '.') {
+            i++;
+          } else if ((d == 'E' || d == 'e') && i + 1 < length && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '-' || sql.charAt(i + 1) == '+')) {
+            i += 2;
+          } else {
+            break;
+          }
+        }
+        sb.append('?');
+      } else if (Character.isWhitespace(c)) {
+        while (i < length && Character.isWhitespace(sql.charAt(i))) {
+          i++;
+        }
+        if (sb.length() > 0) {
+          sb.append(' ');
+        }
+      } else {
+        sb.append(Character.toUpperCase(c));
+        i++;
+      }
+    }
+    String fingerprint = sb.toString().trim();
+    if (fingerprint.endsWith(";")) {
+      fingerprint = fingerprint.substring(0, fingerprint.length() - 1).trim();
+    }
+    fingerprint = fingerprint.replace("( ", "(").replace(" )", ")").replaceAll(" ?, ?", ", ");
+    fingerprint = PLACEHOLDER_LIST.matcher(fingerprint).replaceAll("?, ...");
+    fingerprint = ROW_LIST.matcher(fingerprint).replaceAll("$1, ...");
+    return fingerprint;
+  }
+
+  /**
+   * Returns {@code true} if the supplied character may be part of an
+   * unquoted identifier.
+   *
+   * @param c the character
+   *
+   * @return {@code true} if the character may be part of an
+   * identifier
+   */
+  private static final boolean isIdentifierPart(final char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
+  /**
+   * Aggregated executions of the statements that share a fingerprint.
+   *
+   * <p>This class is not safe for use by multiple {@link Thread}s;
+   * {@link TraceAnalyzer} synchronizes access to its instances.</p>
+   *
+   * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+   *
+   * @since 1.1-SNAPSHOT
+   */
+  public static final class Fingerprint {
+
+    /**
+     * The fingerprint's text.  This field is never {@code null}.
+     */
+    private final String text;
+
+    /**
+     * The number of executions.
+     */
+    private long count;
+
+    /**
+     * The total execution time in milliseconds.
+     */
+    private long totalTime;
+
+    /**
+     * The longest execution time in milliseconds.
+     */
+    private long maxTime;
+
+    /**
+     * The histogram of execution times; see {@link
+     * TraceAnalyzer#BUCKETS}.  This field is never {@code null}.
+     */
+    private final long[] histogram;
+
+    /**
+     * Creates a new {@link Fingerprint} with no executions.
+     *
+     * @param text the fingerprint's text; must not be {@code null}
+     */
+    Fingerprint(final String text) {
+      super();
+      if (text == null) {
+        throw new IllegalArgumentException("text", new NullPointerException("text"));
+      }
+      this.text = text;
+      this.histogram = new long[BUCKETS];
+    }
+
+    /**
+     * Returns this {@link Fingerprint}'s text.  This method never
+     * returns {@code null}.
+     *
+     * @return the text; never {@code null}
+     */
+    public String getText() {
+      return this.text;
+    }
+
+    /**
+     * Returns the number of executions.
+     *
+     * @return the number of executions
+     */
+    public long getCount() {
+      return this.count;
+    }
+
+    /**
+     * Returns the total execution time.
+     *
+     * @return the total execution time in milliseconds
+     */
+    public long getTotalTime() {
+      return this.totalTime;
+    }
+
+    /**
+     * Returns the mean execution time.
+     *
+     * @return the mean execution time in milliseconds
+     */
+    public double getMeanTime() {
+      return this.count == 0L ? 0.0 : (double)this.totalTime / (double)this.count;
+    }
+
+    /**
+     * Returns the longest execution time.
+     *
+     * @return the longest execution time in milliseconds
+     */
+    public long getMaxTime() {
+      return this.maxTime;
+    }
+
+    /**
+     * Returns a copy of the histogram of execution times; see {@link
+     * TraceAnalyzer#BUCKETS}.  This method never returns {@code
+     * null}.
+     *
+     * @return a new, non-{@code null} array of {@link
+     * TraceAnalyzer#BUCKETS} counts
+     */
+    public long[] getHistogram() {
+      return this.histogram.clone();
+    }
+
+    /**
+     * Returns an upper bound, from the histogram, on the supplied
+     * percentile of execution times, never more than the {@linkplain
+     * #getMaxTime() longest execution time}.
+     *
+     * @param fraction the percentile as a fraction between {@code 0}
+     * and {@code 1}
+     *
+     * @return the percentile in milliseconds
+     */
+    public long getPercentile(final double fraction) {
+      final long rank = (long)Math.ceil(fraction * this.count);
+      long seen = 0L;
+      for (int i = 0; i < this.histogram.length; i++) {
+        seen += this.histogram[i];
+        if (seen >= rank && seen > 0L) {
+          return i == 0 ? 0L : Math.min(this.maxTime, (1L << i) - 1L);
+        }
+      }
+      return this.maxTime;
+    }
+
+    /**
+     * Records one execution.
+     *
+     * @param time the execution time in milliseconds
+     */
+    void add(final long time) {
+      this.count++;
+      this.totalTime += Math.max(0L, time);
+      this.maxTime = Math.max(this.maxTime, time);
+      this.histogram[bucket(time)]++;
+    }
+
+    /**
+     * Adds the executions recorded by the supplied {@link
+     * Fingerprint} to this one.
+     *
+     * @param other the other {@link Fingerprint}; must not be {@code
+     * null}
+     */
+    void add(final Fingerprint other) {
+      this.count += other.count;
+      this.totalTime += other.totalTime;
+      this.maxTime = Math.max(this.maxTime, other.maxTime);
+      for (int i = 0; i < this.histogram.length; i++) {
+        this.histogram[i] += other.histogram[i];
+      }
+    }
+
+    /**
+     * Returns the histogram bucket of the supplied execution time.
+     *
+     * @param time the execution time in milliseconds
+     *
+     * @return the bucket
+     */
+    private static final int bucket(final long time) {
+      if (time < 1L) {
+        return 0;
+      }
+      return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(time));
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link
+     * Fingerprint}.
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%d ms total, %d x, %.3f ms mean, %d ms p95, %d ms max: %s", this.totalTime, this.count, this.getMeanTime(), this.getPercentile(0.95), this.maxTime, this.text);
+    }
+
+  }
+
+}
@@ -0,0 +1,162 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.math.BigDecimal;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * A <a href="http://www.junit.org/">JUnit</a> test suite that
+ * exercises the {@link BulkLoadH2Mojo} class against a server
+ * {@linkplain StartH2Mojo started in-process}.
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class TestCaseBulkLoadH2Mojo {
+
+  /**
+   * The directory holding the CSV file and the database.  This field
+   * may be {@code null}.  It is initialized by the {@link #setUp()}
+   * method.
+   */
+  private File directory;
+
+  /**
+   * The plugin context shared by the mojos.  This field may be
+   * {@code null}.  It is initialized by the {@link #setUp()} method.
+   */
+  private Map<Object, Object> pluginContext;
+
+  /**
+   * Starts an H2 server in-process.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Before
+  public void setUp() throws Exception {
+    this.directory = new File(System.getProperty("maven.project.build.directory", "target"), "bulk-load-test");
+    SeedCache.delete(this.directory);
+    assertTrue(this.directory.mkdirs());
+    this.pluginContext = new HashMap<Object, Object>();
+    final StartH2Mojo start = new StartH2Mojo();
+    start.setPluginContext(this.pluginContext);
+    start.setBaseDirectory(this.directory);
+    start.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    start.execute();
+  }
+
+  /**
+   * Stops the H2 server started by the {@link #setUp()} method.
+   *
+   * @exception Exception if an error occurs
+   */
+  @After
+  public void tearDown() throws Exception {
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setPluginContext(this.pluginContext);
+    stop.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    stop.execute();
+  }
+
+  /**
+   * Loads a CSV file with quoted fields, embedded line breaks and
+   * {@code NULL}s into a table with a secondary index, and ensures
+   * that every row arrived and the index was recreated.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testBulkLoad() throws Exception {
+    final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    final Statement statement = connection.createStatement();
+    statement.execute("CREATE TABLE ITEM(ID INT PRIMARY KEY, NAME VARCHAR, PRICE DECIMAL(10, 2))");
+    statement.execute("CREATE INDEX ITEM_NAME ON ITEM(NAME)");
+
+    final File file = new File(this.directory, "items.csv");
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    writer.write("ID,NAME,PRICE\r\n");
+    for (int i = 0; i < 10000; i++) {
+      writer.write(String.valueOf(i));
+      writer.write(",");
+      if (i % 3 == 0) {
+        writer.write("\"item, \"\"number\"\"\n" + i + "\"");
+      } else if (i % 3 == 1) {
+        writer.write("élément " + i);
+      }
+      writer.write(",");
+      writer.write(String.valueOf(i / 100.0));
+      writer.write("\r\n");
+    }
+    writer.close();
+
+    final BulkLoadH2Mojo mojo = new BulkLoadH2Mojo();
+    mojo.setPluginContext(this.pluginContext);
+    mojo.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    mojo.setBatchSize(500);
+    mojo.setEncoding("UTF-8");
+    mojo.setCsvFiles(Arrays.asList(new CsvFile(file, "item")));
+    mojo.execute();
+
+    ResultSet resultSet = statement.executeQuery("SELECT COUNT(*), COUNT(NAME), SUM(PRICE) FROM ITEM");
+    assertTrue(resultSet.next());
+    assertEquals(10000, resultSet.getInt(1));
+    assertEquals(6667, resultSet.getInt(2));
+    assertEquals(new BigDecimal("499950.00"), resultSet.getBigDecimal(3));
+    resultSet = statement.executeQuery("SELECT NAME FROM ITEM WHERE ID IN (3, 4) ORDER BY ID");
+    assertTrue(resultSet.next());
+    assertEquals("item, \"number\"\n3", resultSet.getString(1));
+    assertTrue(resultSet.next());
+    assertEquals("élément 4", resultSet.getString(1));
+    resultSet = statement.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME = 'ITEM_NAME'");
+    assertTrue(resultSet.next());
+    assertEquals(1, resultSet.getInt(1));
+    connection.close();
+  }
+
+}
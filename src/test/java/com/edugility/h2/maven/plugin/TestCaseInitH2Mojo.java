@@ -0,0 +1,188 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * A <a href="http://www.junit.org/">JUnit</a> test suite that
+ * exercises the {@link InitH2Mojo} class against a server {@linkplain
+ * StartH2Mojo started in-process}.
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class TestCaseInitH2Mojo {
+
+  /**
+   * The directory holding the scripts and the database.  This field
+   * may be {@code null}.  It is initialized by the {@link #setUp()}
+   * method.
+   */
+  private File directory;
+
+  /**
+   * The plugin context shared by the mojos.  This field may be
+   * {@code null}.  It is initialized by the {@link #setUp()} method.
+   */
+  private Map<Object, Object> pluginContext;
+
+  /**
+   * Starts an H2 server in-process.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Before
+  public void setUp() throws Exception {
+    this.directory = new File(System.getProperty("maven.project.build.directory", "target"), "init-test");
+    SeedCache.delete(this.directory);
+    assertTrue(this.directory.mkdirs());
+    this.pluginContext = new HashMap<Object, Object>();
+    final StartH2Mojo start = new StartH2Mojo();
+    start.setPluginContext(this.pluginContext);
+    start.setBaseDirectory(this.directory);
+    start.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    start.execute();
+  }
+
+  /**
+   * Stops the H2 server started by the {@link #setUp()} method.
+   *
+   * @exception Exception if an error occurs
+   */
+  @After
+  public void tearDown() throws Exception {
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setPluginContext(this.pluginContext);
+    stop.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    stop.execute();
+  }
+
+  /**
+   * Runs a schema script followed by two independent data scripts,
+   * and ensures that every row arrived.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testInit() throws Exception {
+    final StringBuilder a = new StringBuilder();
+    final StringBuilder b = new StringBuilder("-- Comments and blank statements are skipped.\n;\n");
+    for (int i = 0; i < 2500; i++) {
+      a.append("INSERT INTO A VALUES (").append(i).append(");\n");
+      b.append("insert into B values (").append(i).append(", 'semicolon; inside');\n");
+    }
+    b.append("UPDATE B SET NAME = 'updated' WHERE ID = 0;\n");
+    final InitH2Mojo mojo = new InitH2Mojo();
+    mojo.setPluginContext(this.pluginContext);
+    mojo.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    mojo.setBatchSize(100);
+    // Deliberately out of order.
+    mojo.setScripts(Arrays.asList(new Script(this.write("a.sql", a.toString()), "schema.sql"),
+                                  new Script(this.write("b.sql", b.toString()), "schema.sql"),
+                                  new Script(this.write("schema.sql", "CREATE TABLE A(ID INT PRIMARY KEY);\nCREATE TABLE B(ID INT PRIMARY KEY, NAME VARCHAR);\n"))));
+    mojo.execute();
+
+    final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    final ResultSet resultSet = connection.createStatement().executeQuery("SELECT (SELECT COUNT(*) FROM A), (SELECT COUNT(*) FROM B), (SELECT NAME FROM B WHERE ID = 0), (SELECT NAME FROM B WHERE ID = 1)");
+    assertTrue(resultSet.next());
+    assertEquals(2500, resultSet.getInt(1));
+    assertEquals(2500, resultSet.getInt(2));
+    assertEquals("updated", resultSet.getString(3));
+    assertEquals("semicolon; inside", resultSet.getString(4));
+    connection.close();
+  }
+
+  /**
+   * Ensures that circular and missing dependencies are rejected.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testSort() throws Exception {
+    final List<Script> sorted = InitH2Mojo.sort(Arrays.asList(new Script(new File("b.sql"), "a.sql"), new Script(new File("a.sql"))));
+    assertEquals("a.sql", sorted.get(0).getId());
+    assertEquals("b.sql", sorted.get(1).getId());
+    try {
+      InitH2Mojo.sort(Arrays.asList(new Script(new File("b.sql"), "a.sql"), new Script(new File("a.sql"), "b.sql")));
+      fail();
+    } catch (final MojoExecutionException expected) {
+      // expected
+    }
+    try {
+      InitH2Mojo.sort(Arrays.asList(new Script(new File("b.sql"), "c.sql")));
+      fail();
+    } catch (final MojoExecutionException expected) {
+      // expected
+    }
+  }
+
+  /**
+   * Writes the supplied SQL to a new file.
+   *
+   * @param name the name of the file; must not be {@code null}
+   *
+   * @param sql the SQL; must not be {@code null}
+   *
+   * @return the new file; never {@code null}
+   *
+   * @exception IOException if the file could not be written
+   */
+  private final File write(final String name, final String sql) throws IOException {
+    final File file = new File(this.directory, name);
+    final Writer writer = new FileWriter(file);
+    try {
+      writer.write(sql);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+}
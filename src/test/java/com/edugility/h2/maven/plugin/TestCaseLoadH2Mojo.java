@@ -0,0 +1,360 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Scanner;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * A <a href="http://www.junit.org/">JUnit</a> test suite that
+ * exercises the {@link LoadH2Mojo} and {@link CheckPerformanceH2Mojo}
+ * classes against a server {@linkplain StartH2Mojo started
+ * in-process}.
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class TestCaseLoadH2Mojo {
+
+  /**
+   * The directory holding the server's databases and the report.
+   * This field may be {@code null}.  It is initialized by the {@link
+   * #setUp()} method.
+   */
+  private File directory;
+
+  /**
+   * The plugin context shared by the mojos.  This field may be
+   * {@code null}.  It is initialized by the {@link #setUp()} method.
+   */
+  private Map<Object, Object> pluginContext;
+
+  /**
+   * Starts an H2 server in-process.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Before
+  public void setUp() throws Exception {
+    this.directory = new File(System.getProperty("maven.project.build.directory", "target"), "load-test");
+    SeedCache.delete(this.directory);
+    assertTrue(this.directory.mkdirs());
+    this.pluginContext = new HashMap<Object, Object>();
+    final StartH2Mojo start = new StartH2Mojo();
+    start.setPluginContext(this.pluginContext);
+    start.setBaseDirectory(this.directory);
+    start.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    start.execute();
+  }
+
+  /**
+   * Stops the H2 server started by the {@link #setUp()} method.
+   *
+   * @exception Exception if an error occurs
+   */
+  @After
+  public void tearDown() throws Exception {
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setPluginContext(this.pluginContext);
+    stop.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    stop.execute();
+  }
+
+  /**
+   * Runs a fixed number of weighted inserts and queries from several
+   * clients and ensures that every one of them ran and was reported.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testLoad() throws Exception {
+    final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    final Statement statement = connection.createStatement();
+    statement.execute("CREATE TABLE T(ID BIGINT PRIMARY KEY, NAME VARCHAR, KIND VARCHAR)");
+
+    final LoadH2Mojo load = new LoadH2Mojo();
+    load.setPluginContext(this.pluginContext);
+    load.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    load.setReportDirectory(this.directory);
+    load.setConcurrency(8);
+    load.setLoadOperations(400L);
+    load.setStatements(Arrays.asList(new LoadStatement("INSERT INTO T VALUES (?, ?, ?)", 3, "sequence", "string:12", "choice:a|b"),
+                                     new LoadStatement("SELECT * FROM T WHERE ID = ?", 1, "int:1:100")));
+    load.execute();
+
+    final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*), COUNT(DISTINCT ID), MIN(ID), MAX(LENGTH(NAME)) FROM T WHERE KIND IN ('a', 'b')");
+    assertTrue(resultSet.next());
+    final long inserted = resultSet.getLong(1);
+    assertTrue(inserted > 0L && inserted < 400L);
+    assertEquals(inserted, resultSet.getLong(2));
+    assertEquals(1L, resultSet.getLong(3));
+    assertEquals(12, resultSet.getInt(4));
+    resultSet.close();
+    connection.close();
+
+    final Scanner scanner = new Scanner(new File(this.directory, "load.json"), "UTF-8");
+    final String json = scanner.useDelimiter("\\A").next();
+    scanner.close();
+    assertTrue(json, json.contains("\"total\": {\"operations\": 400, \"errors\": 0,"));
+    assertTrue(json, json.contains(String.format("\"results\": {\"operations\": %d, \"errors\": 0,", inserted)));
+    assertTrue(json, json.contains("\"p99_9Millis\""));
+  }
+
+  /**
+   * Runs inserts keyed by a {@code sequence} through a warm-up run
+   * and two measured runs, and ensures that the sequence carries on
+   * from run to run rather than starting again, so that no insert
+   * fails on a duplicate key.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testSequenceAcrossRuns() throws Exception {
+    final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    final Statement statement = connection.createStatement();
+    statement.execute("CREATE TABLE T(ID BIGINT PRIMARY KEY)");
+
+    final LoadH2Mojo load = new LoadH2Mojo();
+    load.setPluginContext(this.pluginContext);
+    load.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    load.setReportDirectory(this.directory);
+    load.setConcurrency(4);
+    load.setLoadOperations(100L);
+    load.setLoadWarmupRuns(1);
+    load.setLoadRuns(2);
+    load.setStatements(Arrays.asList(new LoadStatement("INSERT INTO T VALUES (?)", 1, "sequence")));
+    load.execute();
+
+    final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM T");
+    assertTrue(resultSet.next());
+    assertEquals(300L, resultSet.getLong(1));
+    resultSet.close();
+    connection.close();
+
+    for (final String name : new String[] { "load-1.json", "load-2.json" }) {
+      final Scanner scanner = new Scanner(new File(this.directory, name), "UTF-8");
+      final String json = scanner.useDelimiter("\\A").next();
+      scanner.close();
+      assertTrue(json, json.contains("\"total\": {\"operations\": 100, \"errors\": 0,"));
+    }
+  }
+
+  /**
+   * Runs a load in which every statement fails and ensures that only
+   * its error rate is recorded, rather than latencies of zero.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testFailingLoad() throws Exception {
+    final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    connection.createStatement().execute("CREATE TABLE T(ID BIGINT CHECK ID < 0)");
+    connection.close();
+
+    final LoadH2Mojo load = new LoadH2Mojo();
+    load.setPluginContext(this.pluginContext);
+    load.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    load.setReportDirectory(this.directory);
+    load.setConcurrency(2);
+    load.setLoadOperations(20L);
+    load.setStatements(Arrays.asList(new LoadStatement("INSERT INTO T VALUES (?)", 1, "int:1:10")));
+    load.execute();
+
+    final Map<String, PerformanceMetrics.Summary> summaries = new PerformanceMetrics(load.getMetricsFile()).read();
+    assertEquals(Arrays.asList("load.errorRate"), new ArrayList<String>(summaries.keySet()));
+    assertEquals(1.0, summaries.get("load.errorRate").getMean(), 0.0);
+    assertFalse(PerformanceMetrics.isHigherBetter("load.errorRate"));
+  }
+
+  /**
+   * Runs the load several times, writes a baseline from the recorded
+   * metrics, and ensures that checking against that baseline passes
+   * and that checking against a much higher throughput fails.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testCheckPerformance() throws Exception {
+    final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    connection.createStatement().execute("CREATE TABLE T(ID BIGINT PRIMARY KEY)");
+    connection.close();
+
+    final LoadH2Mojo load = new LoadH2Mojo();
+    load.setPluginContext(this.pluginContext);
+    load.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    load.setReportDirectory(this.directory);
+    load.setConcurrency(4);
+    load.setLoadOperations(200L);
+    load.setLoadWarmupRuns(1);
+    load.setLoadRuns(3);
+    load.setStatements(Arrays.asList(new LoadStatement("MERGE INTO T VALUES (?)", 1, "int:1:50")));
+    load.execute();
+    assertTrue(new File(this.directory, "load-3.json").isFile());
+    assertFalse(new File(this.directory, "load-4.json").isFile());
+
+    final Map<String, PerformanceMetrics.Summary> summaries = new PerformanceMetrics(load.getMetricsFile()).read();
+    assertEquals(Arrays.asList("load.errorRate", "load.opsPerSecond", "load.p50Millis", "load.p90Millis", "load.p99Millis", "load.p99_9Millis"), new ArrayList<String>(summaries.keySet()));
+    assertEquals(3, summaries.get("load.opsPerSecond").getCount());
+
+    final File baselineFile = new File(this.directory, "baseline.properties");
+    final CheckPerformanceH2Mojo check = new CheckPerformanceH2Mojo();
+    check.setPluginContext(this.pluginContext);
+    check.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    check.setReportDirectory(this.directory);
+    check.setBaselineFile(baselineFile);
+    check.setUpdateBaseline(true);
+    check.execute();
+    final Map<String, Double> baseline = CheckPerformanceH2Mojo.readBaseline(baselineFile);
+    assertEquals(summaries.keySet(), baseline.keySet());
+    assertEquals(summaries.get("load.opsPerSecond").getMean(), baseline.get("load.opsPerSecond").doubleValue(), 0.001);
+
+    check.setUpdateBaseline(false);
+    check.execute();
+
+    final Properties properties = new Properties();
+    properties.setProperty("load.opsPerSecond", "1000000000");
+    this.store(properties, baselineFile);
+    try {
+      check.execute();
+      fail();
+    } catch (final MojoFailureException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("load.opsPerSecond"));
+    }
+  }
+
+  /**
+   * Ensures that a {@link PerformanceMetrics.Summary} computes the
+   * mean, standard deviation and confidence interval of its samples.
+   */
+  @Test
+  public void testSummary() {
+    final PerformanceMetrics.Summary summary = new PerformanceMetrics.Summary("load.p99Millis");
+    summary.add(10.0);
+    assertEquals(0.0, summary.getConfidenceHalfWidth(), 0.0);
+    summary.add(12.0);
+    summary.add(14.0);
+    assertEquals(3, summary.getCount());
+    assertEquals(12.0, summary.getMean(), 0.000001);
+    assertEquals(2.0, summary.getStandardDeviation(), 0.000001);
+    // t(0.975, 2) * s / sqrt(n)
+    assertEquals(4.303 * 2.0 / Math.sqrt(3.0), summary.getConfidenceHalfWidth(), 0.000001);
+    assertFalse(PerformanceMetrics.isHigherBetter("load.p99Millis"));
+    assertTrue(PerformanceMetrics.isHigherBetter("load.opsPerSecond"));
+  }
+
+  /**
+   * Ensures that only the samples of the most recent build are read,
+   * so that stale samples left by earlier builds are ignored.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testSamplesOfMostRecentBuild() throws Exception {
+    final File file = new File(this.directory, "builds.jsonl");
+    new PerformanceMetrics(file).record("load.opsPerSecond", 1.0);
+    final PerformanceMetrics earlier = new PerformanceMetrics(file, "earlier");
+    earlier.record("load.opsPerSecond", 100.0);
+    earlier.record("load.p99Millis", 5.0);
+    final PerformanceMetrics later = new PerformanceMetrics(file, "later");
+    later.record("load.opsPerSecond", 10.0);
+    later.record("load.opsPerSecond", 20.0);
+    final Map<String, PerformanceMetrics.Summary> summaries = later.read();
+    assertEquals(Arrays.asList("load.opsPerSecond"), new ArrayList<String>(summaries.keySet()));
+    assertEquals(2, summaries.get("load.opsPerSecond").getCount());
+    assertEquals(15.0, summaries.get("load.opsPerSecond").getMean(), 0.000001);
+
+    final LoadH2Mojo load = new LoadH2Mojo();
+    load.setPluginContext(this.pluginContext);
+    final CheckPerformanceH2Mojo check = new CheckPerformanceH2Mojo();
+    check.setPluginContext(this.pluginContext);
+    assertEquals(load.getBuildId(), check.getBuildId());
+    check.setPluginContext(new HashMap<Object, Object>());
+    assertFalse(load.getBuildId().equals(check.getBuildId()));
+  }
+
+  /**
+   * Stores the supplied {@link Properties} in the supplied file.
+   *
+   * @param properties the {@link Properties}; must not be {@code null}
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @exception IOException if an error occurs
+   */
+  private final void store(final Properties properties, final File file) throws IOException {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      properties.store(out, null);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Ensures that a {@link LatencyHistogram} reports percentiles to
+   * within its resolution.
+   */
+  @Test
+  public void testLatencyHistogram() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1L; micros <= 100000L; micros++) {
+      histogram.record(micros);
+    }
+    assertEquals(100000L, histogram.getCount());
+    assertEquals(100000L, histogram.getMax());
+    assertEquals(50000.5, histogram.getMean(), 0.001);
+    for (final double fraction : LoadGenerator.PERCENTILES) {
+      final long expected = (long)(fraction * 100000L);
+      final long actual = histogram.getPercentile(fraction);
+      assertTrue(fraction + ": " + actual, actual >= expected && actual <= expected + expected / 32L + 1L);
+    }
+  }
+
+}
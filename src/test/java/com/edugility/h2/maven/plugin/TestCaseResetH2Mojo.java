@@ -0,0 +1,226 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * A <a href="http://www.junit.org/">JUnit</a> test suite that
+ * exercises the {@link CheckpointH2Mojo} and {@link ResetH2Mojo}
+ * classes against a server {@linkplain StartH2Mojo started
+ * in-process}.
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class TestCaseResetH2Mojo {
+
+  /**
+   * The plugin context shared by the mojos.  This field may be
+   * {@code null}.  It is initialized by the {@link #setUp()} method.
+   */
+  private Map<Object, Object> pluginContext;
+
+  /**
+   * Starts an H2 server in-process.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Before
+  public void setUp() throws Exception {
+    final File directory = new File(System.getProperty("maven.project.build.directory", "target"), "reset-test");
+    SeedCache.delete(directory);
+    assertTrue(directory.mkdirs());
+    this.pluginContext = new HashMap<Object, Object>();
+    final StartH2Mojo start = new StartH2Mojo();
+    start.setPluginContext(this.pluginContext);
+    start.setBaseDirectory(directory);
+    start.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    start.execute();
+  }
+
+  /**
+   * Stops the H2 server started by the {@link #setUp()} method.
+   *
+   * @exception Exception if an error occurs
+   */
+  @After
+  public void tearDown() throws Exception {
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setPluginContext(this.pluginContext);
+    stop.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    stop.execute();
+  }
+
+  /**
+   * Saves a checkpoint, changes one of two related tables and a
+   * sequence, and ensures that resetting reloads only the changed
+   * table and restores the sequence, and that resetting again
+   * reloads nothing.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testReset() throws Exception {
+    Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    Statement statement = connection.createStatement();
+    statement.execute("CREATE TABLE PARENT(ID INT PRIMARY KEY)");
+    statement.execute("CREATE TABLE CHILD(ID IDENTITY, PARENT_ID INT REFERENCES PARENT(ID), NAME VARCHAR)");
+    statement.execute("CREATE SEQUENCE S");
+    statement.execute("INSERT INTO PARENT VALUES (1), (2)");
+    statement.execute("INSERT INTO CHILD(PARENT_ID, NAME) VALUES (1, 'a'), (2, 'b')");
+    connection.close();
+
+    final CheckpointH2Mojo checkpoint = new CheckpointH2Mojo();
+    checkpoint.setPluginContext(this.pluginContext);
+    checkpoint.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    checkpoint.execute();
+
+    connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    statement = connection.createStatement();
+    this.change(statement);
+    assertEquals(Collections.singletonList("PUBLIC.CHILD"), new Checkpoint("default").restore(connection));
+    this.assertRestored(statement);
+    assertEquals(Collections.<String>emptyList(), new Checkpoint("default").restore(connection));
+
+    this.change(statement);
+    final ResetH2Mojo reset = new ResetH2Mojo();
+    reset.setPluginContext(this.pluginContext);
+    reset.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    reset.execute();
+    this.assertRestored(statement);
+    // The identity column's sequence was restored too.
+    statement.execute("INSERT INTO CHILD(PARENT_ID, NAME) VALUES (1, 'd')");
+    final ResultSet resultSet = statement.executeQuery("SELECT ID FROM CHILD WHERE NAME = 'd'");
+    assertTrue(resultSet.next());
+    assertEquals(3L, resultSet.getLong(1));
+    resultSet.close();
+    connection.close();
+  }
+
+  /**
+   * Saves a checkpoint, creates a table and fills it, and ensures that
+   * resetting drops the new table so that it does not leak into the
+   * next run.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testResetDropsNewTables() throws Exception {
+    final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    final Statement statement = connection.createStatement();
+    statement.execute("CREATE TABLE KEPT(ID INT PRIMARY KEY)");
+    new Checkpoint("default").save(connection);
+
+    statement.execute("CREATE TABLE ADDED(ID INT PRIMARY KEY, KEPT_ID INT REFERENCES KEPT(ID))");
+    statement.execute("INSERT INTO KEPT VALUES (1)");
+    statement.execute("INSERT INTO ADDED VALUES (1, 1)");
+    final List<String> restored = new Checkpoint("default").restore(connection);
+    assertTrue(restored.toString(), restored.contains("PUBLIC.ADDED"));
+    final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = 'PUBLIC' AND TABLE_NAME = 'ADDED'");
+    assertTrue(resultSet.next());
+    assertEquals(0, resultSet.getInt(1));
+    resultSet.close();
+    statement.execute("INSERT INTO KEPT VALUES (1)");
+    connection.close();
+  }
+
+  /**
+   * Ensures that resetting to a checkpoint that was never saved
+   * fails.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test(expected = MojoExecutionException.class)
+  public void testResetWithoutCheckpoint() throws Exception {
+    final ResetH2Mojo reset = new ResetH2Mojo();
+    reset.setPluginContext(this.pluginContext);
+    reset.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    reset.setCheckpoint("missing");
+    reset.execute();
+  }
+
+  /**
+   * Changes the {@code CHILD} table and the {@code S} sequence.
+   *
+   * @param statement the {@link Statement} to use; must not be {@code
+   * null}
+   *
+   * @exception Exception if an error occurs
+   */
+  private final void change(final Statement statement) throws Exception {
+    statement.execute("DELETE FROM CHILD WHERE PARENT_ID = 2");
+    statement.execute("INSERT INTO CHILD(PARENT_ID, NAME) VALUES (1, 'c')");
+    statement.execute("CALL NEXT VALUE FOR S");
+    statement.execute("CALL NEXT VALUE FOR S");
+  }
+
+  /**
+   * Ensures that the {@code CHILD} table and the {@code S} sequence
+   * are as they were when the checkpoint was saved.
+   *
+   * @param statement the {@link Statement} to use; must not be {@code
+   * null}
+   *
+   * @exception Exception if an error occurs
+   */
+  private final void assertRestored(final Statement statement) throws Exception {
+    ResultSet resultSet = statement.executeQuery("SELECT COUNT(*), MAX(NAME), MAX(ID) FROM CHILD");
+    assertTrue(resultSet.next());
+    assertEquals(2, resultSet.getInt(1));
+    assertEquals("b", resultSet.getString(2));
+    assertEquals(2L, resultSet.getLong(3));
+    resultSet.close();
+    resultSet = statement.executeQuery("SELECT NEXT VALUE FOR S");
+    assertTrue(resultSet.next());
+    assertEquals(1L, resultSet.getLong(1));
+    resultSet.close();
+    // Undo the NEXT VALUE FOR above.
+    statement.execute("ALTER SEQUENCE S RESTART WITH 1");
+  }
+
+}
@@ -27,22 +27,37 @@
  */
 package com.edugility.h2.maven.plugin;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+
+import java.nio.charset.Charset;
+
+import java.nio.file.Files;
 
 import java.sql.DriverManager;
 import java.sql.Connection;
+import java.sql.ResultSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
 
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.logging.SystemStreamLog;
 
+import org.apache.maven.project.MavenProject;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * A <a href="http://www.junit.org/">JUnit</a> test suite that
@@ -72,6 +87,7 @@ public class TestCaseSpawnH2Mojo {
     }
     this.mojo.setLog(new SystemStreamLogWithDebugEnabled());
     this.mojo.setTrace(true);
+    this.mojo.setClassDataSharingDirectory(new File(System.getProperty("maven.project.build.directory", "target"), "cds"));
     assertEquals(9092, this.mojo.getPort());
   }
 
@@ -112,34 +128,676 @@ public class TestCaseSpawnH2Mojo {
     try {
       assertEquals(0, p.exitValue());
     } catch (final AssertionError error) {
-      printInputStream(p.getErrorStream());
+      this.mojo.logServerOutput(p);
       p.destroy();
       throw error;
     } catch (final IllegalThreadStateException bang) {
-      printInputStream(p.getErrorStream());
+      this.mojo.logServerOutput(p);
       p.destroy();
       throw bang;
     }
   }
 
   /**
-   * Prints an {@link InputStream} to {@link System#out System.out}.
+   * Exercises the {@link AbstractH2Mojo#awaitReadiness(Process)}
+   * method in {@code jdbc} mode.
    *
-   * @param stream the {@link InputStream} whose contents should be
-   * entirely printed; may be {@code null} in which case nothing will
-   * happen
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testAwaitReadiness() throws Exception {
+    this.mojo.setReadiness("jdbc");
+    final Process p = this.mojo.spawnServer();
+    assertNotNull(p);
+    try {
+      assertTrue(this.mojo.awaitReadiness(p) >= 0L);
+      final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+      assertNotNull(connection);
+      connection.close();
+    } finally {
+      this.mojo.shutdownServer();
+      p.waitFor();
+    }
+  }
+
+  /**
+   * Ensures that the {@link AbstractH2Mojo#awaitReadiness(Process)}
+   * method fails fast when the spawned process exits.
    *
-   * @exception IOException if an error occurs
+   * @exception Exception if an error occurs
    */
-  private static final void printInputStream(final InputStream stream) throws IOException {
-    if (stream != null) {
-      final BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-      String line = null;
-      while ((line = reader.readLine()) != null) {
-        System.out.println(line);
+  @Test
+  public void testAwaitReadinessFailsFastWhenProcessExits() throws Exception {
+    this.mojo.setJavaOptions("-XX:ThisOptionDoesNotExist");
+    this.mojo.setReadinessTimeout(60000L);
+    final Process p = this.mojo.spawnServer();
+    assertNotNull(p);
+    final long start = System.currentTimeMillis();
+    try {
+      this.mojo.awaitReadiness(p);
+      fail();
+    } catch (final IOException expected) {
+      assertTrue(System.currentTimeMillis() - start < 60000L);
+      // The JVM's complaint was drained and kept.
+      assertTrue(this.mojo.getServerOutput(p).getLines().toString().contains("ThisOptionDoesNotExist"));
+    } finally {
+      p.destroy();
+    }
+  }
+
+  /**
+   * Spawns a daemon, attaches to it from a second mojo, releases both
+   * leases and then waits for the daemon to stop itself.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testDaemon() throws Exception {
+    final File daemonDirectory = new File(System.getProperty("maven.project.build.directory", "target"), "daemons");
+    this.mojo.setDaemon(true);
+    this.mojo.setDaemonIdleTimeout(1L);
+    this.mojo.setDaemonDirectory(daemonDirectory);
+    this.mojo.execute();
+    final ServiceProbe probe = new ServiceProbe("localhost", 1000);
+    final Service tcp = this.mojo.getService("tcp");
+    assertTrue(probe.isAccepting(tcp));
+    assertEquals(this.mojo.getFingerprint(), this.mojo.getDaemonState().getFingerprint());
+
+    // A second build with the same configuration reuses the daemon.
+    final SpawnH2Mojo second = new SpawnH2Mojo();
+    second.setBaseDirectory(this.mojo.getBaseDirectory());
+    second.setTrace(true);
+    second.setDaemon(true);
+    second.setDaemonIdleTimeout(1L);
+    second.setDaemonDirectory(daemonDirectory);
+    second.setLog(this.mojo.getLog());
+    assertEquals(this.mojo.getFingerprint(), second.getFingerprint());
+    second.execute();
+
+    // A build with a different configuration must not replace a
+    // daemon that another build still holds a lease on.
+    final File otherLease = new File(this.mojo.getDaemonState().getLeaseDirectory(), "other-build");
+    assertTrue(otherLease.createNewFile());
+    final SpawnH2Mojo different = new SpawnH2Mojo();
+    different.setBaseDirectory(new File(this.mojo.getBaseDirectory(), "different"));
+    different.setDaemon(true);
+    different.setDaemonIdleTimeout(1L);
+    different.setDaemonDirectory(daemonDirectory);
+    different.setLog(this.mojo.getLog());
+    assertFalse(this.mojo.getFingerprint().equals(different.getFingerprint()));
+    try {
+      different.execute();
+      fail();
+    } catch (final MojoExecutionException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("in use by 1 other build"));
+    }
+    assertTrue(probe.isAccepting(tcp));
+    assertEquals(this.mojo.getFingerprint(), this.mojo.getDaemonState().getFingerprint());
+    assertTrue(otherLease.delete());
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setDaemon(true);
+    stop.setDaemonDirectory(daemonDirectory);
+    stop.setLog(this.mojo.getLog());
+    stop.execute();
+    assertTrue(probe.isAccepting(tcp));
+
+    // With the lease released, the daemon stops on its own.
+    final long deadline = System.currentTimeMillis() + 30000L;
+    while (probe.isAccepting(tcp)) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(100L);
+    }
+  }
+
+  /**
+   * Spawns a server with trace analysis, runs statements that differ
+   * only in their literals, and ensures that the stop goal summarizes
+   * them under one fingerprint.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testTraceAnalysis() throws Exception {
+    assertEquals("SELECT * FROM T WHERE ID = ? AND NAME IN (?, ...)", TraceAnalyzer.fingerprint("select *  from T where ID = 42 and NAME in ('a', 'it''s', X'00');"));
+    assertEquals("INSERT INTO \"t1\" VALUES (?, ...), ...", TraceAnalyzer.fingerprint("insert into \"t1\" values (1, 'x'), (2, 'y'), (3, 'z')"));
+
+    final File directory = new File(System.getProperty("maven.project.build.directory", "target"), "trace-analysis-test");
+    SeedCache.delete(directory);
+    final Map<Object, Object> pluginContext = new HashMap<Object, Object>();
+    this.mojo.setPluginContext(pluginContext);
+    this.mojo.setPort(0);
+    this.mojo.setTraceAnalysis(true);
+    this.mojo.execute();
+
+    final Connection connection = DriverManager.getConnection(this.mojo.getJdbcUrl(), "sa", "");
+    connection.createStatement().execute("CREATE TABLE IF NOT EXISTS TRACED(ID INT PRIMARY KEY)");
+    for (int i = 0; i < 20; i++) {
+      connection.createStatement().execute("MERGE INTO TRACED VALUES (" + i + ")");
+    }
+    connection.close();
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setPluginContext(pluginContext);
+    stop.setPort(this.mojo.getPort());
+    stop.setLog(this.mojo.getLog());
+    stop.setReportDirectory(directory);
+    stop.execute();
+
+    final String summary = new String(Files.readAllBytes(new File(directory, "trace-summary.json").toPath()), "UTF-8");
+    assertTrue(summary, summary.contains("\"fingerprint\": \"MERGE INTO TRACED VALUES (?)\", \"count\": 20,"));
+    assertTrue(new File(directory, "trace-summary.md").isFile());
+  }
+
+  /**
+   * Spawns a server with JMX sampling, uses its database, and ensures
+   * that the samples record the activity and that the stop goal stops
+   * the sampler.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testJmxSampling() throws Exception {
+    final File directory = new File(System.getProperty("maven.project.build.directory", "target"), "jmx-sampling-test");
+    SeedCache.delete(directory);
+    final Map<Object, Object> pluginContext = new HashMap<Object, Object>();
+    this.mojo.setPluginContext(pluginContext);
+    this.mojo.setPort(0);
+    this.mojo.setReportDirectory(directory);
+    this.mojo.setJmxSampling(true);
+    this.mojo.setJmxSamplingInterval(50L);
+    assertTrue(this.mojo.getServerSpawner().command().contains("-Dcom.sun.management.jmxremote.host=127.0.0.1"));
+    this.mojo.execute();
+
+    final Connection connection = DriverManager.getConnection(this.mojo.getJdbcUrl(), "sa", "");
+    connection.createStatement().execute("CREATE TABLE IF NOT EXISTS SAMPLED(ID INT PRIMARY KEY)");
+    for (int i = 0; i < 100; i++) {
+      connection.createStatement().execute("MERGE INTO SAMPLED VALUES (" + i + ")");
+    }
+    Thread.sleep(200L);
+    connection.close();
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setPluginContext(pluginContext);
+    stop.setPort(this.mojo.getPort());
+    stop.setLog(this.mojo.getLog());
+    stop.execute();
+
+    final List<String> samples = Files.readAllLines(new File(directory, "jmx-samples.jsonl").toPath(), Charset.forName("UTF-8"));
+    assertTrue(samples.toString(), samples.size() >= 3);
+    assertTrue(samples.get(0), samples.get(0).startsWith("{\"timestamp\": ") && samples.get(0).contains("\"instance\": 1, \"cacheSize\": "));
+    assertTrue(samples.toString(), samples.toString().contains("\"sessions\": 1,"));
+    final int count = samples.size();
+    Thread.sleep(200L);
+    assertEquals(count, Files.readAllLines(new File(directory, "jmx-samples.jsonl").toPath(), Charset.forName("UTF-8")).size());
+  }
+
+  /**
+   * Spawns a server on an automatically chosen port, and ensures that
+   * the port and JDBC URL are published to the project and used by
+   * {@link StopH2Mojo}, and that both goals record their lifecycle
+   * timing events.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testAutomaticPort() throws Exception {
+    final MavenProject project = new MavenProject();
+    final File timingFile = new File(System.getProperty("maven.project.build.directory", "target"), "timing-test/timings.jsonl");
+    timingFile.delete();
+    this.mojo.setProject(project);
+    this.mojo.setPort(0);
+    this.mojo.setTimingFile(timingFile);
+    this.mojo.execute();
+    final String port = project.getProperties().getProperty("h2.tcp.port");
+    assertNotNull(port);
+    assertTrue(Integer.parseInt(port) > 0);
+    assertEquals(Integer.parseInt(port), this.mojo.getPort());
+    final String url = project.getProperties().getProperty("h2.jdbc.url");
+    assertEquals(String.format("jdbc:h2:tcp://localhost:%s/test", port), url);
+    assertEquals(this.mojo.getBaseDirectory().getAbsolutePath(), project.getProperties().getProperty("h2.baseDir"));
+    final Connection connection = DriverManager.getConnection(url, "sa", "");
+    assertNotNull(connection);
+    connection.close();
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setProject(project);
+    stop.setPort(0);
+    stop.setLog(this.mojo.getLog());
+    stop.setTimingFile(timingFile);
+    stop.execute();
+    assertEquals(Integer.parseInt(port), stop.getPort());
+
+    final List<String> events = new ArrayList<String>();
+    for (final String line : Files.readAllLines(timingFile.toPath(), Charset.forName("UTF-8"))) {
+      assertTrue(line, line.startsWith("{") && line.endsWith("}"));
+      assertTrue(line, line.contains("\"javaOptions\": ["));
+      events.add(line.replaceAll(".*\"goal\": \"([^\"]*)\", \"event\": \"([^\"]*)\".*", "$1 $2"));
+    }
+    assertEquals(Arrays.asList("spawn started", "spawn arguments-built", "spawn process-started", "spawn ready", "spawn finished", "stop started", "stop shutdown-requested", "stop exited", "stop finished"), events);
+    assertTrue(Files.readAllLines(timingFile.toPath(), Charset.forName("UTF-8")).get(3).contains("\"port\": " + port));
+    final ServiceProbe probe = new ServiceProbe("localhost", 1000);
+    final long deadline = System.currentTimeMillis() + 30000L;
+    while (probe.isAccepting(this.mojo.getService("tcp"))) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(100L);
+    }
+  }
+
+  /**
+   * Spawns one server running {@code tcp}, {@code pg} and {@code web}
+   * services on automatically chosen ports, ensures that all of them
+   * are ready and published, and that a single shutdown request
+   * makes the whole process exit.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testMultipleServices() throws Exception {
+    final MavenProject project = new MavenProject();
+    final File timingFile = new File(System.getProperty("maven.project.build.directory", "target"), "timing-test/multiple-services.jsonl");
+    timingFile.delete();
+    this.mojo.setProject(project);
+    this.mojo.setServices(Arrays.asList(new Service("tcp", 0, false, false), new Service("pg", 0, false, false), new Service("web", 0, false, false)));
+    this.mojo.execute();
+
+    final ServiceProbe probe = new ServiceProbe("localhost", 1000);
+    for (final Service service : this.mojo.getServices()) {
+      assertTrue(service.getPort() > 0);
+      assertEquals(String.valueOf(service.getPort()), project.getProperties().getProperty(String.format("h2.%s.port", service.getId())));
+      assertTrue(service.toString(), probe.isAccepting(service));
+    }
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setProject(project);
+    stop.setPort(0);
+    stop.setLog(this.mojo.getLog());
+    stop.setTimingFile(timingFile);
+    stop.execute();
+    assertTrue(new String(Files.readAllBytes(timingFile.toPath()), "UTF-8").contains("\"event\": \"exited\""));
+    for (final Service service : this.mojo.getServices()) {
+      assertFalse(service.toString(), probe.isAccepting(service));
+    }
+  }
+
+  /**
+   * Spawns a pool of servers on automatically chosen ports, and
+   * ensures that each one is published to the project separately and
+   * stopped by {@link StopH2Mojo}.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testInstances() throws Exception {
+    final MavenProject project = new MavenProject();
+    this.mojo.setProject(project);
+    this.mojo.setPort(0);
+    this.mojo.setInstances(2);
+    this.mojo.execute();
+    assertEquals("2", project.getProperties().getProperty("h2.instances"));
+    final String url1 = project.getProperties().getProperty("h2.jdbc.url.1");
+    final String url2 = project.getProperties().getProperty("h2.jdbc.url.2");
+    assertNotNull(url1);
+    assertNotNull(url2);
+    assertFalse(url1.equals(url2));
+    assertEquals(url1, project.getProperties().getProperty("h2.jdbc.url"));
+    assertEquals(url1 + "," + url2, project.getProperties().getProperty("h2.jdbc.urls"));
+    for (final String url : new String[] { url1, url2 }) {
+      final Connection connection = DriverManager.getConnection(url, "sa", "");
+      assertNotNull(connection);
+      connection.close();
+    }
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setProject(project);
+    stop.setPort(0);
+    stop.setInstances(2);
+    stop.setLog(this.mojo.getLog());
+    stop.execute();
+    final ServiceProbe probe = new ServiceProbe("localhost", 1000);
+    final long deadline = System.currentTimeMillis() + 30000L;
+    for (int i = 1; i <= 2; i++) {
+      final Service tcp = new Service("tcp", Integer.parseInt(project.getProperties().getProperty("h2.tcp.port." + i)), false, false);
+      while (probe.isAccepting(tcp)) {
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(100L);
+      }
+    }
+  }
+
+  /**
+   * Spawns a server that keeps its databases in direct memory, and
+   * ensures that it sizes its memory accordingly and writes nothing
+   * to disk.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testStorage() throws Exception {
+    final File baseDirectory = new File(System.getProperty("maven.project.build.directory", "target"), "storage-test");
+    SeedCache.delete(baseDirectory);
+    assertTrue(baseDirectory.mkdirs());
+    final MavenProject project = new MavenProject();
+    this.mojo.setProject(project);
+    this.mojo.setPort(0);
+    this.mojo.setBaseDirectory(baseDirectory);
+    this.mojo.setStorage("NIOMEMLZF");
+    this.mojo.setStorageSize(100L);
+    assertEquals("nioMemLZF", this.mojo.getStorage());
+    assertTrue(this.mojo.getServerSpawner().command().contains("-XX:MaxDirectMemorySize=164m"));
+    assertTrue(this.mojo.getServerArguments().contains("nioMemLZF:" + baseDirectory.getAbsolutePath()));
+    this.mojo.setJavaOptions("-XX:MaxDirectMemorySize=1g");
+    assertTrue(this.mojo.getStorageJavaOptions().isEmpty());
+    this.mojo.execute();
+
+    final Connection connection = DriverManager.getConnection(project.getProperties().getProperty("h2.jdbc.url"), "sa", "");
+    connection.createStatement().execute("CREATE TABLE T(ID INT PRIMARY KEY)");
+    connection.createStatement().execute("INSERT INTO T VALUES (1)");
+    connection.close();
+    assertEquals(0, baseDirectory.list().length);
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setProject(project);
+    stop.setPort(0);
+    stop.setLog(this.mojo.getLog());
+    stop.execute();
+  }
+
+  /**
+   * Ensures that {@link ServerSizing} fits the heap and cache to the
+   * data and the memory available, and then spawns an automatically
+   * sized server whose configured garbage collector wins.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testAutoSizing() throws Exception {
+    ServerSizing sizing = new ServerSizing("memFS", 100L, 16384L, 1, -1L, -1L, null);
+    assertEquals(448L, sizing.getHeapMegabytes());
+    assertEquals(16384L, sizing.getCacheKilobytes());
+    assertEquals(Arrays.asList("-Xmx448m", "-XX:+UseSerialGC"), sizing.getJavaOptions());
+    sizing = new ServerSizing("disk", 2000L, 8192L, 2, -1L, -1L, null);
+    assertEquals(1024L, sizing.getBudgetMegabytes());
+    assertEquals(1024L, sizing.getHeapMegabytes());
+    assertEquals(608L * 1024L, sizing.getCacheKilobytes());
+    sizing = new ServerSizing("disk", 2000L, 65536L, 1, 4096L, -1L, null);
+    assertEquals(Arrays.asList("-XX:+UseParallelGC"), sizing.getJavaOptions());
+    assertEquals(1024L * 1024L, sizing.getCacheKilobytes());
+    assertEquals(2048L, ServerSizing.parseHeapMegabytes("-Xmx2g"));
+    assertEquals(512L, ServerSizing.parseHeapMegabytes("-Xmx512M"));
+    assertEquals(1024L, ServerSizing.parseHeapMegabytes("-Xmx1048576k"));
+    assertEquals(-1L, ServerSizing.parseHeapMegabytes("-Xms1g"));
+    assertEquals(1024L, ServerSizing.parseHeapMegabytes("-XX:MaxHeapSize=1g"));
+    assertEquals(-1L, ServerSizing.getConfiguredHeapMegabytes(new String[] { "-XX:+UseG1GC" }, 16384L));
+    assertEquals(1024L, ServerSizing.getConfiguredHeapMegabytes(new String[] { "-XX:MaxHeapSize=1g" }, 16384L));
+    assertEquals(8192L, ServerSizing.getConfiguredHeapMegabytes(new String[] { "-XX:MaxRAMPercentage=50" }, 16384L));
+    assertEquals(4096L, ServerSizing.getConfiguredHeapMegabytes(new String[] { "-XX:MinRAMPercentage=10" }, 16384L));
+    assertEquals(4096L, ServerSizing.getConfiguredHeapMegabytes(new String[] { "-XX:InitialRAMPercentage=10" }, 16384L));
+    assertEquals(2048L, ServerSizing.getConfiguredHeapMegabytes(new String[] { "-Xms2g" }, -1L));
+    assertEquals(2048L, ServerSizing.getConfiguredHeapMegabytes(new String[] { "-Xmx1g", "-Xms2g" }, 16384L));
+    for (final String option : new String[] { "-XX:MaxHeapSize=1g", "-XX:MaxRAMPercentage=50", "-XX:MinRAMPercentage=10", "-XX:InitialRAMPercentage=10", "-Xms2g" }) {
+      this.mojo.setAutoSizing(true);
+      this.mojo.setStorage("memLZF");
+      this.mojo.setStorageSize(64L);
+      this.mojo.setJavaOptions(option);
+      for (final String sizingOption : this.mojo.getServerSizingJavaOptions()) {
+        assertFalse(option, sizingOption.startsWith("-Xmx"));
+      }
+      this.mojo.setAutoSizing(false);
+      assertTrue(option, this.mojo.getStorageJavaOptions().isEmpty());
+    }
+
+    final MavenProject project = new MavenProject();
+    this.mojo.setProject(project);
+    this.mojo.setPort(0);
+    this.mojo.setAutoSizing(true);
+    this.mojo.setStorage("memLZF");
+    this.mojo.setStorageSize(64L);
+    this.mojo.setJavaOptions("-XX:+UseG1GC");
+    final List<String> command = this.mojo.getServerSpawner().command();
+    assertTrue(command.contains("-XX:+UseG1GC"));
+    assertFalse(command.contains("-XX:+UseSerialGC"));
+    assertTrue(command.contains(String.format("-Xmx%dm", this.mojo.getServerSizing().getHeapMegabytes())));
+    assertEquals("-XX:+UseG1GC", this.mojo.getServerSizing().getGarbageCollectorOption());
+    this.mojo.execute();
+    assertSame(this.mojo.getServerSizing(), this.mojo.getServerSizing());
+
+    final String url = project.getProperties().getProperty("h2.jdbc.url");
+    assertTrue(url, url.endsWith(";CACHE_SIZE=16384"));
+    final Connection connection = DriverManager.getConnection(url, "sa", "");
+    connection.close();
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setProject(project);
+    stop.setPort(0);
+    stop.setLog(this.mojo.getLog());
+    stop.execute();
+  }
+
+  /**
+   * Spawns a server under the {@code fast-test} performance profile,
+   * and ensures that its settings reach both the server and the
+   * published JDBC URL.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testPerformanceProfile() throws Exception {
+    try {
+      this.mojo.setPerformanceProfile("reckless");
+      fail();
+    } catch (final IllegalArgumentException expected) {
+      // expected
+    }
+    final MavenProject project = new MavenProject();
+    this.mojo.setProject(project);
+    this.mojo.setPort(0);
+    this.mojo.setPerformanceProfile("Fast-Test");
+    assertEquals("fast-test", this.mojo.getPerformanceProfile());
+    assertTrue(this.mojo.getServerSpawner().command().contains("-Dh2.maxCompactTime=0"));
+    this.mojo.setJavaOptions("-Dh2.maxCompactTime=100");
+    assertTrue(this.mojo.getPerformanceProfileJavaOptions().isEmpty());
+    this.mojo.execute();
+
+    final String url = project.getProperties().getProperty("h2.jdbc.url");
+    assertEquals(String.format("jdbc:h2:tcp://localhost:%d/test;LOG=0;CACHE_SIZE=65536", this.mojo.getPort()), url);
+    final Connection connection = DriverManager.getConnection(url, "sa", "");
+    final ResultSet resultSet = connection.createStatement().executeQuery("SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = 'LOG'");
+    assertTrue(resultSet.next());
+    assertEquals("0", resultSet.getString(1));
+    connection.close();
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setProject(project);
+    stop.setPort(0);
+    stop.setLog(this.mojo.getLog());
+    stop.execute();
+  }
+
+  /**
+   * Spawns a server, asks the stop goal to shut it down with the
+   * wrong password, and ensures that the server's process is
+   * terminated anyway and its state removed.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testStopTerminatesServerRefusingShutdown() throws Exception {
+    final MavenProject project = new MavenProject();
+    this.mojo.setProject(project);
+    this.mojo.setPort(0);
+    this.mojo.execute();
+    final ServerInstance instance = this.mojo.getServerInstances().get(0);
+    final ServerState state = this.mojo.getServerState(instance);
+    assertTrue(state.isRunning());
+    assertTrue(state.getPid() > 0L);
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setProject(project);
+    stop.setPort(0);
+    stop.setShutdownPassword("wrong");
+    stop.setLog(this.mojo.getLog());
+    stop.execute();
+    assertFalse(state.isRunning());
+    assertFalse(state.exists());
+  }
+
+  /**
+   * Starts a shell whose child starts a grandchild, records the
+   * shell as a server, and ensures that a forced kill terminates the
+   * grandchild too.  The test is skipped on Windows.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if a {@code sleep} process started by this test is
+   * still running
+   */
+  @Test
+  public void testKillTerminatesProcessTree() throws Exception {
+    assumeTrue(!System.getProperty("os.name", "").startsWith("Windows"));
+    final File directory = new File(System.getProperty("maven.project.build.directory", "target"), "kill-test");
+    SeedCache.delete(directory);
+    assertTrue(directory.mkdirs());
+    final ServerState state = new ServerState(directory, 1);
+    final String sleep = "sleep 317";
+    final Process shell = new ProcessBuilder("sh", "-c", "echo $$ > " + state.getPidFile().getAbsolutePath() + "; sh -c '" + sleep + "; true' & wait").start();
+    try {
+      final long deadline = System.currentTimeMillis() + 10000L;
+      while (state.getPid() <= 0L || !isRunning("-f", sleep)) {
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(50L);
+      }
+      state.kill(true);
+      shell.waitFor();
+      while (isRunning("-f", sleep)) {
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(50L);
+      }
+    } finally {
+      shell.destroy();
+    }
+  }
+
+  /**
+   * Returns {@code true} if {@code pgrep} finds a process matching
+   * the supplied arguments.
+   *
+   * @param arguments the arguments to {@code pgrep}; must not be
+   * {@code null}
+   *
+   * @return {@code true} if a matching process is running
+   *
+   * @exception Exception if an error occurs
+   */
+  private static final boolean isRunning(final String... arguments) throws Exception {
+    final List<String> command = new ArrayList<String>();
+    command.add("pgrep");
+    command.addAll(Arrays.asList(arguments));
+    final Process process = new ProcessBuilder(command).start();
+    final InputStream stream = process.getInputStream();
+    try {
+      while (stream.read() >= 0) {
+        // discard pgrep's output
       }
-      reader.close();
+    } finally {
+      stream.close();
     }
+    return process.waitFor() == 0;
+  }
+
+  /**
+   * Ensures that a class data sharing archive is trained once, reused
+   * on the next request, passed to spawned servers, and not used when
+   * the Java options turn class data sharing off.  The test is
+   * skipped if the Java virtual machine cannot create archives.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testClassDataSharing() throws Exception {
+    final File directory = new File(System.getProperty("maven.project.build.directory", "target"), "cds-test");
+    SeedCache.delete(directory);
+    this.mojo.setClassDataSharingDirectory(directory);
+    this.mojo.setTraceAnalysis(true);
+    final File archive = this.mojo.prepareClassDataSharing();
+    assumeNotNull(archive);
+    // The training run is not a server of this build.
+    assertTrue(this.mojo.stopTraceAnalysis().isEmpty());
+    assertTrue(archive.isFile());
+    assertEquals(archive, this.mojo.prepareClassDataSharing());
+    assertEquals(1, directory.list().length);
+    assertTrue(this.mojo.getServerSpawner().command().contains("-XX:SharedArchiveFile=" + archive.getAbsolutePath()));
+
+    this.mojo.setJavaOptions("-Xshare:off");
+    assertNull(this.mojo.prepareClassDataSharing());
+    assertNull(this.mojo.getClassDataSharingArchive());
+  }
+
+  /**
+   * Spawns a server on a RAM disk, ensures that its database is
+   * created on the RAM disk rather than in the base directory, and
+   * that stopping it syncs the database back and releases the RAM
+   * disk.
+   *
+   * @exception Exception if an error occurs; make sure to check your
+   * system to see if an H2 process spawned by this test is still
+   * running
+   */
+  @Test
+  public void testRamDisk() throws Exception {
+    final File directory = new File(System.getProperty("maven.project.build.directory", "target"), "ram-disk-test");
+    SeedCache.delete(directory);
+    final File baseDirectory = new File(directory, "data");
+    final File ramDiskDirectory = new File(directory, "ram");
+    assertTrue(baseDirectory.mkdirs());
+    final MavenProject project = new MavenProject();
+    this.mojo.setProject(project);
+    this.mojo.setPort(0);
+    this.mojo.setBaseDirectory(baseDirectory);
+    this.mojo.setRamDisk(true);
+    this.mojo.setRamDiskDirectory(ramDiskDirectory);
+    this.mojo.execute();
+
+    final RamDisk ramDisk = this.mojo.getRamDisk(this.mojo.getServerInstances().get(0));
+    assertTrue(ramDisk.isInUse());
+    final Connection connection = DriverManager.getConnection(project.getProperties().getProperty("h2.jdbc.url"), "sa", "");
+    connection.createStatement().execute("CREATE TABLE T(ID INT PRIMARY KEY)");
+    connection.close();
+    assertTrue(new File(ramDisk.getDirectory(), "test.h2.db").isFile());
+    assertFalse(new File(baseDirectory, "test.h2.db").exists());
+
+    final StopH2Mojo stop = new StopH2Mojo();
+    stop.setProject(project);
+    stop.setPort(0);
+    stop.setBaseDirectory(baseDirectory);
+    stop.setRamDisk(true);
+    stop.setRamDiskDirectory(ramDiskDirectory);
+    stop.setRamDiskSyncBack(true);
+    stop.setLog(this.mojo.getLog());
+    stop.execute();
+    assertFalse(ramDisk.getDirectory().exists());
+    assertTrue(new File(baseDirectory, "test.h2.db").isFile());
   }
 
   /**
@@ -0,0 +1,234 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.maven.plugin;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+
+import java.nio.file.Files;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.project.MavenProject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * A <a href="http://www.junit.org/">JUnit</a> test suite that
+ * exercises the {@link StartH2Mojo} class together with the {@link
+ * StopH2Mojo} class.
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class TestCaseStartH2Mojo {
+
+  /**
+   * The {@link StartH2Mojo} under test.  This field may be {@code
+   * null}.  It is initialized by the {@link #setUp()} method.
+   */
+  private StartH2Mojo startMojo;
+
+  /**
+   * The {@link StopH2Mojo} under test.  This field may be {@code
+   * null}.  It is initialized by the {@link #setUp()} method.
+   */
+  private StopH2Mojo stopMojo;
+
+  /**
+   * Sets up the mojos to be tested so that they share a plugin
+   * context, as they would during a Maven build.
+   */
+  @Before
+  public void setUp() {
+    final Map<Object, Object> pluginContext = new HashMap<Object, Object>();
+    this.startMojo = new StartH2Mojo();
+    this.startMojo.setPluginContext(pluginContext);
+    this.stopMojo = new StopH2Mojo();
+    this.stopMojo.setPluginContext(pluginContext);
+    final String projectBuildDirectoryName = System.getProperty("maven.project.build.directory", System.getProperty("project.build.directory"));
+    if (projectBuildDirectoryName != null) {
+      this.startMojo.setBaseDirectory(new File(projectBuildDirectoryName));
+    }
+    this.startMojo.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+    this.stopMojo.setLog(new TestCaseSpawnH2Mojo.SystemStreamLogWithDebugEnabled());
+  }
+
+  /**
+   * Starts a server in-process, connects to it, and then stops it
+   * without a TCP shutdown request.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testStartAndStop() throws Exception {
+    this.startMojo.execute();
+
+    final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    assertNotNull(connection);
+    connection.close();
+
+    this.stopMojo.execute();
+
+    try {
+      DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "").close();
+      fail();
+    } catch (final SQLException expected) {
+      // The server should be gone.
+    }
+  }
+
+  /**
+   * Starts {@code tcp}, {@code pg} and {@code web} services on
+   * automatically chosen ports in-process, ensures that all of them
+   * accept connections, and that stopping stops all of them.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testMultipleServices() throws Exception {
+    final MavenProject project = new MavenProject();
+    this.startMojo.setProject(project);
+    this.startMojo.setServices(Arrays.asList(new Service("tcp", 0, false, false), new Service("pg", 0, false, false), new Service("web", 0, false, false)));
+    this.startMojo.execute();
+
+    final ServiceProbe probe = new ServiceProbe("localhost", 1000);
+    for (final Service service : this.startMojo.getServices()) {
+      assertTrue(service.getPort() > 0);
+      assertEquals(String.valueOf(service.getPort()), project.getProperties().getProperty(String.format("h2.%s.port", service.getId())));
+      assertTrue(service.toString(), probe.isAccepting(service));
+    }
+
+    this.stopMojo.execute();
+
+    for (final Service service : this.startMojo.getServices()) {
+      assertFalse(service.toString(), probe.isAccepting(service));
+    }
+  }
+
+  /**
+   * Seeds the database from a script twice, and ensures that the
+   * second time the cached copy is used.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testSeed() throws Exception {
+    final File directory = new File(System.getProperty("maven.project.build.directory", "target"), "seed-test");
+    SeedCache.delete(directory);
+    assertTrue(directory.mkdirs());
+    final File script = new File(directory, "seed.sql");
+    final Writer writer = new FileWriter(script);
+    writer.write("CREATE TABLE SEEDED(ID INT PRIMARY KEY);\nINSERT INTO SEEDED VALUES (1), (2), (3);\n");
+    writer.close();
+    final File cacheDirectory = new File(directory, "cache");
+    this.startMojo.setBaseDirectory(new File(directory, "data"));
+    this.startMojo.setSeedScripts(script);
+    this.startMojo.setSeedCacheDirectory(cacheDirectory);
+
+    for (int i = 0; i < 2; i++) {
+      this.startMojo.execute();
+      final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+      final ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM SEEDED");
+      assertTrue(resultSet.next());
+      assertEquals(3, resultSet.getInt(1));
+      // Changes must not leak into the cache.
+      connection.createStatement().execute("DELETE FROM SEEDED");
+      connection.close();
+      this.stopMojo.execute();
+    }
+    assertEquals(1, cacheDirectory.list().length);
+    assertNotNull(this.startMojo.getSeedCache().get(this.startMojo.getSeedKey()));
+  }
+
+  /**
+   * Runs a few statements, one of them slow, with query statistics
+   * turned on, and ensures that stopping the server writes a report
+   * that times and ranks them.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testQueryStatistics() throws Exception {
+    final File directory = new File(System.getProperty("maven.project.build.directory", "target"), "query-statistics-test");
+    SeedCache.delete(directory);
+    this.startMojo.setQueryStatistics(true);
+    this.stopMojo.setReportDirectory(directory);
+    this.startMojo.execute();
+
+    final Connection connection = DriverManager.getConnection("jdbc:h2:tcp://localhost:9092/test", "sa", "");
+    connection.createStatement().execute("CREATE TABLE IF NOT EXISTS MEASURED(ID INT PRIMARY KEY)");
+    for (int i = 0; i < 5; i++) {
+      connection.createStatement().executeQuery("SELECT COUNT(*) FROM MEASURED").close();
+    }
+    connection.createStatement().execute("CREATE ALIAS IF NOT EXISTS SLEEP FOR \"java.lang.Thread.sleep\"");
+    connection.createStatement().execute("CALL SLEEP(100)");
+    connection.close();
+
+    this.stopMojo.execute();
+
+    final File json = new File(directory, "query-statistics.json");
+    final File markdown = new File(directory, "query-statistics.md");
+    assertTrue(json.isFile());
+    assertTrue(markdown.isFile());
+    final String report = new String(Files.readAllBytes(json.toPath()), "UTF-8");
+    assertTrue(report, report.contains("SELECT COUNT(*) FROM MEASURED"));
+    assertTrue(report, report.contains("\"count\": 5"));
+    assertFalse(report, report.contains("QUERY_STATISTICS"));
+    final Matcher matcher = Pattern.compile("\\{\"rank\": 1, \"sql\": \"CALL SLEEP\\(100\\)\", \"count\": 1, \"totalMillis\": (\\d+),").matcher(report);
+    assertTrue(report, matcher.find());
+    assertTrue(report, Long.parseLong(matcher.group(1)) >= 100L);
+
+    final QueryStatistics.Entry timed = new QueryStatistics.Entry("SELECT 1", 2, 1L, 3L, 4L, 2L);
+    final QueryStatistics.Entry untimed = new QueryStatistics.Entry("SELECT 1", 1, -1L, -1L, -1L, 1L);
+    assertTrue(timed.isTimed());
+    assertEquals(2.0, timed.getMeanTime(), 0.0);
+    final QueryStatistics statistics = new QueryStatistics();
+    statistics.add(timed);
+    statistics.add(untimed);
+    assertEquals(1, statistics.getEntries().size());
+    assertFalse(statistics.getEntries().get(0).isTimed());
+    assertEquals(3, statistics.getEntries().get(0).getCount());
+  }
+
+}
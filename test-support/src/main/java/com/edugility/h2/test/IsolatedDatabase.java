@@ -0,0 +1,251 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.regex.Pattern;
+
+/**
+ * A private copy of a {@link TemplateDatabase}, {@linkplain
+ * TemplateDatabase#acquire() acquired} for the duration of a single
+ * test.
+ *
+ * <p>Under the {@link TemplateDatabase.Strategy#ROLLBACK ROLLBACK}
+ * strategy, every {@link Connection} {@linkplain #getConnection()
+ * returned} is the same shared connection, on which {@link
+ * Connection#commit()}, {@link Connection#setAutoCommit(boolean)} and
+ * {@link Connection#close()} do nothing, so that all of the test's
+ * work can be rolled back.  H2 commits implicitly whenever a data
+ * definition statement is executed, so such statements (those
+ * beginning with {@code CREATE}, {@code ALTER}, {@code DROP}, {@code
+ * TRUNCATE}, {@code COMMENT}, {@code GRANT} or {@code REVOKE}) fail
+ * with an {@link SQLException} rather than leak into later tests;
+ * tests that need them must use the {@link
+ * TemplateDatabase.Strategy#CLONE CLONE} strategy.  Connections opened
+ * directly with the {@linkplain #getJdbcUrl() JDBC URL} are not
+ * isolated.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class IsolatedDatabase {
+
+  /**
+   * A {@link Pattern} matching SQL statements that H2 commits
+   * implicitly, ignoring leading whitespace and comments.
+   */
+  private static final Pattern DATA_DEFINITION = Pattern.compile("^(?:\\s+|--[^\\n]*\\n?|//[^\\n]*\\n?|/\\*.*?\\*/)*(?:ALTER|COMMENT|CREATE|DROP|GRANT|REVOKE|TRUNCATE)\\b", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /**
+   * The {@link TemplateDatabase} this {@link IsolatedDatabase} was
+   * acquired from.  This field is never {@code null}.
+   */
+  private final TemplateDatabase template;
+
+  /**
+   * The JDBC URL of this {@link IsolatedDatabase}.  This field is
+   * never {@code null}.
+   */
+  private final String jdbcUrl;
+
+  /**
+   * The shared connection under the {@link
+   * TemplateDatabase.Strategy#ROLLBACK ROLLBACK} strategy, or {@code
+   * null}.
+   */
+  private final Connection sharedConnection;
+
+  /**
+   * The connections returned by the {@link #getConnection()} method
+   * that must be closed when this {@link IsolatedDatabase} is
+   * {@linkplain #close() closed}.  This field is never {@code null}.
+   */
+  private final List<Connection> connections;
+
+  /**
+   * Whether this {@link IsolatedDatabase} has been {@linkplain
+   * #close() closed}.
+   */
+  private boolean closed;
+
+  /**
+   * Creates a new {@link IsolatedDatabase}.
+   *
+   * @param template the {@link TemplateDatabase} this {@link
+   * IsolatedDatabase} was acquired from; must not be {@code null}
+   *
+   * @param jdbcUrl the JDBC URL; must not be {@code null}
+   *
+   * @param sharedConnection the shared connection under the {@link
+   * TemplateDatabase.Strategy#ROLLBACK ROLLBACK} strategy, or {@code
+   * null}
+   */
+  IsolatedDatabase(final TemplateDatabase template, final String jdbcUrl, final Connection sharedConnection) {
+    super();
+    this.template = template;
+    this.jdbcUrl = jdbcUrl;
+    this.sharedConnection = sharedConnection;
+    this.connections = new ArrayList<Connection>();
+  }
+
+  /**
+   * Returns the JDBC URL of this {@link IsolatedDatabase}.  This
+   * method never returns {@code null}.
+   *
+   * @return the JDBC URL; never {@code null}
+   */
+  public String getJdbcUrl() {
+    return this.jdbcUrl;
+  }
+
+  /**
+   * Returns a {@link Connection} to this {@link IsolatedDatabase}.
+   * There is no need to close it; it is closed when this {@link
+   * IsolatedDatabase} is {@linkplain #close() closed}.
+   *
+   * @return a {@link Connection}; never {@code null}
+   *
+   * @exception SQLException if a {@link Connection} could not be
+   * obtained
+   */
+  public synchronized Connection getConnection() throws SQLException {
+    if (this.closed) {
+      throw new SQLException("This database has been closed");
+    }
+    if (this.sharedConnection != null) {
+      return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+          @Override
+          public final Object invoke(final Object proxy, final Method method, final Object[] arguments) throws Throwable {
+            final String name = method.getName();
+            if ("close".equals(name) || "commit".equals(name) || "setAutoCommit".equals(name)) {
+              return null;
+            }
+            if (name.startsWith("prepare") && arguments != null && arguments.length > 0 && arguments[0] instanceof String) {
+              checkDataManipulation((String)arguments[0]);
+            }
+            final Object returnValue;
+            try {
+              returnValue = method.invoke(IsolatedDatabase.this.sharedConnection, arguments);
+            } catch (final InvocationTargetException kaboom) {
+              throw kaboom.getCause();
+            }
+            if ("createStatement".equals(name)) {
+              return guard((Statement)returnValue);
+            }
+            return returnValue;
+          }
+        });
+    }
+    final Connection connection = DriverManager.getConnection(this.jdbcUrl, this.template.getUser(), this.template.getPassword());
+    this.connections.add(connection);
+    return connection;
+  }
+
+  /**
+   * Closes every {@link Connection} {@linkplain #getConnection()
+   * returned} by this {@link IsolatedDatabase}, and then deletes it or
+   * rolls back its work.  Calling this method more than once has no
+   * further effect.
+   *
+   * @exception SQLException if this {@link IsolatedDatabase} could not
+   * be deleted or rolled back
+   */
+  public synchronized void close() throws SQLException {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    for (final Connection connection : this.connections) {
+      try {
+        connection.close();
+      } catch (final SQLException ignore) {
+        // ignore
+      }
+    }
+    this.connections.clear();
+    this.template.release(this, this.sharedConnection);
+  }
+
+  /**
+   * Returns a {@link Statement} that refuses to execute or batch data
+   * definition statements, and otherwise delegates to the supplied
+   * {@link Statement}.  Statements prepared from a shared {@link
+   * Connection} are checked when they are prepared.
+   *
+   * @param statement the {@link Statement} to guard; must not be
+   * {@code null}
+   *
+   * @return a guarded {@link Statement}; never {@code null}
+   */
+  private static final Statement guard(final Statement statement) {
+    return (Statement)Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { Statement.class }, new InvocationHandler() {
+        @Override
+        public final Object invoke(final Object proxy, final Method method, final Object[] arguments) throws Throwable {
+          final String name = method.getName();
+          if ((name.startsWith("execute") || "addBatch".equals(name)) && arguments != null && arguments.length > 0 && arguments[0] instanceof String) {
+            checkDataManipulation((String)arguments[0]);
+          }
+          try {
+            return method.invoke(statement, arguments);
+          } catch (final InvocationTargetException kaboom) {
+            throw kaboom.getCause();
+          }
+        }
+      });
+  }
+
+  /**
+   * Throws an {@link SQLException} if the supplied SQL is a data
+   * definition statement, which H2 would commit implicitly, making it
+   * impossible to roll back.
+   *
+   * @param sql the SQL to check; may be {@code null}
+   *
+   * @exception SQLException if {@code sql} is a data definition
+   * statement
+   */
+  private static final void checkDataManipulation(final String sql) throws SQLException {
+    if (sql != null && DATA_DEFINITION.matcher(sql).find()) {
+      throw new SQLException(String.format("H2 commits data definition statements implicitly, so they cannot be rolled back under the %s strategy; use the %s strategy instead: %s", TemplateDatabase.Strategy.ROLLBACK, TemplateDatabase.Strategy.CLONE, sql.trim()));
+    }
+  }
+
+}
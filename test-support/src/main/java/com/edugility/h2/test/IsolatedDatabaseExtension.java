@@ -0,0 +1,186 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+/**
+ * A JUnit 5 extension that gives each test a private {@link
+ * IsolatedDatabase} {@linkplain TemplateDatabase#acquire() acquired}
+ * from a {@link TemplateDatabase}, and resolves test method
+ * parameters of type {@link IsolatedDatabase} and {@link Connection}.
+ *
+ * <p>Typical usage:</p>
+ *
+ * <blockquote><pre>&#64;RegisterExtension
+ *static final IsolatedDatabaseExtension DATABASE = new IsolatedDatabaseExtension(new TemplateDatabase().addScript("schema.sql"));
+ *
+ *&#64;Test
+ *void testSomething(final Connection connection) throws SQLException {
+ *  // ...
+ *}</pre></blockquote>
+ *
+ * <p>When registered with {@code @ExtendWith}, the {@linkplain
+ * TemplateDatabase#getDefault() default <tt>TemplateDatabase</tt>} is
+ * used.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class IsolatedDatabaseExtension implements BeforeEachCallback, AfterEachCallback, ParameterResolver {
+
+  /**
+   * The {@link ExtensionContext.Namespace} in which the {@link
+   * IsolatedDatabase} of the current test is stored.
+   */
+  private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(IsolatedDatabaseExtension.class);
+
+  /**
+   * The {@link TemplateDatabase} to acquire {@link IsolatedDatabase}s
+   * from, or {@code null} if the {@linkplain
+   * TemplateDatabase#getDefault() default one} is to be used.
+   */
+  private final TemplateDatabase template;
+
+  /**
+   * Creates a new {@link IsolatedDatabaseExtension} that uses the
+   * {@linkplain TemplateDatabase#getDefault() default
+   * <tt>TemplateDatabase</tt>}.
+   */
+  public IsolatedDatabaseExtension() {
+    super();
+    this.template = null;
+  }
+
+  /**
+   * Creates a new {@link IsolatedDatabaseExtension}.
+   *
+   * @param template the {@link TemplateDatabase} to acquire {@link
+   * IsolatedDatabase}s from; must not be {@code null}
+   */
+  public IsolatedDatabaseExtension(final TemplateDatabase template) {
+    super();
+    if (template == null) {
+      throw new IllegalArgumentException("template", new NullPointerException("template"));
+    }
+    this.template = template;
+  }
+
+  /**
+   * Acquires the {@link IsolatedDatabase} of the current test.
+   *
+   * @param context the current {@link ExtensionContext}; must not be
+   * {@code null}
+   *
+   * @exception SQLException if the {@link IsolatedDatabase} could not
+   * be acquired
+   */
+  @Override
+  public void beforeEach(final ExtensionContext context) throws SQLException {
+    final TemplateDatabase template = this.template == null ? TemplateDatabase.getDefault() : this.template;
+    context.getStore(NAMESPACE).put(IsolatedDatabase.class, template.acquire());
+  }
+
+  /**
+   * Closes the {@link IsolatedDatabase} of the current test.
+   *
+   * @param context the current {@link ExtensionContext}; must not be
+   * {@code null}
+   *
+   * @exception SQLException if the {@link IsolatedDatabase} could not
+   * be closed
+   */
+  @Override
+  public void afterEach(final ExtensionContext context) throws SQLException {
+    final IsolatedDatabase database = context.getStore(NAMESPACE).remove(IsolatedDatabase.class, IsolatedDatabase.class);
+    if (database != null) {
+      database.close();
+    }
+  }
+
+  /**
+   * Returns {@code true} if the supplied parameter is of type {@link
+   * IsolatedDatabase} or {@link Connection}.
+   *
+   * @param parameterContext the {@link ParameterContext}; must not be
+   * {@code null}
+   *
+   * @param context the current {@link ExtensionContext}; must not be
+   * {@code null}
+   *
+   * @return {@code true} if the parameter can be resolved
+   */
+  @Override
+  public boolean supportsParameter(final ParameterContext parameterContext, final ExtensionContext context) {
+    final Class<?> type = parameterContext.getParameter().getType();
+    return IsolatedDatabase.class.equals(type) || Connection.class.equals(type);
+  }
+
+  /**
+   * Returns the {@link IsolatedDatabase} of the current test, or a
+   * {@link Connection} to it.
+   *
+   * @param parameterContext the {@link ParameterContext}; must not be
+   * {@code null}
+   *
+   * @param context the current {@link ExtensionContext}; must not be
+   * {@code null}
+   *
+   * @return the {@link IsolatedDatabase} or a {@link Connection};
+   * never {@code null}
+   *
+   * @exception ParameterResolutionException if there is no current
+   * {@link IsolatedDatabase}, or a {@link Connection} could not be
+   * obtained
+   */
+  @Override
+  public Object resolveParameter(final ParameterContext parameterContext, final ExtensionContext context) {
+    final IsolatedDatabase database = context.getStore(NAMESPACE).get(IsolatedDatabase.class, IsolatedDatabase.class);
+    if (database == null) {
+      throw new ParameterResolutionException("No isolated database is available outside of a test method");
+    }
+    if (IsolatedDatabase.class.equals(parameterContext.getParameter().getType())) {
+      return database;
+    }
+    try {
+      return database.getConnection();
+    } catch (final SQLException kaboom) {
+      throw new ParameterResolutionException("Could not connect to " + database.getJdbcUrl(), kaboom);
+    }
+  }
+
+}
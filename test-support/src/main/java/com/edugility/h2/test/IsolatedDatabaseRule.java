@@ -0,0 +1,173 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * A JUnit 4 rule that gives each test a private {@link
+ * IsolatedDatabase} {@linkplain TemplateDatabase#acquire() acquired}
+ * from a {@link TemplateDatabase}.
+ *
+ * <p>Typical usage:</p>
+ *
+ * <blockquote><pre>static final TemplateDatabase TEMPLATE = new TemplateDatabase().addScript("schema.sql");
+ *
+ *&#64;Rule
+ *public final IsolatedDatabaseRule database = new IsolatedDatabaseRule(TEMPLATE);
+ *
+ *&#64;Test
+ *public void testSomething() throws SQLException {
+ *  final Connection connection = this.database.getConnection();
+ *  // ...
+ *}</pre></blockquote>
+ *
+ * <p>Declare the {@link TemplateDatabase} in a single place, or use
+ * the {@linkplain #IsolatedDatabaseRule() default one}, so that it is
+ * built only once per test JVM.</p>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class IsolatedDatabaseRule extends ExternalResource {
+
+  /**
+   * The {@link TemplateDatabase} to acquire {@link IsolatedDatabase}s
+   * from.  This field is never {@code null}.
+   */
+  private final TemplateDatabase template;
+
+  /**
+   * The {@link IsolatedDatabase} of the current test, or {@code null}.
+   */
+  private IsolatedDatabase database;
+
+  /**
+   * Creates a new {@link IsolatedDatabaseRule} that uses the
+   * {@linkplain TemplateDatabase#getDefault() default
+   * <tt>TemplateDatabase</tt>}.
+   *
+   * @exception IllegalStateException if the {@code h2.jdbc.url} system
+   * property is not set
+   */
+  public IsolatedDatabaseRule() {
+    this(TemplateDatabase.getDefault());
+  }
+
+  /**
+   * Creates a new {@link IsolatedDatabaseRule}.
+   *
+   * @param template the {@link TemplateDatabase} to acquire {@link
+   * IsolatedDatabase}s from; must not be {@code null}
+   */
+  public IsolatedDatabaseRule(final TemplateDatabase template) {
+    super();
+    if (template == null) {
+      throw new IllegalArgumentException("template", new NullPointerException("template"));
+    }
+    this.template = template;
+  }
+
+  /**
+   * Acquires the {@link IsolatedDatabase} of the current test.
+   *
+   * @exception SQLException if the {@link IsolatedDatabase} could not
+   * be acquired
+   */
+  @Override
+  protected void before() throws SQLException {
+    this.database = this.template.acquire();
+  }
+
+  /**
+   * Closes the {@link IsolatedDatabase} of the current test.
+   *
+   * @exception IllegalStateException if the {@link IsolatedDatabase}
+   * could not be closed
+   */
+  @Override
+  protected void after() {
+    final IsolatedDatabase database = this.database;
+    this.database = null;
+    if (database != null) {
+      try {
+        database.close();
+      } catch (final SQLException kaboom) {
+        throw new IllegalStateException(kaboom);
+      }
+    }
+  }
+
+  /**
+   * Returns the {@link IsolatedDatabase} of the current test.
+   *
+   * @return the {@link IsolatedDatabase}; never {@code null}
+   *
+   * @exception IllegalStateException if no test is running
+   */
+  public IsolatedDatabase getDatabase() {
+    if (this.database == null) {
+      throw new IllegalStateException("No test is running");
+    }
+    return this.database;
+  }
+
+  /**
+   * Returns the JDBC URL of the {@link IsolatedDatabase} of the
+   * current test.
+   *
+   * @return the JDBC URL; never {@code null}
+   *
+   * @exception IllegalStateException if no test is running
+   */
+  public String getJdbcUrl() {
+    return this.getDatabase().getJdbcUrl();
+  }
+
+  /**
+   * Returns a {@link Connection} to the {@link IsolatedDatabase} of
+   * the current test.
+   *
+   * @return a {@link Connection}; never {@code null}
+   *
+   * @exception SQLException if a {@link Connection} could not be
+   * obtained
+   *
+   * @exception IllegalStateException if no test is running
+   *
+   * @see IsolatedDatabase#getConnection()
+   */
+  public Connection getConnection() throws SQLException {
+    return this.getDatabase().getConnection();
+  }
+
+}
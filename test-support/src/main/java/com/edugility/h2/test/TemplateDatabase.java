@@ -0,0 +1,830 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.nio.channels.FileChannel;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import java.util.concurrent.Semaphore;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.tools.RunScript;
+
+/**
+ * A database, built once from {@linkplain #addScript(String)
+ * scripts} and {@linkplain #addInitializer(Initializer)
+ * initializers}, from which every test {@linkplain #acquire()
+ * acquires} a private {@link IsolatedDatabase} with the same
+ * contents.
+ *
+ * <p>A {@link TemplateDatabase} is normally configured from the
+ * {@code h2.jdbc.url} and {@code h2.baseDir} system properties, which
+ * should be set in the test JVM to the project properties of the same
+ * names published by the {@code spawn} goal.  The template is built
+ * in a database named after the one in the JDBC URL, with a suffix
+ * unique to this {@link TemplateDatabase}, so that concurrent test
+ * JVMs never share a template.</p>
+ *
+ * <p>Each {@link IsolatedDatabase} is provided according to the
+ * {@linkplain #getStrategy() strategy}:</p>
+ *
+ * <ul>
+ *
+ * <li>{@link Strategy#CLONE}: the template's files are copied, next
+ * to it in the server's base directory, to a new database that is
+ * deleted once the test is done with it.  This requires the base
+ * directory to be readable by the test JVM and the server to store
+ * its databases in files.</li>
+ *
+ * <li>{@link Strategy#ROLLBACK}: every test shares one connection to
+ * the template, and its work is rolled back once the test is done.
+ * Tests run one at a time.  H2 commits implicitly whenever a data
+ * definition statement is executed, so tests must confine themselves
+ * to data manipulation; a data definition statement executed through
+ * an {@linkplain IsolatedDatabase#getConnection() isolated
+ * connection} fails with an {@link SQLException}.  Tests that create,
+ * alter or drop tables must use {@link Strategy#CLONE}.</li>
+ *
+ * <li>{@link Strategy#AUTO} (the default): {@link Strategy#CLONE}
+ * when it is possible, and {@link Strategy#ROLLBACK} otherwise.</li>
+ *
+ * </ul>
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class TemplateDatabase {
+
+  /**
+   * How {@link IsolatedDatabase}s are provided.
+   *
+   * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+   *
+   * @since 1.1-SNAPSHOT
+   */
+  public static enum Strategy {
+
+    /**
+     * {@link #CLONE} if possible, and {@link #ROLLBACK} otherwise.
+     */
+    AUTO,
+
+    /**
+     * Copy the template's files to a new database for each test.
+     */
+    CLONE,
+
+    /**
+     * Roll back each test's work on a shared connection to the
+     * template.  Data definition statements, which H2 commits
+     * implicitly, are refused.
+     */
+    ROLLBACK
+
+  }
+
+  /**
+   * Populates a {@link TemplateDatabase} when it is built.
+   *
+   * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+   *
+   * @since 1.1-SNAPSHOT
+   */
+  public static interface Initializer {
+
+    /**
+     * Populates the template using the supplied {@link Connection}.
+     * Work is committed once all {@link Initializer}s have run.
+     *
+     * @param connection a {@link Connection} to the template; never
+     * {@code null}; must not be closed
+     *
+     * @exception SQLException if the template could not be populated
+     */
+    public void initialize(final Connection connection) throws SQLException;
+
+  }
+
+  /**
+   * The file systems, as they may prefix the {@code h2.baseDir}
+   * property, whose databases are ordinary files that may be cloned.
+   */
+  private static final List<String> FILE_SYSTEMS = Arrays.asList("file", "nio", "nioMapped");
+
+  /**
+   * The suffixes of the files of a database that must not be cloned.
+   */
+  private static final List<String> TRANSIENT_SUFFIXES = Arrays.asList(".lock.db", ".trace.db");
+
+  /**
+   * The {@link TemplateDatabase} returned by the {@link #getDefault()}
+   * method, or {@code null} if it has not been created yet.
+   */
+  private static TemplateDatabase defaultTemplate;
+
+  /**
+   * The JDBC URL up to and including the slash that precedes the
+   * database path.  This field is never {@code null}.
+   */
+  private final String serverUrl;
+
+  /**
+   * The path of the database named in the JDBC URL.  This field is
+   * never {@code null}.
+   */
+  private final String database;
+
+  /**
+   * The settings following the database path in the JDBC URL,
+   * including the leading semicolon, or the empty string.  This field
+   * is never {@code null}.
+   */
+  private final String settings;
+
+  /**
+   * The server's base directory, possibly prefixed with a file
+   * system, or {@code null} if it is not known.
+   */
+  private final String baseDirectory;
+
+  /**
+   * The classpath resources or files of the scripts that populate
+   * the template.  This field is never {@code null}.
+   */
+  private final List<String> scripts;
+
+  /**
+   * The {@link Initializer}s that populate the template.  This field
+   * is never {@code null}.
+   */
+  private final List<Initializer> initializers;
+
+  /**
+   * A suffix, unique to this {@link TemplateDatabase}, for the names
+   * of the databases it creates.  This field is never {@code null}.
+   */
+  private final String id;
+
+  /**
+   * The number of clones created so far.
+   */
+  private final AtomicInteger clones;
+
+  /**
+   * Ensures that only one test at a time uses the template under the
+   * {@link Strategy#ROLLBACK} strategy.
+   */
+  private final Semaphore rollbackPermit;
+
+  /**
+   * The user to connect as.
+   */
+  private String user;
+
+  /**
+   * The password to connect with.
+   */
+  private String password;
+
+  /**
+   * The requested {@link Strategy}.
+   */
+  private Strategy strategy;
+
+  /**
+   * The {@link Strategy} in effect once the template has been built,
+   * or {@code null} if it has not been built yet.
+   */
+  private Strategy effectiveStrategy;
+
+  /**
+   * The shared connection used by the {@link Strategy#ROLLBACK}
+   * strategy, or {@code null}.
+   */
+  private Connection rollbackConnection;
+
+  /**
+   * Whether a shutdown hook that {@linkplain #close() closes} this
+   * {@link TemplateDatabase} has been registered.
+   */
+  private boolean shutdownHookRegistered;
+
+  /**
+   * Creates a new {@link TemplateDatabase} from the {@code
+   * h2.jdbc.url} and {@code h2.baseDir} system properties.
+   *
+   * @exception IllegalStateException if the {@code h2.jdbc.url} system
+   * property is not set
+   */
+  public TemplateDatabase() {
+    this(jdbcUrlProperty(), System.getProperty("h2.baseDir"));
+  }
+
+  /**
+   * Creates a new {@link TemplateDatabase}.
+   *
+   * @param jdbcUrl the JDBC URL of a database served by an H2 TCP
+   * server, as published by the {@code spawn} goal; must not be
+   * {@code null}
+   *
+   * @param baseDirectory the server's base directory, possibly
+   * prefixed with a file system, as published by the {@code spawn}
+   * goal; may be {@code null} in which case databases cannot be
+   * {@linkplain Strategy#CLONE cloned}
+   *
+   * @exception IllegalArgumentException if {@code jdbcUrl} is {@code
+   * null} or is not the URL of a database served by an H2 TCP server
+   */
+  public TemplateDatabase(final String jdbcUrl, final String baseDirectory) {
+    super();
+    if (jdbcUrl == null) {
+      throw new IllegalArgumentException("jdbcUrl", new NullPointerException("jdbcUrl"));
+    }
+    final int authority = jdbcUrl.indexOf("://");
+    final int slash = authority < 0 ? -1 : jdbcUrl.indexOf('/', authority + 3);
+    if (!jdbcUrl.startsWith("jdbc:h2:") || slash < 0) {
+      throw new IllegalArgumentException("jdbcUrl: " + jdbcUrl);
+    }
+    this.serverUrl = jdbcUrl.substring(0, slash + 1);
+    final String path = jdbcUrl.substring(slash + 1);
+    final int semicolon = path.indexOf(';');
+    this.database = semicolon < 0 ? path : path.substring(0, semicolon);
+    this.settings = semicolon < 0 ? "" : path.substring(semicolon);
+    this.baseDirectory = baseDirectory == null || baseDirectory.trim().isEmpty() ? null : baseDirectory.trim();
+    this.scripts = new ArrayList<String>();
+    this.initializers = new ArrayList<Initializer>();
+    this.id = UUID.randomUUID().toString().substring(0, 8);
+    this.clones = new AtomicInteger();
+    this.rollbackPermit = new Semaphore(1, true);
+    this.user = "sa";
+    this.password = "";
+    this.strategy = Strategy.AUTO;
+  }
+
+  /**
+   * Returns the {@link TemplateDatabase} shared by every test in this
+   * JVM that does not supply its own, creating it on first use from
+   * the {@code h2.jdbc.url} and {@code h2.baseDir} system properties
+   * and populating it with the comma-separated scripts named by the
+   * {@code h2.template.scripts} system property, if it is set.
+   *
+   * @return the default {@link TemplateDatabase}; never {@code null}
+   *
+   * @exception IllegalStateException if the {@code h2.jdbc.url} system
+   * property is not set
+   */
+  public static synchronized TemplateDatabase getDefault() {
+    if (defaultTemplate == null) {
+      final TemplateDatabase template = new TemplateDatabase();
+      final String scripts = System.getProperty("h2.template.scripts");
+      if (scripts != null) {
+        for (final String script : scripts.split(",")) {
+          if (!script.trim().isEmpty()) {
+            template.addScript(script.trim());
+          }
+        }
+      }
+      defaultTemplate = template;
+    }
+    return defaultTemplate;
+  }
+
+  /**
+   * Returns the value of the {@code h2.jdbc.url} system property.
+   *
+   * @return the value of the {@code h2.jdbc.url} system property;
+   * never {@code null}
+   *
+   * @exception IllegalStateException if the property is not set
+   */
+  private static final String jdbcUrlProperty() {
+    final String jdbcUrl = System.getProperty("h2.jdbc.url");
+    if (jdbcUrl == null) {
+      throw new IllegalStateException("The h2.jdbc.url system property is not set; set it to ${h2.jdbc.url} in the configuration of the plugin that runs the tests");
+    }
+    return jdbcUrl;
+  }
+
+  /**
+   * Adds a script that populates the template.  Scripts run in the
+   * order in which they were added, before any {@link Initializer}s.
+   *
+   * @param script the name of a classpath resource or, failing that,
+   * the path of a file; must not be {@code null}
+   *
+   * @return this {@link TemplateDatabase}; never {@code null}
+   */
+  public TemplateDatabase addScript(final String script) {
+    if (script == null) {
+      throw new IllegalArgumentException("script", new NullPointerException("script"));
+    }
+    synchronized (this) {
+      this.scripts.add(script);
+    }
+    return this;
+  }
+
+  /**
+   * Adds an {@link Initializer} that populates the template.
+   * {@link Initializer}s run in the order in which they were added,
+   * after any scripts.
+   *
+   * @param initializer the {@link Initializer}; must not be {@code
+   * null}
+   *
+   * @return this {@link TemplateDatabase}; never {@code null}
+   */
+  public TemplateDatabase addInitializer(final Initializer initializer) {
+    if (initializer == null) {
+      throw new IllegalArgumentException("initializer", new NullPointerException("initializer"));
+    }
+    synchronized (this) {
+      this.initializers.add(initializer);
+    }
+    return this;
+  }
+
+  /**
+   * Returns the user to connect as.  This method never returns
+   * {@code null}.
+   *
+   * @return the user; never {@code null}
+   */
+  public synchronized String getUser() {
+    return this.user;
+  }
+
+  /**
+   * Sets the user to connect as.
+   *
+   * @param user the user; if {@code null} then {@code sa} will be used
+   * instead
+   */
+  public synchronized void setUser(final String user) {
+    this.user = user == null ? "sa" : user;
+  }
+
+  /**
+   * Returns the password to connect with.  This method never returns
+   * {@code null}.
+   *
+   * @return the password; never {@code null}
+   */
+  public synchronized String getPassword() {
+    return this.password;
+  }
+
+  /**
+   * Sets the password to connect with.
+   *
+   * @param password the password; if {@code null} then the empty
+   * string will be used instead
+   */
+  public synchronized void setPassword(final String password) {
+    this.password = password == null ? "" : password;
+  }
+
+  /**
+   * Returns the {@link Strategy} in effect, or, if the template has
+   * not been built yet, the requested {@link Strategy}.  This method
+   * never returns {@code null}.
+   *
+   * @return the {@link Strategy}; never {@code null}
+   */
+  public synchronized Strategy getStrategy() {
+    return this.effectiveStrategy == null ? this.strategy : this.effectiveStrategy;
+  }
+
+  /**
+   * Sets the {@link Strategy}.
+   *
+   * @param strategy the {@link Strategy}; if {@code null} then {@link
+   * Strategy#AUTO} will be used instead
+   *
+   * @exception IllegalStateException if the template has already been
+   * built
+   */
+  public synchronized void setStrategy(final Strategy strategy) {
+    if (this.effectiveStrategy != null) {
+      throw new IllegalStateException("The template has already been built");
+    }
+    this.strategy = strategy == null ? Strategy.AUTO : strategy;
+  }
+
+  /**
+   * Returns the JDBC URL of the template.  This method never returns
+   * {@code null}.
+   *
+   * @return the JDBC URL of the template; never {@code null}
+   */
+  public String getJdbcUrl() {
+    return this.getJdbcUrl(this.getTemplateName());
+  }
+
+  /**
+   * Returns a new {@link IsolatedDatabase} with the contents of the
+   * template, first building the template if necessary.  The {@link
+   * IsolatedDatabase} must be {@linkplain IsolatedDatabase#close()
+   * closed} once the test is done with it.
+   *
+   * <p>Under the {@link Strategy#ROLLBACK} strategy, this method
+   * blocks until any other {@link IsolatedDatabase} has been
+   * closed.</p>
+   *
+   * @return a new {@link IsolatedDatabase}; never {@code null}
+   *
+   * @exception SQLException if the template could not be built or
+   * cloned
+   */
+  public IsolatedDatabase acquire() throws SQLException {
+    final Strategy strategy = this.build();
+    if (strategy == Strategy.ROLLBACK) {
+      this.rollbackPermit.acquireUninterruptibly();
+      final Connection connection;
+      synchronized (this) {
+        connection = this.rollbackConnection;
+      }
+      if (connection == null) {
+        this.rollbackPermit.release();
+        throw new SQLException("The template has been closed");
+      }
+      return new IsolatedDatabase(this, this.getJdbcUrl(), connection);
+    }
+    final String name = String.format("%s-%s-%d", this.database, this.id, this.clones.incrementAndGet());
+    try {
+      copyDatabase(this.getDatabaseFile(this.getTemplateName()), this.getDatabaseFile(name));
+    } catch (final IOException kaboom) {
+      throw new SQLException(String.format("Could not clone %s as %s", this.getTemplateName(), name), kaboom);
+    }
+    return new IsolatedDatabase(this, this.getJdbcUrl(name), null);
+  }
+
+  /**
+   * Releases the supplied {@link IsolatedDatabase}, once all of its
+   * connections have been closed, by deleting it or by rolling back
+   * its work.
+   *
+   * @param database the {@link IsolatedDatabase}; must not be {@code
+   * null}
+   *
+   * @param connection the shared connection under the {@link
+   * Strategy#ROLLBACK} strategy, or {@code null} for a clone
+   *
+   * @exception SQLException if the {@link IsolatedDatabase} could not
+   * be released
+   */
+  final void release(final IsolatedDatabase database, final Connection connection) throws SQLException {
+    if (connection != null) {
+      try {
+        connection.rollback();
+      } finally {
+        this.rollbackPermit.release();
+      }
+    } else {
+      this.delete(database.getJdbcUrl());
+    }
+  }
+
+  /**
+   * Builds the template, if it has not been built yet, and returns
+   * the {@link Strategy} in effect.
+   *
+   * @return the {@link Strategy} in effect; never {@code null}
+   *
+   * @exception SQLException if the template could not be built
+   */
+  private final synchronized Strategy build() throws SQLException {
+    if (this.effectiveStrategy != null) {
+      return this.effectiveStrategy;
+    }
+    Strategy strategy = this.strategy;
+    if (strategy == Strategy.AUTO) {
+      strategy = this.getDatabaseFile(this.getTemplateName()) == null ? Strategy.ROLLBACK : Strategy.CLONE;
+    } else if (strategy == Strategy.CLONE && this.getDatabaseFile(this.getTemplateName()) == null) {
+      throw new SQLException(String.format("Cannot clone %s: the server's base directory (%s) is not a local directory", this.getJdbcUrl(), this.baseDirectory));
+    }
+    final Connection connection = DriverManager.getConnection(this.getJdbcUrl(), this.user, this.password);
+    boolean built = false;
+    try {
+      connection.setAutoCommit(false);
+      for (final String script : this.scripts) {
+        final Reader reader = openScript(script);
+        try {
+          RunScript.execute(connection, reader);
+        } finally {
+          try {
+            reader.close();
+          } catch (final IOException ignore) {
+            // ignore
+          }
+        }
+      }
+      for (final Initializer initializer : this.initializers) {
+        initializer.initialize(connection);
+      }
+      connection.commit();
+      if (strategy == Strategy.CLONE) {
+        // Close the template, even if the JDBC URL sets a close
+        // delay, so that its files may be copied safely.
+        final Statement statement = connection.createStatement();
+        statement.execute("SHUTDOWN");
+        statement.close();
+      }
+      built = true;
+    } finally {
+      if (!built || strategy == Strategy.CLONE) {
+        close(connection);
+      }
+      if (!built) {
+        // Don't let a half-built template be built upon next time.
+        try {
+          this.delete(this.getJdbcUrl());
+        } catch (final SQLException ignore) {
+          // ignore; report the original problem
+        }
+      }
+    }
+    if (strategy == Strategy.ROLLBACK) {
+      this.rollbackConnection = connection;
+    }
+    this.effectiveStrategy = strategy;
+    if (!this.shutdownHookRegistered) {
+      Runtime.getRuntime().addShutdownHook(new Thread("H2 template cleanup") {
+          @Override
+          public final void run() {
+            try {
+              TemplateDatabase.this.close();
+            } catch (final SQLException ignore) {
+              // ignore; the server may already have stopped
+            }
+          }
+        });
+      this.shutdownHookRegistered = true;
+    }
+    return strategy;
+  }
+
+  /**
+   * Deletes the template.  It will be built again if another {@link
+   * IsolatedDatabase} is {@linkplain #acquire() acquired}.  This
+   * method is called automatically when the JVM exits.
+   *
+   * @exception SQLException if the template could not be deleted
+   */
+  public synchronized void close() throws SQLException {
+    if (this.effectiveStrategy == null) {
+      return;
+    }
+    final Connection connection = this.rollbackConnection;
+    this.rollbackConnection = null;
+    this.effectiveStrategy = null;
+    if (connection != null) {
+      try {
+        connection.rollback();
+      } finally {
+        connection.close();
+      }
+    }
+    this.delete(this.getJdbcUrl());
+  }
+
+  /**
+   * Deletes the database with the supplied JDBC URL, closing any
+   * connections to it.
+   *
+   * @param jdbcUrl the JDBC URL; must not be {@code null}
+   *
+   * @exception SQLException if the database could not be deleted
+   */
+  private final void delete(final String jdbcUrl) throws SQLException {
+    final Connection connection = DriverManager.getConnection(jdbcUrl, this.getUser(), this.getPassword());
+    try {
+      final Statement statement = connection.createStatement();
+      statement.execute("DROP ALL OBJECTS DELETE FILES");
+      statement.close();
+    } finally {
+      connection.close();
+    }
+  }
+
+  /**
+   * Returns the name of the template database.
+   *
+   * @return the name of the template database; never {@code null}
+   */
+  private final String getTemplateName() {
+    return String.format("%s-template-%s", this.database, this.id);
+  }
+
+  /**
+   * Returns the JDBC URL of the database with the supplied name.
+   *
+   * @param name the name; must not be {@code null}
+   *
+   * @return the JDBC URL; never {@code null}
+   */
+  private final String getJdbcUrl(final String name) {
+    return this.serverUrl + name + this.settings;
+  }
+
+  /**
+   * Returns the path, without any suffix, of the files of the database
+   * with the supplied name, or {@code null} if the database cannot be
+   * reached by the file system of this JVM.
+   *
+   * @param name the name; must not be {@code null}
+   *
+   * @return the path of the database's files, or {@code null}
+   */
+  private final File getDatabaseFile(final String name) {
+    if (this.baseDirectory == null || name.indexOf(':') >= 0 || name.startsWith("~")) {
+      return null;
+    }
+    String directory = this.baseDirectory;
+    final int colon = directory.indexOf(':');
+    // A single-letter prefix is a Windows drive, not a file system.
+    if (colon > 1) {
+      if (!FILE_SYSTEMS.contains(directory.substring(0, colon))) {
+        return null;
+      }
+      directory = directory.substring(colon + 1);
+    }
+    if (!new File(directory).isDirectory()) {
+      return null;
+    }
+    return new File(directory, name);
+  }
+
+  /**
+   * Closes the supplied {@link Connection}, ignoring any {@link
+   * SQLException}.
+   *
+   * @param connection the {@link Connection}; must not be {@code null}
+   */
+  private static final void close(final Connection connection) {
+    try {
+      connection.close();
+    } catch (final SQLException ignore) {
+      // ignore
+    }
+  }
+
+  /**
+   * Opens the supplied script.
+   *
+   * @param script the name of a classpath resource or, failing that,
+   * the path of a file; must not be {@code null}
+   *
+   * @return a {@link Reader}; never {@code null}
+   *
+   * @exception SQLException if the script could not be found
+   */
+  private static final Reader openScript(final String script) throws SQLException {
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    if (classLoader == null) {
+      classLoader = TemplateDatabase.class.getClassLoader();
+    }
+    InputStream stream = classLoader.getResourceAsStream(script.startsWith("/") ? script.substring(1) : script);
+    try {
+      if (stream == null) {
+        stream = new FileInputStream(script);
+      }
+      return new InputStreamReader(stream, "UTF-8");
+    } catch (final IOException kaboom) {
+      throw new SQLException("Could not read " + script, kaboom);
+    }
+  }
+
+  /**
+   * Copies the files of the database at the supplied path to the
+   * other supplied path.
+   *
+   * @param source the path, without any suffix, of the files to copy;
+   * must not be {@code null}
+   *
+   * @param target the path, without any suffix, of the copies; must
+   * not be {@code null}
+   *
+   * @exception IOException if the files could not be copied
+   */
+  private static final void copyDatabase(final File source, final File target) throws IOException {
+    final File[] files = source.getParentFile().listFiles();
+    if (files == null) {
+      throw new IOException("Could not list " + source.getParentFile());
+    }
+    final String prefix = source.getName() + ".";
+    boolean copied = false;
+    for (final File file : files) {
+      final String name = file.getName();
+      if (name.startsWith(prefix) && !isTransient(name)) {
+        copy(file, new File(target.getParentFile(), target.getName() + name.substring(source.getName().length())));
+        copied = true;
+      }
+    }
+    if (!copied) {
+      throw new IOException("No database files found for " + source);
+    }
+  }
+
+  /**
+   * Returns {@code true} if the file with the supplied name must not
+   * be cloned.
+   *
+   * @param name the file name; must not be {@code null}
+   *
+   * @return {@code true} if the file must not be cloned
+   */
+  private static final boolean isTransient(final String name) {
+    for (final String suffix : TRANSIENT_SUFFIXES) {
+      if (name.endsWith(suffix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Copies the supplied file or directory.
+   *
+   * @param source the file or directory to copy; must not be {@code
+   * null}
+   *
+   * @param target the copy; must not be {@code null}
+   *
+   * @exception IOException if the file could not be copied
+   */
+  private static final void copy(final File source, final File target) throws IOException {
+    final File[] children = source.listFiles();
+    if (children != null) {
+      if (!target.isDirectory() && !target.mkdirs()) {
+        throw new IOException("Could not create " + target);
+      }
+      for (final File child : children) {
+        copy(child, new File(target, child.getName()));
+      }
+      return;
+    }
+    final FileChannel in = new FileInputStream(source).getChannel();
+    try {
+      final FileChannel out = new FileOutputStream(target).getChannel();
+      try {
+        // transferTo() lets the operating system copy the file
+        // without it passing through the Java heap.
+        final long size = in.size();
+        long position = 0L;
+        while (position < size) {
+          position += in.transferTo(position, size - position, out);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+}
@@ -0,0 +1,289 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.test;
+
+import java.io.File;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.tools.Server;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A <a href="http://junit.org/junit5/">JUnit 5</a> test suite that
+ * exercises the {@link IsolatedDatabaseExtension} class, under both
+ * {@linkplain TemplateDatabase.Strategy strategies}, against a server
+ * started in-process.
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class TestCaseIsolatedDatabaseExtension {
+
+  /**
+   * The H2 TCP server.  This field may be {@code null}.  It is
+   * initialized by the {@link #startServer()} method.
+   */
+  private static Server server;
+
+  /**
+   * A {@link TemplateDatabase} using the {@link
+   * TemplateDatabase.Strategy#CLONE CLONE} strategy.
+   */
+  private static TemplateDatabase clones;
+
+  /**
+   * A {@link TemplateDatabase} using the {@link
+   * TemplateDatabase.Strategy#ROLLBACK ROLLBACK} strategy.
+   */
+  private static TemplateDatabase rollbacks;
+
+  /**
+   * Creates a new {@link TestCaseIsolatedDatabaseExtension}.
+   */
+  public TestCaseIsolatedDatabaseExtension() {
+    super();
+  }
+
+  /**
+   * Starts an H2 TCP server in-process on an automatically chosen
+   * port, and creates the {@link TemplateDatabase}s.
+   *
+   * @exception Exception if an error occurs
+   */
+  @BeforeAll
+  public static void startServer() throws Exception {
+    final File baseDirectory = new File(System.getProperty("project.build.directory", "target"), "isolated-database-extension-test");
+    baseDirectory.mkdirs();
+    server = Server.createTcpServer("-tcpPort", "0", "-baseDir", baseDirectory.getAbsolutePath()).start();
+    final String jdbcUrl = String.format("jdbc:h2:tcp://localhost:%d/test", server.getPort());
+    clones = new TemplateDatabase(jdbcUrl, baseDirectory.getAbsolutePath()).addScript("com/edugility/h2/test/schema.sql");
+    rollbacks = new TemplateDatabase(jdbcUrl, baseDirectory.getAbsolutePath()).addScript("com/edugility/h2/test/schema.sql");
+    rollbacks.setStrategy(TemplateDatabase.Strategy.ROLLBACK);
+  }
+
+  /**
+   * Deletes the templates and stops the server.
+   *
+   * @exception Exception if an error occurs
+   */
+  @AfterAll
+  public static void stopServer() throws Exception {
+    clones.close();
+    rollbacks.close();
+    server.stop();
+  }
+
+  /**
+   * Inserts a row, committing where that is possible, and ensures
+   * that only the template's row and the new one are present.
+   *
+   * @param connection the {@link Connection} to use; must not be
+   * {@code null}
+   *
+   * @exception SQLException if an error occurs
+   */
+  private static final void insertAndCount(final Connection connection) throws SQLException {
+    final Statement statement = connection.createStatement();
+    // Fails with a duplicate key if another test's row survived.
+    statement.execute("INSERT INTO PERSON VALUES (2, 'Test')");
+    connection.commit();
+    final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM PERSON");
+    assertTrue(resultSet.next());
+    assertEquals(2, resultSet.getInt(1));
+    resultSet.close();
+    statement.close();
+  }
+
+  /**
+   * Tests under the {@link TemplateDatabase.Strategy#CLONE CLONE}
+   * strategy.
+   */
+  @Nested
+  public class Clone {
+
+    /**
+     * The {@link IsolatedDatabaseExtension} cloning databases.
+     */
+    @RegisterExtension
+    public final IsolatedDatabaseExtension extension = new IsolatedDatabaseExtension(clones);
+
+    /**
+     * Creates a new {@link Clone}.
+     */
+    public Clone() {
+      super();
+    }
+
+    /**
+     * Ensures that parameters of both supported types are resolved to
+     * a private copy of the template.
+     *
+     * @param database the current {@link IsolatedDatabase}
+     *
+     * @param connection a {@link Connection} to {@code database}
+     *
+     * @exception Exception if an error occurs
+     */
+    @Test
+    public void testParameters(final IsolatedDatabase database, final Connection connection) throws Exception {
+      assertEquals(TemplateDatabase.Strategy.CLONE, clones.getStrategy());
+      assertNotEquals(clones.getJdbcUrl(), database.getJdbcUrl());
+      assertEquals(database.getJdbcUrl(), connection.getMetaData().getURL());
+    }
+
+    /**
+     * Changes the database; see {@link #testIsolationTwo(Connection)}.
+     *
+     * @param connection a {@link Connection} to the current {@link
+     * IsolatedDatabase}
+     *
+     * @exception Exception if an error occurs
+     */
+    @Test
+    public void testIsolationOne(final Connection connection) throws Exception {
+      insertAndCount(connection);
+    }
+
+    /**
+     * Makes the same changes as {@link #testIsolationOne(Connection)},
+     * which succeed only if that test's changes are not visible.
+     *
+     * @param connection a {@link Connection} to the current {@link
+     * IsolatedDatabase}
+     *
+     * @exception Exception if an error occurs
+     */
+    @Test
+    public void testIsolationTwo(final Connection connection) throws Exception {
+      insertAndCount(connection);
+    }
+
+  }
+
+  /**
+   * Tests under the {@link TemplateDatabase.Strategy#ROLLBACK
+   * ROLLBACK} strategy.
+   */
+  @Nested
+  public class Rollback {
+
+    /**
+     * The {@link IsolatedDatabaseExtension} rolling back databases.
+     */
+    @RegisterExtension
+    public final IsolatedDatabaseExtension extension = new IsolatedDatabaseExtension(rollbacks);
+
+    /**
+     * Creates a new {@link Rollback}.
+     */
+    public Rollback() {
+      super();
+    }
+
+    /**
+     * Ensures that parameters of both supported types are resolved to
+     * the template itself.
+     *
+     * @param database the current {@link IsolatedDatabase}
+     *
+     * @param connection a {@link Connection} to {@code database}
+     *
+     * @exception Exception if an error occurs
+     */
+    @Test
+    public void testParameters(final IsolatedDatabase database, final Connection connection) throws Exception {
+      assertEquals(TemplateDatabase.Strategy.ROLLBACK, rollbacks.getStrategy());
+      assertEquals(rollbacks.getJdbcUrl(), database.getJdbcUrl());
+      assertFalse(connection.getAutoCommit());
+    }
+
+    /**
+     * Changes the database; see {@link #testIsolationTwo(Connection)}.
+     *
+     * @param connection a {@link Connection} to the current {@link
+     * IsolatedDatabase}
+     *
+     * @exception Exception if an error occurs
+     */
+    @Test
+    public void testIsolationOne(final Connection connection) throws Exception {
+      insertAndCount(connection);
+    }
+
+    /**
+     * Makes the same changes as {@link #testIsolationOne(Connection)},
+     * which succeed only if that test's changes are not visible.
+     *
+     * @param connection a {@link Connection} to the current {@link
+     * IsolatedDatabase}
+     *
+     * @exception Exception if an error occurs
+     */
+    @Test
+    public void testIsolationTwo(final Connection connection) throws Exception {
+      insertAndCount(connection);
+    }
+
+    /**
+     * Ensures that a data definition statement, which H2 would
+     * commit, fails the test instead of leaking into later ones.
+     *
+     * @param connection a {@link Connection} to the current {@link
+     * IsolatedDatabase}
+     *
+     * @exception Exception if an error occurs
+     */
+    @Test
+    public void testDataDefinition(final Connection connection) throws Exception {
+      final Statement statement = connection.createStatement();
+      try {
+        statement.executeUpdate("DROP TABLE PERSON");
+        fail();
+      } catch (final SQLException expected) {
+        // expected
+      }
+      statement.close();
+      insertAndCount(connection);
+    }
+
+  }
+
+}
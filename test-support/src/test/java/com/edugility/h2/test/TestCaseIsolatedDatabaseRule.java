@@ -0,0 +1,222 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2011-2012 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.h2.test;
+
+import java.io.File;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.tools.Server;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * A <a href="http://www.junit.org/">JUnit</a> test suite that
+ * exercises the {@link IsolatedDatabaseRule} class, under both
+ * {@linkplain TemplateDatabase.Strategy strategies}, against a server
+ * started in-process.
+ *
+ * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
+ *
+ * @since 1.1-SNAPSHOT
+ */
+public class TestCaseIsolatedDatabaseRule {
+
+  /**
+   * The H2 TCP server.  This field may be {@code null}.  It is
+   * initialized by the {@link #startServer()} method.
+   */
+  private static Server server;
+
+  /**
+   * A {@link TemplateDatabase} using the {@link
+   * TemplateDatabase.Strategy#CLONE CLONE} strategy.
+   */
+  private static TemplateDatabase clones;
+
+  /**
+   * A {@link TemplateDatabase} using the {@link
+   * TemplateDatabase.Strategy#ROLLBACK ROLLBACK} strategy.
+   */
+  private static TemplateDatabase rollbacks;
+
+  /**
+   * The {@link IsolatedDatabaseRule} cloning databases.
+   */
+  @Rule
+  public final IsolatedDatabaseRule clone = new IsolatedDatabaseRule(clones);
+
+  /**
+   * The {@link IsolatedDatabaseRule} rolling back databases.
+   */
+  @Rule
+  public final IsolatedDatabaseRule rollback = new IsolatedDatabaseRule(rollbacks);
+
+  /**
+   * Creates a new {@link TestCaseIsolatedDatabaseRule}.
+   */
+  public TestCaseIsolatedDatabaseRule() {
+    super();
+  }
+
+  /**
+   * Starts an H2 TCP server in-process on an automatically chosen
+   * port, and creates the {@link TemplateDatabase}s.
+   *
+   * @exception Exception if an error occurs
+   */
+  @BeforeClass
+  public static void startServer() throws Exception {
+    final File baseDirectory = new File(System.getProperty("project.build.directory", "target"), "isolated-database-test");
+    baseDirectory.mkdirs();
+    server = Server.createTcpServer("-tcpPort", "0", "-baseDir", baseDirectory.getAbsolutePath()).start();
+    final String jdbcUrl = String.format("jdbc:h2:tcp://localhost:%d/test", server.getPort());
+    clones = new TemplateDatabase(jdbcUrl, baseDirectory.getAbsolutePath()).addScript("com/edugility/h2/test/schema.sql");
+    rollbacks = new TemplateDatabase(jdbcUrl, baseDirectory.getAbsolutePath()).addScript("com/edugility/h2/test/schema.sql");
+    rollbacks.setStrategy(TemplateDatabase.Strategy.ROLLBACK);
+  }
+
+  /**
+   * Deletes the templates and stops the server.
+   *
+   * @exception Exception if an error occurs
+   */
+  @AfterClass
+  public static void stopServer() throws Exception {
+    clones.close();
+    rollbacks.close();
+    server.stop();
+  }
+
+  /**
+   * Ensures that the strategies are in effect.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testStrategies() throws Exception {
+    assertEquals(TemplateDatabase.Strategy.CLONE, clones.getStrategy());
+    assertEquals(TemplateDatabase.Strategy.ROLLBACK, rollbacks.getStrategy());
+    assertFalse(this.clone.getJdbcUrl().equals(clones.getJdbcUrl()));
+    assertEquals(rollbacks.getJdbcUrl(), this.rollback.getJdbcUrl());
+  }
+
+  /**
+   * Changes both databases; see {@link #insertAndCount()}.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testIsolationOne() throws Exception {
+    this.insertAndCount();
+  }
+
+  /**
+   * Makes the same changes as {@link #testIsolationOne()}, which
+   * succeed only if that test's changes are not visible.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testIsolationTwo() throws Exception {
+    this.insertAndCount();
+  }
+
+  /**
+   * Ensures that data definition statements, which H2 would commit,
+   * are refused under the {@link TemplateDatabase.Strategy#ROLLBACK
+   * ROLLBACK} strategy and allowed under the {@link
+   * TemplateDatabase.Strategy#CLONE CLONE} strategy.
+   *
+   * @exception Exception if an error occurs
+   */
+  @Test
+  public void testDataDefinition() throws Exception {
+    final Connection connection = this.rollback.getConnection();
+    final Statement statement = connection.createStatement();
+    try {
+      statement.execute("CREATE TABLE LEAK(ID INT)");
+      fail();
+    } catch (final SQLException expected) {
+      assertTrue(expected.getMessage().contains("CLONE"));
+    }
+    try {
+      statement.addBatch("-- no\n truncate table PERSON");
+      fail();
+    } catch (final SQLException expected) {
+      // expected
+    }
+    try {
+      connection.prepareStatement("/* no */ DROP TABLE PERSON");
+      fail();
+    } catch (final SQLException expected) {
+      // expected
+    }
+    final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'LEAK'");
+    assertTrue(resultSet.next());
+    assertEquals(0, resultSet.getInt(1));
+    resultSet.close();
+    statement.close();
+
+    final Statement cloneStatement = this.clone.getConnection().createStatement();
+    cloneStatement.execute("CREATE TABLE LEAK(ID INT)");
+    cloneStatement.close();
+  }
+
+  /**
+   * Inserts a row into each database, committing where that is
+   * possible, and ensures that only the template's row and the new one
+   * are present.
+   *
+   * @exception SQLException if an error occurs
+   */
+  private final void insertAndCount() throws SQLException {
+    for (final IsolatedDatabaseRule database : new IsolatedDatabaseRule[] { this.clone, this.rollback }) {
+      final Connection connection = database.getConnection();
+      final Statement statement = connection.createStatement();
+      // Fails with a duplicate key if another test's row survived.
+      statement.execute("INSERT INTO PERSON VALUES (2, 'Test')");
+      connection.commit();
+      final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM PERSON");
+      assertTrue(resultSet.next());
+      assertEquals(2, resultSet.getInt(1));
+      resultSet.close();
+      statement.close();
+      connection.close();
+    }
+  }
+
+}
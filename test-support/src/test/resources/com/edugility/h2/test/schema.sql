@@ -0,0 +1,2 @@
+CREATE TABLE PERSON(ID INT PRIMARY KEY, NAME VARCHAR(100));
+INSERT INTO PERSON VALUES (1, 'Template');